@@ -55,8 +55,10 @@ dependencies {
     implementation("io.quarkus:quarkus-arc")
     implementation("io.quarkus:quarkus-smallrye-health")
     implementation("io.quarkus:quarkus-cache")
+    implementation("io.quarkus:quarkus-micrometer-registry-prometheus")
 
     testImplementation("io.quarkus:quarkus-junit5")
+    testImplementation("io.quarkus:quarkus-junit5-mockito")
     testImplementation("io.quarkus:quarkus-test-security")
     testImplementation("io.rest-assured:rest-assured")
     testImplementation("org.testcontainers:testcontainers:${testcontainersVersion}")
@@ -64,6 +66,40 @@ dependencies {
     testImplementation("org.testcontainers:junit-jupiter:${testcontainersVersion}")
 }
 
+// Streams a multipart ML session larger than the heap; fails if any layer buffers it.
+tasks.register<Test>("uploadHeapTest") {
+    group = "verification"
+    description = "Run the upload-heap tagged tests under a small heap."
+    val testSourceSet = the<SourceSetContainer>()["test"]
+    testClassesDirs = testSourceSet.output.classesDirs
+    classpath = testSourceSet.runtimeClasspath
+    maxHeapSize = "256m"
+    useJUnitPlatform {
+        includeTags("upload-heap")
+    }
+}
+
+// The photo pipeline load harness is not part of the regular suite.
+tasks.test {
+    useJUnitPlatform {
+        excludeTags("load")
+    }
+}
+
+tasks.register<Test>("loadTest") {
+    group = "verification"
+    description = "Run the load tagged tests; size them with -Ddemeter.load.* properties."
+    val testSourceSet = the<SourceSetContainer>()["test"]
+    testClassesDirs = testSourceSet.output.classesDirs
+    classpath = testSourceSet.runtimeClasspath
+    System.getProperties().stringPropertyNames()
+        .filter { it.startsWith("demeter.load.") }
+        .forEach { systemProperty(it, System.getProperty(it)) }
+    useJUnitPlatform {
+        includeTags("load")
+    }
+}
+
 tasks.register("printDemeterModules") {
     group = "help"
     description = "Print the modules selected for demeter-app."
@@ -16,6 +16,7 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.jboss.logging.Logger;
 
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -24,7 +25,8 @@ import java.util.UUID;
  *
  * <p>Provides optimized endpoints for loading warehouse map data:
  * <ul>
- *   <li>Bulk load - entire hierarchy with preview metrics in one call</li>
+ *   <li>Bulk load - entire hierarchy (or a warehouse/area/bbox slice) with preview metrics in one call</li>
+ *   <li>Lazy expand - warehouses first, then areas and locations on demand</li>
  *   <li>Location detail - detailed view of a single location</li>
  *   <li>Location history - paginated photo history</li>
  *   <li>Presigned URLs - batch URL generation for lazy image loading</li>
@@ -48,25 +50,128 @@ public class MapController {
      * warehouses, areas, and locations with aggregated metrics from the
      * latest photo processing sessions.
      *
-     * <p>Results are cached per tenant with a 5-minute TTL for performance.
+     * <p>For very large tenants the load can be narrowed to a warehouse, an
+     * area and/or a bounding box over warehouse coordinates (all four bounds
+     * required). Each scope is cached independently.
      *
-     * @return Complete map hierarchy with preview metrics
+     * <p>Results are cached per tenant and refreshed in the background once stale.
+     *
+     * @return Complete (or scoped) map hierarchy with preview metrics
      */
     @GET
     @Path("/bulk-load")
     @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
     @Operation(
             summary = "Bulk load map data",
-            description = "Load the complete warehouse hierarchy with location preview metrics for map visualization"
+            description = "Load the warehouse hierarchy with location preview metrics for map visualization, " +
+                    "optionally limited to a warehouse, area or bounding box"
     )
     @APIResponse(
             responseCode = "200",
             description = "Map data loaded successfully",
             content = @Content(schema = @Schema(implementation = MapBulkLoadResponse.class))
     )
-    public MapBulkLoadResponse bulkLoad() {
-        log.info("Map bulk load requested");
-        return mapViewService.getBulkLoad();
+    @APIResponse(
+            responseCode = "400",
+            description = "Incomplete or inverted bounding box"
+    )
+    public MapBulkLoadResponse bulkLoad(
+            @Parameter(description = "Only this warehouse")
+            @QueryParam("warehouseId") UUID warehouseId,
+
+            @Parameter(description = "Only this storage area")
+            @QueryParam("areaId") UUID areaId,
+
+            @Parameter(description = "Bounding box south edge (warehouse latitude)")
+            @QueryParam("minLat") Double minLat,
+
+            @Parameter(description = "Bounding box north edge (warehouse latitude)")
+            @QueryParam("maxLat") Double maxLat,
+
+            @Parameter(description = "Bounding box west edge (warehouse longitude)")
+            @QueryParam("minLng") Double minLng,
+
+            @Parameter(description = "Bounding box east edge (warehouse longitude)")
+            @QueryParam("maxLng") Double maxLng
+    ) {
+        MapScope scope = MapScope.of(warehouseId, areaId, minLat, maxLat, minLng, maxLng);
+        log.infof("Map bulk load requested (scope=%s)", scope.isAll() ? "all" : scope.cacheKey());
+        return mapViewService.getBulkLoad(scope);
+    }
+
+    /**
+     * List warehouses without their areas, for a fast first paint.
+     *
+     * <p>Expand a warehouse with {@code /warehouses/{id}/areas}.
+     *
+     * @return Warehouse nodes with empty area lists
+     */
+    @GET
+    @Path("/warehouses")
+    @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
+    @Operation(
+            summary = "List map warehouses",
+            description = "List warehouses (optionally within a bounding box) without areas; expand on demand"
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Warehouses listed"
+    )
+    public List<WarehouseNode> listWarehouses(
+            @QueryParam("minLat") Double minLat,
+            @QueryParam("maxLat") Double maxLat,
+            @QueryParam("minLng") Double minLng,
+            @QueryParam("maxLng") Double maxLng
+    ) {
+        return mapViewService.getWarehouses(MapScope.of(null, null, minLat, maxLat, minLng, maxLng));
+    }
+
+    /**
+     * Expand a warehouse: its areas with locations and preview metrics.
+     *
+     * @param warehouseId Warehouse UUID
+     * @return Area nodes of the warehouse
+     */
+    @GET
+    @Path("/warehouses/{warehouseId}/areas")
+    @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
+    @Operation(
+            summary = "Expand warehouse",
+            description = "Load the areas of a warehouse with location preview metrics"
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Areas loaded"
+    )
+    public List<AreaNode> expandWarehouse(
+            @Parameter(description = "Warehouse UUID", required = true)
+            @PathParam("warehouseId") UUID warehouseId
+    ) {
+        return mapViewService.getWarehouseAreas(warehouseId);
+    }
+
+    /**
+     * Expand an area: its locations with preview metrics.
+     *
+     * @param areaId Storage area UUID
+     * @return Location nodes of the area
+     */
+    @GET
+    @Path("/areas/{areaId}/locations")
+    @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
+    @Operation(
+            summary = "Expand area",
+            description = "Load the locations of a storage area with preview metrics"
+    )
+    @APIResponse(
+            responseCode = "200",
+            description = "Locations loaded"
+    )
+    public List<LocationNode> expandArea(
+            @Parameter(description = "Storage area UUID", required = true)
+            @PathParam("areaId") UUID areaId
+    ) {
+        return mapViewService.getAreaLocations(areaId);
     }
 
     /**
@@ -109,10 +214,16 @@ public class MapController {
      * quantity data. Supports lazy loading by default - set includeUrls=true
      * to get presigned thumbnail URLs in the response.
      *
-     * @param locationId Storage location UUID
-     * @param page       Page number (1-indexed, default 1)
-     * @param perPage    Items per page (default 12, max 50)
-     * @param includeUrls Whether to include presigned URLs (default false for lazy loading)
+     * <p>For deep scrolling, pass the {@code nextCursor} of the previous page as
+     * {@code cursor}: pages are then seeked by (created_at, id) instead of
+     * skipped with OFFSET. Set includeTotal=false to skip the total count.
+     *
+     * @param locationId   Storage location UUID
+     * @param page         Page number (1-indexed, default 1; ignored with a cursor)
+     * @param perPage      Items per page (default 12, max 50)
+     * @param cursor       Keyset cursor from the previous page
+     * @param includeUrls  Whether to include presigned URLs (default false for lazy loading)
+     * @param includeTotal Whether to include the total count (default true)
      * @return Paginated history response
      */
     @GET
@@ -127,6 +238,10 @@ public class MapController {
             description = "Location history retrieved",
             content = @Content(schema = @Schema(implementation = LocationHistoryResponse.class))
     )
+    @APIResponse(
+            responseCode = "400",
+            description = "Invalid cursor"
+    )
     @APIResponse(
             responseCode = "404",
             description = "Location not found"
@@ -141,8 +256,14 @@ public class MapController {
             @Parameter(description = "Items per page (max 50)")
             @QueryParam("perPage") @DefaultValue("12") int perPage,
 
+            @Parameter(description = "Cursor from the previous page (nextCursor)")
+            @QueryParam("cursor") String cursor,
+
             @Parameter(description = "Include presigned URLs (false for lazy loading)")
-            @QueryParam("includeUrls") @DefaultValue("false") boolean includeUrls
+            @QueryParam("includeUrls") @DefaultValue("false") boolean includeUrls,
+
+            @Parameter(description = "Include the total count (extra query)")
+            @QueryParam("includeTotal") @DefaultValue("true") boolean includeTotal
     ) {
         // Validate pagination params
         if (page < 1) page = 1;
@@ -150,7 +271,7 @@ public class MapController {
         if (perPage > 50) perPage = 50;
 
         log.infof("Location history requested: %s (page=%d, perPage=%d)", locationId, page, perPage);
-        return mapViewService.getLocationHistory(locationId, page, perPage, includeUrls);
+        return mapViewService.getLocationHistory(locationId, page, perPage, cursor, includeUrls, includeTotal);
     }
 
     /**
@@ -184,8 +305,9 @@ public class MapController {
     /**
      * Invalidate the map cache (admin only).
      *
-     * <p>Forces a refresh of the cached map data. Normally the cache is
-     * invalidated automatically when photo processing completes.
+     * <p>Forces a refresh of the cached map data on all instances. Normally
+     * the cache is invalidated automatically when photo processing completes
+     * or the storage hierarchy changes.
      */
     @POST
     @Path("/cache/invalidate")
@@ -0,0 +1,46 @@
+package com.fortytwo.demeter.app.map.dto;
+
+import jakarta.ws.rs.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Keyset cursor for location history: the {@code (created_at, id)} of the last
+ * session on the previous page.
+ *
+ * <p>Exposed to clients as an opaque URL-safe Base64 string.
+ */
+public record HistoryCursor(Instant createdAt, UUID sessionId) {
+
+    public String encode() {
+        String raw = createdAt.toString() + "|" + sessionId;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor produced by {@link #encode()}.
+     *
+     * @param cursor Opaque cursor string (null or blank for the first page)
+     * @return Decoded cursor, or null if none was given
+     * @throws BadRequestException if the cursor is malformed
+     */
+    public static HistoryCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            return new HistoryCursor(
+                    Instant.parse(raw.substring(0, sep)),
+                    UUID.fromString(raw.substring(sep + 1))
+            );
+        } catch (RuntimeException e) {
+            throw new BadRequestException("Invalid history cursor");
+        }
+    }
+}
@@ -4,9 +4,11 @@ import java.time.Instant;
 
 /**
  * Summary statistics for location history.
+ *
+ * <p>{@code totalPeriods} is null when the total count was not requested.
  */
 public record HistorySummary(
-        int totalPeriods,
+        Integer totalPeriods,
         Instant earliestDate,
         Instant latestDate
 ) {}
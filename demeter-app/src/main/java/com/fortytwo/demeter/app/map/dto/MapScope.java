@@ -0,0 +1,96 @@
+package com.fortytwo.demeter.app.map.dto;
+
+import jakarta.ws.rs.BadRequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Subset of a tenant's map to load: a warehouse, an area and/or a bounding
+ * box over warehouse coordinates. All fields null means the whole map.
+ */
+public record MapScope(
+        UUID warehouseId,
+        UUID areaId,
+        Double minLat,
+        Double maxLat,
+        Double minLng,
+        Double maxLng
+) {
+    private static final MapScope ALL = new MapScope(null, null, null, null, null, null);
+
+    public static MapScope all() {
+        return ALL;
+    }
+
+    public static MapScope warehouse(UUID warehouseId) {
+        return new MapScope(warehouseId, null, null, null, null, null);
+    }
+
+    public static MapScope area(UUID areaId) {
+        return new MapScope(null, areaId, null, null, null, null);
+    }
+
+    /**
+     * Build a scope from request parameters.
+     *
+     * @throws BadRequestException if the bounding box is partial or inverted
+     */
+    public static MapScope of(UUID warehouseId, UUID areaId,
+                              Double minLat, Double maxLat, Double minLng, Double maxLng) {
+        int bboxParams = (minLat != null ? 1 : 0) + (maxLat != null ? 1 : 0)
+                + (minLng != null ? 1 : 0) + (maxLng != null ? 1 : 0);
+        if (bboxParams != 0 && bboxParams != 4) {
+            throw new BadRequestException("Bounding box requires minLat, maxLat, minLng and maxLng");
+        }
+        if (bboxParams == 4 && (minLat > maxLat || minLng > maxLng)) {
+            throw new BadRequestException("Bounding box minimums must not exceed maximums");
+        }
+        return new MapScope(warehouseId, areaId, minLat, maxLat, minLng, maxLng);
+    }
+
+    public boolean hasBoundingBox() {
+        return minLat != null;
+    }
+
+    /**
+     * This scope with its bounding box widened to whole cells of a
+     * {@code gridDegrees} grid, so nearby viewports share one cache entry and
+     * one query. The result is a superset of the requested box.
+     */
+    public MapScope snapToGrid(double gridDegrees) {
+        if (!hasBoundingBox() || gridDegrees <= 0) {
+            return this;
+        }
+        return new MapScope(warehouseId, areaId,
+                Math.floor(minLat / gridDegrees) * gridDegrees,
+                Math.ceil(maxLat / gridDegrees) * gridDegrees,
+                Math.floor(minLng / gridDegrees) * gridDegrees,
+                Math.ceil(maxLng / gridDegrees) * gridDegrees);
+    }
+
+    public boolean isAll() {
+        return warehouseId == null && areaId == null && !hasBoundingBox();
+    }
+
+    /**
+     * Cache key discriminator for this scope, or null for the whole map.
+     */
+    public String cacheKey() {
+        if (isAll()) {
+            return null;
+        }
+        List<String> parts = new ArrayList<>();
+        if (warehouseId != null) {
+            parts.add("w=" + warehouseId);
+        }
+        if (areaId != null) {
+            parts.add("a=" + areaId);
+        }
+        if (hasBoundingBox()) {
+            parts.add("bbox=" + minLat + "," + maxLat + "," + minLng + "," + maxLng);
+        }
+        return String.join(";", parts);
+    }
+}
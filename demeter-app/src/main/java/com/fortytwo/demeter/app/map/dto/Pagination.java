@@ -2,15 +2,28 @@ package com.fortytwo.demeter.app.map.dto;
 
 /**
  * Pagination metadata for paginated responses.
+ *
+ * <p>{@code totalPages}/{@code totalItems} are null when the total count was
+ * not requested. {@code nextCursor} is the opaque keyset cursor for the next
+ * page, or null on the last page.
  */
 public record Pagination(
         int page,
         int perPage,
-        int totalPages,
-        int totalItems
+        Integer totalPages,
+        Integer totalItems,
+        String nextCursor,
+        boolean hasMore
 ) {
     public static Pagination of(int page, int perPage, int totalItems) {
-        int totalPages = totalItems == 0 ? 1 : (int) Math.ceil((double) totalItems / perPage);
-        return new Pagination(page, perPage, totalPages, totalItems);
+        return of(page, perPage, totalItems, null);
+    }
+
+    public static Pagination of(int page, int perPage, Integer totalItems, String nextCursor) {
+        Integer totalPages = null;
+        if (totalItems != null) {
+            totalPages = totalItems == 0 ? 1 : (int) Math.ceil((double) totalItems / perPage);
+        }
+        return new Pagination(page, perPage, totalPages, totalItems, nextCursor, nextCursor != null);
     }
 }
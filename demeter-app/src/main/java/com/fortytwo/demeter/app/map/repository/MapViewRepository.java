@@ -1,5 +1,6 @@
 package com.fortytwo.demeter.app.map.repository;
 
+import com.fortytwo.demeter.app.map.dto.MapScope;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
@@ -17,6 +18,9 @@ import java.util.UUID;
  *
  * <p>Uses PostgreSQL CTEs to efficiently load the entire warehouse hierarchy
  * with location metrics in a single query, avoiding N+1 problems.
+ *
+ * <p>Counts are {@code estimated_count}, or the rounded {@code value} of
+ * estimations that only carry a value (those posted by the ML callback).
  */
 @ApplicationScoped
 public class MapViewRepository {
@@ -34,17 +38,29 @@ public class MapViewRepository {
      *
      * <p>The query uses CTEs to:
      * <ol>
+     *   <li>Restrict to the locations inside the requested {@link MapScope}</li>
      *   <li>Find the latest 2 sessions per location for current/previous comparison</li>
      *   <li>Aggregate estimation counts by product family for category breakdown</li>
      *   <li>Join everything with the location hierarchy</li>
      * </ol>
      *
+     * @param scope Warehouse/area/bounding-box filter ({@link MapScope#all()} for everything)
      * @return List of BulkLoadRow records with all data
      */
     @SuppressWarnings("unchecked")
-    public List<BulkLoadRow> getBulkLoadData() {
+    public List<BulkLoadRow> getBulkLoadData(MapScope scope) {
         String sql = """
-            WITH latest_sessions AS (
+            WITH scoped_locations AS (
+                -- Active locations inside the requested scope
+                SELECT sl.id as location_id
+                FROM warehouses w
+                JOIN storage_areas sa ON sa.warehouse_id = w.id AND sa.active = true
+                JOIN storage_locations sl ON sl.area_id = sa.id AND sl.active = true
+                WHERE w.tenant_id = current_setting('app.current_tenant')
+                  AND w.active = true
+                  {scopeFilter}
+            ),
+            latest_sessions AS (
                 -- Get the 2 most recent COMPLETED sessions per location
                 SELECT
                     ps.storage_location_id,
@@ -58,6 +74,7 @@ public class MapViewRepository {
                 FROM photo_processing_sessions ps
                 WHERE ps.tenant_id = current_setting('app.current_tenant')
                   AND ps.status = 'COMPLETED'
+                  AND ps.storage_location_id IN (SELECT location_id FROM scoped_locations)
             ),
             session_estimations AS (
                 -- Get total estimated count per session (type = 'COUNT')
@@ -66,7 +83,7 @@ public class MapViewRepository {
                     ls.session_id,
                     ls.created_at,
                     ls.rn,
-                    COALESCE(SUM(e.estimated_count), 0) as total_count,
+                    COALESCE(SUM(COALESCE(e.estimated_count, ROUND(e.value))), 0) as total_count,
                     MAX(e.confidence) as avg_confidence
                 FROM latest_sessions ls
                 LEFT JOIN estimations e ON e.session_id = ls.session_id
@@ -78,10 +95,10 @@ public class MapViewRepository {
                 -- Get counts by product family for latest session only
                 SELECT
                     ls.storage_location_id,
-                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%cactus%' THEN e.estimated_count ELSE 0 END), 0) as total_cactus,
-                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%suculenta%' THEN e.estimated_count ELSE 0 END), 0) as total_suculentas,
-                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%injerto%' THEN e.estimated_count ELSE 0 END), 0) as total_injertos,
-                    COALESCE(SUM(CASE WHEN e.estimation_type = 'EMPTY_CONTAINER' THEN e.estimated_count ELSE 0 END), 0) as total_empty
+                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%cactus%' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_cactus,
+                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%suculenta%' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_suculentas,
+                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%injerto%' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_injertos,
+                    COALESCE(SUM(CASE WHEN e.estimation_type = 'EMPTY_CONTAINER' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_empty
                 FROM latest_sessions ls
                 LEFT JOIN estimations e ON e.session_id = ls.session_id
                 LEFT JOIN classifications c ON c.id = e.classification_id
@@ -136,14 +153,17 @@ public class MapViewRepository {
             LEFT JOIN category_counts cc ON cc.storage_location_id = sl.id
             WHERE w.tenant_id = current_setting('app.current_tenant')
               AND w.active = true
+              {scopeFilter}
             ORDER BY w.code, sa.code, sl.code
-            """;
+            """.replace("{scopeFilter}", scopeFilter(scope));
 
         Query query = em.createNativeQuery(sql);
+        bindScope(query, scope);
 
         List<Object[]> results = query.getResultList();
 
-        log.infof("Bulk load query returned %d rows", results.size());
+        log.infof("Bulk load query returned %d rows (scope=%s)", results.size(),
+                scope.isAll() ? "all" : scope.cacheKey());
 
         return results.stream()
                 .map(this::mapToBulkLoadRow)
@@ -177,8 +197,8 @@ public class MapViewRepository {
                     ls.session_id,
                     ls.status,
                     ls.created_at,
-                    COALESCE(SUM(e.estimated_count), 0) as total_detected,
-                    COALESCE(SUM(CASE WHEN e.estimation_type = 'EMPTY_CONTAINER' THEN e.estimated_count ELSE 0 END), 0) as total_empty,
+                    COALESCE(SUM(COALESCE(e.estimated_count, ROUND(e.value))), 0) as total_detected,
+                    COALESCE(SUM(CASE WHEN e.estimation_type = 'EMPTY_CONTAINER' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_empty,
                     AVG(e.confidence) as avg_confidence
                 FROM latest_session ls
                 LEFT JOIN estimations e ON e.session_id = ls.session_id
@@ -186,9 +206,9 @@ public class MapViewRepository {
             ),
             category_counts AS (
                 SELECT
-                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%cactus%' THEN e.estimated_count ELSE 0 END), 0) as total_cactus,
-                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%suculenta%' THEN e.estimated_count ELSE 0 END), 0) as total_suculentas,
-                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%injerto%' THEN e.estimated_count ELSE 0 END), 0) as total_injertos
+                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%cactus%' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_cactus,
+                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%suculenta%' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_suculentas,
+                    COALESCE(SUM(CASE WHEN pf.name ILIKE '%injerto%' THEN COALESCE(e.estimated_count, ROUND(e.value)) ELSE 0 END), 0) as total_injertos
                 FROM latest_session ls
                 LEFT JOIN estimations e ON e.session_id = ls.session_id
                 LEFT JOIN classifications c ON c.id = e.classification_id
@@ -235,38 +255,107 @@ public class MapViewRepository {
     }
 
     /**
-     * Get paginated photo history for a location.
+     * Look up only the identifying fields of a location.
+     *
+     * <p>Used where just the name/code is needed (e.g. history headers), so the
+     * full {@link #getLocationDetail(UUID)} aggregation is not executed.
      *
      * @param locationId Storage location UUID
-     * @param page       Page number (1-indexed)
-     * @param perPage    Items per page
+     * @return LocationInfoRow or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public LocationInfoRow findLocationInfo(UUID locationId) {
+        String sql = """
+            SELECT sl.id, sl.code, sl.name
+            FROM storage_locations sl
+            WHERE sl.id = :locationId
+              AND sl.tenant_id = current_setting('app.current_tenant')
+            """;
+
+        List<Object[]> results = em.createNativeQuery(sql)
+                .setParameter("locationId", locationId)
+                .getResultList();
+
+        if (results.isEmpty()) {
+            return null;
+        }
+
+        Object[] row = results.get(0);
+        return new LocationInfoRow(toUUID(row[0]), toString(row[1]), toString(row[2]));
+    }
+
+    /**
+     * Get a page of photo history for a location, newest first.
+     *
+     * <p>Sessions are ordered by {@code (created_at DESC, id DESC)}. With a cursor,
+     * the page starts strictly after it (keyset pagination, served by
+     * {@code idx_sessions_location_history}); without one, {@code offset} rows are
+     * skipped instead. The per-session count is a correlated sum over the
+     * covering estimation index, and the thumbnail comes from a
+     * {@code LATERAL ... LIMIT 1}, so each session yields exactly one row.
+     * The thumbnail is the first image's that has one; if none has, the row
+     * carries the first image without one, whose thumbnail is still to be
+     * generated.
+     *
+     * @param locationId  Storage location UUID
+     * @param afterCreated Cursor creation time (exclusive), or null for the first page
+     * @param afterId     Cursor session ID (tie-breaker), or null for the first page
+     * @param offset      Rows to skip when no cursor is given
+     * @param limit       Maximum rows to return
      * @return List of LocationHistoryRow records
      */
     @SuppressWarnings("unchecked")
-    public List<LocationHistoryRow> getLocationHistory(UUID locationId, int page, int perPage) {
-        int offset = (page - 1) * perPage;
+    public List<LocationHistoryRow> getLocationHistory(
+            UUID locationId,
+            Instant afterCreated,
+            UUID afterId,
+            int offset,
+            int limit
+    ) {
+        boolean keyset = afterCreated != null && afterId != null;
 
         String sql = """
             SELECT
                 ps.created_at as fecha,
                 ps.id as session_id,
-                COALESCE(SUM(e.estimated_count), 0) as cantidad_final,
-                i.thumbnail_url as photo_storage_key
+                (
+                    SELECT COALESCE(SUM(COALESCE(e.estimated_count, ROUND(e.value))), 0)
+                    FROM estimations e
+                    WHERE e.session_id = ps.id
+                      AND e.estimation_type = 'COUNT'
+                ) as cantidad_final,
+                thumb.thumbnail_url as photo_storage_key,
+                thumb.id as photo_image_id
             FROM photo_processing_sessions ps
-            LEFT JOIN estimations e ON e.session_id = ps.id AND e.estimation_type = 'COUNT'
-            LEFT JOIN images i ON i.session_id = ps.id
-            WHERE ps.storage_location_id = :locationId
-              AND ps.tenant_id = current_setting('app.current_tenant')
+            LEFT JOIN LATERAL (
+                SELECT i.id, i.thumbnail_url
+                FROM images i
+                WHERE i.session_id = ps.id
+                  AND (i.thumbnail_url IS NOT NULL OR i.derivatives_error IS NULL)
+                ORDER BY i.thumbnail_url IS NULL, i.created_at, i.id
+                LIMIT 1
+            ) thumb ON true
+            WHERE ps.tenant_id = current_setting('app.current_tenant')
+              AND ps.storage_location_id = :locationId
               AND ps.status = 'COMPLETED'
-            GROUP BY ps.id, ps.created_at, i.thumbnail_url
-            ORDER BY ps.created_at DESC
-            LIMIT :limit OFFSET :offset
-            """;
+            """
+                + (keyset ? "  AND (ps.created_at, ps.id) < (:afterCreated, :afterId)\n" : "")
+                + """
+            ORDER BY ps.created_at DESC, ps.id DESC
+            LIMIT :limit
+            """
+                + (keyset ? "" : "OFFSET :offset\n");
 
         Query query = em.createNativeQuery(sql)
                 .setParameter("locationId", locationId)
-                .setParameter("limit", perPage)
-                .setParameter("offset", offset);
+                .setParameter("limit", limit);
+
+        if (keyset) {
+            query.setParameter("afterCreated", Timestamp.from(afterCreated))
+                    .setParameter("afterId", afterId);
+        } else {
+            query.setParameter("offset", offset);
+        }
 
         List<Object[]> results = query.getResultList();
 
@@ -297,6 +386,73 @@ public class MapViewRepository {
         return count.intValue();
     }
 
+    /**
+     * List active warehouses (no areas or metrics) for the first map paint.
+     *
+     * @param scope Only the bounding box is applied
+     * @return List of WarehouseRow records ordered by code
+     */
+    @SuppressWarnings("unchecked")
+    public List<WarehouseRow> getWarehouses(MapScope scope) {
+        MapScope bbox = new MapScope(null, null, scope.minLat(), scope.maxLat(), scope.minLng(), scope.maxLng());
+
+        String sql = """
+            SELECT w.id, w.code, w.name
+            FROM warehouses w
+            WHERE w.tenant_id = current_setting('app.current_tenant')
+              AND w.active = true
+              {scopeFilter}
+            ORDER BY w.code
+            """.replace("{scopeFilter}", scopeFilter(bbox));
+
+        Query query = em.createNativeQuery(sql);
+        bindScope(query, bbox);
+
+        List<Object[]> results = query.getResultList();
+
+        return results.stream()
+                .map(row -> new WarehouseRow(toUUID(row[0]), toString(row[1]), toString(row[2])))
+                .toList();
+    }
+
+    // =========================================================================
+    // Scope filtering
+    // =========================================================================
+
+    /**
+     * SQL conditions for a scope, over aliases {@code w} (warehouses) and
+     * {@code sa} (storage_areas).
+     */
+    private String scopeFilter(MapScope scope) {
+        StringBuilder filter = new StringBuilder();
+        if (scope.warehouseId() != null) {
+            filter.append(" AND w.id = :warehouseId");
+        }
+        if (scope.areaId() != null) {
+            filter.append(" AND sa.id = :areaId");
+        }
+        if (scope.hasBoundingBox()) {
+            filter.append(" AND w.latitude BETWEEN :minLat AND :maxLat")
+                    .append(" AND w.longitude BETWEEN :minLng AND :maxLng");
+        }
+        return filter.toString();
+    }
+
+    private void bindScope(Query query, MapScope scope) {
+        if (scope.warehouseId() != null) {
+            query.setParameter("warehouseId", scope.warehouseId());
+        }
+        if (scope.areaId() != null) {
+            query.setParameter("areaId", scope.areaId());
+        }
+        if (scope.hasBoundingBox()) {
+            query.setParameter("minLat", BigDecimal.valueOf(scope.minLat()))
+                    .setParameter("maxLat", BigDecimal.valueOf(scope.maxLat()))
+                    .setParameter("minLng", BigDecimal.valueOf(scope.minLng()))
+                    .setParameter("maxLng", BigDecimal.valueOf(scope.maxLng()));
+        }
+    }
+
     // =========================================================================
     // Row mapping helpers
     // =========================================================================
@@ -350,7 +506,8 @@ public class MapViewRepository {
                 toInstant(row[0]),  // fecha
                 toUUID(row[1]),     // session_id
                 toInteger(row[2]),  // cantidad_final
-                toString(row[3])     // photo_storage_key
+                toString(row[3]),   // photo_storage_key
+                toUUID(row[4])      // photo_image_id
         );
     }
 
@@ -431,10 +588,23 @@ public class MapViewRepository {
             Integer totalInjertos
     ) {}
 
+    public record WarehouseRow(
+            UUID warehouseId,
+            String warehouseCode,
+            String warehouseName
+    ) {}
+
+    public record LocationInfoRow(
+            UUID locationId,
+            String locationCode,
+            String locationName
+    ) {}
+
     public record LocationHistoryRow(
             Instant fecha,
             UUID sessionId,
             Integer cantidadFinal,
-            String photoStorageKey
+            String photoStorageKey,
+            UUID photoImageId
     ) {}
 }
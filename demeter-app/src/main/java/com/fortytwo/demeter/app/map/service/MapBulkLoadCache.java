@@ -0,0 +1,167 @@
+package com.fortytwo.demeter.app.map.service;
+
+import com.fortytwo.demeter.app.map.dto.MapBulkLoadResponse;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.cache.CaffeineCache;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Per-tenant cache for the map bulk-load response.
+ *
+ * <p>Each tenant can have several entries: the full hierarchy plus one per
+ * requested scope (warehouse, area or bounding box). Keys are
+ * {@code <tenant>} for the full map and {@code <tenant>|<scope>} for slices;
+ * invalidating a tenant drops all of them.
+ *
+ * <p>Backed by the Caffeine cache {@code map-bulk-load} through the programmatic
+ * Quarkus Cache API, so caching does not depend on interceptors being applied
+ * to self-invocations inside {@link MapViewService}.
+ *
+ * <ul>
+ *   <li><b>Single-flight</b> - concurrent misses for the same tenant share one load;
+ *       only the first caller runs the query, the rest wait for its result.</li>
+ *   <li><b>Refresh-ahead</b> - once an entry is older than
+ *       {@code demeter.map.cache.refresh-after-seconds} it is still served, and a
+ *       single background refresh is started on a virtual thread
+ *       (stale-while-revalidate). The Caffeine {@code expire-after-write} acts as
+ *       the hard upper bound on staleness.</li>
+ * </ul>
+ *
+ * <p>Invalidation bumps the tenant's epoch so a refresh that started before
+ * the invalidation cannot write its (now outdated) result back into the
+ * cache. Epochs are per tenant: writes of one tenant do not discard the
+ * refreshes of others.
+ */
+@ApplicationScoped
+public class MapBulkLoadCache {
+
+    private static final Logger log = Logger.getLogger(MapBulkLoadCache.class);
+    private static final String SCOPE_SEPARATOR = "|";
+
+    @Inject
+    @CacheName("map-bulk-load")
+    Cache cache;
+
+    @Inject
+    TenantScope tenantScope;
+
+    @ConfigProperty(name = "demeter.map.cache.refresh-after-seconds", defaultValue = "300")
+    long refreshAfterSeconds;
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, AtomicLong> epochs = new ConcurrentHashMap<>();
+
+    /**
+     * Cached value together with the time it was loaded.
+     */
+    record Entry(MapBulkLoadResponse response, Instant loadedAt) {}
+
+    /**
+     * Get the full bulk-load response for a tenant, loading it on a miss.
+     *
+     * @param tenantId Tenant ID (cache key)
+     * @param loader   Loads a fresh response; must be safe to call with only
+     *                 the tenant context set (it may run on a background thread)
+     * @return Cached or freshly loaded response
+     */
+    public MapBulkLoadResponse get(String tenantId, Supplier<MapBulkLoadResponse> loader) {
+        return get(tenantId, null, loader);
+    }
+
+    /**
+     * Get a bulk-load response for one scope of a tenant's map.
+     *
+     * @param tenantId Tenant ID
+     * @param scopeKey Scope discriminator, or null for the full map
+     * @param loader   Loads a fresh response for that scope (see {@link #get(String, Supplier)})
+     * @return Cached or freshly loaded response
+     */
+    public MapBulkLoadResponse get(String tenantId, String scopeKey, Supplier<MapBulkLoadResponse> loader) {
+        String key = scopeKey == null ? tenantId : tenantId + SCOPE_SEPARATOR + scopeKey;
+        Entry entry = cache.get(key, k -> load(k, loader))
+                .await().indefinitely();
+
+        if (isStale(entry)) {
+            refreshAsync(tenantId, key, loader);
+        }
+
+        return entry.response();
+    }
+
+    /**
+     * Evict every entry (full map and all scopes) of a single tenant.
+     */
+    public void invalidate(String tenantId) {
+        epoch(tenantId).incrementAndGet();
+        String scopePrefix = tenantId + SCOPE_SEPARATOR;
+        for (Object key : cache.as(CaffeineCache.class).keySet()) {
+            String cacheKey = (String) key;
+            if (cacheKey.equals(tenantId) || cacheKey.startsWith(scopePrefix)) {
+                cache.invalidate(cacheKey).await().indefinitely();
+            }
+        }
+        log.debugf("Map bulk-load cache invalidated for tenant: %s", tenantId);
+    }
+
+    /**
+     * Evict every tenant's entry.
+     */
+    public void invalidateAll() {
+        // Every in-flight refresh registered its tenant's epoch
+        epochs.values().forEach(AtomicLong::incrementAndGet);
+        cache.invalidateAll().await().indefinitely();
+        log.debug("Map bulk-load cache fully invalidated");
+    }
+
+    private AtomicLong epoch(String tenantId) {
+        return epochs.computeIfAbsent(tenantId, t -> new AtomicLong());
+    }
+
+    private Entry load(String key, Supplier<MapBulkLoadResponse> loader) {
+        log.infof("Map bulk-load cache miss for key: %s", key);
+        return new Entry(loader.get(), Instant.now());
+    }
+
+    private boolean isStale(Entry entry) {
+        return Duration.between(entry.loadedAt(), Instant.now()).getSeconds() >= refreshAfterSeconds;
+    }
+
+    private void refreshAsync(String tenantId, String key, Supplier<MapBulkLoadResponse> loader) {
+        // Only one refresh per key at a time
+        if (!refreshing.add(key)) {
+            return;
+        }
+
+        AtomicLong epoch = epoch(tenantId);
+        long startEpoch = epoch.get();
+
+        Thread.ofVirtual().name("map-cache-refresh-" + key).start(() -> {
+            try {
+                Entry fresh = tenantScope.call(tenantId, () -> load(key, loader));
+                if (epoch.get() == startEpoch) {
+                    cache.as(CaffeineCache.class).put(key, CompletableFuture.completedFuture(fresh));
+                    log.debugf("Map bulk-load cache refreshed for key: %s", key);
+                } else {
+                    log.debugf("Discarding map refresh for key %s - invalidated meanwhile", key);
+                }
+            } catch (Exception e) {
+                log.warnf("Background map refresh failed for key %s: %s", key, e.getMessage());
+            } finally {
+                refreshing.remove(key);
+            }
+        });
+    }
+}
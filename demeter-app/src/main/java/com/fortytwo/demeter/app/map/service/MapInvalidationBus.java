@@ -0,0 +1,236 @@
+package com.fortytwo.demeter.app.map.service;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cross-instance invalidation of the map bulk-load cache using PostgreSQL
+ * {@code LISTEN/NOTIFY} on the {@value #CHANNEL} channel.
+ *
+ * <p><b>Publishing:</b> {@link #publish(String)} issues
+ * {@code NOTIFY map_invalidation, '<tenant>'}. When called inside a JTA
+ * transaction the pooled connection is the transaction's own, so the
+ * notification is only delivered if the transaction commits. Writes to the
+ * storage hierarchy and session status changes also notify through database
+ * triggers (see V19 migration), so modules that cannot call this bean are
+ * covered too.
+ *
+ * <p><b>Listening:</b> each instance holds one dedicated JDBC connection
+ * (outside the Agroal pool) that {@code LISTEN}s on the channel and evicts the
+ * tenant named in each payload ({@value #ALL_TENANTS} evicts everything). If
+ * the connection drops, it is re-established with exponential backoff and
+ * jitter; since notifications sent while disconnected are lost, the whole
+ * cache is flushed after every reconnect.
+ */
+@ApplicationScoped
+public class MapInvalidationBus {
+
+    private static final Logger log = Logger.getLogger(MapInvalidationBus.class);
+
+    static final String CHANNEL = "map_invalidation";
+    static final String ALL_TENANTS = "*";
+    private static final String APPLICATION_NAME = "demeter-map-invalidation";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    MapBulkLoadCache bulkLoadCache;
+
+    @ConfigProperty(name = "demeter.map.invalidation.listen-enabled", defaultValue = "true")
+    boolean listenEnabled;
+
+    @ConfigProperty(name = "demeter.map.invalidation.poll-timeout-ms", defaultValue = "5000")
+    int pollTimeoutMs;
+
+    @ConfigProperty(name = "demeter.map.invalidation.initial-backoff-ms", defaultValue = "500")
+    long initialBackoffMs;
+
+    @ConfigProperty(name = "demeter.map.invalidation.max-backoff-ms", defaultValue = "60000")
+    long maxBackoffMs;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.url")
+    Optional<String> jdbcUrl;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    Optional<String> username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    Optional<String> password;
+
+    private volatile boolean running;
+    private volatile boolean listening;
+    private volatile Connection listenConnection;
+    private final AtomicLong reconnects = new AtomicLong();
+    private Thread listenerThread;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!listenEnabled) {
+            log.info("Map invalidation listener disabled - cache invalidation is local only");
+            return;
+        }
+        if (jdbcUrl.isEmpty()) {
+            log.warn("No datasource JDBC URL configured - map invalidation listener not started");
+            return;
+        }
+
+        running = true;
+        listenerThread = Thread.ofVirtual()
+                .name("map-invalidation-listener")
+                .start(this::listenLoop);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        closeQuietly(listenConnection);
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    /**
+     * Notify every instance (including this one) to evict a tenant's map cache.
+     *
+     * @param tenantId Tenant to evict, or {@value #ALL_TENANTS} for all tenants
+     */
+    public void publish(String tenantId) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            stmt.setString(1, CHANNEL);
+            stmt.setString(2, tenantId);
+            stmt.execute();
+            log.debugf("Published map invalidation for tenant: %s", tenantId);
+        } catch (SQLException e) {
+            // Local eviction already happened; other instances converge via refresh-ahead
+            log.warnf("Failed to publish map invalidation for tenant %s: %s", tenantId, e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the dedicated LISTEN connection is currently established.
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * Number of times the LISTEN connection has been re-established after a loss.
+     */
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    private void listenLoop() {
+        long backoffMs = initialBackoffMs;
+        boolean connectedBefore = false;
+
+        while (running) {
+            try (Connection connection = openListenConnection()) {
+                listenConnection = connection;
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+
+                if (connectedBefore) {
+                    reconnects.incrementAndGet();
+                    log.warn("Map invalidation listener reconnected - flushing map cache (notifications may have been missed)");
+                    bulkLoadCache.invalidateAll();
+                } else {
+                    log.infof("Map invalidation listener started on channel '%s'", CHANNEL);
+                }
+                connectedBefore = true;
+                listening = true;
+                backoffMs = initialBackoffMs;
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                    if (notifications != null && notifications.length > 0) {
+                        for (PGNotification notification : notifications) {
+                            handle(notification.getParameter());
+                        }
+                    } else if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                        throw new SQLException("LISTEN connection is no longer valid");
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                log.warnf("Map invalidation listener connection lost: %s (retrying in %d ms)",
+                        e.getMessage(), backoffMs);
+            } finally {
+                listening = false;
+                listenConnection = null;
+            }
+
+            if (!sleepWithJitter(backoffMs)) {
+                break;
+            }
+            backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+        }
+
+        log.info("Map invalidation listener stopped");
+    }
+
+    private void handle(String payload) {
+        if (payload == null || payload.isBlank() || ALL_TENANTS.equals(payload)) {
+            bulkLoadCache.invalidateAll();
+        } else {
+            bulkLoadCache.invalidate(payload);
+        }
+    }
+
+    private Connection openListenConnection() throws SQLException {
+        Properties props = new Properties();
+        username.ifPresent(u -> props.setProperty("user", u));
+        password.ifPresent(p -> props.setProperty("password", p));
+        props.setProperty("ApplicationName", APPLICATION_NAME);
+        props.setProperty("tcpKeepAlive", "true");
+
+        Connection connection = DriverManager.getConnection(jdbcUrl.orElseThrow(), props);
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    private boolean sleepWithJitter(long backoffMs) {
+        long jitter = ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+        try {
+            Thread.sleep(backoffMs / 2 + jitter);
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Shutting down
+        }
+    }
+}
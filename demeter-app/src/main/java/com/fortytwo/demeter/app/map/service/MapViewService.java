@@ -5,11 +5,11 @@ import com.fortytwo.demeter.app.map.repository.MapViewRepository;
 import com.fortytwo.demeter.app.map.repository.MapViewRepository.BulkLoadRow;
 import com.fortytwo.demeter.app.map.repository.MapViewRepository.LocationDetailRow;
 import com.fortytwo.demeter.app.map.repository.MapViewRepository.LocationHistoryRow;
+import com.fortytwo.demeter.app.map.repository.MapViewRepository.LocationInfoRow;
 import com.fortytwo.demeter.common.exception.EntityNotFoundException;
 import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.fotos.service.ImageDerivativeService;
 import com.fortytwo.demeter.fotos.storage.StorageService;
-import io.quarkus.cache.CacheInvalidate;
-import io.quarkus.cache.CacheResult;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -31,6 +31,7 @@ import java.util.stream.Collectors;
 public class MapViewService {
 
     private static final Logger log = Logger.getLogger(MapViewService.class);
+    private static final String DEFAULT_CACHE_KEY = "__default__";
 
     @Inject
     MapViewRepository repository;
@@ -38,36 +39,107 @@ public class MapViewService {
     @Inject
     StorageService storageService;
 
+    @Inject
+    ImageDerivativeService imageDerivativeService;
+
     @Inject
     TenantContext tenantContext;
 
+    @Inject
+    MapBulkLoadCache bulkLoadCache;
+
+    @Inject
+    MapInvalidationBus invalidationBus;
+
     @ConfigProperty(name = "demeter.map.url-expiration-minutes", defaultValue = "15")
     int urlExpirationMinutes;
 
+    @ConfigProperty(name = "demeter.map.cache.bbox-grid-degrees", defaultValue = "0.05")
+    double bboxGridDegrees;
+
     /**
      * Get bulk load data for the map view.
      *
      * <p>Returns the complete warehouse hierarchy with location preview metrics.
-     * Results are cached per tenant with a 5-minute TTL.
+     * Results are cached per tenant by {@link MapBulkLoadCache}, which refreshes
+     * stale entries in the background instead of blocking on expiry.
      *
      * @return MapBulkLoadResponse with nested warehouse/area/location hierarchy
      */
     public MapBulkLoadResponse getBulkLoad() {
+        return getBulkLoad(MapScope.all());
+    }
+
+    /**
+     * Get bulk load data for a subset of the map.
+     *
+     * <p>The filter is pushed down into the query, and each scope is cached
+     * under its own key so slices are loaded and refreshed independently.
+     * Bounding boxes are first widened to a grid
+     * ({@code demeter.map.cache.bbox-grid-degrees}): panning and zooming
+     * within the same cells reuses one entry instead of re-running the query.
+     *
+     * @param scope Warehouse/area/bounding-box filter
+     * @return MapBulkLoadResponse with the matching part of the hierarchy
+     */
+    public MapBulkLoadResponse getBulkLoad(MapScope scope) {
         String tenantId = tenantContext.getCurrentTenantId();
         // Use a default key if tenant is null (should not happen in production)
-        String cacheKey = tenantId != null ? tenantId : "__default__";
-        return getBulkLoadCached(cacheKey);
+        String cacheKey = tenantId != null ? tenantId : DEFAULT_CACHE_KEY;
+        MapScope cached = scope.snapToGrid(bboxGridDegrees);
+        return bulkLoadCache.get(cacheKey, cached.cacheKey(), () -> loadBulkLoad(cacheKey, cached));
     }
 
     /**
-     * Internal cached method - tenant ID is used as cache key.
+     * List warehouses without areas for the first map paint.
+     *
+     * <p>Areas are expanded on demand via {@link #getWarehouseAreas(UUID)}.
+     *
+     * @param scope Only the bounding box is applied
+     * @return Warehouse nodes with empty area lists
      */
-    @CacheResult(cacheName = "map-bulk-load")
     @Transactional
-    MapBulkLoadResponse getBulkLoadCached(String tenantId) {
+    public List<WarehouseNode> getWarehouses(MapScope scope) {
+        return repository.getWarehouses(scope).stream()
+                .map(row -> new WarehouseNode(row.warehouseId(), row.warehouseCode(), row.warehouseName(), List.of()))
+                .toList();
+    }
+
+    /**
+     * Expand one warehouse: its areas with locations and preview metrics.
+     *
+     * @param warehouseId Warehouse UUID
+     * @return Area nodes, empty if the warehouse has no active areas
+     */
+    public List<AreaNode> getWarehouseAreas(UUID warehouseId) {
+        return getBulkLoad(MapScope.warehouse(warehouseId)).warehouses().stream()
+                .flatMap(warehouse -> warehouse.areas().stream())
+                .toList();
+    }
+
+    /**
+     * Expand one area: its locations with preview metrics.
+     *
+     * @param areaId Storage area UUID
+     * @return Location nodes, empty if the area has no active locations
+     */
+    public List<LocationNode> getAreaLocations(UUID areaId) {
+        return getBulkLoad(MapScope.area(areaId)).warehouses().stream()
+                .flatMap(warehouse -> warehouse.areas().stream())
+                .flatMap(area -> area.locations().stream())
+                .toList();
+    }
+
+    /**
+     * Run the bulk-load query and build the hierarchy (uncached).
+     *
+     * <p>Invoked by {@link MapBulkLoadCache} on a miss or background refresh.
+     */
+    @Transactional
+    MapBulkLoadResponse loadBulkLoad(String tenantId, MapScope scope) {
         log.infof("Loading map bulk data for tenant: %s", tenantId);
 
-        List<BulkLoadRow> rows = repository.getBulkLoadData();
+        List<BulkLoadRow> rows = repository.getBulkLoadData(scope);
 
         if (rows.isEmpty()) {
             log.info("No map data found");
@@ -126,10 +198,16 @@ public class MapViewService {
     /**
      * Get paginated photo history for a location.
      *
-     * @param locationId  Storage location UUID
-     * @param page        Page number (1-indexed)
-     * @param perPage     Items per page
-     * @param includeUrls Whether to include presigned URLs (false for lazy loading)
+     * <p>Pages are keyset-based when a cursor is given (the {@code nextCursor} of
+     * the previous page); otherwise {@code page} is used as an offset. The total
+     * count is an extra query and is only run when {@code includeTotal} is set.
+     *
+     * @param locationId   Storage location UUID
+     * @param page         Page number (1-indexed, ignored when a cursor is given)
+     * @param perPage      Items per page
+     * @param cursor       Opaque cursor from a previous page, or null
+     * @param includeUrls  Whether to include presigned URLs (false for lazy loading)
+     * @param includeTotal Whether to count all sessions for the location
      * @return LocationHistoryResponse with periods and pagination
      * @throws EntityNotFoundException if location not found
      */
@@ -138,32 +216,61 @@ public class MapViewService {
             UUID locationId,
             int page,
             int perPage,
-            boolean includeUrls
+            String cursor,
+            boolean includeUrls,
+            boolean includeTotal
     ) {
-        log.infof("Getting location history: %s (page=%d, perPage=%d, includeUrls=%s)",
-                locationId, page, perPage, includeUrls);
+        log.infof("Getting location history: %s (page=%d, perPage=%d, cursor=%s, includeUrls=%s)",
+                locationId, page, perPage, cursor != null, includeUrls);
 
-        // Get location info first
-        LocationDetailRow locationDetail = repository.getLocationDetail(locationId);
-        if (locationDetail == null) {
+        // Only the name is needed here - skip the detail aggregation
+        LocationInfoRow location = repository.findLocationInfo(locationId);
+        if (location == null) {
             throw new EntityNotFoundException("StorageLocation", locationId);
         }
 
-        // Get history data
-        List<LocationHistoryRow> rows = repository.getLocationHistory(locationId, page, perPage);
-        int totalItems = repository.countLocationSessions(locationId);
+        HistoryCursor after = HistoryCursor.decode(cursor);
+
+        // Fetch one extra row to know whether another page exists
+        List<LocationHistoryRow> rows = repository.getLocationHistory(
+                locationId,
+                after != null ? after.createdAt() : null,
+                after != null ? after.sessionId() : null,
+                (page - 1) * perPage,
+                perPage + 1
+        );
+        boolean hasMore = rows.size() > perPage;
+        if (hasMore) {
+            rows = rows.subList(0, perPage);
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            LocationHistoryRow last = rows.get(rows.size() - 1);
+            nextCursor = new HistoryCursor(last.fecha(), last.sessionId()).encode();
+        }
+
+        Integer totalItems = includeTotal ? repository.countLocationSessions(locationId) : null;
 
         // Build periods list
         List<LocationHistoryItem> periods = new ArrayList<>();
         List<String> storageKeys = new ArrayList<>();
 
         // Collect storage keys for batch URL generation
+        List<UUID> missingThumbnails = new ArrayList<>();
         for (LocationHistoryRow row : rows) {
             if (row.photoStorageKey() != null && !row.photoStorageKey().isEmpty()) {
                 storageKeys.add(row.photoStorageKey());
+            } else if (row.photoImageId() != null) {
+                missingThumbnails.add(row.photoImageId());
             }
         }
 
+        // Shown without a photo this time; generated for the next request
+        if (!missingThumbnails.isEmpty()) {
+            imageDerivativeService.request(tenantContext.getCurrentTenantId(), missingThumbnails);
+        }
+
         // Generate URLs in batch if requested
         Map<String, String> urlMap = Collections.emptyMap();
         if (includeUrls && !storageKeys.isEmpty()) {
@@ -218,13 +325,13 @@ public class MapViewService {
 
         return new LocationHistoryResponse(
                 new LocationInfo(
-                        locationDetail.locationId(),
-                        locationDetail.locationCode(),
-                        locationDetail.locationName()
+                        location.locationId(),
+                        location.locationCode(),
+                        location.locationName()
                 ),
                 periods,
                 summary,
-                Pagination.of(page, perPage, totalItems)
+                Pagination.of(page, perPage, totalItems, nextCursor)
         );
     }
 
@@ -246,23 +353,21 @@ public class MapViewService {
     }
 
     /**
-     * Invalidate the map cache for the current tenant.
+     * Invalidate the map cache for the current tenant on every instance.
+     *
+     * <p>Evicts locally right away and publishes the invalidation so other
+     * instances evict too. Inside a transaction, the publication is only
+     * delivered once it commits.
      *
      * <p>Should be called after photo processing completes or when
      * location data changes.
      */
     public void invalidateMapCache() {
         String tenantId = tenantContext.getCurrentTenantId();
-        String cacheKey = tenantId != null ? tenantId : "__default__";
-        invalidateMapCacheForTenant(cacheKey);
-    }
-
-    /**
-     * Internal method to invalidate cache for specific tenant.
-     */
-    @CacheInvalidate(cacheName = "map-bulk-load")
-    void invalidateMapCacheForTenant(String tenantId) {
-        log.infof("Invalidating map cache for tenant: %s", tenantId);
+        String cacheKey = tenantId != null ? tenantId : DEFAULT_CACHE_KEY;
+        log.infof("Invalidating map cache for tenant: %s", cacheKey);
+        bulkLoadCache.invalidate(cacheKey);
+        invalidationBus.publish(cacheKey);
     }
 
     // =========================================================================
@@ -0,0 +1,146 @@
+package com.fortytwo.demeter.app.repository;
+
+import io.agroal.api.AgroalDataSource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Status table of stock updates triggered by completed photo sessions
+ * ({@code stock_update_jobs}).
+ *
+ * <p>Jobs are created in the transaction that completes their session. The
+ * other methods are used by the job worker outside of any request or
+ * transaction: each runs on its own pooled connection (autocommit), across
+ * tenants.
+ */
+@ApplicationScoped
+public class StockUpdateJobRepository {
+
+    // Due PENDING jobs, plus RUNNING jobs whose instance stopped before finishing them
+    private static final String CLAIM_DUE = """
+            UPDATE stock_update_jobs
+            SET status = 'RUNNING', attempts = attempts + 1, updated_at = now()
+            WHERE id IN (
+                SELECT id FROM stock_update_jobs
+                WHERE (status = 'PENDING' AND next_attempt_at <= now())
+                   OR (status = 'RUNNING' AND updated_at < now() - make_interval(secs => ?))
+                ORDER BY next_attempt_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED)
+            RETURNING id, tenant_id, session_id, attempts
+            """;
+
+    private static final String INSERT_JOB = """
+            INSERT INTO stock_update_jobs (tenant_id, session_id)
+            VALUES (?, ?)
+            ON CONFLICT (session_id) DO NOTHING
+            """;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * A job claimed for execution; {@code attempts} includes this one.
+     */
+    public record ClaimedJob(UUID id, String tenantId, UUID sessionId, int attempts) {}
+
+    /**
+     * Record a job for a completed session on the current transaction's
+     * connection, so it commits or rolls back with the completion.
+     *
+     * @return false if the session already has a job
+     */
+    public boolean create(String tenantId, UUID sessionId) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_JOB)) {
+                stmt.setString(1, tenantId);
+                stmt.setObject(2, sessionId);
+                return stmt.executeUpdate() > 0;
+            }
+        });
+    }
+
+    /**
+     * Mark up to {@code limit} due jobs RUNNING, skipping jobs another
+     * instance is claiming.
+     *
+     * @param staleAfterSeconds Age after which a RUNNING job is claimed again
+     */
+    public List<ClaimedJob> claimDue(int limit, long staleAfterSeconds) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(CLAIM_DUE)) {
+            stmt.setLong(1, staleAfterSeconds);
+            stmt.setInt(2, limit);
+            List<ClaimedJob> jobs = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    jobs.add(new ClaimedJob(
+                            rs.getObject("id", UUID.class),
+                            rs.getString("tenant_id"),
+                            rs.getObject("session_id", UUID.class),
+                            rs.getInt("attempts")));
+                }
+            }
+            return jobs;
+        }
+    }
+
+    public void markSucceeded(UUID id, int batchesCreated, UUID fotoMovementId) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE stock_update_jobs
+                     SET status = 'SUCCEEDED', batches_created = ?, foto_movement_id = ?,
+                         last_error = NULL, completed_at = now(), updated_at = now()
+                     WHERE id = ?
+                     """)) {
+            stmt.setInt(1, batchesCreated);
+            stmt.setObject(2, fotoMovementId);
+            stmt.setObject(3, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Return a job to PENDING after a failed attempt.
+     */
+    public void scheduleRetry(UUID id, long delayMs, String error) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE stock_update_jobs
+                     SET status = 'PENDING', next_attempt_at = now() + make_interval(secs => ?),
+                         last_error = ?, updated_at = now()
+                     WHERE id = ?
+                     """)) {
+            stmt.setDouble(1, delayMs / 1000.0);
+            stmt.setString(2, error);
+            stmt.setObject(3, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    public void markFailed(UUID id, String error) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE stock_update_jobs
+                     SET status = 'FAILED', last_error = ?, completed_at = now(), updated_at = now()
+                     WHERE id = ?
+                     """)) {
+            stmt.setString(1, error);
+            stmt.setObject(2, id);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.fortytwo.demeter.app.service;
+
+import com.fortytwo.demeter.app.repository.StockUpdateJobRepository;
+import com.fortytwo.demeter.app.repository.StockUpdateJobRepository.ClaimedJob;
+import com.fortytwo.demeter.app.service.StockUpdateOrchestrator.StockUpdateResult;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import com.fortytwo.demeter.fotos.event.SessionCompletedEvent;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link StockUpdateOrchestrator#processStockUpdate} for every photo
+ * session that reaches COMPLETED.
+ *
+ * <p>The transaction that completes a session records a job in
+ * {@code stock_update_jobs}, and wakes the worker once it commits. A worker
+ * claims due jobs (any instance, with {@code FOR UPDATE SKIP LOCKED}) and
+ * runs up to {@code concurrency} of them in parallel; jobs for the same
+ * storage location serialize on the orchestrator's per-location advisory
+ * lock. A failed attempt is retried with exponential backoff and jitter, up
+ * to {@code max-attempts}; the job then stays FAILED with its last error. Jobs left RUNNING by an instance
+ * that stopped are claimed again after {@code stale-after-seconds}.
+ */
+@ApplicationScoped
+public class StockUpdateJobService {
+
+    private static final Logger log = Logger.getLogger(StockUpdateJobService.class);
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    @Inject
+    StockUpdateJobRepository jobRepository;
+
+    @Inject
+    StockUpdateOrchestrator orchestrator;
+
+    @Inject
+    TenantScope tenantScope;
+
+    @ConfigProperty(name = "demeter.stock-update.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "demeter.stock-update.concurrency", defaultValue = "4")
+    int concurrency;
+
+    @ConfigProperty(name = "demeter.stock-update.poll-interval-ms", defaultValue = "5000")
+    long pollIntervalMs;
+
+    @ConfigProperty(name = "demeter.stock-update.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "demeter.stock-update.initial-backoff-ms", defaultValue = "2000")
+    long initialBackoffMs;
+
+    @ConfigProperty(name = "demeter.stock-update.max-backoff-ms", defaultValue = "300000")
+    long maxBackoffMs;
+
+    @ConfigProperty(name = "demeter.stock-update.stale-after-seconds", defaultValue = "600")
+    long staleAfterSeconds;
+
+    private final Semaphore wakeUp = new Semaphore(0);
+    private Semaphore slots;
+    private volatile boolean running;
+    private Thread workerThread;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            log.info("Stock update jobs disabled - completed sessions do not update stock");
+            return;
+        }
+
+        slots = new Semaphore(concurrency);
+        running = true;
+        workerThread = Thread.ofVirtual()
+                .name("stock-update-jobs")
+                .start(this::pollLoop);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        if (workerThread != null) {
+            workerThread.interrupt();
+        }
+    }
+
+    /**
+     * Record a stock update job in the transaction that completes the
+     * session: the job exists exactly when the completion commits.
+     */
+    void onSessionCompleted(@Observes SessionCompletedEvent event) {
+        if (enabled && jobRepository.create(event.tenantId(), event.sessionId())) {
+            log.infof("Stock update job created for session %s", event.sessionId());
+        }
+    }
+
+    /**
+     * Wake the worker once the completion, and with it the job, has committed.
+     */
+    void onSessionCommitted(@Observes(during = TransactionPhase.AFTER_SUCCESS) SessionCompletedEvent event) {
+        if (enabled) {
+            wakeUp.release();
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                wakeUp.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+                claimAndRun();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException | RuntimeException e) {
+                log.warnf("Stock update job poll failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    private void claimAndRun() throws SQLException {
+        int free = slots.availablePermits();
+        if (free == 0) {
+            return;
+        }
+
+        List<ClaimedJob> jobs = jobRepository.claimDue(free, staleAfterSeconds);
+        for (ClaimedJob job : jobs) {
+            slots.acquireUninterruptibly();
+            Thread.ofVirtual()
+                    .name("stock-update-" + job.sessionId())
+                    .start(() -> {
+                        try {
+                            execute(job);
+                        } finally {
+                            slots.release();
+                            // A slot is free: pick up jobs that were waiting for one
+                            wakeUp.release();
+                        }
+                    });
+        }
+    }
+
+    private void execute(ClaimedJob job) {
+        try {
+            StockUpdateResult result = tenantScope.call(job.tenantId(),
+                    () -> orchestrator.processStockUpdate(job.sessionId()));
+            jobRepository.markSucceeded(job.id(), result.batchesCreated(), result.fotoMovementId());
+            log.infof("Stock update job for session %s succeeded: %d batches",
+                    job.sessionId(), result.batchesCreated());
+        } catch (Exception e) {
+            recordFailure(job, e);
+        }
+    }
+
+    private void recordFailure(ClaimedJob job, Exception e) {
+        String error = truncate(e.getClass().getSimpleName() + ": " + e.getMessage());
+        try {
+            if (job.attempts() >= maxAttempts) {
+                log.errorf(e, "Stock update job for session %s failed after %d attempts",
+                        job.sessionId(), job.attempts());
+                jobRepository.markFailed(job.id(), error);
+                return;
+            }
+
+            long delayMs = backoff(job.attempts());
+            log.warnf("Stock update job for session %s failed (attempt %d of %d), retrying in %d ms: %s",
+                    job.sessionId(), job.attempts(), maxAttempts, delayMs, error);
+            jobRepository.scheduleRetry(job.id(), delayMs, error);
+        } catch (SQLException statusError) {
+            // Left RUNNING: claimed again once stale
+            log.errorf(statusError, "Failed to record stock update job failure for session %s", job.sessionId());
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, half random.
+     */
+    private long backoff(int attempts) {
+        long delayMs = initialBackoffMs << Math.min(attempts - 1, 20);
+        delayMs = Math.min(delayMs, maxBackoffMs);
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
+    private static String truncate(String error) {
+        return error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -1,9 +1,9 @@
 package com.fortytwo.demeter.app.service;
 
 import com.fortytwo.demeter.common.exception.EntityNotFoundException;
-import com.fortytwo.demeter.fotos.model.Estimation;
 import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
 import com.fortytwo.demeter.fotos.repository.EstimationRepository;
+import com.fortytwo.demeter.fotos.repository.EstimationRepository.CountTotal;
 import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository;
 import com.fortytwo.demeter.inventario.dto.CycleResult;
 import com.fortytwo.demeter.inventario.dto.SalesInfo;
@@ -13,6 +13,7 @@ import com.fortytwo.demeter.inventario.model.StockBatch;
 import com.fortytwo.demeter.inventario.model.StockBatchMovement;
 import com.fortytwo.demeter.inventario.model.StockMovement;
 import com.fortytwo.demeter.inventario.repository.StockBatchMovementRepository;
+import com.fortytwo.demeter.inventario.repository.StockBatchRepository;
 import com.fortytwo.demeter.inventario.repository.StockMovementRepository;
 import com.fortytwo.demeter.inventario.service.StockBatchService;
 import com.fortytwo.demeter.productos.model.ProductState;
@@ -28,7 +29,10 @@ import org.jboss.logging.Logger;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -40,10 +44,16 @@ import java.util.UUID;
  * <p>Flow:
  * <ol>
  *   <li>Get storage location configs for the session's location</li>
- *   <li>Extract count from COUNT-type estimations</li>
+ *   <li>Sum COUNT-type estimations per product in one query</li>
  *   <li>Start new cycle for each config (with auto-sales detection)</li>
  *   <li>Create FOTO movement linking all new batches</li>
  * </ol>
+ *
+ * <p>Runs automatically for every completed session (see {@link StockUpdateJobService}).
+ * Updates of one storage location are serialized with a transaction-scoped
+ * advisory lock, so concurrent sessions on the same location start their
+ * cycles one after the other, and a session that already has its FOTO
+ * movement is not processed again.
  */
 @ApplicationScoped
 public class StockUpdateOrchestrator {
@@ -60,6 +70,9 @@ public class StockUpdateOrchestrator {
     @Inject
     StockBatchService stockBatchService;
 
+    @Inject
+    StockBatchRepository stockBatchRepository;
+
     @Inject
     StorageLocationConfigService storageLocationConfigService;
 
@@ -85,6 +98,41 @@ public class StockUpdateOrchestrator {
         UUID fotoMovementId
     ) {}
 
+    /**
+     * COUNT totals of one session, looked up per storage location config.
+     *
+     * <p>A config gets the counts classified to its product (for its packaging,
+     * or without packaging). If nothing in the session is classified to that
+     * product, it gets the unclassified total: sessions whose estimations
+     * carry no classification update every config with the same count.
+     */
+    record SessionCounts(Map<UUID, List<CountTotal>> byProduct, long unclassified) {
+
+        static SessionCounts of(List<CountTotal> totals) {
+            Map<UUID, List<CountTotal>> byProduct = new HashMap<>();
+            long unclassified = 0;
+            for (CountTotal total : totals) {
+                if (total.productId() == null) {
+                    unclassified += total.count();
+                } else {
+                    byProduct.computeIfAbsent(total.productId(), id -> new ArrayList<>()).add(total);
+                }
+            }
+            return new SessionCounts(byProduct, unclassified);
+        }
+
+        int forConfig(UUID productId, UUID packagingCatalogId) {
+            List<CountTotal> product = byProduct.get(productId);
+            if (product == null) {
+                return Math.toIntExact(unclassified);
+            }
+            return Math.toIntExact(product.stream()
+                    .filter(t -> t.packagingCatalogId() == null || t.packagingCatalogId().equals(packagingCatalogId))
+                    .mapToLong(CountTotal::count)
+                    .sum());
+        }
+    }
+
     /**
      * Process stock update for a completed session.
      *
@@ -109,6 +157,16 @@ public class StockUpdateOrchestrator {
             return new StockUpdateResult(0, 0, List.of(), null);
         }
 
+        // Held until commit: everything below reads and closes the location's active cycles
+        stockBatchRepository.lockStorageLocation(storageLocationId);
+
+        Optional<StockMovement> existing = findFotoMovement(sessionId);
+        if (existing.isPresent()) {
+            log.infof("Session %s already updated stock (movement %s) - skipping",
+                    sessionId, existing.get().getId());
+            return new StockUpdateResult(0, 0, List.of(), existing.get().getId());
+        }
+
         // Get active configs for this location
         List<StorageLocationConfig> configs = storageLocationConfigService.getActiveConfigsByLocation(storageLocationId);
         if (configs.isEmpty()) {
@@ -116,54 +174,65 @@ public class StockUpdateOrchestrator {
             return new StockUpdateResult(0, 0, List.of(), null);
         }
 
-        // Extract count from estimations
-        int totalCount = extractCountFromEstimations(sessionId);
-        if (totalCount <= 0) {
-            log.infof("Session %s has zero count estimation - no stock update needed", sessionId);
-            return new StockUpdateResult(0, 0, List.of(), null);
-        }
+        // One aggregate query for the whole session, then looked up per config
+        SessionCounts counts = SessionCounts.of(estimationRepository.sumCountsByProduct(
+                sessionId, session.getTenantId(), ESTIMATION_TYPE_COUNT));
 
-        log.infof("Processing stock update for session %s: location=%s, count=%d, configs=%d",
-                sessionId, storageLocationId, totalCount, configs.size());
+        log.infof("Processing stock update for session %s: location=%s, configs=%d",
+                sessionId, storageLocationId, configs.size());
 
         // Track all new batches for FOTO movement
         List<StockBatch> newBatches = new ArrayList<>();
         List<SalesInfo> salesInfoList = new ArrayList<>();
+        int totalCount = 0;
 
         // Process each config
         for (StorageLocationConfig config : configs) {
+            UUID productId = config.getProduct().getId();
+            UUID packagingCatalogId = config.getPackagingCatalog() != null ? config.getPackagingCatalog().getId() : null;
+
+            int count = counts.forConfig(productId, packagingCatalogId);
+            if (count <= 0) {
+                log.debugf("Session %s has no count for product %s - config skipped", sessionId, productId);
+                continue;
+            }
+
             // For now, use default state (ACTIVE) - can be enhanced with ML state detection
             ProductState productState = ProductState.ACTIVE;
 
             // Start new cycle
             CycleResult result = stockBatchService.startNewCycle(
                     storageLocationId,
-                    config.getProduct().getId(),
+                    productId,
                     productState,
-                    totalCount,
+                    count,
                     null, // productSizeId - can be enhanced with size detection
-                    config.getPackagingCatalog() != null ? config.getPackagingCatalog().getId() : null,
+                    packagingCatalogId,
                     userId,
                     SourceType.IA
             );
 
             newBatches.add(result.newBatch());
+            totalCount += count;
             if (result.salesInfo() != null) {
                 salesInfoList.add(result.salesInfo());
             }
 
-            log.infof("Started cycle for config: product=%s, batch=%s, cycle=%d",
-                    config.getProduct().getId(),
+            log.infof("Started cycle for config: product=%s, batch=%s, cycle=%d, count=%d",
+                    productId,
                     result.newBatch().getBatchCode(),
-                    result.newBatch().getCycleNumber());
+                    result.newBatch().getCycleNumber(),
+                    count);
         }
 
-        // Create FOTO movement linking all new batches
-        UUID fotoMovementId = null;
-        if (!newBatches.isEmpty()) {
-            fotoMovementId = createFotoMovement(session, newBatches, totalCount, userId);
+        if (newBatches.isEmpty()) {
+            log.infof("Session %s has zero count estimation - no stock update needed", sessionId);
+            return new StockUpdateResult(0, 0, List.of(), null);
         }
 
+        // Create FOTO movement linking all new batches
+        UUID fotoMovementId = createFotoMovement(session, newBatches, totalCount, userId);
+
         // Calculate total sales
         int totalSales = salesInfoList.stream()
                 .filter(s -> SalesInfo.TYPE_VENTAS.equals(s.type()))
@@ -183,16 +252,10 @@ public class StockUpdateOrchestrator {
         return new StockUpdateResult(newBatches.size(), totalSales, newBatchIds, fotoMovementId);
     }
 
-    /**
-     * Extract total count from COUNT-type estimations.
-     */
-    private int extractCountFromEstimations(UUID sessionId) {
-        List<Estimation> estimations = estimationRepository.findBySessionId(sessionId);
-        return estimations.stream()
-                .filter(e -> ESTIMATION_TYPE_COUNT.equalsIgnoreCase(e.getEstimationType()))
-                .mapToInt(e -> e.getValue().intValue())
-                .findFirst()
-                .orElse(0);
+    private Optional<StockMovement> findFotoMovement(UUID sessionId) {
+        return stockMovementRepository.findByProcessingSession(sessionId).stream()
+                .filter(m -> m.getMovementType() == MovementType.FOTO)
+                .findFirst();
     }
 
     /**
@@ -218,7 +281,7 @@ public class StockUpdateOrchestrator {
             StockBatchMovement batchMovement = new StockBatchMovement();
             batchMovement.setMovement(movement);
             batchMovement.setBatch(batch);
-            batchMovement.setQuantity(BigDecimal.valueOf(quantity));
+            batchMovement.setQuantity(BigDecimal.valueOf(batch.getQuantityCurrent()));
             batchMovement.setCycleInitiator(true);
             batchMovement.setMovementOrder(order++);
 
@@ -0,0 +1,51 @@
+-- V19: Cross-instance map cache invalidation via LISTEN/NOTIFY
+-- Writes that change what the map bulk-load returns emit
+--   NOTIFY map_invalidation, '<tenant_id>'
+-- Notifications are delivered on commit and de-duplicated per transaction,
+-- so bulk writes for one tenant produce a single message.
+
+CREATE OR REPLACE FUNCTION notify_map_invalidation() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('map_invalidation', OLD.tenant_id);
+    ELSE
+        PERFORM pg_notify('map_invalidation', NEW.tenant_id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Storage hierarchy
+CREATE TRIGGER trg_warehouses_map_invalidation
+    AFTER INSERT OR UPDATE OR DELETE ON warehouses
+    FOR EACH ROW EXECUTE FUNCTION notify_map_invalidation();
+
+CREATE TRIGGER trg_storage_areas_map_invalidation
+    AFTER INSERT OR UPDATE OR DELETE ON storage_areas
+    FOR EACH ROW EXECUTE FUNCTION notify_map_invalidation();
+
+CREATE TRIGGER trg_storage_locations_map_invalidation
+    AFTER INSERT OR UPDATE OR DELETE ON storage_locations
+    FOR EACH ROW EXECUTE FUNCTION notify_map_invalidation();
+
+-- Photo sessions: the map only reads COMPLETED sessions, so only sessions
+-- entering or leaving COMPLETED matter. PENDING -> PROCESSING transitions and
+-- progress updates on processed_images must not flood the channel.
+CREATE TRIGGER trg_sessions_map_invalidation_status
+    AFTER UPDATE OF status ON photo_processing_sessions
+    FOR EACH ROW
+    WHEN (OLD.status IS DISTINCT FROM NEW.status
+          AND (OLD.status = 'COMPLETED' OR NEW.status = 'COMPLETED'))
+    EXECUTE FUNCTION notify_map_invalidation();
+
+CREATE TRIGGER trg_sessions_map_invalidation_insert
+    AFTER INSERT ON photo_processing_sessions
+    FOR EACH ROW
+    WHEN (NEW.status = 'COMPLETED')
+    EXECUTE FUNCTION notify_map_invalidation();
+
+CREATE TRIGGER trg_sessions_map_invalidation_delete
+    AFTER DELETE ON photo_processing_sessions
+    FOR EACH ROW
+    WHEN (OLD.status = 'COMPLETED')
+    EXECUTE FUNCTION notify_map_invalidation();
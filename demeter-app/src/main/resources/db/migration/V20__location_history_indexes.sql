@@ -0,0 +1,19 @@
+-- V20: Indexes for keyset-paginated location history
+-- History pages walk COMPLETED sessions of one location ordered by
+-- (created_at DESC, id DESC); the cursor predicate and ORDER BY are served
+-- directly from this partial index.
+
+CREATE INDEX idx_sessions_location_history
+    ON photo_processing_sessions (tenant_id, storage_location_id, created_at DESC, id DESC)
+    WHERE status = 'COMPLETED';
+
+-- Per-session COUNT totals: index-only scan instead of a heap visit per estimation
+CREATE INDEX idx_est_session_type
+    ON estimations (session_id, estimation_type)
+    INCLUDE (estimated_count);
+
+-- First thumbnail per session (LATERAL ... LIMIT 1)
+CREATE INDEX idx_images_session_thumbnail
+    ON images (session_id, created_at, id)
+    INCLUDE (thumbnail_url)
+    WHERE thumbnail_url IS NOT NULL;
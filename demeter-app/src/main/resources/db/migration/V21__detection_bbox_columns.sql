@@ -0,0 +1,30 @@
+-- V21: Native bounding box columns on detections
+-- A dense image yields thousands of detections per callback. Four numeric
+-- columns are cheaper to write in JDBC batches, and to filter, than one
+-- JSONB object per row.
+
+ALTER TABLE detections
+    ADD COLUMN bbox_x1 DOUBLE PRECISION,
+    ADD COLUMN bbox_y1 DOUBLE PRECISION,
+    ADD COLUMN bbox_x2 DOUBLE PRECISION,
+    ADD COLUMN bbox_y2 DOUBLE PRECISION;
+
+-- Convert existing boxes; malformed objects (missing or non-numeric
+-- coordinates) are left without a box
+UPDATE detections
+SET bbox_x1 = (bounding_box->>'x1')::double precision,
+    bbox_y1 = (bounding_box->>'y1')::double precision,
+    bbox_x2 = (bounding_box->>'x2')::double precision,
+    bbox_y2 = (bounding_box->>'y2')::double precision
+WHERE jsonb_typeof(bounding_box->'x1') = 'number'
+  AND jsonb_typeof(bounding_box->'y1') = 'number'
+  AND jsonb_typeof(bounding_box->'x2') = 'number'
+  AND jsonb_typeof(bounding_box->'y2') = 'number';
+
+ALTER TABLE detections
+    DROP COLUMN bounding_box;
+
+COMMENT ON COLUMN detections.bbox_x1 IS 'Bounding box left edge (normalized 0-1 or pixels, as sent by the ML worker)';
+COMMENT ON COLUMN detections.bbox_y1 IS 'Bounding box top edge';
+COMMENT ON COLUMN detections.bbox_x2 IS 'Bounding box right edge';
+COMMENT ON COLUMN detections.bbox_y2 IS 'Bounding box bottom edge';
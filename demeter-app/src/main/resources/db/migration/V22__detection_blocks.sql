@@ -0,0 +1,44 @@
+-- V22: Compact columnar detection storage
+-- Optional alternative to one detections row per detection
+-- (demeter.ml.detections.storage-mode=compact): all detections of an image in
+-- one row, encoded by DetectionBlockCodec. Detections are only ever read per
+-- image, so nothing is lost by not indexing them individually.
+
+CREATE TABLE detection_blocks (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    tenant_id VARCHAR(64) NOT NULL,
+    session_id UUID NOT NULL,
+    image_id UUID NOT NULL,
+    detection_count INTEGER NOT NULL,
+    coord_scale INTEGER NOT NULL,
+    labels TEXT[] NOT NULL,
+    label_codes BYTEA NOT NULL,
+    confidences BYTEA NOT NULL,
+    alive BYTEA NOT NULL,
+    boxed BYTEA NOT NULL,
+    boxes BYTEA NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    updated_at TIMESTAMP WITH TIME ZONE,
+
+    CONSTRAINT fk_detblk_session FOREIGN KEY (session_id)
+        REFERENCES photo_processing_sessions(id) ON DELETE CASCADE,
+    CONSTRAINT fk_detblk_image FOREIGN KEY (image_id)
+        REFERENCES images(id) ON DELETE CASCADE,
+    CONSTRAINT uk_detection_blocks_image UNIQUE (image_id)
+);
+
+CREATE INDEX idx_detblk_session ON detection_blocks(session_id);
+CREATE INDEX idx_detblk_tenant ON detection_blocks(tenant_id);
+
+-- Enable RLS
+ALTER TABLE detection_blocks ENABLE ROW LEVEL SECURITY;
+
+CREATE POLICY detection_blocks_tenant_isolation ON detection_blocks
+    USING (tenant_id = current_setting('app.current_tenant', true));
+
+COMMENT ON TABLE detection_blocks IS 'All detections of one image in columnar form (see DetectionBlockCodec)';
+COMMENT ON COLUMN detection_blocks.labels IS 'Label dictionary; label_codes holds one varint index per detection';
+COMMENT ON COLUMN detection_blocks.confidences IS 'uint16 big-endian per detection, confidence * 65535';
+COMMENT ON COLUMN detection_blocks.alive IS 'Bitset: detection i is alive';
+COMMENT ON COLUMN detection_blocks.boxed IS 'Bitset: detection i has a bounding box';
+COMMENT ON COLUMN detection_blocks.boxes IS 'Zigzag varint deltas of fixed-point (coord_scale) box coordinates';
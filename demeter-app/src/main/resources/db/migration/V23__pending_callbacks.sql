@@ -0,0 +1,25 @@
+-- V23: Durable spill for the ML callback queue
+-- Callbacks are accepted into a bounded in-memory queue (CallbackQueue) and
+-- persisted in micro-batches. When that queue is full, or the instance shuts
+-- down with callbacks still queued, they are written here and drained later
+-- by any instance (claimed with FOR UPDATE SKIP LOCKED).
+--
+-- No RLS: the worker drains rows of every tenant, and rows are only read by it.
+
+CREATE TABLE pending_callbacks (
+    id BIGSERIAL PRIMARY KEY,
+    tenant_id VARCHAR(64) NOT NULL,
+    session_id UUID NOT NULL,
+    image_id UUID NOT NULL,
+    payload JSONB NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
+
+CREATE INDEX idx_pending_callbacks_due ON pending_callbacks(next_attempt_at, id);
+CREATE INDEX idx_pending_callbacks_group ON pending_callbacks(tenant_id, session_id, id);
+
+COMMENT ON TABLE pending_callbacks IS 'ML callbacks spilled from the in-memory CallbackQueue, waiting to be persisted';
+COMMENT ON COLUMN pending_callbacks.payload IS 'ProcessingResultRequest as JSON';
+COMMENT ON COLUMN pending_callbacks.attempts IS 'Failed persistence attempts; the callback is dropped at demeter.ml.callback-queue.max-attempts';
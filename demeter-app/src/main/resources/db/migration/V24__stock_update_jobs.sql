@@ -0,0 +1,38 @@
+-- V24: Stock update jobs
+-- One row per completed photo session: StockUpdateJobService records it after
+-- the session's COMPLETED transition commits, then runs
+-- StockUpdateOrchestrator.processStockUpdate with retries and backoff.
+
+CREATE TABLE stock_update_jobs (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    tenant_id VARCHAR(64) NOT NULL,
+    session_id UUID NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    last_error TEXT,
+    batches_created INTEGER,
+    foto_movement_id UUID,
+    completed_at TIMESTAMP WITH TIME ZONE,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+
+    CONSTRAINT fk_suj_session FOREIGN KEY (session_id)
+        REFERENCES photo_processing_sessions(id) ON DELETE CASCADE,
+    CONSTRAINT uk_stock_update_jobs_session UNIQUE (session_id),
+    CONSTRAINT chk_suj_status CHECK (status IN ('PENDING', 'RUNNING', 'SUCCEEDED', 'FAILED'))
+);
+
+CREATE INDEX idx_suj_due ON stock_update_jobs(next_attempt_at) WHERE status = 'PENDING';
+CREATE INDEX idx_suj_running ON stock_update_jobs(updated_at) WHERE status = 'RUNNING';
+CREATE INDEX idx_suj_tenant ON stock_update_jobs(tenant_id);
+
+-- Enable RLS (the job worker connects as the table owner and sees every tenant)
+ALTER TABLE stock_update_jobs ENABLE ROW LEVEL SECURITY;
+
+CREATE POLICY stock_update_jobs_tenant_isolation ON stock_update_jobs
+    USING (tenant_id = current_setting('app.current_tenant', true));
+
+COMMENT ON TABLE stock_update_jobs IS 'Stock cycle update per completed photo session (see StockUpdateJobService)';
+COMMENT ON COLUMN stock_update_jobs.attempts IS 'Started attempts; FAILED once demeter.stock-update.max-attempts is reached';
+COMMENT ON COLUMN stock_update_jobs.updated_at IS 'For RUNNING jobs: claim time, used to reclaim jobs of a crashed instance';
@@ -0,0 +1,37 @@
+-- V25: PostgreSQL task queue (alternative to Cloud Tasks)
+-- With demeter.task-queue.provider=postgres, ML tasks are inserted here in the
+-- same transaction as the images they refer to, and delivered to the ML Worker
+-- by PostgresTaskQueueWorker on any instance.
+--
+-- A claim hides a task for the visibility timeout (visible_at moves forward);
+-- a task whose worker stopped reappears once that passes. Delivered tasks are
+-- deleted; tasks out of attempts stay as DEAD (dead letter) with their last error.
+--
+-- No RLS: the worker delivers tasks of every tenant.
+
+CREATE TABLE task_queue (
+    id BIGSERIAL PRIMARY KEY,
+    tenant_id VARCHAR(64) NOT NULL,
+    endpoint VARCHAR(255) NOT NULL,
+    payload JSONB NOT NULL,
+    dedup_key VARCHAR(255),
+    state VARCHAR(16) NOT NULL DEFAULT 'READY',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    visible_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    claimed_at TIMESTAMP WITH TIME ZONE,
+    last_error TEXT,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    dead_at TIMESTAMP WITH TIME ZONE,
+    CONSTRAINT chk_task_queue_state CHECK (state IN ('READY', 'DEAD'))
+);
+
+CREATE INDEX idx_task_queue_ready ON task_queue(visible_at, id) WHERE state = 'READY';
+CREATE INDEX idx_task_queue_claimed ON task_queue(tenant_id) WHERE state = 'READY' AND claimed_at IS NOT NULL;
+CREATE UNIQUE INDEX uq_task_queue_dedup ON task_queue(dedup_key) WHERE state = 'READY';
+
+COMMENT ON TABLE task_queue IS 'ML tasks waiting for delivery to the ML Worker (demeter.task-queue.provider=postgres)';
+COMMENT ON COLUMN task_queue.endpoint IS 'ML Worker path the payload is POSTed to, e.g. /tasks/process';
+COMMENT ON COLUMN task_queue.payload IS 'ProcessingTaskRequest as JSON';
+COMMENT ON COLUMN task_queue.dedup_key IS 'At most one pending task per key; a second enqueue is ignored';
+COMMENT ON COLUMN task_queue.visible_at IS 'Not claimable before this: due time, retry backoff, or the current claim''s visibility timeout';
+COMMENT ON COLUMN task_queue.claimed_at IS 'Set while a worker holds the task; used to spread claims across tenants';
@@ -0,0 +1,29 @@
+-- V26: Transactional outbox for Cloud Tasks dispatch
+-- With demeter.task-queue.provider=cloudtasks, enqueuing an ML task writes a
+-- row here in the business transaction instead of calling Cloud Tasks. The
+-- TaskOutboxRelay creates the Cloud Tasks after commit and deletes the rows,
+-- so a rolled-back upload never reaches the ML Worker and a failed creation
+-- is retried instead of leaving the session waiting.
+--
+-- No RLS: the relay dispatches rows of every tenant.
+
+CREATE TABLE ml_task_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    tenant_id VARCHAR(64) NOT NULL,
+    session_id UUID,
+    image_id UUID,
+    payload JSONB NOT NULL,
+    state VARCHAR(16) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    last_error TEXT,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    CONSTRAINT chk_ml_task_outbox_state CHECK (state IN ('PENDING', 'FAILED'))
+);
+
+CREATE INDEX idx_ml_task_outbox_due ON ml_task_outbox(next_attempt_at, id) WHERE state = 'PENDING';
+
+COMMENT ON TABLE ml_task_outbox IS 'ML tasks committed with their images, waiting to be created in Cloud Tasks';
+COMMENT ON COLUMN ml_task_outbox.payload IS 'ProcessingTaskRequest as JSON';
+COMMENT ON COLUMN ml_task_outbox.attempts IS 'Dispatch attempts; FAILED at demeter.task-queue.outbox.max-attempts';
+COMMENT ON COLUMN ml_task_outbox.next_attempt_at IS 'Not dispatched before this: retry backoff, or the lease of the relay dispatching it';
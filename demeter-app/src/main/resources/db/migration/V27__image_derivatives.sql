@@ -0,0 +1,20 @@
+-- V27: Thumbnail and preview derivatives of images
+-- ImageDerivativeService stores a JPEG thumbnail and a medium preview of each
+-- uploaded image under sessions/{sessionId}/derivatives/{imageId}/ and records
+-- their storage paths and dimensions here. Galleries and the map history sign
+-- these instead of the full-resolution original.
+
+ALTER TABLE images
+    ADD COLUMN width INTEGER,
+    ADD COLUMN height INTEGER,
+    ADD COLUMN thumbnail_width INTEGER,
+    ADD COLUMN thumbnail_height INTEGER,
+    ADD COLUMN preview_url TEXT,
+    ADD COLUMN preview_width INTEGER,
+    ADD COLUMN preview_height INTEGER,
+    ADD COLUMN derivatives_error TEXT;
+
+COMMENT ON COLUMN images.width IS 'Width of the original in pixels, set with the derivatives';
+COMMENT ON COLUMN images.height IS 'Height of the original in pixels, set with the derivatives';
+COMMENT ON COLUMN images.preview_url IS 'Storage path of the medium preview (JPEG)';
+COMMENT ON COLUMN images.derivatives_error IS 'Why derivatives could not be created (e.g. unreadable original); not retried while set';
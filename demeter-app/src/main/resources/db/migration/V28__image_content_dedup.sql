@@ -0,0 +1,26 @@
+-- V28: Content-hash deduplication of uploaded images
+-- Uploads through the backend are hashed (SHA-256) while they stream to
+-- storage. The first image with a given content in a tenant is canonical and
+-- keeps the hash; later uploads of the same bytes are stored as duplicates
+-- that reuse its storage object and ML results instead of being processed again.
+
+ALTER TABLE images
+    ADD COLUMN content_sha256 BYTEA,
+    ADD COLUMN duplicate_of UUID REFERENCES images(id) ON DELETE SET NULL,
+    ADD COLUMN processed_at TIMESTAMPTZ;
+
+CREATE UNIQUE INDEX uq_images_tenant_content_sha256
+    ON images (tenant_id, content_sha256)
+    WHERE content_sha256 IS NOT NULL;
+
+CREATE INDEX idx_images_duplicate_of
+    ON images (duplicate_of)
+    WHERE duplicate_of IS NOT NULL;
+
+ALTER TABLE photo_processing_sessions
+    ADD COLUMN deduplicated_images INTEGER NOT NULL DEFAULT 0;
+
+COMMENT ON COLUMN images.content_sha256 IS 'SHA-256 of the uploaded bytes; set on canonical images only';
+COMMENT ON COLUMN images.duplicate_of IS 'Canonical image with the same content, whose storage object and ML results this image shares';
+COMMENT ON COLUMN images.processed_at IS 'When ML results were stored for this image (or its canonical)';
+COMMENT ON COLUMN photo_processing_sessions.deduplicated_images IS 'Images of the session that were duplicates and not sent to ML';
@@ -0,0 +1,9 @@
+-- V29: Per-image result lookups for the session gallery
+-- ImageRepository.summarizeSessionResults counts detections and
+-- classifications per image and label for all images of a session. Neither
+-- table had an index on image_id, so each gallery scanned the tenant's rows.
+-- Including the label lets the detection counts come from the index alone.
+
+CREATE INDEX idx_det_image_label ON detections (image_id, label);
+
+CREATE INDEX idx_cls_image ON classifications (image_id);
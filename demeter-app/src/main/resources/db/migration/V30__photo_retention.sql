@@ -0,0 +1,50 @@
+-- V30: Retention of photo results and originals
+-- PhotoRetentionService applies each tenant's retention policy
+-- (tenants.settings.retention, defaults demeter.retention.*) to finished
+-- sessions. Past detailDays, an image's detections, classifications and
+-- detection block are reduced to per-label counts in image_result_labels and
+-- deleted; past originalDays, its original is copied to a cold-storage key
+-- and the hot copy deleted. Sessions, estimations and derivatives are kept.
+
+CREATE TABLE image_result_labels (
+    tenant_id VARCHAR(64) NOT NULL,
+    image_id UUID NOT NULL,
+    kind CHAR(1) NOT NULL,
+    label TEXT NOT NULL,
+    label_count INTEGER NOT NULL,
+
+    CONSTRAINT pk_image_result_labels PRIMARY KEY (image_id, kind, label),
+    CONSTRAINT fk_irl_image FOREIGN KEY (image_id)
+        REFERENCES images(id) ON DELETE CASCADE,
+    CONSTRAINT chk_irl_kind CHECK (kind IN ('D', 'C'))
+);
+
+-- Enable RLS
+ALTER TABLE image_result_labels ENABLE ROW LEVEL SECURITY;
+
+CREATE POLICY image_result_labels_tenant_isolation ON image_result_labels
+    USING (tenant_id = current_setting('app.current_tenant', true));
+
+ALTER TABLE images
+    ADD COLUMN results_purged_at TIMESTAMPTZ,
+    ADD COLUMN archived_at TIMESTAMPTZ;
+
+ALTER TABLE photo_processing_sessions
+    ADD COLUMN details_purged_at TIMESTAMPTZ,
+    ADD COLUMN originals_archived_at TIMESTAMPTZ,
+    ADD COLUMN retention_next_at TIMESTAMPTZ;
+
+-- Finished sessions the retention job may still have work for, oldest first
+CREATE INDEX idx_sessions_retention_due
+    ON photo_processing_sessions (created_at)
+    WHERE status IN ('COMPLETED', 'FAILED')
+      AND (details_purged_at IS NULL OR originals_archived_at IS NULL);
+
+COMMENT ON TABLE image_result_labels IS 'Per-label result counts of images whose detail rows were purged by retention';
+COMMENT ON COLUMN image_result_labels.kind IS 'D: detection label, C: classification (name, else category)';
+COMMENT ON COLUMN image_result_labels.label IS 'Label; empty string for classifications without one';
+COMMENT ON COLUMN images.results_purged_at IS 'When retention replaced this image''s results with image_result_labels';
+COMMENT ON COLUMN images.archived_at IS 'When retention moved the original to cold storage (storage_url points at the archived copy)';
+COMMENT ON COLUMN photo_processing_sessions.details_purged_at IS 'When retention purged the result details of all the session''s images';
+COMMENT ON COLUMN photo_processing_sessions.originals_archived_at IS 'When retention archived all the session''s originals';
+COMMENT ON COLUMN photo_processing_sessions.retention_next_at IS 'Not claimed by the retention job before this: its lease, or the recheck of deferred images';
@@ -0,0 +1,15 @@
+-- V31: Placement of images in their bed, for cross-image overlap correction
+-- Overlapping photos of one bed detect the plants at the overlap twice. When
+-- a session's images are placed (PUT /photo-sessions/{id}/image-offsets),
+-- ProcessingResultService maps their detection boxes into bed coordinates on
+-- completion, suppresses the cross-image duplicates and writes a negative
+-- COUNT estimation (calculation_method CROSS_IMAGE_NMS) for them.
+
+ALTER TABLE images
+    ADD COLUMN bed_offset_x DOUBLE PRECISION,
+    ADD COLUMN bed_offset_y DOUBLE PRECISION,
+    ADD CONSTRAINT chk_images_bed_offset
+        CHECK ((bed_offset_x IS NULL) = (bed_offset_y IS NULL));
+
+COMMENT ON COLUMN images.bed_offset_x IS 'Bed x coordinate of the image''s pixel (0, 0), in the pixel units of its detection boxes';
+COMMENT ON COLUMN images.bed_offset_y IS 'Bed y coordinate of the image''s pixel (0, 0); set together with bed_offset_x';
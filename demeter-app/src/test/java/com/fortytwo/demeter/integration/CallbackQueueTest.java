@@ -0,0 +1,273 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.event.SessionCompletedEvent;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests the ML callback queue: callbacks are accepted with 202, spilled to
+ * {@code pending_callbacks} and then rejected with 429 + Retry-After while
+ * the worker is stalled, and all of them are eventually persisted, completing
+ * the session exactly once.
+ *
+ * <p>The worker is stalled by holding a lock on the session row, which every
+ * callback transaction needs.
+ */
+@QuarkusTest
+@TestProfile(CallbackQueueTest.CallbackQueueProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class CallbackQueueTest {
+
+    private static final String TENANT = "tenant-callback-queue-test";
+    private static final int IMAGE_COUNT = 12;
+
+    public static class CallbackQueueProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "demeter.ml.callback-queue.enabled", "true",
+                    "demeter.ml.callback-queue.capacity", "2",
+                    "demeter.ml.callback-queue.batch-size", "2",
+                    "demeter.ml.callback-queue.flush-interval-ms", "200",
+                    "demeter.ml.callback-queue.spill-capacity", "2",
+                    "demeter.ml.callback-queue.spill-poll-interval-ms", "200");
+        }
+    }
+
+    @ApplicationScoped
+    static class CompletionRecorder {
+        static final Map<UUID, AtomicInteger> COMPLETIONS = new ConcurrentHashMap<>();
+
+        void onCompleted(@Observes SessionCompletedEvent event) {
+            COMPLETIONS.computeIfAbsent(event.sessionId(), id -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final List<UUID> imageIds = new ArrayList<>();
+    private static final List<String> rejectedBodies = new ArrayList<>();
+
+    @Test
+    @Order(1)
+    void setup_seedSession() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'PROCESSING', ?, 0, now())
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.setInt(3, IMAGE_COUNT);
+                session.executeUpdate();
+            }
+
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (int i = 0; i < IMAGE_COUNT; i++) {
+                    UUID imageId = UUID.randomUUID();
+                    imageIds.add(imageId);
+                    image.setObject(1, imageId);
+                    image.setString(2, TENANT);
+                    image.setObject(3, sessionId);
+                    image.setString(4, "callback-queue/" + imageId + ".jpg");
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void burst_whileWorkerStalled_spillsThenRejects() throws Exception {
+        List<String> bodies = new ArrayList<>();
+        imageIds.forEach(imageId -> bodies.add(callbackBody(imageId)));
+        // Unknown image: dropped by the worker without holding back the others
+        bodies.add(callbackBody(UUID.randomUUID()));
+
+        try (Connection lock = dataSource.getConnection()) {
+            lock.setAutoCommit(false);
+            try (PreparedStatement stmt = lock.prepareStatement(
+                    "SELECT id FROM photo_processing_sessions WHERE id = ? FOR UPDATE")) {
+                stmt.setObject(1, sessionId);
+                stmt.executeQuery().close();
+            }
+
+            List<Response> responses = postConcurrently(bodies);
+
+            int accepted = 0;
+            for (int i = 0; i < responses.size(); i++) {
+                Response response = responses.get(i);
+                if (response.statusCode() == 202) {
+                    accepted++;
+                } else {
+                    assertEquals(429, response.statusCode(), response.asString());
+                    String retryAfter = response.header("Retry-After");
+                    assertNotNull(retryAfter);
+                    assertTrue(Long.parseLong(retryAfter) >= 1);
+                    rejectedBodies.add(bodies.get(i));
+                }
+            }
+
+            assertTrue(accepted > 0, "No callback was accepted");
+            assertFalse(rejectedBodies.isEmpty(), "No callback was rejected with 429");
+            assertTrue(countPending() > 0, "No callback was spilled");
+
+            lock.commit();
+        }
+    }
+
+    @Test
+    @Order(3)
+    void rejectedCallbacks_acceptedAfterRetryAfter() throws Exception {
+        for (String body : rejectedBodies) {
+            for (int attempt = 0; ; attempt++) {
+                Response response = post(body);
+                if (response.statusCode() == 202) {
+                    break;
+                }
+                assertEquals(429, response.statusCode(), response.asString());
+                if (attempt == 30) {
+                    fail("Callback still rejected after " + attempt + " retries");
+                }
+                Thread.sleep(Long.parseLong(response.header("Retry-After")) * 1000);
+            }
+        }
+    }
+
+    @Test
+    @Order(4)
+    void allCallbacks_persistedAndSessionCompletedOnce() throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        Response status;
+        do {
+            Thread.sleep(200);
+            status = given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .get("/api/v1/photo-sessions/" + sessionId + "/status");
+        } while (!"COMPLETED".equals(status.path("status")) && System.currentTimeMillis() < deadline);
+
+        assertEquals("COMPLETED", status.path("status"));
+        assertEquals(IMAGE_COUNT, (int) status.path("processedImages"));
+        assertEquals(IMAGE_COUNT, queryInt("SELECT count(*) FROM detections WHERE session_id = ?"));
+
+        while (countPending() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(200);
+        }
+        assertEquals(0, countPending());
+        assertEquals(1, CompletionRecorder.COMPLETIONS.get(sessionId).get());
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    private static String callbackBody(UUID imageId) {
+        return """
+                {
+                    "sessionId": "%s",
+                    "imageId": "%s",
+                    "detections": [
+                        {"label": "plant", "confidence": 0.9,
+                         "boundingBox": {"x1": 10, "y1": 20, "x2": 30, "y2": 40}}
+                    ]
+                }
+                """.formatted(sessionId, imageId);
+    }
+
+    private static Response post(String body) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("/api/v1/processing-callback/results");
+    }
+
+    private static List<Response> postConcurrently(List<String> bodies) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(bodies.size())) {
+            List<Future<Response>> futures = new ArrayList<>();
+            for (String body : bodies) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return post(body);
+                }));
+            }
+            start.countDown();
+
+            List<Response> responses = new ArrayList<>();
+            for (Future<Response> future : futures) {
+                responses.add(future.get());
+            }
+            return responses;
+        }
+    }
+
+    private int countPending() throws Exception {
+        return queryInt("SELECT count(*) FROM pending_callbacks WHERE session_id = ?");
+    }
+
+    private int queryInt(String sql) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, sessionId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.repository.DetectionRepository;
+import com.fortytwo.demeter.fotos.repository.DetectionRepository.NewDetection;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the compact detection storage mode: a dense callback becomes one
+ * {@code detection_blocks} row, read back transparently by the image and
+ * session endpoints, and compared in size with the same detections as rows.
+ */
+@QuarkusTest
+@TestProfile(CompactDetectionStorageTest.CompactStorageProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class CompactDetectionStorageTest {
+
+    private static final Logger log = Logger.getLogger(CompactDetectionStorageTest.class);
+
+    private static final String TENANT = "tenant-compact-detections-test";
+    private static final int DETECTIONS = 5000;
+
+    public static class CompactStorageProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("demeter.ml.detections.storage-mode", "compact");
+        }
+    }
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    DetectionRepository detectionRepository;
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final UUID compactImageId = UUID.randomUUID();
+    private static final UUID rowsImageId = UUID.randomUUID();
+
+    @Test
+    @Order(1)
+    void setup_seedSession() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'PROCESSING', 2, 0, now())
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.executeUpdate();
+            }
+
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (UUID imageId : new UUID[] {compactImageId, rowsImageId}) {
+                    image.setObject(1, imageId);
+                    image.setString(2, TENANT);
+                    image.setObject(3, sessionId);
+                    image.setString(4, "compact-detections/" + imageId + ".jpg");
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void denseCallback_storesOneBlock() throws Exception {
+        String detections = IntStream.range(0, DETECTIONS)
+                .mapToObj(i -> """
+                        {"label": "%s", "confidence": 0.8125,
+                         "boundingBox": {"x1": %d, "y1": %d, "x2": %d, "y2": %d}}
+                        """.formatted(label(i), x(i), y(i), x(i) + 30, y(i) + 28))
+                .collect(Collectors.joining(",", "[", "]"));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"sessionId": "%s", "imageId": "%s", "detections": %s}
+                        """.formatted(sessionId, compactImageId, detections))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200)
+                .body("processedImages", equalTo(1));
+
+        assertEquals(0, queryInt("SELECT count(*) FROM detections WHERE image_id = ?", compactImageId));
+        assertEquals(1, queryInt("SELECT count(*) FROM detection_blocks WHERE image_id = ?", compactImageId));
+        assertEquals(DETECTIONS,
+                queryInt("SELECT detection_count FROM detection_blocks WHERE image_id = ?", compactImageId));
+    }
+
+    @Test
+    @Order(3)
+    void imageDetections_decodeTransparently() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/images/" + compactImageId + "/detections")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(DETECTIONS))
+                .body("[0].id", notNullValue())
+                .body("[0].sessionId", equalTo(sessionId.toString()))
+                .body("[0].isAlive", equalTo(true))
+                .body("[0].confidence", equalTo(0.8125f))
+                .body("[1].label", equalTo(label(1)))
+                .body("[1234].boundingBox.x1", equalTo((float) x(1234)))
+                .body("[1234].boundingBox.y2", equalTo((float) y(1234) + 28));
+    }
+
+    @Test
+    @Order(4)
+    void sessionImagesWithUrls_includeDecodedDetections() {
+        String compact = "find { it.id == '" + compactImageId + "' }";
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images/with-urls")
+                .then()
+                .statusCode(200)
+                .body(compact + ".detections", hasSize(DETECTIONS))
+                .body("find { it.id == '" + rowsImageId + "' }.detections", hasSize(0));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/gallery")
+                .then()
+                .statusCode(200)
+                .body(compact + ".results.detectionCount", equalTo(DETECTIONS))
+                .body(compact + ".results.topDetectionLabels.label", contains("succulent", "cactus"))
+                .body(compact + ".results.topDetectionLabels.count", contains(DETECTIONS * 3 / 4, DETECTIONS / 4))
+                .body("find { it.id == '" + rowsImageId + "' }.results.detectionCount", equalTo(0));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images/" + compactImageId + "/with-url")
+                .then()
+                .statusCode(200)
+                .body("detections", hasSize(DETECTIONS))
+                .body("results.detectionCount", equalTo(DETECTIONS));
+    }
+
+    @Test
+    @Order(5)
+    void compactBlock_isTenTimesSmallerThanRows() throws Exception {
+        // Same detections, stored as rows for the other image
+        List<NewDetection> rows = IntStream.range(0, DETECTIONS)
+                .mapToObj(i -> new NewDetection(UUID.randomUUID(), label(i), new BigDecimal("0.8125"),
+                        (double) x(i), (double) y(i), (double) x(i) + 30, (double) y(i) + 28))
+                .toList();
+        QuarkusTransaction.requiringNew().run(
+                () -> detectionRepository.insertBatch(TENANT, sessionId, rowsImageId, rows));
+
+        long rowBytes = queryLong("""
+                SELECT sum(pg_column_size(d.*)) FROM detections d WHERE image_id = ?
+                """, rowsImageId);
+        long blockBytes = queryLong("""
+                SELECT pg_column_size(b.*) FROM detection_blocks b WHERE image_id = ?
+                """, compactImageId);
+        log.infof("%d detections: %d bytes as rows, %d bytes as one block (%.1fx)",
+                DETECTIONS, rowBytes, blockBytes, (double) rowBytes / blockBytes);
+        assertTrue(rowBytes >= 10 * blockBytes,
+                "Block is " + blockBytes + " bytes, rows are " + rowBytes + " bytes");
+
+        long rowsReadMs = timeRead(rowsImageId);
+        long blockReadMs = timeRead(compactImageId);
+        log.infof("Per-image read of %d detections: rows %d ms, block %d ms",
+                DETECTIONS, rowsReadMs, blockReadMs);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    private static String label(int i) {
+        return i % 4 == 0 ? "cactus" : "succulent";
+    }
+
+    // Tray grid: 100 pots per row, 40 px apart
+    private static int x(int i) {
+        return (i % 100) * 40;
+    }
+
+    private static int y(int i) {
+        return (i / 100) * 40;
+    }
+
+    private static long timeRead(UUID imageId) {
+        long start = System.nanoTime();
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/images/" + imageId + "/detections")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(DETECTIONS));
+        return Duration.ofNanos(System.nanoTime() - start).toMillis();
+    }
+
+    private int queryInt(String sql, UUID imageId) throws Exception {
+        return (int) queryLong(sql, imageId);
+    }
+
+    private long queryLong(String sql, UUID imageId) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, imageId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+}
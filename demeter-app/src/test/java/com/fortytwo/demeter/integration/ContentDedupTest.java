@@ -0,0 +1,324 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.ValidatableResponse;
+import io.restassured.specification.RequestSpecification;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests content-hash deduplication of uploads: repeated images are linked to
+ * the first image with the same bytes instead of being stored and enqueued
+ * again, complete with its results, and count as processed at once when
+ * those results are already stored. A canonical image that will never be
+ * processed (failed session, dead-lettered task) is replaced by the next
+ * upload of its content.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class ContentDedupTest {
+
+    private static final String TENANT = "tenant-content-dedup-test";
+    private static final byte[] PHOTO_A = randomBytes(1, 6000);
+    private static final byte[] PHOTO_B = randomBytes(2, 7000);
+    private static final byte[] PHOTO_C = randomBytes(3, 5000);
+    private static final byte[] PHOTO_D = randomBytes(4, 5500);
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static String firstSession;
+    private static String retrySession;
+    private static String lateRetrySession;
+    private static UUID canonicalA;
+    private static UUID canonicalB;
+    private static final List<String> replacementSessions = new ArrayList<>();
+
+    @Test
+    @Order(1)
+    void repeatedImageInUpload_isStoredAndEnqueuedOnce() throws Exception {
+        JsonPath accepted = upload(PHOTO_A, PHOTO_B, PHOTO_A);
+        firstSession = accepted.getString("sessionId");
+        assertEquals(2, accepted.getInt("imagesEnqueued"));
+        assertEquals(1, accepted.getInt("imagesDeduplicated"));
+
+        JsonPath images = images(firstSession);
+        assertEquals(3, images.getList("$").size());
+        canonicalA = UUID.fromString(images.getString("find { it.originalFilename == 'photo-0.jpg' }.id"));
+        canonicalB = UUID.fromString(images.getString("find { it.originalFilename == 'photo-1.jpg' }.id"));
+        UUID repeat = UUID.fromString(images.getString("find { it.originalFilename == 'photo-2.jpg' }.id"));
+
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(PHOTO_A),
+                (byte[]) query("SELECT content_sha256 FROM images WHERE id = ?", canonicalA));
+        assertEquals(canonicalA, query("SELECT duplicate_of FROM images WHERE id = ?", repeat));
+        assertNull(query("SELECT content_sha256 FROM images WHERE id = ?", repeat));
+
+        String storageUrl = images.getString("find { it.originalFilename == 'photo-0.jpg' }.storageUrl");
+        assertEquals(storageUrl, images.getString("find { it.originalFilename == 'photo-2.jpg' }.storageUrl"));
+        assertTrue(storageService.exists(storageUrl));
+        assertEquals(2L, query("SELECT count(DISTINCT storage_url) FROM images WHERE session_id = ?",
+                UUID.fromString(firstSession)));
+
+        status(firstSession)
+                .body("totalImages", equalTo(3))
+                .body("deduplicatedImages", equalTo(1));
+    }
+
+    @Test
+    @Order(2)
+    void reupload_beforeResults_waitsForCanonicalImages() {
+        JsonPath accepted = upload(PHOTO_A, PHOTO_B);
+        retrySession = accepted.getString("sessionId");
+        assertEquals(0, accepted.getInt("imagesEnqueued"));
+        assertEquals(2, accepted.getInt("imagesDeduplicated"));
+
+        status(retrySession)
+                .body("status", equalTo("PROCESSING"))
+                .body("processedImages", equalTo(0))
+                .body("deduplicatedImages", equalTo(2));
+
+        // Only the canonical objects are kept
+        for (String storageUrl : images(retrySession).<String>getList("storageUrl")) {
+            assertTrue(storageUrl.startsWith("sessions/" + firstSession + "/"), storageUrl);
+        }
+    }
+
+    @Test
+    @Order(3)
+    void canonicalResults_completeEveryDuplicate() {
+        postResults(firstSession, canonicalA);
+        status(firstSession).body("processedImages", equalTo(2));
+        status(retrySession).body("processedImages", equalTo(1));
+
+        postResults(firstSession, canonicalB);
+        status(firstSession)
+                .body("status", equalTo("COMPLETED"))
+                .body("processedImages", equalTo(3));
+        status(retrySession)
+                .body("status", equalTo("COMPLETED"))
+                .body("processedImages", equalTo(2));
+    }
+
+    @Test
+    @Order(4)
+    void reupload_afterResults_isCompletedAtOnceWithCanonicalResults() {
+        JsonPath accepted = upload(PHOTO_A);
+        lateRetrySession = accepted.getString("sessionId");
+        assertEquals(0, accepted.getInt("imagesEnqueued"));
+        assertEquals(1, accepted.getInt("imagesDeduplicated"));
+
+        status(lateRetrySession)
+                .body("status", equalTo("COMPLETED"))
+                .body("processedImages", equalTo(1));
+
+        String duplicateId = images(lateRetrySession).getString("[0].id");
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/images/" + duplicateId + "/detections")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(1))
+                .body("[0].label", equalTo("plant"));
+    }
+
+    @Test
+    @Order(5)
+    void reupload_ofFailedImage_isProcessedAgain() throws Exception {
+        String failedSession = upload(PHOTO_C).getString("sessionId");
+        replacementSessions.add(failedSession);
+        UUID failed = UUID.fromString(images(failedSession).getString("[0].id"));
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"sessionId": "%s", "imageId": "%s", "errorMessage": "model crashed"}
+                        """.formatted(failedSession, failed))
+                .when()
+                .post("/api/v1/processing-callback/error")
+                .then()
+                .statusCode(200);
+
+        JsonPath accepted = upload(PHOTO_C);
+        String retry = accepted.getString("sessionId");
+        replacementSessions.add(retry);
+        assertEquals(1, accepted.getInt("imagesEnqueued"));
+        assertEquals(0, accepted.getInt("imagesDeduplicated"));
+
+        UUID replacement = UUID.fromString(images(retry).getString("[0].id"));
+        assertNull(query("SELECT content_sha256 FROM images WHERE id = ?", failed));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(PHOTO_C),
+                (byte[]) query("SELECT content_sha256 FROM images WHERE id = ?", replacement));
+
+        postResults(retry, replacement);
+        status(retry)
+                .body("status", equalTo("COMPLETED"))
+                .body("processedImages", equalTo(1));
+    }
+
+    @Test
+    @Order(6)
+    void reupload_ofDeadLetteredImage_completesWaitingDuplicates() throws Exception {
+        String firstUpload = upload(PHOTO_D).getString("sessionId");
+        replacementSessions.add(firstUpload);
+        UUID deadLettered = UUID.fromString(images(firstUpload).getString("[0].id"));
+        String waiting = upload(PHOTO_D).getString("sessionId");
+        replacementSessions.add(waiting);
+        UUID waitingDuplicate = UUID.fromString(images(waiting).getString("[0].id"));
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement task = connection.prepareStatement("""
+                     INSERT INTO task_queue (tenant_id, endpoint, payload, state, attempts, dead_at)
+                     VALUES (?, '/tasks/process', jsonb_build_object('image_id', ?::text), 'DEAD', 5, now())
+                     """)) {
+            task.setString(1, TENANT);
+            task.setString(2, deadLettered.toString());
+            task.executeUpdate();
+        }
+
+        JsonPath accepted = upload(PHOTO_D);
+        String retry = accepted.getString("sessionId");
+        replacementSessions.add(retry);
+        assertEquals(1, accepted.getInt("imagesEnqueued"));
+
+        UUID replacement = UUID.fromString(images(retry).getString("[0].id"));
+        assertEquals(replacement, query("SELECT duplicate_of FROM images WHERE id = ?", waitingDuplicate));
+        assertEquals(query("SELECT storage_url FROM images WHERE id = ?", replacement),
+                query("SELECT storage_url FROM images WHERE id = ?", waitingDuplicate));
+
+        postResults(retry, replacement);
+        status(retry).body("status", equalTo("COMPLETED"));
+        status(waiting)
+                .body("status", equalTo("COMPLETED"))
+                .body("processedImages", equalTo(1));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSessions() throws Exception {
+        List<String> storageUrls = new ArrayList<>(images(firstSession).getList("storageUrl"));
+        for (String sessionId : replacementSessions) {
+            storageUrls.addAll(images(sessionId).getList("storageUrl"));
+        }
+        List<String> sessions = new ArrayList<>(replacementSessions);
+        sessions.addAll(List.of(lateRetrySession, retrySession, firstSession));
+        for (String sessionId : sessions) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/photo-sessions/" + sessionId)
+                    .then()
+                    .statusCode(204);
+        }
+        for (String storageUrl : new LinkedHashSet<>(storageUrls)) {
+            storageService.delete(storageUrl);
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement outbox = connection.prepareStatement(
+                     "DELETE FROM ml_task_outbox WHERE tenant_id = ?");
+             PreparedStatement tasks = connection.prepareStatement(
+                     "DELETE FROM task_queue WHERE tenant_id = ?")) {
+            outbox.setString(1, TENANT);
+            outbox.executeUpdate();
+            tasks.setString(1, TENANT);
+            tasks.executeUpdate();
+        }
+    }
+
+    private static JsonPath upload(byte[]... photos) {
+        RequestSpecification request = given().header("X-Tenant-ID", TENANT);
+        for (int i = 0; i < photos.length; i++) {
+            request.multiPart("images", "photo-" + i + ".jpg", photos[i], "image/jpeg");
+        }
+        return request
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(202)
+                .extract().jsonPath();
+    }
+
+    private static JsonPath images(String sessionId) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+    }
+
+    private static ValidatableResponse status(String sessionId) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status")
+                .then()
+                .statusCode(200);
+    }
+
+    private static void postResults(String sessionId, UUID imageId) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": [
+                                {"label": "plant", "confidence": 0.91,
+                                 "boundingBox": {"x1": 0.1, "y1": 0.1, "x2": 0.2, "y2": 0.2}}
+                            ]
+                        }
+                        """.formatted(sessionId, imageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200);
+    }
+
+    private static byte[] randomBytes(long seed, int size) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private Object query(String sql, UUID id) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import com.fortytwo.demeter.fotos.repository.EstimationRepository;
+import com.fortytwo.demeter.fotos.repository.EstimationRepository.CountTotal;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests the cross-image overlap correction: two images of a bed, placed
+ * 800 px apart, both detect the plant in their overlap; the session's COUNT
+ * total, and the map, count it once. In a classified session, each
+ * product's total is corrected for its own duplicates; counts posted
+ * unclassified by the callback are corrected as unclassified.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class CrossImageOverlapTest {
+
+    private static final String TENANT = "tenant-overlap-test";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EstimationRepository estimationRepository;
+
+    @Inject
+    TenantScope tenantScope;
+
+    private static String locationId;
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final UUID leftImageId = UUID.randomUUID();
+    private static final UUID rightImageId = UUID.randomUUID();
+
+    private static final UUID classifiedSessionId = UUID.randomUUID();
+    private static final UUID classifiedLeftId = UUID.randomUUID();
+    private static final UUID classifiedRightId = UUID.randomUUID();
+    private static final UUID callbackSessionId = UUID.randomUUID();
+    private static final UUID callbackLeftId = UUID.randomUUID();
+    private static final UUID callbackRightId = UUID.randomUUID();
+    private static UUID cactusId;
+    private static UUID succulentId;
+
+    @Test
+    @Order(1)
+    void setup_seedSession() throws Exception {
+        String warehouseId = create("/api/v1/warehouses", "Overlap Warehouse");
+        String areaId = create("/api/v1/warehouses/" + warehouseId + "/areas", "Overlap Area");
+        locationId = create("/api/v1/areas/" + areaId + "/locations", "Overlap Location");
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at, storage_location_id)
+                    VALUES (?, ?, 'PROCESSING', 2, 0, now(), ?)
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.setObject(3, UUID.fromString(locationId));
+                session.executeUpdate();
+            }
+
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (UUID imageId : new UUID[] {leftImageId, rightImageId}) {
+                    image.setObject(1, imageId);
+                    image.setString(2, TENANT);
+                    image.setObject(3, sessionId);
+                    image.setString(4, "overlap/" + imageId + ".jpg");
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void placeImages_rejectsImageOfAnotherSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(offsets(leftImageId, 0, UUID.randomUUID(), 800))
+                .when()
+                .put("/api/v1/photo-sessions/" + sessionId + "/image-offsets")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(3)
+    void placeImages_beforeCompletion_correctsNothingYet() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(offsets(leftImageId, 0, rightImageId, 800))
+                .when()
+                .put("/api/v1/photo-sessions/" + sessionId + "/image-offsets")
+                .then()
+                .statusCode(200)
+                .body("suppressed", equalTo(0));
+    }
+
+    @Test
+    @Order(4)
+    void completion_suppressesTheOverlapDuplicate() throws Exception {
+        // Left image: a plant at bed x 850 (in the overlap) and one at 100
+        postResults(leftImageId, """
+                [{"label": "plant", "confidence": 0.9, "boundingBox": {"x1": 850, "y1": 200, "x2": 880, "y2": 230}},
+                 {"label": "plant", "confidence": 0.8, "boundingBox": {"x1": 100, "y1": 200, "x2": 130, "y2": 230}}]
+                """, "PROCESSING");
+        // Right image: the same overlap plant a few pixels off, and one at bed x 1300
+        postResults(rightImageId, """
+                [{"label": "plant", "confidence": 0.7, "boundingBox": {"x1": 52, "y1": 202, "x2": 82, "y2": 232}},
+                 {"label": "plant", "confidence": 0.8, "boundingBox": {"x1": 500, "y1": 200, "x2": 530, "y2": 230}}]
+                """, "COMPLETED");
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/estimations")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(3))
+                .body("find { it.calculationMethod == 'CROSS_IMAGE_NMS' }.estimatedCount", equalTo(-1));
+
+        assertEquals(3, countsByProduct(sessionId).get(null));
+
+        // The map adds the correction to the values the callback posted
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/locations/" + locationId + "/detail")
+                .then()
+                .statusCode(200)
+                .body("latestSession.totalDetected", equalTo(3));
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/locations/" + locationId + "/history")
+                .then()
+                .statusCode(200)
+                .body("periods[0].cantidadFinal", equalTo(3));
+    }
+
+    @Test
+    @Order(5)
+    void placeImages_afterCompletion_redoesTheCorrection() throws Exception {
+        // Moved apart, the two images no longer overlap
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(offsets(leftImageId, 0, rightImageId, 2000))
+                .when()
+                .put("/api/v1/photo-sessions/" + sessionId + "/image-offsets")
+                .then()
+                .statusCode(200)
+                .body("images", equalTo(2))
+                .body("boxes", equalTo(4))
+                .body("suppressed", equalTo(0));
+
+        assertEquals(4, countsByProduct(sessionId).get(null));
+    }
+
+    @Test
+    @Order(6)
+    void classifiedSession_correctsEachProduct() throws Exception {
+        cactusId = createProduct("OVERLAP-CACTUS-001", "Overlap Cactus");
+        succulentId = createProduct("OVERLAP-SUCC-001", "Overlap Succulent");
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            execute(connection, """
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'COMPLETED', 2, 2, now())
+                    """, classifiedSessionId, TENANT);
+            for (UUID imageId : new UUID[] {classifiedLeftId, classifiedRightId}) {
+                execute(connection, """
+                        INSERT INTO images (id, tenant_id, session_id, storage_url, processed_at, created_at)
+                        VALUES (?, ?, ?, ?, now(), now())
+                        """, imageId, TENANT, classifiedSessionId, "overlap/" + imageId + ".jpg");
+            }
+
+            UUID leftCactus = classification(connection, classifiedLeftId, cactusId);
+            UUID leftSucculent = classification(connection, classifiedLeftId, succulentId);
+            UUID rightCactus = classification(connection, classifiedRightId, cactusId);
+            UUID rightSucculent = classification(connection, classifiedRightId, succulentId);
+
+            // The right image sits at bed x 800. Left: cacti at 850 (overlap) and 100, a succulent at 900 (overlap)
+            detection(connection, classifiedLeftId, leftCactus, 0.9, 850, 200);
+            detection(connection, classifiedLeftId, leftCactus, 0.8, 100, 200);
+            detection(connection, classifiedLeftId, leftSucculent, 0.6, 900, 400);
+            // Right: the overlap cactus (less confident), the overlap succulent (more confident), a succulent at 1300
+            detection(connection, classifiedRightId, rightCactus, 0.7, 52, 202);
+            detection(connection, classifiedRightId, rightSucculent, 0.9, 101, 401);
+            detection(connection, classifiedRightId, rightSucculent, 0.8, 500, 200);
+
+            countEstimation(connection, leftCactus, 2);
+            countEstimation(connection, leftSucculent, 1);
+            countEstimation(connection, rightCactus, 1);
+            countEstimation(connection, rightSucculent, 2);
+            connection.commit();
+        }
+
+        Map<UUID, Long> before = countsByProduct(classifiedSessionId);
+        assertEquals(3, before.get(cactusId));
+        assertEquals(3, before.get(succulentId));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"images": [
+                            {"imageId": "%s", "x": 0, "y": 0},
+                            {"imageId": "%s", "x": 800, "y": 0}
+                        ]}
+                        """.formatted(classifiedLeftId, classifiedRightId))
+                .when()
+                .put("/api/v1/photo-sessions/" + classifiedSessionId + "/image-offsets")
+                .then()
+                .statusCode(200)
+                .body("suppressed", equalTo(2));
+
+        // The right cactus and the left succulent were the duplicates
+        Map<UUID, Long> after = countsByProduct(classifiedSessionId);
+        assertEquals(2, after.get(cactusId));
+        assertEquals(2, after.get(succulentId));
+        assertFalse(after.containsKey(null), "No unclassified correction: " + after);
+    }
+
+    @Test
+    @Order(7)
+    void callbackSession_correctsTheCountItWasSummedIn() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            execute(connection, """
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'PROCESSING', 2, 0, now())
+                    """, callbackSessionId, TENANT);
+            for (UUID imageId : new UUID[] {callbackLeftId, callbackRightId}) {
+                execute(connection, """
+                        INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                        VALUES (?, ?, ?, ?, now())
+                        """, imageId, TENANT, callbackSessionId, "overlap/" + imageId + ".jpg");
+            }
+            connection.commit();
+        }
+
+        // Each image is classified as a cactus; detections and counts come unclassified
+        String classifications = """
+                [{"label": "cactus", "confidence": 0.9}]
+                """;
+        postResults(callbackSessionId, callbackLeftId, """
+                [{"label": "plant", "confidence": 0.9, "boundingBox": {"x1": 850, "y1": 200, "x2": 880, "y2": 230}},
+                 {"label": "plant", "confidence": 0.8, "boundingBox": {"x1": 100, "y1": 200, "x2": 130, "y2": 230}}]
+                """, classifications, "PROCESSING");
+        postResults(callbackSessionId, callbackRightId, """
+                [{"label": "plant", "confidence": 0.7, "boundingBox": {"x1": 52, "y1": 202, "x2": 82, "y2": 232}},
+                 {"label": "plant", "confidence": 0.8, "boundingBox": {"x1": 500, "y1": 200, "x2": 530, "y2": 230}}]
+                """, classifications, "COMPLETED");
+
+        // The classifications are matched to the product afterwards
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            execute(connection, """
+                    UPDATE classifications SET product_id = ? WHERE session_id = ? AND tenant_id = ?
+                    """, cactusId, callbackSessionId, TENANT);
+            connection.commit();
+        }
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(offsets(callbackLeftId, 0, callbackRightId, 800))
+                .when()
+                .put("/api/v1/photo-sessions/" + callbackSessionId + "/image-offsets")
+                .then()
+                .statusCode(200)
+                .body("suppressed", equalTo(1));
+
+        // The counts are unclassified, so is their correction
+        Map<UUID, Long> counts = countsByProduct(callbackSessionId);
+        assertEquals(Map.of(), withoutUnclassified(counts), "Counts: " + counts);
+        assertEquals(3, counts.get(null));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + classifiedSessionId)
+                .then()
+                .statusCode(204);
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + callbackSessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    private static String offsets(UUID first, double firstX, UUID second, double secondX) {
+        return """
+                {"images": [
+                    {"imageId": "%s", "x": %s, "y": 0},
+                    {"imageId": "%s", "x": %s, "y": 0}
+                ]}
+                """.formatted(first, firstX, second, secondX);
+    }
+
+    private static void postResults(UUID imageId, String detections, String expectedStatus) {
+        postResults(sessionId, imageId, detections, "[]", expectedStatus);
+    }
+
+    private static void postResults(UUID session, UUID imageId, String detections, String classifications,
+                                    String expectedStatus) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": %s,
+                            "classifications": %s,
+                            "estimations": [{"estimationType": "count", "value": 2, "unit": "plants"}]
+                        }
+                        """.formatted(session, imageId, detections, classifications))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200)
+                .body("status", equalTo(expectedStatus));
+    }
+
+    // The session totals the stock update uses, by product (null: unclassified)
+    private Map<UUID, Long> countsByProduct(UUID session) {
+        List<CountTotal> totals = tenantScope.call(TENANT, () -> QuarkusTransaction.requiringNew().call(
+                () -> estimationRepository.sumCountsByProduct(session, TENANT, "COUNT")));
+        Map<UUID, Long> counts = new HashMap<>();
+        for (CountTotal total : totals) {
+            counts.merge(total.productId(), total.count(), Long::sum);
+        }
+        return counts;
+    }
+
+    private static String create(String path, String name) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "%s"}
+                        """.formatted(name))
+                .when()
+                .post(path)
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    private static Map<UUID, Long> withoutUnclassified(Map<UUID, Long> counts) {
+        Map<UUID, Long> classified = new HashMap<>(counts);
+        classified.remove(null);
+        return classified;
+    }
+
+    private static UUID createProduct(String sku, String name) {
+        return UUID.fromString(given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"sku": "%s", "name": "%s"}
+                        """.formatted(sku, name))
+                .when()
+                .post("/api/v1/products")
+                .then()
+                .statusCode(201)
+                .extract().path("id"));
+    }
+
+    private static UUID classification(Connection connection, UUID imageId, UUID productId) throws Exception {
+        UUID id = UUID.randomUUID();
+        execute(connection, """
+                INSERT INTO classifications (id, tenant_id, session_id, image_id, product_id)
+                VALUES (?, ?, ?, ?, ?)
+                """, id, TENANT, classifiedSessionId, imageId, productId);
+        return id;
+    }
+
+    // A 30 px square plant at (x, y) of the image
+    private static void detection(Connection connection, UUID imageId, UUID classificationId,
+                                  double confidence, double x, double y) throws Exception {
+        execute(connection, """
+                INSERT INTO detections
+                    (id, tenant_id, session_id, image_id, classification_id, label, confidence,
+                     bbox_x1, bbox_y1, bbox_x2, bbox_y2, is_alive, created_at)
+                VALUES (?, ?, ?, ?, ?, 'plant', ?, ?, ?, ?, ?, true, now())
+                """, UUID.randomUUID(), TENANT, classifiedSessionId, imageId, classificationId,
+                confidence, x, y, x + 30, y + 30);
+    }
+
+    private static void countEstimation(Connection connection, UUID classificationId, int count) throws Exception {
+        execute(connection, """
+                INSERT INTO estimations
+                    (tenant_id, session_id, classification_id, estimation_type, value, estimated_count)
+                VALUES (?, ?, ?, 'COUNT', 0, ?)
+                """, TENANT, classifiedSessionId, classificationId, count);
+    }
+
+    private static void execute(Connection connection, String sql, Object... params) throws Exception {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            stmt.executeUpdate();
+        }
+    }
+}
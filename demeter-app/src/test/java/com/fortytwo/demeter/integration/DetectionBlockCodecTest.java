@@ -0,0 +1,145 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec.CompactDetection;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec.EncodedBlock;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trip property test for the compact detection encoding: for random
+ * detection lists, decode(encode(x)) equals x up to the documented quantization.
+ */
+class DetectionBlockCodecTest {
+
+    private static final int CASES = 300;
+    private static final double CONFIDENCE_TOLERANCE = 0.5 / 0xFFFF + 1e-12;
+    private static final double COORD_TOLERANCE = 0.5 / 10_000 + 1e-9;
+
+    @Test
+    void roundTrip_randomBlocks() {
+        for (int seed = 0; seed < CASES; seed++) {
+            Random random = new Random(seed);
+            List<CompactDetection> original = randomDetections(random);
+
+            List<CompactDetection> decoded = DetectionBlockCodec.decode(DetectionBlockCodec.encode(original));
+
+            assertEquals(original.size(), decoded.size(), "seed " + seed);
+            for (int i = 0; i < original.size(); i++) {
+                assertEquivalent(original.get(i), decoded.get(i), "seed " + seed + ", detection " + i);
+            }
+        }
+    }
+
+    @Test
+    void roundTrip_integerPixelBoxesAreExact() {
+        List<CompactDetection> original = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            original.add(new CompactDetection("plant", 0.5, true, 4.0 * i, 17.0, 4.0 * i + 31, 49.0));
+        }
+
+        EncodedBlock block = DetectionBlockCodec.encode(original);
+        List<CompactDetection> decoded = DetectionBlockCodec.decode(block);
+
+        assertEquals(1, block.coordScale());
+        for (int i = 0; i < original.size(); i++) {
+            assertEquals(original.get(i).x1(), decoded.get(i).x1());
+            assertEquals(original.get(i).y2(), decoded.get(i).y2());
+        }
+        // Small deltas fit one varint byte each
+        assertEquals(4 * 1000, block.boxes().length);
+    }
+
+    @Test
+    void encode_isCompact() {
+        Random random = new Random(42);
+        List<CompactDetection> original = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            double x = (i % 100) * 0.01;
+            double y = (i / 100) * 0.02;
+            original.add(new CompactDetection(i % 3 == 0 ? "cactus" : "succulent",
+                    random.nextDouble(), true, x, y, x + 0.0085, y + 0.0115));
+        }
+
+        EncodedBlock block = DetectionBlockCodec.encode(original);
+        int bytes = block.labelCodes().length + block.confidences().length + block.alive().length
+                + block.boxed().length + block.boxes().length
+                + Arrays.stream(block.labels()).mapToInt(String::length).sum();
+
+        // A detections row is well over 100 bytes before indexes
+        assertTrue(bytes < 5000 * 12, "Encoded " + bytes + " bytes for 5000 detections");
+    }
+
+    @Test
+    void decode_truncatedBlock_throws() {
+        EncodedBlock block = DetectionBlockCodec.encode(List.of(
+                new CompactDetection("plant", 0.9, true, 0.1, 0.2, 0.3, 0.4),
+                new CompactDetection("plant", 0.8, false, 0.5, 0.6, 0.7, 0.8)));
+        EncodedBlock truncated = new EncodedBlock(block.count(), block.coordScale(), block.labels(),
+                block.labelCodes(), block.confidences(), block.alive(), block.boxed(),
+                Arrays.copyOf(block.boxes(), block.boxes().length - 1));
+
+        assertThrows(IllegalStateException.class, () -> DetectionBlockCodec.decode(truncated));
+    }
+
+    @Test
+    void encode_emptyList_roundTrips() {
+        assertEquals(List.of(), DetectionBlockCodec.decode(DetectionBlockCodec.encode(List.of())));
+    }
+
+    private static List<CompactDetection> randomDetections(Random random) {
+        int count = random.nextInt(4) == 0 ? random.nextInt(5) : random.nextInt(3000);
+        // Dictionaries past 127 labels need multi-byte codes
+        int labelCount = 1 + random.nextInt(random.nextBoolean() ? 4 : 300);
+        boolean pixels = random.nextBoolean();
+        boolean integerPixels = pixels && random.nextBoolean();
+
+        List<CompactDetection> detections = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String label = "label-" + random.nextInt(labelCount);
+            double confidence = random.nextInt(20) == 0 ? random.nextInt(2) : random.nextDouble();
+            boolean alive = random.nextInt(10) != 0;
+
+            if (random.nextInt(8) == 0) {
+                detections.add(new CompactDetection(label, confidence, alive, null, null, null, null));
+                continue;
+            }
+            double range = pixels ? 8000 : 1;
+            double x1 = coordinate(random, range, integerPixels);
+            double y1 = coordinate(random, range, integerPixels);
+            double x2 = x1 + coordinate(random, range / 10, integerPixels);
+            double y2 = y1 + coordinate(random, range / 10, integerPixels);
+            detections.add(new CompactDetection(label, confidence, alive, x1, y1, x2, y2));
+        }
+        return detections;
+    }
+
+    private static double coordinate(Random random, double range, boolean integer) {
+        double value = random.nextDouble() * range;
+        return integer ? Math.floor(value) : value;
+    }
+
+    private static void assertEquivalent(CompactDetection expected, CompactDetection actual, String message) {
+        assertEquals(expected.label(), actual.label(), message);
+        assertEquals(expected.alive(), actual.alive(), message);
+        assertEquals(expected.confidence(), actual.confidence(), CONFIDENCE_TOLERANCE, message);
+        if (!expected.hasBox()) {
+            assertNull(actual.x1(), message);
+            assertNull(actual.y2(), message);
+            return;
+        }
+        assertEquals(expected.x1(), actual.x1(), COORD_TOLERANCE, message);
+        assertEquals(expected.y1(), actual.y1(), COORD_TOLERANCE, message);
+        assertEquals(expected.x2(), actual.x2(), COORD_TOLERANCE, message);
+        assertEquals(expected.y2(), actual.y2(), COORD_TOLERANCE, message);
+    }
+}
@@ -0,0 +1,291 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import com.fortytwo.demeter.fotos.dto.GalleryImageDTO;
+import com.fortytwo.demeter.fotos.service.ImageService;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import jakarta.inject.Inject;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that the session gallery runs a fixed number of statements: one for
+ * the images and one for the summaries of their results, whether the session
+ * has 3 images or 12, and whether some are duplicates whose results live in
+ * another session. The images-with-URLs endpoint keeps returning the
+ * detections and classifications themselves.
+ */
+@QuarkusTest
+@TestProfile(GalleryQueryCountTest.StatementCountingProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class GalleryQueryCountTest {
+
+    private static final String TENANT = "tenant-gallery-query-count-test";
+
+    public static class StatementCountingProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("quarkus.hibernate-orm.unsupported-properties.\"hibernate.session_factory.statement_inspector\"",
+                    StatementCounter.class.getName());
+        }
+    }
+
+    /**
+     * Counts the statements Hibernate prepares on threads inside {@link #count}.
+     */
+    public static class StatementCounter implements StatementInspector {
+
+        private static final ThreadLocal<List<String>> STATEMENTS = new ThreadLocal<>();
+
+        @Override
+        public String inspect(String sql) {
+            List<String> statements = STATEMENTS.get();
+            if (statements != null) {
+                statements.add(sql);
+            }
+            return sql;
+        }
+
+        static <T> List<String> count(Supplier<T> work) {
+            List<String> statements = new ArrayList<>();
+            STATEMENTS.set(statements);
+            try {
+                work.get();
+            } finally {
+                STATEMENTS.remove();
+            }
+            return statements;
+        }
+    }
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final UUID duplicateSessionId = UUID.randomUUID();
+    private static final UUID emptySessionId = UUID.randomUUID();
+    private static final List<UUID> imageIds = new ArrayList<>();
+    private static final UUID duplicateId = UUID.randomUUID();
+
+    @Inject
+    ImageService imageService;
+
+    @Inject
+    TenantScope tenantScope;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Test
+    @Order(1)
+    void setup_seedSessionsWithResults() throws Exception {
+        insertSession(sessionId, 12);
+        insertSession(duplicateSessionId, 1);
+        insertSession(emptySessionId, 0);
+        addImages(3);
+        for (UUID imageId : imageIds) {
+            postResults(imageId);
+        }
+    }
+
+    @Test
+    @Order(2)
+    void gallery_summarizesResultsPerImage() {
+        JsonPath gallery = gallery(sessionId);
+        String image = "find { it.id == '" + imageIds.getFirst() + "' }";
+        assertNull(gallery.get(image + ".detections"));
+        assertEquals(4, gallery.getInt(image + ".results.detectionCount"));
+        assertEquals(List.of("plant", "weed"), gallery.getList(image + ".results.topDetectionLabels.label"));
+        assertEquals(List.of(3, 1), gallery.getList(image + ".results.topDetectionLabels.count"));
+        assertEquals(1, gallery.getInt(image + ".results.classificationCount"));
+        assertEquals("cactus", gallery.getString(image + ".results.topClassifications[0].label"));
+    }
+
+    @Test
+    @Order(3)
+    void imagesWithUrls_keepDetectionsAndClassifications() {
+        JsonPath images = given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images/with-urls")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+        String image = "find { it.id == '" + imageIds.getFirst() + "' }";
+        assertEquals(4, images.getList(image + ".detections").size());
+        assertEquals(1, images.getList(image + ".classifications").size());
+        assertEquals(4, images.getInt(image + ".results.detectionCount"));
+    }
+
+    @Test
+    @Order(4)
+    void gallery_runsTwoStatementsWhateverTheSize() throws Exception {
+        List<String> small = galleryStatements(sessionId, 3);
+
+        addImages(9);
+        for (UUID imageId : imageIds.subList(3, imageIds.size())) {
+            postResults(imageId);
+        }
+        List<String> large = galleryStatements(sessionId, 12);
+
+        assertEquals(2, small.size(), "Statements for 3 images: " + small);
+        assertEquals(2, large.size(), "Statements for 12 images: " + large);
+    }
+
+    @Test
+    @Order(5)
+    void duplicateGallery_readsCanonicalResultsInTheSameStatement() throws Exception {
+        try (Connection connection = tenantConnection();
+             PreparedStatement image = connection.prepareStatement("""
+                     INSERT INTO images (id, tenant_id, session_id, storage_url, duplicate_of, created_at)
+                     SELECT ?, tenant_id, ?, storage_url, id, now() FROM images WHERE id = ?
+                     """)) {
+            image.setObject(1, duplicateId);
+            image.setObject(2, duplicateSessionId);
+            image.setObject(3, imageIds.getFirst());
+            image.executeUpdate();
+            connection.commit();
+        }
+
+        List<String> statements = galleryStatements(duplicateSessionId, 1);
+        assertEquals(2, statements.size(), "Statements: " + statements);
+        assertEquals(4, gallery(duplicateSessionId).getInt("[0].results.detectionCount"));
+    }
+
+    @Test
+    @Order(6)
+    void emptyGallery_checksTheSessionExists() {
+        List<String> statements = galleryStatements(emptySessionId, 0);
+        assertEquals(2, statements.size(), "Statements: " + statements);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + UUID.randomUUID() + "/gallery")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSessions() {
+        for (UUID id : List.of(duplicateSessionId, sessionId, emptySessionId)) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/photo-sessions/" + id)
+                    .then()
+                    .statusCode(204);
+        }
+    }
+
+    private List<String> galleryStatements(UUID session, int expectedImages) {
+        List<GalleryImageDTO> gallery = new ArrayList<>();
+        List<String> statements = StatementCounter.count(() -> tenantScope.call(TENANT,
+                () -> gallery.addAll(imageService.getSessionGallery(session))));
+        assertEquals(expectedImages, gallery.size());
+        assertTrue(gallery.stream().allMatch(image -> image.results() != null));
+        return statements;
+    }
+
+    private void insertSession(UUID id, int totalImages) throws Exception {
+        try (Connection connection = tenantConnection();
+             PreparedStatement session = connection.prepareStatement("""
+                     INSERT INTO photo_processing_sessions
+                         (id, tenant_id, status, total_images, processed_images, created_at)
+                     VALUES (?, ?, 'PROCESSING', ?, 0, now())
+                     """)) {
+            session.setObject(1, id);
+            session.setString(2, TENANT);
+            session.setInt(3, totalImages);
+            session.executeUpdate();
+            connection.commit();
+        }
+    }
+
+    private void addImages(int count) throws Exception {
+        try (Connection connection = tenantConnection();
+             PreparedStatement image = connection.prepareStatement("""
+                     INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                     VALUES (?, ?, ?, ?, now())
+                     """)) {
+            for (int i = 0; i < count; i++) {
+                UUID imageId = UUID.randomUUID();
+                imageIds.add(imageId);
+                image.setObject(1, imageId);
+                image.setString(2, TENANT);
+                image.setObject(3, sessionId);
+                image.setString(4, "gallery-query-count/" + imageId + ".jpg");
+                image.addBatch();
+            }
+            image.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private Connection tenantConnection() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        try (PreparedStatement tenant = connection.prepareStatement(
+                "SELECT set_config('app.current_tenant', ?, true)")) {
+            tenant.setString(1, TENANT);
+            tenant.execute();
+        }
+        return connection;
+    }
+
+    private static JsonPath gallery(UUID session) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + session + "/gallery")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+    }
+
+    private static void postResults(UUID imageId) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": [
+                                {"label": "plant", "confidence": 0.91},
+                                {"label": "weed", "confidence": 0.55},
+                                {"label": "plant", "confidence": 0.87},
+                                {"label": "plant", "confidence": 0.78}
+                            ],
+                            "classifications": [
+                                {"label": "cactus", "confidence": 0.93}
+                            ]
+                        }
+                        """.formatted(sessionId, imageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200);
+    }
+}
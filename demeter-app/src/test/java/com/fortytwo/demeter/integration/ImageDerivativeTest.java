@@ -0,0 +1,298 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.service.ImageDerivatives;
+import com.fortytwo.demeter.fotos.service.ImageDerivatives.Derivatives;
+import com.fortytwo.demeter.fotos.service.ImageDerivatives.UndecodableImageException;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.path.json.JsonPath;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests lazy thumbnail and preview generation: the first gallery request of
+ * images without derivatives queues them, the derivatives are stored at
+ * deterministic paths with their dimensions recorded, the next request
+ * returns their URLs, and an unreadable original is recorded and skipped.
+ * Also checks that the EXIF orientation is applied and that an error reading
+ * the original is not taken for an undecodable image.
+ */
+@QuarkusTest
+@TestProfile(ImageDerivativeTest.DerivativesProfile.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ImageDerivativeTest {
+
+    private static final String TENANT = "tenant-image-derivative-test";
+
+    public static class DerivativesProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "demeter.storage.derivatives.enabled", "true",
+                    "demeter.storage.derivatives.thumbnail-size", "320",
+                    "demeter.storage.derivatives.preview-size", "1280");
+        }
+    }
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final UUID photoId = UUID.randomUUID();
+    private static final UUID brokenId = UUID.randomUUID();
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Test
+    @Order(1)
+    void setup_seedImages() throws Exception {
+        String photoPath = storageService.upload(jpeg(1600, 1200), "derivative-test/" + photoId + ".jpg", "image/jpeg");
+        String brokenPath = storageService.upload("not an image".getBytes(StandardCharsets.UTF_8),
+                "derivative-test/" + brokenId + ".jpg", "image/jpeg");
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement tenant = connection.prepareStatement(
+                    "SELECT set_config('app.current_tenant', ?, true)")) {
+                tenant.setString(1, TENANT);
+                tenant.execute();
+            }
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'COMPLETED', 2, 2, now())
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.executeUpdate();
+            }
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                bindImage(image, photoId, photoPath);
+                bindImage(image, brokenId, brokenPath);
+                image.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void firstRequest_servesOriginalsAndQueuesDerivatives() throws Exception {
+        JsonPath gallery = gallery();
+        assertNotNull(gallery.getString("find { it.id == '" + photoId + "' }.imageUrl"));
+        assertNull(gallery.getString("find { it.id == '" + photoId + "' }.thumbnailUrl"));
+
+        await(() -> queryUnchecked("SELECT preview_url FROM images WHERE id = ?", photoId) != null
+                && queryUnchecked("SELECT derivatives_error FROM images WHERE id = ?", brokenId) != null);
+    }
+
+    @Test
+    @Order(3)
+    void derivatives_areStoredWithDimensions() throws Exception {
+        String prefix = "sessions/" + sessionId + "/derivatives/" + photoId + "/";
+        assertEquals(prefix + "thumb.jpg", query("SELECT thumbnail_url FROM images WHERE id = ?", photoId));
+        assertEquals(prefix + "preview.jpg", query("SELECT preview_url FROM images WHERE id = ?", photoId));
+        assertEquals(1600, query("SELECT width FROM images WHERE id = ?", photoId));
+        assertEquals(1200, query("SELECT height FROM images WHERE id = ?", photoId));
+        assertEquals(1280, query("SELECT preview_width FROM images WHERE id = ?", photoId));
+        assertEquals(960, query("SELECT preview_height FROM images WHERE id = ?", photoId));
+        assertEquals(320, query("SELECT thumbnail_width FROM images WHERE id = ?", photoId));
+        assertEquals(240, query("SELECT thumbnail_height FROM images WHERE id = ?", photoId));
+
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(
+                storageService.download(prefix + "thumb.jpg").orElseThrow()));
+        assertEquals(320, thumbnail.getWidth());
+        assertEquals(240, thumbnail.getHeight());
+
+        assertTrue(((String) query("SELECT derivatives_error FROM images WHERE id = ?", brokenId))
+                .startsWith("Unreadable original"));
+    }
+
+    @Test
+    @Order(4)
+    void nextRequest_returnsDerivativeUrls() {
+        JsonPath gallery = gallery();
+        String photo = "find { it.id == '" + photoId + "' }";
+        assertTrue(gallery.getString(photo + ".thumbnailUrl").contains("/derivatives/" + photoId + "/thumb.jpg"));
+        assertTrue(gallery.getString(photo + ".previewUrl").contains("/derivatives/" + photoId + "/preview.jpg"));
+        assertEquals(1600, gallery.getInt(photo + ".width"));
+        assertEquals(1200, gallery.getInt(photo + ".height"));
+
+        String broken = "find { it.id == '" + brokenId + "' }";
+        assertNull(gallery.getString(broken + ".thumbnailUrl"));
+        assertNotNull(gallery.getString(broken + ".imageUrl"));
+    }
+
+    @Test
+    @Order(5)
+    void exifOrientation_isApplied() throws Exception {
+        // Stored landscape, viewed portrait (orientation 6: rotate 90 degrees clockwise)
+        Derivatives derivatives = ImageDerivatives.create(
+                new ByteArrayInputStream(withOrientation(jpeg(1600, 1200), 6)), 320, 0.8f, 1280, 0.85f);
+
+        assertEquals(1200, derivatives.width());
+        assertEquals(1600, derivatives.height());
+        assertEquals(960, derivatives.preview().width());
+        assertEquals(1280, derivatives.preview().height());
+        BufferedImage preview = ImageIO.read(new ByteArrayInputStream(derivatives.preview().data()));
+        assertEquals(960, preview.getWidth());
+        assertEquals(1280, preview.getHeight());
+    }
+
+    @Test
+    @Order(6)
+    void failedRead_isNotUndecodable() throws Exception {
+        byte[] photo = jpeg(1600, 1200);
+        InputStream failing = new SequenceInputStream(
+                new ByteArrayInputStream(photo, 0, photo.length / 2),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("connection reset");
+                    }
+                });
+
+        IOException error = assertThrows(IOException.class,
+                () -> ImageDerivatives.create(failing, 320, 0.8f, 1280, 0.85f));
+        assertEquals("connection reset", error.getMessage());
+
+        assertThrows(UndecodableImageException.class, () -> ImageDerivatives.create(
+                new ByteArrayInputStream("not an image".getBytes(StandardCharsets.UTF_8)), 320, 0.8f, 1280, 0.85f));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteImagesAndFiles() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement images = connection.prepareStatement("DELETE FROM images WHERE tenant_id = ?");
+             PreparedStatement sessions = connection.prepareStatement(
+                     "DELETE FROM photo_processing_sessions WHERE tenant_id = ?")) {
+            images.setString(1, TENANT);
+            images.executeUpdate();
+            sessions.setString(1, TENANT);
+            sessions.executeUpdate();
+        }
+        String prefix = "sessions/" + sessionId + "/derivatives/" + photoId + "/";
+        storageService.delete(prefix + "thumb.jpg");
+        storageService.delete(prefix + "preview.jpg");
+        storageService.delete("derivative-test/" + photoId + ".jpg");
+        storageService.delete("derivative-test/" + brokenId + ".jpg");
+    }
+
+    private JsonPath gallery() {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images/with-urls")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+    }
+
+    private void bindImage(PreparedStatement stmt, UUID id, String storageUrl) throws Exception {
+        stmt.setObject(1, id);
+        stmt.setString(2, TENANT);
+        stmt.setObject(3, sessionId);
+        stmt.setString(4, storageUrl);
+        stmt.addBatch();
+    }
+
+    private static byte[] jpeg(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(60, 140, 60));
+        g.fillRect(0, 0, width, height);
+        g.setColor(new Color(200, 180, 40));
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", bytes);
+        return bytes.toByteArray();
+    }
+
+    // An EXIF APP1 segment with only the orientation tag, after the JFIF APP0 segment
+    private static byte[] withOrientation(byte[] jpeg, int orientation) {
+        byte[] exif = {
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0};
+        int app0End = 4 + ((jpeg[4] & 0xFF) << 8 | jpeg[5] & 0xFF);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(jpeg, 0, app0End);
+        bytes.write(0xFF);
+        bytes.write(0xE1);
+        bytes.write((exif.length + 2) >> 8);
+        bytes.write((exif.length + 2) & 0xFF);
+        bytes.write(exif, 0, exif.length);
+        bytes.write(jpeg, app0End, jpeg.length - app0End);
+        return bytes.toByteArray();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("Condition not met within 15 s");
+    }
+
+    private Object queryUnchecked(String sql, UUID id) {
+        try {
+            return query(sql, id);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object query(String sql, UUID id) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+}
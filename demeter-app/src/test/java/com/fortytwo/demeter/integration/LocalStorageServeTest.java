@@ -0,0 +1,159 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import com.fortytwo.demeter.fotos.storage.StoredObject;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests streaming reads: {@link StorageService#openRead} streams a file with
+ * its metadata, and the local file endpoint serves byte ranges and answers
+ * revalidation with 304.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class LocalStorageServeTest {
+
+    private static final int SIZE = 10_000;
+    private static final byte[] DATA = new byte[SIZE];
+    private static final String PATH = "storage-serve-test/" + UUID.randomUUID() + ".jpg";
+
+    static {
+        new Random(42).nextBytes(DATA);
+    }
+
+    @Inject
+    StorageService storageService;
+
+    private static String etag;
+    private static String lastModified;
+
+    @Test
+    @Order(1)
+    void openRead_streamsContentWithMetadata() throws Exception {
+        storageService.upload(DATA, PATH, "image/jpeg");
+
+        try (StoredObject object = storageService.openRead(PATH).orElseThrow();
+             InputStream in = object.inputStream()) {
+            assertArrayEquals(DATA, in.readAllBytes());
+            assertEquals(SIZE, object.metadata().size());
+            assertEquals("image/jpeg", object.metadata().contentType());
+            assertNotNull(object.metadata().etag());
+        }
+        assertTrue(storageService.openRead("storage-serve-test/missing.jpg").isEmpty());
+    }
+
+    @Test
+    @Order(2)
+    void get_servesWholeFileWithValidators() {
+        Response response = get(null, null);
+        response.then()
+                .statusCode(200)
+                .header("Content-Length", String.valueOf(SIZE))
+                .header("Content-Type", "image/jpeg")
+                .header("Accept-Ranges", "bytes")
+                .header("Cache-Control", "public, max-age=3600");
+        assertArrayEquals(DATA, response.asByteArray());
+
+        etag = response.header("ETag");
+        lastModified = response.header("Last-Modified");
+        assertEquals(storageService.getMetadata(PATH).orElseThrow().etag(), etag);
+        assertNotNull(lastModified);
+    }
+
+    @Test
+    @Order(3)
+    void range_servesPartialContent() {
+        Response response = get("Range", "bytes=100-199");
+        response.then()
+                .statusCode(206)
+                .header("Content-Range", "bytes 100-199/" + SIZE)
+                .header("Content-Length", "100");
+        assertArrayEquals(Arrays.copyOfRange(DATA, 100, 200), response.asByteArray());
+
+        Response suffix = get("Range", "bytes=-500");
+        suffix.then()
+                .statusCode(206)
+                .header("Content-Range", "bytes " + (SIZE - 500) + "-" + (SIZE - 1) + "/" + SIZE);
+        assertArrayEquals(Arrays.copyOfRange(DATA, SIZE - 500, SIZE), suffix.asByteArray());
+
+        Response openEnded = get("Range", "bytes=9000-");
+        openEnded.then()
+                .statusCode(206)
+                .header("Content-Range", "bytes 9000-" + (SIZE - 1) + "/" + SIZE);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 9000, SIZE), openEnded.asByteArray());
+    }
+
+    @Test
+    @Order(4)
+    void unsatisfiableRange_returns416() {
+        get("Range", "bytes=" + SIZE + "-").then()
+                .statusCode(416)
+                .header("Content-Range", "bytes */" + SIZE);
+    }
+
+    @Test
+    @Order(5)
+    void revalidation_returns304() {
+        get("If-None-Match", etag).then()
+                .statusCode(304)
+                .header("ETag", equalTo(etag));
+        get("If-Modified-Since", lastModified).then().statusCode(304);
+        get("If-None-Match", "\"stale\"").then().statusCode(200);
+    }
+
+    @Test
+    @Order(6)
+    void staleIfRange_servesWholeFile() {
+        given()
+                .header("Range", "bytes=0-9")
+                .header("If-Range", "\"stale\"")
+                .when()
+                .get("/api/v1/storage/" + PATH)
+                .then()
+                .statusCode(200)
+                .header("Content-Length", String.valueOf(SIZE));
+
+        given()
+                .header("Range", "bytes=0-9")
+                .header("If-Range", etag)
+                .when()
+                .get("/api/v1/storage/" + PATH)
+                .then()
+                .statusCode(206);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteFile() {
+        storageService.delete(PATH);
+        get(null, null).then().statusCode(404);
+    }
+
+    private static Response get(String header, String value) {
+        var request = given();
+        if (header != null) {
+            request.header(header, value);
+        }
+        return request.when().get("/api/v1/storage/" + PATH);
+    }
+}
@@ -0,0 +1,278 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.specification.RequestSpecification;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests the streaming multipart variant of {@code POST /api/v1/ml/process},
+ * and the body limits every other request is held to.
+ *
+ * <p>The large-session test only runs when the JVM heap is smaller than the
+ * session it uploads ({@code ./gradlew :demeter-app:uploadHeapTest} runs it
+ * under {@code -Xmx256m}); a buffering implementation fails there with an
+ * OutOfMemoryError.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MLMultipartUploadTest {
+
+    private static final String TENANT = "tenant-ml-multipart-test";
+
+    private static final int LARGE_PART_BYTES = 8 * 1024 * 1024;
+    private static final int LARGE_PART_COUNT = 48;
+
+    @Inject
+    StorageService storageService;
+
+    @TestHTTPResource
+    URL baseUrl;
+
+    private static File smallImage;
+    private static File largeImage;
+    private static File oversizedImage;
+
+    @BeforeAll
+    static void createFiles() throws IOException {
+        smallImage = createFile("small", 64 * 1024);
+        largeImage = createFile("large", LARGE_PART_BYTES);
+        // One byte over the test profile's max-part-bytes (10 MiB)
+        oversizedImage = createFile("oversized", 10 * 1024 * 1024 + 1);
+    }
+
+    @AfterAll
+    static void deleteFiles() throws IOException {
+        for (File file : List.of(smallImage, largeImage, oversizedImage)) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Test
+    @Order(1)
+    void multipart_storesEveryPart() {
+        RequestSpecification request = given().header("X-Tenant-ID", TENANT);
+        for (int i = 0; i < 3; i++) {
+            request.multiPart("images", smallImage, "image/jpeg");
+        }
+
+        String sessionId = request
+                .multiPart("pipeline", "DETECTION")
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(202)
+                .body("status", equalTo("PROCESSING"))
+                .extract().path("sessionId");
+
+        List<String> storageUrls = given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(3))
+                .body("fileSize", everyItem(equalTo(64 * 1024)))
+                .body("mimeType", everyItem(equalTo("image/jpeg")))
+                .extract().path("storageUrl");
+
+        for (String storageUrl : storageUrls) {
+            assertTrue(storageService.exists(storageUrl), "Missing in storage: " + storageUrl);
+            storageService.delete(storageUrl);
+        }
+    }
+
+    @Test
+    @Order(2)
+    void multipart_invalidContentType_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .multiPart("images", smallImage, "image/jpeg")
+                .multiPart("images", smallImage, "application/pdf")
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(400)
+                .body("error", containsString("application/pdf"));
+    }
+
+    @Test
+    @Order(3)
+    void multipart_oversizedPart_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .multiPart("images", oversizedImage, "image/jpeg")
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(400)
+                .body("error", containsString("max 10485760"));
+    }
+
+    @Test
+    @Order(4)
+    void multipart_noImages_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .multiPart("pipeline", "DETECTION")
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(5)
+    void jsonBodyOverLimit_returns413() {
+        // Only the multipart variant gets the large limit; JSON is held to demeter.http.max-body-size
+        byte[] body = new byte[10 * 1024 * 1024 + 1];
+        Arrays.fill(body, (byte) ' ');
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(413)
+                .body("status", equalTo(413));
+    }
+
+    @Test
+    @Order(6)
+    void chunkedJsonBody_isAccepted() throws Exception {
+        byte[] body = """
+                {"sku": "CHUNKED-BODY-001", "name": "Chunked Body"}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        HttpResponse<String> response = sendChunked("POST", "/api/v1/products", "application/json", body);
+
+        assertEquals(201, response.statusCode(), response.body());
+    }
+
+    @Test
+    @Order(7)
+    void chunkedJsonBodyOverLimit_returns413() throws Exception {
+        // No Content-Length to check up front: rejected while reading
+        byte[] body = new byte[10 * 1024 * 1024 + 1];
+        Arrays.fill(body, (byte) ' ');
+
+        HttpResponse<String> response = sendChunked("POST", "/api/v1/ml/process", "application/json", body);
+
+        assertEquals(413, response.statusCode());
+        assertTrue(response.body().contains("\"status\":413"), response.body());
+    }
+
+    @Test
+    @Order(8)
+    void directUploadOverPartLimit_returns413() {
+        // Signed storage uploads are held to max-part-bytes, not demeter.http.max-body-size
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType("image/jpeg")
+                .body(oversizedImage)
+                .when()
+                .put("/api/v1/storage/upload/sessions/oversized.jpg?expires=0&signature=x")
+                .then()
+                .statusCode(413)
+                .body("status", equalTo(413));
+    }
+
+    @Test
+    @Order(10)
+    @Tag("upload-heap")
+    void multipart_sessionLargerThanHeap_isStreamed() {
+        long sessionBytes = (long) LARGE_PART_BYTES * LARGE_PART_COUNT;
+        assumeTrue(Runtime.getRuntime().maxMemory() < sessionBytes,
+                "Heap is larger than the session; run uploadHeapTest for a meaningful check");
+
+        RequestSpecification request = given().header("X-Tenant-ID", TENANT);
+        for (int i = 0; i < LARGE_PART_COUNT; i++) {
+            request.multiPart("images", largeImage, "image/jpeg");
+        }
+
+        String sessionId = request
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(202)
+                .extract().path("sessionId");
+
+        List<String> storageUrls = given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(LARGE_PART_COUNT))
+                .body("fileSize", everyItem(equalTo(LARGE_PART_BYTES)))
+                .extract().path("storageUrl");
+
+        for (String storageUrl : storageUrls) {
+            storageService.delete(storageUrl);
+        }
+    }
+
+    private HttpResponse<String> sendChunked(String method, String path, String contentType, byte[] body)
+            throws Exception {
+        // An unknown body length is sent chunked
+        HttpRequest request = HttpRequest.newBuilder(baseUrl.toURI().resolve(path))
+                .header("X-Tenant-ID", TENANT)
+                .header("Content-Type", contentType)
+                .method(method, HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(body)))
+                .build();
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            return client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+    }
+
+    private static File createFile(String name, int size) throws IOException {
+        Path path = Files.createTempFile("ml-multipart-" + name, ".jpg");
+        byte[] block = new byte[64 * 1024];
+        new Random(size).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            int remaining = size;
+            while (remaining > 0) {
+                int length = Math.min(block.length, remaining);
+                out.write(block, 0, length);
+                remaining -= length;
+            }
+        }
+        return path.toFile();
+    }
+}
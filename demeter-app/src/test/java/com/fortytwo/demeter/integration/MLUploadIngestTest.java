@@ -0,0 +1,205 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.service.ImageService;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.specification.RequestSpecification;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests that {@code POST /api/v1/ml/process} uploads in parallel before any
+ * database write, and removes uploaded objects when a later step fails.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MLUploadIngestTest {
+
+    private static final String TENANT = "tenant-ml-ingest-test";
+    private static final int UPLOAD_CONCURRENCY = 4;
+    private static final byte[] IMAGE = new byte[4096];
+
+    @InjectSpy
+    StorageService storageService;
+
+    @InjectSpy
+    ImageService imageService;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static String sessionId;
+
+    @Test
+    @Order(1)
+    void uploads_runInParallelBeforeSessionIsWritten() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicBoolean sessionExistedDuringUpload = new AtomicBoolean();
+
+        doAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(150);
+                if (sessionRowExists(sessionIdFromPath(invocation.getArgument(2)))) {
+                    sessionExistedDuringUpload.set(true);
+                }
+                return invocation.callRealMethod();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }).when(storageService).upload(any(InputStream.class), anyLong(), anyString(), anyString());
+
+        sessionId = multipart(8, 0)
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(202)
+                .extract().path("sessionId");
+
+        assertTrue(maxInFlight.get() > 1, "Uploads were not parallel");
+        assertTrue(maxInFlight.get() <= UPLOAD_CONCURRENCY,
+                "Upload fan-out exceeded " + UPLOAD_CONCURRENCY + ": " + maxInFlight.get());
+        assertFalse(sessionExistedDuringUpload.get(), "Session was written before uploads finished");
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status")
+                .then()
+                .statusCode(200)
+                .body("status", equalTo("PROCESSING"))
+                .body("totalImages", equalTo(8));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(8));
+    }
+
+    @Test
+    @Order(2)
+    void failedRegistration_removesUploadedObjects() throws Exception {
+        List<String> stored = recordStoredPaths(null);
+        doThrow(new IllegalStateException("insert failed"))
+                .when(imageService).registerUploadedSession(any(), any());
+
+        multipart(3, 0)
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(500);
+
+        assertEquals(3, stored.size());
+        for (String path : stored) {
+            assertFalse(storageService.exists(path), "Orphaned object left behind: " + path);
+        }
+        assertFalse(sessionRowExists(sessionIdFromPath(stored.get(0))));
+    }
+
+    @Test
+    @Order(3)
+    void failedUpload_removesOtherObjectsAndSkipsDatabase() {
+        List<String> stored = recordStoredPaths("image/png");
+
+        multipart(2, 1)
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(500);
+
+        assertEquals(2, stored.size());
+        for (String path : stored) {
+            assertFalse(storageService.exists(path), "Orphaned object left behind: " + path);
+        }
+        verify(imageService, never()).registerUploadedSession(any(), any());
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    /**
+     * Record every successful upload; uploads with {@code failingContentType} throw.
+     */
+    private List<String> recordStoredPaths(String failingContentType) {
+        List<String> stored = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            if (invocation.getArgument(3).equals(failingContentType)) {
+                throw new IllegalStateException("storage unavailable");
+            }
+            String path = (String) invocation.callRealMethod();
+            stored.add(path);
+            return path;
+        }).when(storageService).upload(any(InputStream.class), anyLong(), anyString(), anyString());
+        return stored;
+    }
+
+    private static RequestSpecification multipart(int jpegs, int pngs) {
+        RequestSpecification request = given().header("X-Tenant-ID", TENANT);
+        for (int i = 0; i < jpegs; i++) {
+            request.multiPart("images", "image-" + i + ".jpg", IMAGE, "image/jpeg");
+        }
+        for (int i = 0; i < pngs; i++) {
+            request.multiPart("images", "image-" + i + ".png", IMAGE, "image/png");
+        }
+        return request;
+    }
+
+    private static UUID sessionIdFromPath(String storagePath) {
+        // sessions/{sessionId}/images/{file}
+        return UUID.fromString(storagePath.split("/")[1]);
+    }
+
+    private boolean sessionRowExists(UUID id) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT 1 FROM photo_processing_sessions WHERE id = ?")) {
+            stmt.setObject(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
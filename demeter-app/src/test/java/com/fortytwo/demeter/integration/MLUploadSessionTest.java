@@ -0,0 +1,321 @@
+package com.fortytwo.demeter.integration;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the two-phase direct-to-storage upload flow against the test-profile
+ * {@code LocalStorageService}, whose signed PUT URLs are served by
+ * {@code LocalStorageController}.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MLUploadSessionTest {
+
+    private static final String TENANT = "tenant-ml-upload-session-test";
+
+    private static final byte[] FIRST_IMAGE = new byte[1024];
+    private static final byte[] SECOND_IMAGE = new byte[2048];
+
+    private static String sessionId;
+    private static List<String> uploadUrls;
+
+    @Test
+    @Order(1)
+    void createSession_returnsSignedUploadUrls() {
+        ExtractableResponse<Response> response = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"images": [
+                            {"filename": "first.jpg", "contentType": "image/jpeg", "fileSize": 1024},
+                            {"filename": "second.png", "contentType": "image/png"}
+                        ]}
+                        """)
+                .when()
+                .post("/api/v1/ml/sessions")
+                .then()
+                .statusCode(201)
+                .body("status", equalTo("PENDING"))
+                .body("uploadUrlsExpireAt", notNullValue())
+                .body("uploads.size()", equalTo(2))
+                .body("uploads[0].uploadUrl", containsString("/api/v1/storage/upload/sessions/"))
+                .body("uploads[0].uploadUrl", containsString("signature="))
+                .extract();
+
+        sessionId = response.path("sessionId");
+        uploadUrls = response.path("uploads.uploadUrl");
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2))
+                .body("mimeType", hasItems("image/jpeg", "image/png"));
+    }
+
+    @Test
+    @Order(2)
+    void createSession_invalidContentType_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"images": [{"filename": "doc.pdf", "contentType": "application/pdf"}]}
+                        """)
+                .when()
+                .post("/api/v1/ml/sessions")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(3)
+    void createSession_noImages_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"images": []}
+                        """)
+                .when()
+                .post("/api/v1/ml/sessions")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(4)
+    void upload_tamperedSignature_returns403() {
+        String url = createSingleImageSession();
+
+        given()
+                .urlEncodingEnabled(false)
+                .contentType("image/jpeg")
+                .body(FIRST_IMAGE)
+                .when()
+                .put(relative(url).replace("signature=", "signature=x"))
+                .then()
+                .statusCode(403);
+
+        // Signature is bound to the content type
+        given()
+                .urlEncodingEnabled(false)
+                .contentType("image/png")
+                .body(FIRST_IMAGE)
+                .when()
+                .put(relative(url))
+                .then()
+                .statusCode(403);
+    }
+
+    @Test
+    @Order(5)
+    void finalize_beforeAllUploads_returns400() {
+        put(uploadUrls.get(0), "image/jpeg", FIRST_IMAGE);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{}")
+                .when()
+                .post("/api/v1/ml/sessions/" + sessionId + "/finalize")
+                .then()
+                .statusCode(400)
+                .body("detail", containsString("second.png was not uploaded"));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status")
+                .then()
+                .statusCode(200)
+                .body("status", equalTo("PENDING"));
+    }
+
+    @Test
+    @Order(6)
+    void finalize_declaredSizeMismatch_returns400() {
+        put(uploadUrls.get(0), "image/jpeg", new byte[10]);
+        put(uploadUrls.get(1), "image/png", SECOND_IMAGE);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{}")
+                .when()
+                .post("/api/v1/ml/sessions/" + sessionId + "/finalize")
+                .then()
+                .statusCode(400)
+                .body("detail", containsString("first.jpg is 10 bytes, expected 1024"));
+    }
+
+    @Test
+    @Order(7)
+    void finalize_afterAllUploads_enqueues() {
+        put(uploadUrls.get(0), "image/jpeg", FIRST_IMAGE);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"pipeline": "DETECTION"}
+                        """)
+                .when()
+                .post("/api/v1/ml/sessions/" + sessionId + "/finalize")
+                .then()
+                .statusCode(202)
+                .body("status", equalTo("PROCESSING"))
+                .body("totalImages", equalTo(2));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/images")
+                .then()
+                .statusCode(200)
+                .body("fileSize", hasItems(1024, 2048));
+    }
+
+    @Test
+    @Order(8)
+    void finalize_twice_returns409() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{}")
+                .when()
+                .post("/api/v1/ml/sessions/" + sessionId + "/finalize")
+                .then()
+                .statusCode(409);
+    }
+
+    @Test
+    @Order(9)
+    void finalize_concurrently_enqueuesOnce() throws Exception {
+        ExtractableResponse<Response> created = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"images": [{"filename": "race.jpg", "contentType": "image/jpeg"}]}
+                        """)
+                .when()
+                .post("/api/v1/ml/sessions")
+                .then()
+                .statusCode(201)
+                .extract();
+        String raceSessionId = created.path("sessionId");
+        put(created.path("uploads[0].uploadUrl"), "image/jpeg", FIRST_IMAGE);
+
+        List<Callable<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            calls.add(() -> given()
+                    .header("X-Tenant-ID", TENANT)
+                    .contentType(ContentType.JSON)
+                    .body("{}")
+                    .when()
+                    .post("/api/v1/ml/sessions/" + raceSessionId + "/finalize")
+                    .then()
+                    .extract().statusCode());
+        }
+        List<Integer> statuses = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(calls.size())) {
+            for (Future<Integer> future : executor.invokeAll(calls)) {
+                statuses.add(future.get());
+            }
+        }
+
+        assertEquals(1, Collections.frequency(statuses, 202), "statuses " + statuses);
+        assertEquals(calls.size() - 1, Collections.frequency(statuses, 409), "statuses " + statuses);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + raceSessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    @Test
+    @Order(10)
+    void finalize_unknownSession_returns404() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{}")
+                .when()
+                .post("/api/v1/ml/sessions/00000000-0000-0000-0000-000000000000/finalize")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    private static String createSingleImageSession() {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"images": [{"filename": "single.jpg", "contentType": "image/jpeg"}]}
+                        """)
+                .when()
+                .post("/api/v1/ml/sessions")
+                .then()
+                .statusCode(201)
+                .extract().path("uploads[0].uploadUrl");
+    }
+
+    private static void put(String url, String contentType, byte[] body) {
+        given()
+                .urlEncodingEnabled(false)
+                .contentType(contentType)
+                .body(body)
+                .when()
+                .put(relative(url))
+                .then()
+                .statusCode(200);
+    }
+
+    /**
+     * Signed URLs point at the configured base URL; send them to the test server.
+     */
+    private static String relative(String url) {
+        URI uri = URI.create(url);
+        return uri.getRawPath() + "?" + uri.getRawQuery();
+    }
+}
@@ -0,0 +1,236 @@
+package com.fortytwo.demeter.integration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.resilience.CircuitBreaker;
+import com.fortytwo.demeter.fotos.service.MLWorkerClient;
+import com.fortytwo.demeter.fotos.service.MLWorkerClient.MLWorkerResponse;
+import com.fortytwo.demeter.fotos.service.MLWorkerClient.MLWorkerUnavailableException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests MLWorkerClient against a local stub ML Worker: the streamed request
+ * body, retry of 503 responses, the circuit breaker opening and closing
+ * again after a single half-open probe, and the bulkhead refusing calls
+ * beyond its limit.
+ */
+@QuarkusTest
+@TestProfile(MLWorkerClientTest.StubWorkerProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class MLWorkerClientTest {
+
+    private static final int STUB_PORT = 18765;
+    private static final String OK_BODY = """
+            {"success": true, "image_id": "stub", "pipeline": "SEGMENT_DETECT", "duration_ms": 5,
+             "results": {"detection": [{"center_x_px": 10, "center_y_px": 20, "width_px": 4,
+                                        "height_px": 6, "confidence": 0.9, "class_name": "plant"}]}}
+            """;
+
+    public static class StubWorkerProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "demeter.mlworker.url", "http://localhost:" + STUB_PORT,
+                    "demeter.mlworker.max-concurrent-requests", "2",
+                    "demeter.mlworker.circuit-breaker.failure-threshold", "3",
+                    "demeter.mlworker.circuit-breaker.open-ms", "500",
+                    "demeter.mlworker.retry.max-attempts", "3",
+                    "demeter.mlworker.retry.initial-backoff-ms", "10",
+                    "demeter.mlworker.retry.max-backoff-ms", "50");
+        }
+    }
+
+    /** Response statuses to send, in order; 200 once exhausted. */
+    private static final List<Integer> statuses = new ArrayList<>();
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final Semaphore received = new Semaphore(0);
+    private static final AtomicReference<byte[]> lastBody = new AtomicReference<>();
+    private static volatile CountDownLatch gate = new CountDownLatch(0);
+
+    private static HttpServer server;
+
+    @Inject
+    MLWorkerClient client;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @BeforeAll
+    static void startStubWorker() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", STUB_PORT), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/dev/process-image-json", MLWorkerClientTest::handle);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopStubWorker() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    void resetStub() {
+        synchronized (statuses) {
+            statuses.clear();
+        }
+        requests.set(0);
+        received.drainPermits();
+        gate = new CountDownLatch(0);
+    }
+
+    @Test
+    @Order(1)
+    void processImage_streamsBase64EncodedBody() throws Exception {
+        // Not a multiple of 3 and larger than one encoding chunk
+        byte[] image = new byte[100_001];
+        new Random(42).nextBytes(image);
+
+        MLWorkerResponse response = client.processImage(image, "plant \"1\".jpg", "image/jpeg", "SEGMENT_DETECT");
+
+        assertTrue(response.success);
+        assertEquals(1, response.results.detection.size());
+        JsonNode body = objectMapper.readTree(lastBody.get());
+        assertEquals("plant \"1\".jpg", body.get("filename").asText());
+        assertEquals("image/jpeg", body.get("contentType").asText());
+        assertEquals("SEGMENT_DETECT", body.get("pipeline").asText());
+        assertArrayEquals(image, Base64.getDecoder().decode(body.get("imageBase64").asText()));
+    }
+
+    @Test
+    @Order(2)
+    void unavailableResponses_areRetried() {
+        respondWith(503, 503);
+
+        MLWorkerResponse response = client.processImage(new byte[] {1, 2, 3}, "a.jpg", "image/jpeg", "DETECT");
+
+        assertTrue(response.success);
+        assertEquals(3, requests.get());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState());
+    }
+
+    @Test
+    @Order(3)
+    void consecutiveFailures_openCircuit() {
+        respondWith(500, 500, 500);
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(RuntimeException.class, this::callWorker);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState());
+
+        assertThrows(MLWorkerUnavailableException.class, this::callWorker);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    @Order(4)
+    void openCircuit_singleHalfOpenProbeClosesIt() throws Exception {
+        Thread.sleep(600);
+        gate = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<MLWorkerResponse> probe = executor.submit(this::callWorker);
+            assertTrue(received.tryAcquire(5, TimeUnit.SECONDS));
+            assertEquals(CircuitBreaker.State.HALF_OPEN, client.getCircuitState());
+
+            // Only the probe is let through
+            assertThrows(MLWorkerUnavailableException.class, this::callWorker);
+
+            gate.countDown();
+            assertTrue(probe.get(5, TimeUnit.SECONDS).success);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    @Order(5)
+    void fullBulkhead_refusesCalls() throws Exception {
+        gate = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            List<Future<MLWorkerResponse>> inFlight = List.of(
+                    executor.submit(this::callWorker),
+                    executor.submit(this::callWorker));
+            assertTrue(received.tryAcquire(2, 5, TimeUnit.SECONDS));
+
+            assertThrows(MLWorkerUnavailableException.class, this::callWorker);
+
+            gate.countDown();
+            for (Future<MLWorkerResponse> call : inFlight) {
+                assertTrue(call.get(5, TimeUnit.SECONDS).success);
+            }
+        }
+        assertEquals(2, requests.get());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState());
+    }
+
+    private MLWorkerResponse callWorker() {
+        return client.processImage(new byte[] {1, 2, 3}, "a.jpg", "image/jpeg", "DETECT");
+    }
+
+    private static void respondWith(Integer... codes) {
+        synchronized (statuses) {
+            statuses.addAll(List.of(codes));
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        lastBody.set(exchange.getRequestBody().readAllBytes());
+        requests.incrementAndGet();
+        received.release();
+        try {
+            gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int status;
+        synchronized (statuses) {
+            status = statuses.isEmpty() ? 200 : statuses.removeFirst();
+        }
+        byte[] body = status == 200
+                ? OK_BODY.getBytes(StandardCharsets.UTF_8)
+                : ("{\"detail\": \"stub status " + status + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.app.map.repository.MapViewRepository;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Verifies map bulk-load caching by counting repository invocations.
+ *
+ * <p>Relies on {@code demeter.map.cache.refresh-after-seconds=3} from the
+ * test profile for the refresh-ahead case.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MapBulkLoadCacheTest {
+
+    private static final String TENANT = "tenant-map-cache-test";
+
+    @InjectSpy
+    MapViewRepository repository;
+
+    private static String warehouseId;
+
+    @Test
+    @Order(1)
+    void setup_createHierarchy() {
+        warehouseId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Cache Warehouse"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String areaId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Cache Area"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses/" + warehouseId + "/areas")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Cache Location"}
+                        """)
+                .when()
+                .post("/api/v1/areas/" + areaId + "/locations")
+                .then()
+                .statusCode(201);
+    }
+
+    @Test
+    @Order(2)
+    void repeatedRequests_hitRepositoryOnce() {
+        invalidate();
+        clearInvocations(repository);
+
+        for (int i = 0; i < 5; i++) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .get("/api/v1/map/bulk-load")
+                    .then()
+                    .statusCode(200)
+                    .body("warehouses.size()", equalTo(1));
+        }
+
+        verify(repository, times(1)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(3)
+    void concurrentMisses_triggerSingleQuery() throws Exception {
+        invalidate();
+        clearInvocations(repository);
+
+        int callers = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return given()
+                            .header("X-Tenant-ID", TENANT)
+                            .when()
+                            .get("/api/v1/map/bulk-load")
+                            .then()
+                            .extract().statusCode();
+                }));
+            }
+            start.countDown();
+
+            for (Future<Integer> result : results) {
+                assertEquals(200, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(repository, times(1)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(4)
+    void staleEntry_isServedAndRefreshedInBackground() throws Exception {
+        invalidate();
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200);
+        clearInvocations(repository);
+
+        // Wait past the test refresh window (3s)
+        Thread.sleep(3500);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(1));
+
+        // Exactly one background refresh
+        verify(repository, timeout(5000).times(1)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(5)
+    void otherTenant_isCachedIndependently() {
+        clearInvocations(repository);
+
+        given()
+                .header("X-Tenant-ID", "tenant-map-cache-other")
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(0));
+
+        verify(repository, times(1)).getBulkLoadData(any());
+
+        clearInvocations(repository);
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200);
+
+        verify(repository, never()).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteWarehouse() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/warehouses/" + warehouseId)
+                .then()
+                .statusCode(204);
+    }
+
+    private void invalidate() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .when()
+                .post("/api/v1/map/cache/invalidate")
+                .then()
+                .statusCode(204);
+    }
+}
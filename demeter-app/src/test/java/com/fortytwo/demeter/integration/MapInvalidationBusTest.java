@@ -0,0 +1,281 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.app.map.repository.MapViewRepository;
+import com.fortytwo.demeter.app.map.service.MapInvalidationBus;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Verifies cross-instance map cache invalidation over PostgreSQL LISTEN/NOTIFY
+ * against the Dev Services database.
+ *
+ * <p>Notifications are sent from plain JDBC connections or fired by the V19
+ * triggers, as another instance would. Each check completes well within the
+ * test refresh window (3s), so a reload can only come from the notification.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MapInvalidationBusTest {
+
+    private static final String TENANT = "tenant-map-invalidation-test";
+
+    @InjectSpy
+    MapViewRepository repository;
+
+    @Inject
+    MapInvalidationBus bus;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static String warehouseId;
+    private static String areaId;
+    private static final UUID sessionId = UUID.randomUUID();
+
+    @Test
+    @Order(1)
+    void setup_createHierarchy() {
+        warehouseId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Notify Warehouse"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        areaId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Notify Area"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses/" + warehouseId + "/areas")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        createLocation("Notify Location 1");
+    }
+
+    @Test
+    @Order(2)
+    void listener_isConnected() throws Exception {
+        assertTrue(awaitCondition(bus::isListening, 10_000), "LISTEN connection was not established");
+    }
+
+    @Test
+    @Order(3)
+    void notifyFromOtherConnection_evictsTenant() throws Exception {
+        warmCache();
+        clearInvocations(repository);
+
+        notifyRaw(TENANT);
+
+        assertTrue(awaitCondition(() -> {
+            bulkLoad();
+            return wasReloaded();
+        }, 2_000), "Cache was not evicted by NOTIFY");
+    }
+
+    @Test
+    @Order(4)
+    void notifyForOtherTenant_keepsEntry() throws Exception {
+        warmCache();
+        clearInvocations(repository);
+
+        notifyRaw("tenant-map-invalidation-other");
+        Thread.sleep(500);
+
+        bulkLoad();
+        verify(repository, never()).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(5)
+    void hierarchyWrite_evictsViaTrigger() throws Exception {
+        warmCache();
+
+        // Location endpoints do not touch the map cache themselves - the
+        // eviction has to come from the storage_locations trigger.
+        createLocation("Notify Location 2");
+
+        assertTrue(awaitCondition(() -> given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .extract().<Integer>path("warehouses[0].areas[0].locations.size()") == 2,
+                2_000), "Trigger notification did not evict the cache");
+    }
+
+    @Test
+    @Order(6)
+    void sessionStatusTrigger_evictsOnlyOnCompletedTransitions() throws Exception {
+        execute("""
+                INSERT INTO photo_processing_sessions
+                    (id, tenant_id, status, total_images, processed_images, created_at)
+                VALUES (?, ?, 'PENDING', 1, 0, now())
+                """, sessionId, TENANT);
+        warmCache();
+        clearInvocations(repository);
+
+        execute("UPDATE photo_processing_sessions SET status = 'PROCESSING' WHERE id = ?", sessionId);
+        Thread.sleep(500);
+        bulkLoad();
+        verify(repository, never()).getBulkLoadData(any());
+
+        execute("UPDATE photo_processing_sessions SET status = 'COMPLETED' WHERE id = ?", sessionId);
+        assertTrue(awaitCondition(() -> {
+            bulkLoad();
+            return wasReloaded();
+        }, 2_000), "Completing the session did not evict the cache");
+    }
+
+    @Test
+    @Order(7)
+    void lostConnection_reconnectsAndFlushes() throws Exception {
+        warmCache();
+        long reconnectsBefore = bus.getReconnectCount();
+        clearInvocations(repository);
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT pg_terminate_backend(pid) FROM pg_stat_activity "
+                             + "WHERE application_name = 'demeter-map-invalidation'")) {
+            stmt.execute();
+        }
+
+        assertTrue(awaitCondition(() -> bus.getReconnectCount() > reconnectsBefore && bus.isListening(), 2_000),
+                "Listener did not reconnect");
+
+        // Full flush on reconnect - the next request reloads
+        bulkLoad();
+        verify(repository, times(1)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteWarehouse() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/warehouses/" + warehouseId)
+                .then()
+                .statusCode(204);
+    }
+
+    private void createLocation(String name) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{\"name\": \"" + name + "\"}")
+                .when()
+                .post("/api/v1/areas/" + areaId + "/locations")
+                .then()
+                .statusCode(201);
+    }
+
+    private void warmCache() throws Exception {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .when()
+                .post("/api/v1/map/cache/invalidate")
+                .then()
+                .statusCode(204);
+        // Let our own publication come back through the listener before loading
+        Thread.sleep(300);
+        bulkLoad();
+    }
+
+    private void bulkLoad() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(1));
+    }
+
+    private boolean wasReloaded() {
+        try {
+            verify(repository, times(1)).getBulkLoadData(any());
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        }
+    }
+
+    private void execute(String sql, Object... params) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement tenant = connection.prepareStatement(
+                    "SELECT set_config('app.current_tenant', ?, true)")) {
+                tenant.setString(1, TENANT);
+                tenant.execute();
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < params.length; i++) {
+                    stmt.setObject(i + 1, params[i]);
+                }
+                stmt.executeUpdate();
+            }
+            connection.commit();
+        }
+    }
+
+    private void notifyRaw(String payload) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("SELECT pg_notify('map_invalidation', ?)")) {
+            stmt.setString(1, payload);
+            stmt.execute();
+        }
+    }
+
+    private static boolean awaitCondition(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return condition.getAsBoolean();
+    }
+}
@@ -0,0 +1,258 @@
+package com.fortytwo.demeter.integration;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests keyset pagination of location history.
+ *
+ * <p>COMPLETED sessions cannot be produced through the API without the ML
+ * pipeline, so they are seeded over JDBC. Three of them share a creation time
+ * to exercise the (created_at, id) tie-breaker.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MapLocationHistoryTest {
+
+    private static final String TENANT = "tenant-map-history-test";
+    private static final int SESSION_COUNT = 5;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static String warehouseId;
+    private static String locationId;
+    private static final List<Seeded> seeded = new ArrayList<>();
+
+    private record Seeded(UUID id, Instant createdAt) {}
+
+    @Test
+    @Order(1)
+    void setup_createHierarchy() {
+        warehouseId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "History Warehouse"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String areaId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "History Area"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses/" + warehouseId + "/areas")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        locationId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "History Location"}
+                        """)
+                .when()
+                .post("/api/v1/areas/" + areaId + "/locations")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    @Test
+    @Order(2)
+    void setup_seedSessions() throws Exception {
+        Instant base = Instant.parse("2025-01-10T10:00:00Z");
+        Instant[] times = {
+                base,
+                base.plusSeconds(3600),
+                base.plusSeconds(7200),
+                base.plusSeconds(7200),
+                base.plusSeconds(7200)
+        };
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement tenant = connection.prepareStatement(
+                    "SELECT set_config('app.current_tenant', ?, true)")) {
+                tenant.setString(1, TENANT);
+                tenant.execute();
+            }
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at, storage_location_id)
+                    VALUES (?, ?, ?, 1, 1, ?, ?)
+                    """)) {
+                for (int i = 0; i < SESSION_COUNT; i++) {
+                    UUID id = UUID.randomUUID();
+                    bindSession(session, id, "COMPLETED", times[i]);
+                    seeded.add(new Seeded(id, times[i]));
+                }
+                // Not COMPLETED - must never show up in history
+                bindSession(session, UUID.randomUUID(), "PROCESSING", base.plusSeconds(9000));
+                session.executeBatch();
+            }
+
+            // Two images on the oldest session: still a single history row
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (tenant_id, session_id, storage_url, thumbnail_url, created_at)
+                    VALUES (?, ?, ?, ?, ?)
+                    """)) {
+                UUID oldest = seeded.get(0).id();
+                for (int i = 0; i < 2; i++) {
+                    image.setString(1, TENANT);
+                    image.setObject(2, oldest);
+                    image.setString(3, "history/original-" + i + ".jpg");
+                    image.setString(4, "history/thumb-" + i + ".jpg");
+                    image.setTimestamp(5, Timestamp.from(base.plusSeconds(i)));
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+
+            connection.commit();
+        }
+
+        // PostgreSQL orders uuid bytewise, which matches the hex string order
+        seeded.sort(Comparator.comparing(Seeded::createdAt)
+                .thenComparing(s -> s.id().toString())
+                .reversed());
+    }
+
+    @Test
+    @Order(3)
+    void firstPage_withTotal() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("perPage", 2)
+                .when()
+                .get("/api/v1/map/locations/" + locationId + "/history")
+                .then()
+                .statusCode(200)
+                .body("location.name", equalTo("History Location"))
+                .body("periods.size()", equalTo(2))
+                .body("pagination.totalItems", equalTo(SESSION_COUNT))
+                .body("pagination.totalPages", equalTo(3))
+                .body("pagination.hasMore", equalTo(true))
+                .body("pagination.nextCursor", notNullValue());
+    }
+
+    @Test
+    @Order(4)
+    void cursorWalk_returnsEverySessionOnceInOrder() {
+        List<String> visited = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+
+        do {
+            var request = given()
+                    .header("X-Tenant-ID", TENANT)
+                    .queryParam("perPage", 2)
+                    .queryParam("includeTotal", false);
+            if (cursor != null) {
+                request.queryParam("cursor", cursor);
+            }
+
+            JsonPath page = request
+                    .when()
+                    .get("/api/v1/map/locations/" + locationId + "/history")
+                    .then()
+                    .statusCode(200)
+                    .body("pagination.totalItems", nullValue())
+                    .extract().jsonPath();
+
+            visited.addAll(page.getList("periods.sessionId"));
+            cursor = page.getString("pagination.nextCursor");
+            pages++;
+        } while (cursor != null && pages < 10);
+
+        assertEquals(3, pages);
+        assertEquals(SESSION_COUNT, new HashSet<>(visited).size());
+        assertEquals(seeded.stream().map(s -> s.id().toString()).toList(), visited);
+    }
+
+    @Test
+    @Order(5)
+    void sessionWithSeveralImages_yieldsOneRowWithFirstThumbnail() {
+        JsonPath page = given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("perPage", 50)
+                .when()
+                .get("/api/v1/map/locations/" + locationId + "/history")
+                .then()
+                .statusCode(200)
+                .body("periods.size()", equalTo(SESSION_COUNT))
+                .extract().jsonPath();
+
+        // Oldest session is last (newest first)
+        assertEquals("history/thumb-0.jpg", page.getString("periods[-1].photoStorageKey"));
+        assertNull(page.getString("pagination.nextCursor"));
+    }
+
+    @Test
+    @Order(6)
+    void invalidCursor_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("cursor", "not-a-cursor")
+                .when()
+                .get("/api/v1/map/locations/" + locationId + "/history")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteWarehouse() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/warehouses/" + warehouseId)
+                .then()
+                .statusCode(204);
+    }
+
+    private static void bindSession(PreparedStatement stmt, UUID id, String status, Instant createdAt)
+            throws Exception {
+        stmt.setObject(1, id);
+        stmt.setString(2, TENANT);
+        stmt.setString(3, status);
+        stmt.setTimestamp(4, Timestamp.from(createdAt));
+        stmt.setObject(5, UUID.fromString(locationId));
+        stmt.addBatch();
+    }
+}
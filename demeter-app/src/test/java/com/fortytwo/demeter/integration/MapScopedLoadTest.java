@@ -0,0 +1,305 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.app.map.dto.MapScope;
+import com.fortytwo.demeter.app.map.repository.MapViewRepository;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests warehouse/area/bounding-box scoped map loading and the lazy expand endpoints.
+ *
+ * <p>Test data: warehouse North (-32.5, -68.5) with 2 areas, warehouse South
+ * (-34.5, -68.5) with 1 area; one location per area, plus a second location
+ * in North's first area.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class MapScopedLoadTest {
+
+    private static final String TENANT = "tenant-map-scope-test";
+
+    @InjectSpy
+    MapViewRepository repository;
+
+    private static String northId;
+    private static String southId;
+    private static String northArea1Id;
+
+    @Test
+    @Order(1)
+    void setup_createHierarchy() {
+        northId = createWarehouse("North", "-32.5", "-68.5");
+        southId = createWarehouse("South", "-34.5", "-68.5");
+
+        northArea1Id = createArea(northId, "North A1");
+        String northArea2Id = createArea(northId, "North A2");
+        String southAreaId = createArea(southId, "South A1");
+
+        createLocation(northArea1Id, "N1-L1");
+        createLocation(northArea1Id, "N1-L2");
+        createLocation(northArea2Id, "N2-L1");
+        createLocation(southAreaId, "S1-L1");
+
+        invalidate();
+    }
+
+    @Test
+    @Order(2)
+    void bulkLoad_unscoped_returnsEverything() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(2));
+    }
+
+    @Test
+    @Order(3)
+    void bulkLoad_byWarehouse() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("warehouseId", northId)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(1))
+                .body("warehouses[0].warehouseId", equalTo(northId))
+                .body("warehouses[0].areas.size()", equalTo(2));
+    }
+
+    @Test
+    @Order(4)
+    void bulkLoad_byArea() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("areaId", northArea1Id)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(1))
+                .body("warehouses[0].areas.size()", equalTo(1))
+                .body("warehouses[0].areas[0].locations.size()", equalTo(2));
+    }
+
+    @Test
+    @Order(5)
+    void bulkLoad_byBoundingBox() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("minLat", -35)
+                .queryParam("maxLat", -34)
+                .queryParam("minLng", -69)
+                .queryParam("maxLng", -68)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(1))
+                .body("warehouses[0].warehouseId", equalTo(southId));
+    }
+
+    @Test
+    @Order(6)
+    void bulkLoad_partialBoundingBox_returns400() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("minLat", -35)
+                .queryParam("maxLat", -34)
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(7)
+    void bulkLoad_unknownWarehouse_returnsEmpty() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("warehouseId", UUID.randomUUID().toString())
+                .when()
+                .get("/api/v1/map/bulk-load")
+                .then()
+                .statusCode(200)
+                .body("warehouses.size()", equalTo(0));
+    }
+
+    @Test
+    @Order(10)
+    void listWarehouses_withoutAreas() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/warehouses")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2))
+                .body("[0].areas.size()", equalTo(0));
+    }
+
+    @Test
+    @Order(11)
+    void expandWarehouse_returnsAreas() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/warehouses/" + northId + "/areas")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2));
+    }
+
+    @Test
+    @Order(12)
+    void expandArea_returnsLocations() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/map/areas/" + northArea1Id + "/locations")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2))
+                .body("[0].preview", notNullValue());
+    }
+
+    @Test
+    @Order(20)
+    void scopes_areCachedIndependently() {
+        invalidate();
+        clearInvocations(repository);
+
+        for (int i = 0; i < 3; i++) {
+            given().header("X-Tenant-ID", TENANT)
+                    .when().get("/api/v1/map/bulk-load")
+                    .then().statusCode(200);
+            given().header("X-Tenant-ID", TENANT)
+                    .queryParam("warehouseId", northId)
+                    .when().get("/api/v1/map/bulk-load")
+                    .then().statusCode(200);
+        }
+
+        verify(repository, times(1)).getBulkLoadData(argThat(MapScope::isAll));
+        verify(repository, times(1)).getBulkLoadData(argThat(scope -> northId.equals(String.valueOf(scope.warehouseId()))));
+        verify(repository, times(2)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(21)
+    void invalidate_dropsScopedEntries() {
+        clearInvocations(repository);
+        invalidate();
+
+        given().header("X-Tenant-ID", TENANT)
+                .queryParam("warehouseId", northId)
+                .when().get("/api/v1/map/bulk-load")
+                .then().statusCode(200);
+
+        verify(repository, times(1)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(22)
+    void nearbyBoundingBoxes_shareOneEntry() {
+        invalidate();
+        clearInvocations(repository);
+
+        // Pans within the same 0.05 degree cells
+        double[][] boxes = {{-34.61, -34.42, -68.57, -68.41}, {-34.62, -34.44, -68.58, -68.43}};
+        for (double[] box : boxes) {
+            given().header("X-Tenant-ID", TENANT)
+                    .queryParam("minLat", box[0])
+                    .queryParam("maxLat", box[1])
+                    .queryParam("minLng", box[2])
+                    .queryParam("maxLng", box[3])
+                    .when().get("/api/v1/map/bulk-load")
+                    .then()
+                    .statusCode(200)
+                    .body("warehouses.size()", equalTo(1))
+                    .body("warehouses[0].warehouseId", equalTo(southId));
+        }
+
+        verify(repository, times(1)).getBulkLoadData(any());
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteWarehouses() {
+        for (String id : new String[]{northId, southId}) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/warehouses/" + id)
+                    .then()
+                    .statusCode(204);
+        }
+    }
+
+    private static String createWarehouse(String name, String latitude, String longitude) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "%s", "latitude": %s, "longitude": %s}
+                        """.formatted(name, latitude, longitude))
+                .when()
+                .post("/api/v1/warehouses")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    private static String createArea(String warehouseId, String name) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{\"name\": \"" + name + "\"}")
+                .when()
+                .post("/api/v1/warehouses/" + warehouseId + "/areas")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    private static void createLocation(String areaId, String name) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("{\"name\": \"" + name + "\"}")
+                .when()
+                .post("/api/v1/areas/" + areaId + "/locations")
+                .then()
+                .statusCode(201);
+    }
+
+    private static void invalidate() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .when()
+                .post("/api/v1/map/cache/invalidate")
+                .then()
+                .statusCode(204);
+    }
+}
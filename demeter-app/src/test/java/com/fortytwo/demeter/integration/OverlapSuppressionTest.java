@@ -0,0 +1,128 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.model.OverlapSuppression;
+import com.fortytwo.demeter.fotos.model.OverlapSuppression.Boxes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Property test for cross-image suppression: for random box sets, the sweep
+ * gives the same result as a brute-force greedy NMS over all pairs.
+ */
+class OverlapSuppressionTest {
+
+    private static final int CASES = 200;
+
+    @Test
+    void suppress_matchesBruteForce() {
+        for (int seed = 0; seed < CASES; seed++) {
+            Random random = new Random(seed);
+            int n = random.nextInt(400);
+            int images = 1 + random.nextInt(4);
+            int labels = 1 + random.nextInt(2);
+            double threshold = 0.1 + random.nextDouble() * 0.8;
+
+            Boxes boxes = new Boxes(0);
+            float[][] rows = new float[n][];
+            for (int i = 0; i < n; i++) {
+                // Coarse coordinates and scores so overlaps and ties are common
+                float x = random.nextInt(60) * 5 - 100;
+                float y = random.nextInt(60) * 5;
+                float w = 5 + random.nextInt(8) * 5;
+                float h = 5 + random.nextInt(8) * 5;
+                float score = random.nextInt(10) / 10f;
+                int image = random.nextInt(images);
+                int label = random.nextInt(labels);
+                rows[i] = new float[] {image, label, score, x, y, x + w, y + h};
+                // Corners in either order
+                if (random.nextBoolean()) {
+                    boxes.add(image, label, score, x, y, x + w, y + h);
+                } else {
+                    boxes.add(image, label, score, x + w, y + h, x, y);
+                }
+            }
+
+            assertArrayEquals(bruteForce(rows, (float) threshold),
+                    OverlapSuppression.suppress(boxes, threshold), "seed " + seed);
+        }
+    }
+
+    @Test
+    void suppress_keepsSameImageOverlaps() {
+        Boxes boxes = new Boxes(3);
+        boxes.add(0, 0, 0.9, 0, 0, 10, 10);
+        boxes.add(0, 0, 0.8, 1, 1, 11, 11);
+        boxes.add(1, 0, 0.7, 0, 0, 10, 10);
+
+        boolean[] suppressed = OverlapSuppression.suppress(boxes, 0.5);
+
+        assertArrayEquals(new boolean[] {false, false, true}, suppressed);
+        assertEquals(1, OverlapSuppression.count(suppressed));
+    }
+
+    @Test
+    void suppress_suppressedBoxDoesNotSuppress() {
+        // b duplicates a; c overlaps b but not a, so c is kept
+        Boxes boxes = new Boxes(3);
+        boxes.add(0, 0, 0.9, 0, 0, 10, 10);
+        boxes.add(1, 0, 0.8, 3, 0, 13, 10);
+        boxes.add(0, 0, 0.7, 6, 0, 16, 10);
+
+        boolean[] suppressed = OverlapSuppression.suppress(boxes, 0.5);
+
+        assertFalse(suppressed[0]);
+        assertTrue(suppressed[1]);
+        assertFalse(suppressed[2]);
+    }
+
+    @Test
+    void suppress_rejectsInvalidThreshold() {
+        Boxes boxes = new Boxes(0);
+        assertThrows(IllegalArgumentException.class, () -> OverlapSuppression.suppress(boxes, 0));
+        assertThrows(IllegalArgumentException.class, () -> OverlapSuppression.suppress(boxes, 1.5));
+    }
+
+    /**
+     * Greedy NMS over all pairs, confidence descending, ties by index.
+     */
+    private static boolean[] bruteForce(float[][] rows, float threshold) {
+        int n = rows.length;
+        Integer[] order = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> -rows[i][2]).thenComparingInt(i -> i));
+
+        boolean[] suppressed = new boolean[n];
+        for (int r = 0; r < n; r++) {
+            int p = order[r];
+            if (suppressed[p]) {
+                continue;
+            }
+            for (int q = r + 1; q < n; q++) {
+                int j = order[q];
+                if (rows[j][0] != rows[p][0] && rows[j][1] == rows[p][1] && sameObject(rows[p], rows[j], threshold)) {
+                    suppressed[j] = true;
+                }
+            }
+        }
+        return suppressed;
+    }
+
+    // IoU >= threshold, in the same float arithmetic as the implementation
+    private static boolean sameObject(float[] a, float[] b, float threshold) {
+        float w = Math.max(0f, Math.min(a[5], b[5]) - Math.max(a[3], b[3]));
+        float h = Math.max(0f, Math.min(a[6], b[6]) - Math.max(a[4], b[4]));
+        float inter = w * h;
+        float areaA = (a[5] - a[3]) * (a[6] - a[4]);
+        float areaB = (b[5] - b[3]) * (b[6] - b[4]);
+        return inter > 0 && inter * (1 + threshold) >= threshold * (areaA + areaB);
+    }
+}
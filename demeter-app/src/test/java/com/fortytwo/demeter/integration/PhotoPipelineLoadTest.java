@@ -0,0 +1,336 @@
+package com.fortytwo.demeter.integration;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.specification.RequestSpecification;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Load harness for the photo pipeline: N concurrent sessions go through
+ * multipart upload, ML dispatch (direct, to {@link StubMlWorker}), the
+ * callback queue, session completion and the stock update job. Reports
+ * throughput and latency percentiles per stage and checks every session
+ * made it to the end.
+ *
+ * <p>Tagged {@code load} and left out of the regular suite; run it with
+ * {@code ./gradlew :demeter-app:loadTest}. Size and worker behaviour are set
+ * with system properties, e.g. {@code -Ddemeter.load.sessions=200
+ * -Ddemeter.load.images=10 -Ddemeter.load.error-rate=0.05}. The stub worker
+ * listens on a free port unless {@code demeter.load.stub-port} is given.
+ */
+@QuarkusTest
+@Tag("load")
+@TestProfile(PhotoPipelineLoadTest.LoadProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class PhotoPipelineLoadTest {
+
+    private static final Logger log = Logger.getLogger(PhotoPipelineLoadTest.class);
+
+    private static final String TENANT = "tenant-photo-pipeline-load-test";
+    private static final int SESSIONS = Integer.getInteger("demeter.load.sessions", 8);
+    private static final int IMAGES_PER_SESSION = Integer.getInteger("demeter.load.images", 3);
+    private static final StubMlWorker.Settings WORKER = new StubMlWorker.Settings(
+            Long.getLong("demeter.load.latency-ms", 50),
+            Long.getLong("demeter.load.latency-jitter-ms", 100),
+            Double.parseDouble(System.getProperty("demeter.load.error-rate", "0.1")),
+            Integer.getInteger("demeter.load.detections", 20),
+            true);
+    private static final long SESSION_TIMEOUT_MS = 120_000;
+
+    public static class LoadProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "demeter.cloudtasks.direct-dispatch-url", "http://localhost:" + stubPort(),
+                    "demeter.cloudtasks.direct-dispatch-max-attempts", "10",
+                    "demeter.ml.callback-queue.enabled", "true");
+        }
+    }
+
+    /** Milliseconds from the start of a session's upload to each stage. */
+    private record SessionTiming(UUID sessionId, long uploadedMs, long completedMs, long stockUpdatedMs) {}
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static StubMlWorker worker;
+    private static UUID locationId;
+    private static final UUID userId = UUID.randomUUID();
+    private static final List<UUID> sessionIds = new ArrayList<>();
+
+    @BeforeAll
+    static void startStubWorker() throws Exception {
+        String backendUrl = "http://localhost:" + Integer.getInteger("quarkus.http.test-port", 8081);
+        worker = StubMlWorker.start(stubPort(), backendUrl, WORKER);
+    }
+
+    /**
+     * Port of the stub worker, chosen once per JVM. Kept in a system property
+     * because the profile and the test class may be loaded by different
+     * class loaders.
+     */
+    private static int stubPort() {
+        return Integer.parseInt((String) System.getProperties().computeIfAbsent(
+                "demeter.load.stub-port", key -> String.valueOf(freePort())));
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No free port for the stub ML worker", e);
+        }
+    }
+
+    @AfterAll
+    static void stopStubWorker() {
+        worker.close();
+    }
+
+    @Test
+    @Order(1)
+    void setup_createLocationProductAndUser() throws Exception {
+        String productId = post("/api/v1/products", """
+                {"sku": "LOAD-PROD-001", "name": "Load Test Product"}
+                """);
+        String warehouseId = post("/api/v1/warehouses", """
+                {"name": "Load Test Warehouse"}
+                """);
+        String areaId = post("/api/v1/warehouses/" + warehouseId + "/areas", """
+                {"name": "Load Test Area"}
+                """);
+        locationId = UUID.fromString(post("/api/v1/areas/" + areaId + "/locations", """
+                {"name": "Load Test Location"}
+                """));
+
+        try (Connection connection = dataSource.getConnection()) {
+            execute(connection, """
+                    INSERT INTO users (id, tenant_id, external_id, email, name, role)
+                    VALUES (?, ?, ?, ?, 'Load Tester', 'ADMIN')
+                    """, userId, TENANT, "load-" + userId, "load-" + userId + "@example.com");
+            execute(connection, """
+                    INSERT INTO storage_location_configs (tenant_id, storage_location_id, product_id)
+                    VALUES (?, ?, ?)
+                    """, TENANT, locationId, UUID.fromString(productId));
+        }
+    }
+
+    @Test
+    @Order(2)
+    void concurrentSessions_reachStockUpdate() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<SessionTiming> timings = new ArrayList<>();
+
+        long runStart;
+        try (ExecutorService executor = Executors.newFixedThreadPool(SESSIONS)) {
+            List<Future<SessionTiming>> futures = new ArrayList<>();
+            for (int i = 0; i < SESSIONS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return runSession();
+                }));
+            }
+            runStart = System.nanoTime();
+            start.countDown();
+
+            for (Future<SessionTiming> future : futures) {
+                timings.add(future.get(SESSION_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS));
+            }
+        }
+        long wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStart);
+
+        report(timings, wallMs);
+
+        int images = SESSIONS * IMAGES_PER_SESSION;
+        assertEquals(images, worker.callbacksDelivered());
+        assertEquals(images * WORKER.detectionsPerImage(), queryInt("""
+                SELECT count(*) FROM detections d
+                JOIN images i ON i.id = d.image_id
+                JOIN photo_processing_sessions s ON s.id = i.session_id
+                WHERE s.storage_location_id = ?
+                """, locationId));
+        assertEquals(0, queryInt("SELECT count(*) FROM pending_callbacks WHERE tenant_id = ?", TENANT));
+    }
+
+    @Test
+    @Order(3)
+    void everySession_createdOneCycle() throws Exception {
+        assertEquals(SESSIONS, queryInt("SELECT count(*) FROM stock_batches WHERE current_storage_location_id = ?",
+                locationId));
+        assertEquals(SESSIONS, queryInt("""
+                SELECT cycle_number FROM stock_batches
+                WHERE current_storage_location_id = ? AND cycle_end_date IS NULL
+                """, locationId));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSessions() {
+        for (UUID sessionId : sessionIds) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/photo-sessions/" + sessionId)
+                    .then()
+                    .statusCode(204);
+        }
+    }
+
+    private SessionTiming runSession() throws Exception {
+        long start = System.nanoTime();
+
+        RequestSpecification request = given().header("X-Tenant-ID", TENANT);
+        for (int i = 0; i < IMAGES_PER_SESSION; i++) {
+            request.multiPart("images", "load-" + i + ".jpg", uniqueImage(), "image/jpeg");
+        }
+        UUID sessionId = UUID.fromString(request
+                .when()
+                .post("/api/v1/ml/process")
+                .then()
+                .statusCode(202)
+                .extract().<String>path("sessionId"));
+        long uploadedMs = elapsedMs(start);
+        synchronized (sessionIds) {
+            sessionIds.add(sessionId);
+        }
+
+        // Uploads carry no location or user; set them before results can arrive
+        try (Connection connection = dataSource.getConnection()) {
+            execute(connection, """
+                    UPDATE photo_processing_sessions SET storage_location_id = ?, uploaded_by = ?
+                    WHERE id = ?
+                    """, locationId, userId, sessionId);
+        }
+        worker.release(sessionId);
+
+        long completedMs = -1;
+        long deadline = System.currentTimeMillis() + SESSION_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (completedMs < 0 && "COMPLETED".equals(queryString(
+                    "SELECT status FROM photo_processing_sessions WHERE id = ?", sessionId))) {
+                completedMs = elapsedMs(start);
+            }
+            String jobStatus = queryString("SELECT status FROM stock_update_jobs WHERE session_id = ?", sessionId);
+            if ("SUCCEEDED".equals(jobStatus)) {
+                return new SessionTiming(sessionId, uploadedMs, completedMs, elapsedMs(start));
+            }
+            assertNotEquals("FAILED", jobStatus, "Stock update failed for session " + sessionId);
+            Thread.sleep(25);
+        }
+        throw new AssertionError("Session " + sessionId + " did not finish in " + SESSION_TIMEOUT_MS + " ms");
+    }
+
+    /**
+     * Random bytes, so no image is deduplicated against another.
+     */
+    private static byte[] uniqueImage() {
+        byte[] image = new byte[8192];
+        ThreadLocalRandom.current().nextBytes(image);
+        return image;
+    }
+
+    private void report(List<SessionTiming> timings, long wallMs) {
+        int images = SESSIONS * IMAGES_PER_SESSION;
+        log.infof("Photo pipeline load: %d sessions x %d images in %d ms: %.1f sessions/s, %.1f images/s",
+                SESSIONS, IMAGES_PER_SESSION, wallMs, SESSIONS * 1000.0 / wallMs, images * 1000.0 / wallMs);
+        log.infof("ML worker: %d tasks received, %d answered 503, %d callbacks delivered, %d throttled (429)",
+                worker.tasksReceived(), worker.errorsReturned(), worker.callbacksDelivered(),
+                worker.callbacksThrottled());
+        logPercentiles("upload accepted", timings.stream().mapToLong(SessionTiming::uploadedMs).toArray());
+        logPercentiles("session completed", timings.stream().mapToLong(SessionTiming::completedMs).toArray());
+        logPercentiles("stock updated", timings.stream().mapToLong(SessionTiming::stockUpdatedMs).toArray());
+    }
+
+    private static void logPercentiles(String stage, long[] latenciesMs) {
+        Arrays.sort(latenciesMs);
+        log.infof("  %-18s p50=%d ms, p95=%d ms, p99=%d ms, max=%d ms", stage,
+                percentile(latenciesMs, 50), percentile(latenciesMs, 95), percentile(latenciesMs, 99),
+                latenciesMs[latenciesMs.length - 1]);
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    private static long percentile(long[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static String post(String path, String body) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post(path)
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    private static void execute(Connection connection, String sql, Object... params) throws Exception {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    private int queryInt(String sql, Object param) throws Exception {
+        return ((Number) queryObject(sql, param)).intValue();
+    }
+
+    private String queryString(String sql, UUID id) throws Exception {
+        return (String) queryObject(sql, id);
+    }
+
+    private Object queryObject(String sql, Object param) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, param);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the photo retention policy of a tenant (details kept 30 days,
+ * originals 60): a dry run reports without changing anything; a run replaces
+ * old details with label counts that galleries still show, archives old
+ * originals but keeps thumbnails, and defers an image whose duplicate belongs
+ * to a recent session.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class PhotoRetentionTest {
+
+    private static final String TENANT = "tenant-photo-retention-test";
+    private static final byte[] ORIGINAL = new byte[4096];
+    private static final byte[] THUMBNAIL = new byte[512];
+
+    // 100 days old: A is due for both, E is shared with a recent duplicate
+    private static final UUID oldSessionId = UUID.randomUUID();
+    // 45 days old: C is due for detail purge only
+    private static final UUID midSessionId = UUID.randomUUID();
+    // Recent: D is a duplicate of E
+    private static final UUID newSessionId = UUID.randomUUID();
+    private static final UUID imageA = UUID.randomUUID();
+    private static final UUID imageE = UUID.randomUUID();
+    private static final UUID imageC = UUID.randomUUID();
+    private static final UUID imageD = UUID.randomUUID();
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Test
+    @Order(1)
+    void setup_seedSessionsOfDifferentAges() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement tenant = connection.prepareStatement("""
+                     INSERT INTO tenants (id, name, industry, settings)
+                     VALUES (?, 'Retention test', 'agro', '{"retention": {"detailDays": 30, "originalDays": 60}}')
+                     """)) {
+            tenant.setString(1, TENANT);
+            tenant.executeUpdate();
+        }
+
+        try (Connection connection = tenantConnection()) {
+            insertSession(connection, oldSessionId, 2);
+            insertSession(connection, midSessionId, 1);
+            insertImage(connection, oldSessionId, imageA);
+            insertImage(connection, oldSessionId, imageE);
+            insertImage(connection, midSessionId, imageC);
+            connection.commit();
+        }
+        for (UUID imageId : List.of(imageA, imageE, imageC)) {
+            storageService.upload(ORIGINAL, originalPath(imageId), "image/jpeg");
+        }
+        storageService.upload(THUMBNAIL, thumbnailPath(imageA), "image/jpeg");
+
+        postResults(oldSessionId, imageA);
+        postResults(oldSessionId, imageE);
+        postResults(midSessionId, imageC);
+
+        try (Connection connection = tenantConnection()) {
+            insertSession(connection, newSessionId, 1);
+            try (PreparedStatement duplicate = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, duplicate_of, created_at)
+                    SELECT ?, tenant_id, ?, storage_url, id, now() FROM images WHERE id = ?
+                    """)) {
+                duplicate.setObject(1, imageD);
+                duplicate.setObject(2, newSessionId);
+                duplicate.setObject(3, imageE);
+                duplicate.executeUpdate();
+            }
+            try (PreparedStatement age = connection.prepareStatement("""
+                    UPDATE photo_processing_sessions
+                    SET status = 'COMPLETED', created_at = now() - make_interval(days => ?)
+                    WHERE id = ?
+                    """)) {
+                for (Object[] session : new Object[][] {{100, oldSessionId}, {45, midSessionId}, {1, newSessionId}}) {
+                    age.setInt(1, (Integer) session[0]);
+                    age.setObject(2, session[1]);
+                    age.addBatch();
+                }
+                age.executeBatch();
+            }
+            try (PreparedStatement thumbnail = connection.prepareStatement(
+                    "UPDATE images SET thumbnail_url = ? WHERE id = ?")) {
+                thumbnail.setString(1, thumbnailPath(imageA));
+                thumbnail.setObject(2, imageA);
+                thumbnail.executeUpdate();
+            }
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void dryRun_reportsWithoutChangingAnything() throws Exception {
+        JsonPath report = run(true);
+        assertTrue(report.getBoolean("dryRun"));
+        assertReport(report);
+
+        assertEquals(4, countRows("detections", imageA));
+        assertTrue(storageService.exists(originalPath(imageA)));
+        assertEquals(4, gallery(oldSessionId).getInt(galleryImage(imageA) + ".results.detectionCount"));
+    }
+
+    @Test
+    @Order(3)
+    void run_purgesDetailsAndArchivesOriginals() throws Exception {
+        double deletedBefore = rowsReclaimed();
+
+        JsonPath report = run(false);
+        assertFalse(report.getBoolean("dryRun"));
+        assertReport(report);
+        assertEquals(deletedBefore + 8, rowsReclaimed());
+
+        // Details replaced by label counts
+        assertEquals(0, countRows("detections", imageA));
+        assertEquals(0, countRows("classifications", imageA));
+        assertEquals(0, countRows("detections", imageC));
+        assertEquals(4, countRows("detections", imageE));
+
+        // Originals moved to cold storage keys, thumbnails kept
+        assertFalse(storageService.exists(originalPath(imageA)));
+        assertTrue(storageService.exists("archive/" + originalPath(imageA)));
+        assertTrue(storageService.exists(thumbnailPath(imageA)));
+        assertTrue(storageService.exists(originalPath(imageE)));
+        assertTrue(storageService.exists(originalPath(imageC)));
+        try (Connection connection = tenantConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT storage_url, archived_at, results_purged_at FROM images WHERE id = ?")) {
+            stmt.setObject(1, imageA);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                assertEquals("archive/" + originalPath(imageA), rs.getString(1));
+                assertNotNull(rs.getTimestamp(2));
+                assertNotNull(rs.getTimestamp(3));
+            }
+        }
+
+        // Only the mid session is complete: the old one still has E
+        assertNull(sessionColumn(oldSessionId, "details_purged_at"));
+        assertNull(sessionColumn(oldSessionId, "originals_archived_at"));
+        assertNotNull(sessionColumn(midSessionId, "details_purged_at"));
+        assertNull(sessionColumn(midSessionId, "originals_archived_at"));
+    }
+
+    @Test
+    @Order(4)
+    void purgedImages_keepTheirSummary() {
+        JsonPath gallery = gallery(oldSessionId);
+        String image = galleryImage(imageA);
+        assertEquals(4, gallery.getInt(image + ".results.detectionCount"));
+        assertEquals(List.of("plant", "weed"), gallery.getList(image + ".results.topDetectionLabels.label"));
+        assertEquals(List.of(3, 1), gallery.getList(image + ".results.topDetectionLabels.count"));
+        assertEquals("cactus", gallery.getString(image + ".results.topClassifications[0].label"));
+        assertNotNull(gallery.getString(image + ".thumbnailUrl"));
+
+        JsonPath single = given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + oldSessionId + "/images/" + imageA + "/with-url")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+        assertEquals(0, single.getList("detections").size());
+        assertEquals(4, single.getInt("results.detectionCount"));
+        assertEquals(1, single.getInt("results.classificationCount"));
+    }
+
+    @Test
+    @Order(5)
+    void secondRun_skipsSessionsUntilTheirRecheck() {
+        JsonPath report = run(false);
+        assertEquals(0, report.getInt("sessions"));
+        assertEquals(0, report.getInt("imagesPurged"));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSessionsFilesAndTenant() throws Exception {
+        for (UUID id : List.of(newSessionId, midSessionId, oldSessionId)) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/photo-sessions/" + id)
+                    .then()
+                    .statusCode(204);
+        }
+        for (UUID imageId : List.of(imageA, imageE, imageC)) {
+            storageService.delete(originalPath(imageId));
+            storageService.delete("archive/" + originalPath(imageId));
+        }
+        storageService.delete(thumbnailPath(imageA));
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement tenant = connection.prepareStatement("DELETE FROM tenants WHERE id = ?")) {
+            tenant.setString(1, TENANT);
+            tenant.executeUpdate();
+        }
+    }
+
+    /**
+     * A and C purged (4 detections and 1 classification each), A archived, E deferred.
+     */
+    private static void assertReport(JsonPath report) {
+        assertEquals(2, report.getInt("sessions"));
+        assertEquals(2, report.getInt("imagesPurged"));
+        assertEquals(8, report.getLong("detectionRows"));
+        assertEquals(2, report.getLong("classificationRows"));
+        assertEquals(0, report.getLong("detectionBlockRows"));
+        assertTrue(report.getLong("databaseBytes") > 0);
+        assertEquals(1, report.getInt("originalsArchived"));
+        assertEquals(ORIGINAL.length, report.getLong("originalBytes"));
+        assertEquals(1, report.getInt("deferredImages"));
+    }
+
+    private double rowsReclaimed() {
+        return registry.get("demeter.retention.rows.reclaimed").tag("table", "detections").counter().count();
+    }
+
+    private long countRows(String table, UUID imageId) throws Exception {
+        try (Connection connection = tenantConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT count(*) FROM " + table + " WHERE image_id = ?")) {
+            stmt.setObject(1, imageId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private Object sessionColumn(UUID sessionId, String column) throws Exception {
+        try (Connection connection = tenantConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT " + column + " FROM photo_processing_sessions WHERE id = ?")) {
+            stmt.setObject(1, sessionId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getObject(1);
+            }
+        }
+    }
+
+    private static void insertSession(Connection connection, UUID id, int totalImages) throws Exception {
+        try (PreparedStatement session = connection.prepareStatement("""
+                INSERT INTO photo_processing_sessions
+                    (id, tenant_id, status, total_images, processed_images, created_at)
+                VALUES (?, ?, 'PROCESSING', ?, 0, now())
+                """)) {
+            session.setObject(1, id);
+            session.setString(2, TENANT);
+            session.setInt(3, totalImages);
+            session.executeUpdate();
+        }
+    }
+
+    private static void insertImage(Connection connection, UUID sessionId, UUID imageId) throws Exception {
+        try (PreparedStatement image = connection.prepareStatement("""
+                INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                VALUES (?, ?, ?, ?, now())
+                """)) {
+            image.setObject(1, imageId);
+            image.setString(2, TENANT);
+            image.setObject(3, sessionId);
+            image.setString(4, originalPath(imageId));
+            image.executeUpdate();
+        }
+    }
+
+    private Connection tenantConnection() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        try (PreparedStatement tenant = connection.prepareStatement(
+                "SELECT set_config('app.current_tenant', ?, true)")) {
+            tenant.setString(1, TENANT);
+            tenant.execute();
+        }
+        return connection;
+    }
+
+    private static String originalPath(UUID imageId) {
+        return "photo-retention-test/" + imageId + ".jpg";
+    }
+
+    private static String thumbnailPath(UUID imageId) {
+        return "photo-retention-test/" + imageId + "-thumb.jpg";
+    }
+
+    private static String galleryImage(UUID imageId) {
+        return "find { it.id == '" + imageId + "' }";
+    }
+
+    private static JsonPath run(boolean dryRun) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("dryRun", dryRun)
+                .when()
+                .post("/api/v1/photo-retention/run")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+    }
+
+    private static JsonPath gallery(UUID session) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + session + "/gallery")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+    }
+
+    private static void postResults(UUID sessionId, UUID imageId) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": [
+                                {"label": "plant", "confidence": 0.91},
+                                {"label": "weed", "confidence": 0.55},
+                                {"label": "plant", "confidence": 0.87},
+                                {"label": "plant", "confidence": 0.78}
+                            ],
+                            "classifications": [
+                                {"label": "cactus", "confidence": 0.93}
+                            ]
+                        }
+                        """.formatted(sessionId, imageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200);
+    }
+}
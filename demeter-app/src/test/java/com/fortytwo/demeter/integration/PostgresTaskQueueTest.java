@@ -0,0 +1,360 @@
+package com.fortytwo.demeter.integration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import com.fortytwo.demeter.common.taskqueue.TaskQueue;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests the PostgreSQL task queue against a stub ML Worker: tasks commit and
+ * roll back with the enqueuing transaction, are delivered once and deleted,
+ * claims alternate between tenants, failing tasks are retried and then
+ * dead-lettered (failing their session), and a task whose claim expired is
+ * delivered again.
+ */
+@QuarkusTest
+@TestProfile(PostgresTaskQueueTest.PostgresQueueProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PostgresTaskQueueTest {
+
+    private static final String TENANT_A = "tenant-task-queue-test-a";
+    private static final String TENANT_B = "tenant-task-queue-test-b";
+    private static final int STUB_PORT = 18767;
+
+    public static class PostgresQueueProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "demeter.task-queue.provider", "postgres",
+                    "demeter.task-queue.postgres.worker-url", "http://localhost:" + STUB_PORT,
+                    "demeter.task-queue.postgres.concurrency", "2",
+                    "demeter.task-queue.postgres.poll-interval-ms", "200",
+                    "demeter.task-queue.postgres.request-timeout-seconds", "10",
+                    "demeter.task-queue.postgres.visibility-timeout-seconds", "30",
+                    "demeter.task-queue.postgres.max-attempts", "3",
+                    "demeter.task-queue.postgres.initial-backoff-ms", "100",
+                    "demeter.task-queue.postgres.max-backoff-ms", "200");
+        }
+    }
+
+    private record Delivery(String tenantId, UUID imageId) {}
+
+    private static final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+    private static final Map<UUID, Integer> failingImages = new ConcurrentHashMap<>();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final UUID failedSessionId = UUID.randomUUID();
+    private static volatile CountDownLatch gate = new CountDownLatch(0);
+    private static HttpServer server;
+
+    @Inject
+    TaskQueue taskQueue;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @BeforeAll
+    static void startStubWorker() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", STUB_PORT), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/tasks/process", PostgresTaskQueueTest::handle);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopStubWorker() {
+        gate.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    @Order(1)
+    void rolledBackEnqueue_leavesNoTask() throws Exception {
+        UUID imageId = UUID.randomUUID();
+
+        assertThrows(IllegalStateException.class, () -> QuarkusTransaction.requiringNew().run(() -> {
+            taskQueue.enqueue(task(TENANT_A, imageId));
+            throw new IllegalStateException("business transaction failed");
+        }));
+
+        assertEquals(0, countTasks(imageId));
+        Thread.sleep(500);
+        assertEquals(0, deliveriesOf(imageId));
+    }
+
+    @Test
+    @Order(2)
+    void committedEnqueue_isDeliveredOnceAndDeleted() throws Exception {
+        UUID imageId = UUID.randomUUID();
+
+        QuarkusTransaction.requiringNew().run(() -> {
+            taskQueue.enqueue(task(TENANT_A, imageId));
+            // A second task for the same image is ignored while the first is pending
+            taskQueue.enqueue(task(TENANT_A, imageId));
+        });
+
+        await(() -> deliveriesOf(imageId) > 0 && countTasksUnchecked(imageId) == 0);
+        Thread.sleep(500);
+        assertEquals(1, deliveriesOf(imageId));
+        assertEquals(TENANT_A, deliveries.stream()
+                .filter(d -> d.imageId().equals(imageId)).findFirst().orElseThrow().tenantId());
+    }
+
+    @Test
+    @Order(3)
+    void claims_alternateBetweenTenants() throws Exception {
+        deliveries.clear();
+        gate = new CountDownLatch(1);
+
+        List<UUID> images = new ArrayList<>();
+        QuarkusTransaction.requiringNew().run(() -> {
+            for (int i = 0; i < 4; i++) {
+                UUID imageId = UUID.randomUUID();
+                images.add(imageId);
+                taskQueue.enqueue(task(TENANT_A, imageId));
+            }
+            for (int i = 0; i < 2; i++) {
+                UUID imageId = UUID.randomUUID();
+                images.add(imageId);
+                taskQueue.enqueue(task(TENANT_B, imageId));
+            }
+        });
+
+        // Both slots are held by the stub; FIFO would have given them to tenant A
+        await(() -> deliveries.size() >= 2);
+        Set<String> firstTenants = deliveries.stream().limit(2).map(Delivery::tenantId).collect(Collectors.toSet());
+        assertEquals(Set.of(TENANT_A, TENANT_B), firstTenants);
+
+        gate.countDown();
+        await(() -> images.stream().allMatch(id -> deliveriesOf(id) == 1));
+    }
+
+    @Test
+    @Order(4)
+    void failingTask_isRetriedThenDeadLettered() throws Exception {
+        UUID imageId = UUID.randomUUID();
+        failingImages.put(imageId, 503);
+
+        QuarkusTransaction.requiringNew().run(() -> taskQueue.enqueue(task(TENANT_B, imageId)));
+
+        await(() -> "DEAD".equals(queryUnchecked("SELECT state FROM task_queue WHERE dedup_key = ?", imageId)));
+        assertEquals(3, deliveriesOf(imageId));
+        assertEquals(3, ((Number) query("SELECT attempts FROM task_queue WHERE dedup_key = ?", imageId)).intValue());
+        assertTrue(((String) query("SELECT last_error FROM task_queue WHERE dedup_key = ?", imageId)).contains("503"));
+    }
+
+    @Test
+    @Order(5)
+    void rejectedTask_isDeadLetteredWithoutRetry() throws Exception {
+        UUID imageId = UUID.randomUUID();
+        failingImages.put(imageId, 422);
+
+        QuarkusTransaction.requiringNew().run(() -> taskQueue.enqueue(task(TENANT_B, imageId)));
+
+        await(() -> "DEAD".equals(queryUnchecked("SELECT state FROM task_queue WHERE dedup_key = ?", imageId)));
+        assertEquals(1, deliveriesOf(imageId));
+    }
+
+    @Test
+    @Order(6)
+    void expiredClaim_isDeliveredAgain() throws Exception {
+        UUID imageId = UUID.randomUUID();
+        String payload = objectMapper.writeValueAsString(task(TENANT_A, imageId));
+
+        // As left by an instance that stopped while delivering
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     INSERT INTO task_queue
+                         (tenant_id, endpoint, payload, dedup_key, attempts, claimed_at, visible_at)
+                     VALUES (?, '/tasks/process', CAST(? AS jsonb), ?, 1,
+                             now() - interval '1 minute', now() - interval '1 second')
+                     """)) {
+            stmt.setString(1, TENANT_A);
+            stmt.setString(2, payload);
+            stmt.setString(3, "img-" + imageId);
+            stmt.executeUpdate();
+        }
+
+        await(() -> deliveriesOf(imageId) == 1 && countTasksUnchecked(imageId) == 0);
+    }
+
+    @Test
+    @Order(7)
+    void deadLetteredTask_failsItsSession() throws Exception {
+        UUID imageId = UUID.randomUUID();
+        failingImages.put(imageId, 422);
+        try (Connection connection = tenantConnection(TENANT_B);
+             PreparedStatement session = connection.prepareStatement("""
+                     INSERT INTO photo_processing_sessions
+                         (id, tenant_id, status, total_images, processed_images, created_at)
+                     VALUES (?, ?, 'PROCESSING', 1, 0, now())
+                     """);
+             PreparedStatement image = connection.prepareStatement("""
+                     INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                     VALUES (?, ?, ?, ?, now())
+                     """)) {
+            session.setObject(1, failedSessionId);
+            session.setString(2, TENANT_B);
+            session.executeUpdate();
+            image.setObject(1, imageId);
+            image.setString(2, TENANT_B);
+            image.setObject(3, failedSessionId);
+            image.setString(4, "sessions/" + imageId + ".jpg");
+            image.executeUpdate();
+            connection.commit();
+        }
+
+        QuarkusTransaction.requiringNew().run(() -> taskQueue.enqueue(ProcessingTaskRequest.of(
+                TENANT_B, failedSessionId, imageId, "sessions/" + imageId + ".jpg", "DETECTION")));
+
+        await(() -> "FAILED".equals(sessionStatusUnchecked()));
+        assertEquals(1, deliveriesOf(imageId));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteTasks() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "DELETE FROM task_queue WHERE tenant_id IN (?, ?)")) {
+            stmt.setString(1, TENANT_A);
+            stmt.setString(2, TENANT_B);
+            stmt.executeUpdate();
+        }
+        try (Connection connection = tenantConnection(TENANT_B);
+             PreparedStatement images = connection.prepareStatement(
+                     "DELETE FROM images WHERE session_id = ?");
+             PreparedStatement session = connection.prepareStatement(
+                     "DELETE FROM photo_processing_sessions WHERE id = ?")) {
+            images.setObject(1, failedSessionId);
+            images.executeUpdate();
+            session.setObject(1, failedSessionId);
+            session.executeUpdate();
+            connection.commit();
+        }
+    }
+
+    private static ProcessingTaskRequest task(String tenantId, UUID imageId) {
+        return ProcessingTaskRequest.of(tenantId, UUID.randomUUID(), imageId,
+                "sessions/" + imageId + ".jpg", "DETECTION");
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode task = objectMapper.readTree(exchange.getRequestBody());
+            UUID imageId = UUID.fromString(task.get("image_id").asText());
+            deliveries.add(new Delivery(exchange.getRequestHeaders().getFirst("X-Tenant-ID"), imageId));
+            try {
+                gate.await(20, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(failingImages.getOrDefault(imageId, 200), -1);
+        }
+    }
+
+    private static long deliveriesOf(UUID imageId) {
+        return deliveries.stream().filter(d -> d.imageId().equals(imageId)).count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("Condition not met within 15 s; deliveries: " + deliveries);
+    }
+
+    private int countTasks(UUID imageId) throws Exception {
+        return ((Number) query("SELECT count(*) FROM task_queue WHERE dedup_key = ?", imageId)).intValue();
+    }
+
+    private int countTasksUnchecked(UUID imageId) {
+        try {
+            return countTasks(imageId);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object queryUnchecked(String sql, UUID imageId) {
+        try {
+            return query(sql, imageId);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String sessionStatusUnchecked() {
+        try (Connection connection = tenantConnection(TENANT_B);
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT status FROM photo_processing_sessions WHERE id = ?")) {
+            stmt.setObject(1, failedSessionId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Connection tenantConnection(String tenantId) throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        try (PreparedStatement tenant = connection.prepareStatement(
+                "SELECT set_config('app.current_tenant', ?, true)")) {
+            tenant.setString(1, tenantId);
+            tenant.execute();
+        }
+        return connection;
+    }
+
+    private Object query(String sql, UUID imageId) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, "img-" + imageId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.event.SessionCompletedEvent;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that concurrent ML callbacks for one session count every image and
+ * complete the session exactly once.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class ProcessingCallbackConcurrencyTest {
+
+    private static final String TENANT = "tenant-callback-concurrency-test";
+    private static final int IMAGE_COUNT = 20;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final List<UUID> imageIds = new ArrayList<>();
+
+    @ApplicationScoped
+    static class CompletionRecorder {
+        static final Map<UUID, AtomicInteger> COMPLETIONS = new ConcurrentHashMap<>();
+
+        void onCompleted(@Observes SessionCompletedEvent event) {
+            COMPLETIONS.computeIfAbsent(event.sessionId(), id -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    @Test
+    @Order(1)
+    void setup_seedSession() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'PENDING', ?, 0, now())
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.setInt(3, IMAGE_COUNT);
+                session.executeUpdate();
+            }
+
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (int i = 0; i < IMAGE_COUNT; i++) {
+                    UUID imageId = UUID.randomUUID();
+                    imageIds.add(imageId);
+                    image.setObject(1, imageId);
+                    image.setString(2, TENANT);
+                    image.setObject(3, sessionId);
+                    image.setString(4, "callback-concurrency/image-" + i + ".jpg");
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void concurrentCallbacks_countEveryImageAndCompleteOnce() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<String, Object>>> responses = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(IMAGE_COUNT)) {
+            for (UUID imageId : imageIds) {
+                responses.add(executor.submit(() -> {
+                    start.await();
+                    return postResults(imageId);
+                }));
+            }
+            start.countDown();
+        }
+
+        Set<Integer> processedCounts = new TreeSet<>();
+        int completedResponses = 0;
+        for (Future<Map<String, Object>> response : responses) {
+            Map<String, Object> status = response.get();
+            processedCounts.add((Integer) status.get("processedImages"));
+            if ("COMPLETED".equals(status.get("status"))) {
+                completedResponses++;
+            }
+        }
+
+        // Every callback saw its own increment
+        assertEquals(IntStream.rangeClosed(1, IMAGE_COUNT).boxed().collect(Collectors.toSet()), processedCounts);
+        assertEquals(1, completedResponses);
+        assertEquals(1, completions());
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status")
+                .then()
+                .statusCode(200)
+                .body("status", equalTo("COMPLETED"))
+                .body("processedImages", equalTo(IMAGE_COUNT))
+                .body("totalImages", equalTo(IMAGE_COUNT));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/estimations")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(IMAGE_COUNT));
+    }
+
+    @Test
+    @Order(3)
+    void redeliveredCallback_doesNotCompleteAgain() {
+        Map<String, Object> status = postResults(imageIds.get(0));
+
+        assertEquals("COMPLETED", status.get("status"));
+        assertEquals(1, completions());
+    }
+
+    @Test
+    @Order(4)
+    void unknownImage_returns404() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(resultsBody(UUID.randomUUID()))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> postResults(UUID imageId) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(resultsBody(imageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200)
+                .extract().as(Map.class);
+    }
+
+    private static String resultsBody(UUID imageId) {
+        return """
+                {
+                    "sessionId": "%s",
+                    "imageId": "%s",
+                    "detections": [
+                        {"label": "plant", "confidence": 0.91,
+                         "boundingBox": {"x1": 0.1, "y1": 0.1, "x2": 0.2, "y2": 0.2}}
+                    ],
+                    "estimations": [
+                        {"estimationType": "count", "value": 1, "unit": "plants"}
+                    ]
+                }
+                """.formatted(sessionId, imageId);
+    }
+
+    private static int completions() {
+        AtomicInteger count = CompletionRecorder.COMPLETIONS.get(sessionId);
+        return count != null ? count.get() : 0;
+    }
+}
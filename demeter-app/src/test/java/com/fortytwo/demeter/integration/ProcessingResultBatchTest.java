@@ -0,0 +1,245 @@
+package com.fortytwo.demeter.integration;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests batched persistence of a dense ML callback and the native bounding
+ * box columns, and logs callback throughput.
+ *
+ * <p>The API shape is unchanged by the batching, so the throughput test can
+ * be run against older revisions for a before/after comparison.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class ProcessingResultBatchTest {
+
+    private static final Logger log = Logger.getLogger(ProcessingResultBatchTest.class);
+
+    private static final String TENANT = "tenant-result-batch-test";
+    private static final int DENSE_DETECTIONS = 5000;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final UUID denseImageId = UUID.randomUUID();
+    private static final UUID sparseImageId = UUID.randomUUID();
+
+    @Test
+    @Order(1)
+    void setup_seedSession() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'PROCESSING', 2, 0, now())
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.executeUpdate();
+            }
+
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (UUID imageId : new UUID[] {denseImageId, sparseImageId}) {
+                    image.setObject(1, imageId);
+                    image.setString(2, TENANT);
+                    image.setObject(3, sessionId);
+                    image.setString(4, "result-batch/" + imageId + ".jpg");
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void denseCallback_persistsAllResults() throws Exception {
+        String detections = IntStream.range(0, DENSE_DETECTIONS)
+                .mapToObj(i -> """
+                        {"label": "plant", "confidence": 0.875,
+                         "boundingBox": {"x1": %d, "y1": 10.5, "x2": %d, "y2": 42.25}}
+                        """.formatted(i, i + 32))
+                .collect(Collectors.joining(",", "[", "]"));
+
+        String body = """
+                {
+                    "sessionId": "%s",
+                    "imageId": "%s",
+                    "detections": %s,
+                    "classifications": [
+                        {"label": "cactus", "confidence": 0.93},
+                        {"label": "succulent", "confidence": 0.41}
+                    ],
+                    "estimations": [
+                        {"estimationType": "count", "value": %d, "unit": "plants", "confidence": 0.9},
+                        {"estimationType": "area", "value": 1250.5, "unit": "cm2"}
+                    ]
+                }
+                """.formatted(sessionId, denseImageId, detections, DENSE_DETECTIONS);
+
+        long start = System.nanoTime();
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200)
+                .body("processedImages", equalTo(1))
+                .body("status", equalTo("PROCESSING"));
+        long elapsedMs = Math.max(1, Duration.ofNanos(System.nanoTime() - start).toMillis());
+
+        log.infof("Dense callback: %d detections in %d ms (%d detections/s)",
+                DENSE_DETECTIONS, elapsedMs, DENSE_DETECTIONS * 1000L / elapsedMs);
+
+        assertEquals(DENSE_DETECTIONS, countRows("detections", denseImageId));
+        assertEquals(2, countRows("classifications", denseImageId));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/estimations")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2));
+    }
+
+    @Test
+    @Order(3)
+    void boundingBox_roundTripsThroughNativeColumns() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/images/" + denseImageId + "/detections")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(DENSE_DETECTIONS))
+                .body("boundingBox", everyItem(notNullValue()))
+                .body("find { it.boundingBox.x1 == 7 }.boundingBox.x2", equalTo(39.0f))
+                .body("find { it.boundingBox.x1 == 7 }.boundingBox.y1", equalTo(10.5f))
+                .body("find { it.boundingBox.x1 == 7 }.boundingBox.y2", equalTo(42.25f))
+                .body("find { it.boundingBox.x1 == 7 }.sessionId", equalTo(sessionId.toString()));
+    }
+
+    @Test
+    @Order(4)
+    void redeliveredCallback_isNotStoredOrCountedAgain() throws Exception {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": [{"label": "plant", "confidence": 0.875}],
+                            "classifications": [{"label": "cactus", "confidence": 0.93}],
+                            "estimations": [{"estimationType": "count", "value": 1, "unit": "plants"}]
+                        }
+                        """.formatted(sessionId, denseImageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200)
+                .body("processedImages", equalTo(1))
+                .body("status", equalTo("PROCESSING"));
+
+        assertEquals(DENSE_DETECTIONS, countRows("detections", denseImageId));
+        assertEquals(2, countRows("classifications", denseImageId));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/estimations")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2));
+    }
+
+    @Test
+    @Order(5)
+    void detectionWithoutBoundingBox_hasNullBox() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": [{"label": "plant", "confidence": 0.5}]
+                        }
+                        """.formatted(sessionId, sparseImageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200)
+                .body("status", equalTo("COMPLETED"));
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .get("/api/v1/images/" + sparseImageId + "/detections")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(1))
+                .body("[0].boundingBox", nullValue())
+                .body("[0].isAlive", equalTo(true));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    private int countRows(String table, UUID imageId) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT count(*) FROM " + table + " WHERE image_id = ? AND tenant_id = ?")) {
+            stmt.setObject(1, imageId);
+            stmt.setString(2, TENANT);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.fortytwo.demeter.integration;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests status long-polling and streaming: a long-poll returns at once when
+ * the status already differs, returns the unchanged status at its timeout,
+ * and is woken by a result callback; the SSE stream sends every change and
+ * ends when the session completes.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class SessionStatusLongPollTest {
+
+    private static final String TENANT = "tenant-status-long-poll-test";
+
+    private static final UUID sessionId = UUID.randomUUID();
+    private static final UUID[] imageIds = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Test
+    @Order(1)
+    void setup_seedSession() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement tenant = connection.prepareStatement(
+                    "SELECT set_config('app.current_tenant', ?, true)")) {
+                tenant.setString(1, TENANT);
+                tenant.execute();
+            }
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images, created_at)
+                    VALUES (?, ?, 'PROCESSING', 3, 0, now())
+                    """)) {
+                session.setObject(1, sessionId);
+                session.setString(2, TENANT);
+                session.executeUpdate();
+            }
+            try (PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (UUID imageId : imageIds) {
+                    image.setObject(1, imageId);
+                    image.setString(2, TENANT);
+                    image.setObject(3, sessionId);
+                    image.setString(4, "status-long-poll-test/" + imageId + ".jpg");
+                    image.addBatch();
+                }
+                image.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(2)
+    void longPoll_returnsAtOnceWhenStatusAlreadyDiffers() {
+        long start = System.nanoTime();
+        JsonPath status = longPoll(5, "20s");
+        assertEquals(0, status.getInt("processedImages"));
+        assertTrue(elapsedMillis(start) < 5_000, "Long-poll waited although the status differed");
+    }
+
+    @Test
+    @Order(3)
+    void longPoll_returnsCurrentStatusAtTimeout() {
+        long start = System.nanoTime();
+        JsonPath status = longPoll(0, "500ms");
+        assertEquals(0, status.getInt("processedImages"));
+        assertEquals("PROCESSING", status.getString("status"));
+        assertTrue(elapsedMillis(start) >= 500, "Long-poll returned before its timeout");
+    }
+
+    @Test
+    @Order(4)
+    void longPoll_isWokenByResultCallback() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<JsonPath> poll = CompletableFuture.supplyAsync(() -> longPoll(0, "20s"));
+        Thread.sleep(500);
+        assertFalse(poll.isDone(), "Long-poll returned without a change");
+
+        postResults(imageIds[0]);
+
+        JsonPath status = poll.get(10, TimeUnit.SECONDS);
+        assertEquals(1, status.getInt("processedImages"));
+        assertTrue(elapsedMillis(start) < 10_000, "Long-poll was not woken by the callback");
+    }
+
+    @Test
+    @Order(5)
+    void stream_sendsChangesAndEndsWhenSessionCompletes() throws Exception {
+        CompletableFuture<String> stream = CompletableFuture.supplyAsync(() -> given()
+                .header("X-Tenant-ID", TENANT)
+                .accept("text/event-stream")
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status/stream")
+                .then()
+                .statusCode(200)
+                .extract().asString());
+        Thread.sleep(500);
+
+        postResults(imageIds[1]);
+        postResults(imageIds[2]);
+
+        String events = stream.get(20, TimeUnit.SECONDS);
+        assertTrue(events.contains("event:status"), events);
+        assertTrue(events.contains("\"processedImages\":1"), events);
+        assertTrue(events.contains("\"status\":\"COMPLETED\""), events);
+        assertTrue(events.contains("\"processedImages\":3"), events);
+    }
+
+    @Test
+    @Order(6)
+    void longPoll_onFinishedSession_returnsAtOnce() {
+        long start = System.nanoTime();
+        JsonPath status = longPoll(3, "20s");
+        assertEquals("COMPLETED", status.getString("status"));
+        assertTrue(elapsedMillis(start) < 5_000, "Long-poll waited on a finished session");
+    }
+
+    @Test
+    @Order(7)
+    void longPoll_rejectsUnknownSessionAndInvalidTimeout() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("waitForChangeFrom", 0)
+                .when()
+                .get("/api/v1/photo-sessions/" + UUID.randomUUID() + "/status")
+                .then()
+                .statusCode(404);
+
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("waitForChangeFrom", 0)
+                .queryParam("timeout", "soon")
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSession() {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .when()
+                .delete("/api/v1/photo-sessions/" + sessionId)
+                .then()
+                .statusCode(204);
+    }
+
+    private static JsonPath longPoll(int fromProcessedImages, String timeout) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .queryParam("waitForChangeFrom", fromProcessedImages)
+                .queryParam("timeout", timeout)
+                .when()
+                .get("/api/v1/photo-sessions/" + sessionId + "/status")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath();
+    }
+
+    private static void postResults(UUID imageId) {
+        given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "detections": [
+                                {"label": "plant", "confidence": 0.91,
+                                 "boundingBox": {"x1": 0.1, "y1": 0.1, "x2": 0.2, "y2": 0.2}}
+                            ]
+                        }
+                        """.formatted(sessionId, imageId))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .statusCode(200);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,173 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.fotos.storage.SignedUrlCache;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests signed URL reuse and bounded parallel signing.
+ *
+ * <p>Uses counting signers against {@link SignedUrlCache} directly, plus the
+ * test-profile {@code LocalStorageService}, which shares the same cache.
+ * Every test uses its own path prefix so cached entries do not leak between tests.
+ */
+@QuarkusTest
+class SignedUrlCacheTest {
+
+    private static final Duration TTL = Duration.ofMinutes(15);
+    private static final int MAX_CONCURRENCY = 8;
+
+    @Inject
+    SignedUrlCache cache;
+
+    @Inject
+    StorageService storageService;
+
+    @Test
+    void get_reusesUrlWithinWindow() {
+        CountingSigner signer = new CountingSigner(0);
+        String path = prefix() + "/a.jpg";
+
+        String first = cache.get(path, TTL, signer);
+        String second = cache.get(path, TTL, signer);
+
+        assertEquals(first, second);
+        assertEquals(1, signer.calls.get());
+    }
+
+    @Test
+    void get_differentTtl_isSignedSeparately() {
+        CountingSigner signer = new CountingSigner(0);
+        String path = prefix() + "/a.jpg";
+
+        cache.get(path, TTL, signer);
+        cache.get(path, Duration.ofMinutes(60), signer);
+
+        assertEquals(2, signer.calls.get());
+    }
+
+    @Test
+    void get_nearExpiry_isResigned() throws Exception {
+        CountingSigner signer = new CountingSigner(0);
+        String path = prefix() + "/a.jpg";
+        // 2s TTL -> renewed once less than 1s (half the TTL) remains
+        Duration shortTtl = Duration.ofSeconds(2);
+
+        String first = cache.get(path, shortTtl, signer);
+        Thread.sleep(1200);
+        String second = cache.get(path, shortTtl, signer);
+
+        assertEquals(2, signer.calls.get());
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void getAll_signsMissesInParallelWithBoundedFanOut() {
+        CountingSigner signer = new CountingSigner(20);
+        String prefix = prefix();
+        List<String> paths = IntStream.range(0, 200)
+                .mapToObj(i -> prefix + "/img-" + i + ".jpg")
+                .toList();
+
+        long start = System.nanoTime();
+        Map<String, String> urls = cache.getAll(paths, TTL, signer);
+        long elapsedMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertEquals(200, urls.size());
+        assertEquals(paths, List.copyOf(urls.keySet()));
+        assertEquals(200, signer.calls.get());
+        assertTrue(signer.maxInFlight.get() > 1, "Misses were not signed in parallel");
+        assertTrue(signer.maxInFlight.get() <= MAX_CONCURRENCY,
+                "Fan-out exceeded " + MAX_CONCURRENCY + ": " + signer.maxInFlight.get());
+        // Sequential signing would take 200 * 20ms = 4s
+        assertTrue(elapsedMs < 2000, "Batch took " + elapsedMs + " ms");
+
+        // Second batch is served entirely from the cache
+        assertEquals(urls, cache.getAll(paths, TTL, signer));
+        assertEquals(200, signer.calls.get());
+    }
+
+    @Test
+    void getAll_failedPath_isEmptyAndNotCached() {
+        String prefix = prefix();
+        String bad = prefix + "/bad.jpg";
+        List<String> paths = List.of(prefix + "/ok-1.jpg", bad, prefix + "/ok-2.jpg");
+        AtomicInteger badAttempts = new AtomicInteger();
+
+        Function<String, String> signer = path -> {
+            if (path.equals(bad)) {
+                badAttempts.incrementAndGet();
+                throw new IllegalStateException("signing failed");
+            }
+            return "https://signed/" + path;
+        };
+
+        Map<String, String> urls = cache.getAll(paths, TTL, signer);
+        assertEquals("", urls.get(bad));
+        assertEquals("https://signed/" + prefix + "/ok-1.jpg", urls.get(prefix + "/ok-1.jpg"));
+
+        cache.getAll(paths, TTL, signer);
+        assertEquals(2, badAttempts.get());
+    }
+
+    @Test
+    void localStorage_sharesCacheBetweenSingleAndBatch() {
+        String prefix = prefix();
+        List<String> paths = List.of(prefix + "/1.jpg", prefix + "/2.jpg", prefix + "/3.jpg");
+
+        Map<String, String> batch = storageService.generateReadUrlsBatch(paths, TTL);
+
+        assertEquals(batch, storageService.generateReadUrlsBatch(paths, TTL));
+        assertEquals(batch.get(paths.get(0)), storageService.generateReadUrl(paths.get(0), TTL));
+    }
+
+    private static String prefix() {
+        return "sessions/" + UUID.randomUUID();
+    }
+
+    /**
+     * Signer that counts calls and tracks peak concurrency; each signature
+     * is unique so re-signing is observable.
+     */
+    private static final class CountingSigner implements Function<String, String> {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        private final long delayMs;
+
+        CountingSigner(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public String apply(String path) {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+                return "https://signed/" + path + "?sig=" + calls.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
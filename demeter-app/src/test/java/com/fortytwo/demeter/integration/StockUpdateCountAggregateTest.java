@@ -0,0 +1,213 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.app.service.StockUpdateOrchestrator;
+import com.fortytwo.demeter.app.service.StockUpdateOrchestrator.StockUpdateResult;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests how StockUpdateOrchestrator turns a session's COUNT estimations into
+ * per-config quantities: summed per classified product across images, and
+ * the unclassified total for sessions without classifications.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class StockUpdateCountAggregateTest {
+
+    private static final String TENANT = "tenant-stock-count-aggregate-test";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    StockUpdateOrchestrator orchestrator;
+
+    @Inject
+    TenantScope tenantScope;
+
+    private static UUID cactusId;
+    private static UUID succulentId;
+    private static UUID locationId;
+    private static final UUID userId = UUID.randomUUID();
+    private static final UUID classifiedSessionId = UUID.randomUUID();
+    private static final UUID unclassifiedSessionId = UUID.randomUUID();
+
+    @Test
+    @Order(1)
+    void setup_createLocationAndProducts() {
+        cactusId = createProduct("AGG-CACTUS-001", "Aggregate Cactus");
+        succulentId = createProduct("AGG-SUCC-001", "Aggregate Succulent");
+
+        String warehouseId = post("/api/v1/warehouses", """
+                {"name": "Aggregate Test Warehouse"}
+                """);
+        String areaId = post("/api/v1/warehouses/" + warehouseId + "/areas", """
+                {"name": "Aggregate Test Area"}
+                """);
+        locationId = UUID.fromString(post("/api/v1/areas/" + areaId + "/locations", """
+                {"name": "Aggregate Test Location"}
+                """));
+    }
+
+    @Test
+    @Order(2)
+    void setup_seedSessionsAndEstimations() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            execute(connection, """
+                    INSERT INTO users (id, tenant_id, external_id, email, name, role)
+                    VALUES (?, ?, ?, ?, 'Aggregate Tester', 'ADMIN')
+                    """, userId, TENANT, "aggregate-" + userId, "aggregate-" + userId + "@example.com");
+            for (UUID productId : new UUID[] {cactusId, succulentId}) {
+                execute(connection, """
+                        INSERT INTO storage_location_configs (tenant_id, storage_location_id, product_id)
+                        VALUES (?, ?, ?)
+                        """, TENANT, locationId, productId);
+            }
+            for (UUID sessionId : new UUID[] {classifiedSessionId, unclassifiedSessionId}) {
+                execute(connection, """
+                        INSERT INTO photo_processing_sessions
+                            (id, tenant_id, status, total_images, processed_images,
+                             storage_location_id, uploaded_by, created_at)
+                        VALUES (?, ?, 'COMPLETED', 2, 2, ?, ?, now())
+                        """, sessionId, TENANT, locationId, userId);
+            }
+
+            // Classified session: two images of cactus, one of succulent
+            UUID cactusClassification = classification(connection, classifiedSessionId, cactusId);
+            UUID succulentClassification = classification(connection, classifiedSessionId, succulentId);
+            countEstimation(connection, classifiedSessionId, cactusClassification, 25);
+            countEstimation(connection, classifiedSessionId, cactusClassification, 15);
+            countEstimation(connection, classifiedSessionId, succulentClassification, 7);
+            execute(connection, """
+                    INSERT INTO estimations (tenant_id, session_id, estimation_type, value, estimated_count)
+                    VALUES (?, ?, 'AREA', 999, 999)
+                    """, TENANT, classifiedSessionId);
+
+            // Unclassified session: counts from the callback's value column only
+            for (int value : new int[] {10, 12}) {
+                execute(connection, """
+                        INSERT INTO estimations (tenant_id, session_id, estimation_type, value)
+                        VALUES (?, ?, 'count', ?)
+                        """, TENANT, unclassifiedSessionId, value);
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(3)
+    void classifiedCounts_summedPerProduct() throws Exception {
+        StockUpdateResult result = tenantScope.call(TENANT,
+                () -> orchestrator.processStockUpdate(classifiedSessionId));
+
+        assertEquals(2, result.batchesCreated());
+        assertEquals(40, activeQuantity(cactusId));
+        assertEquals(7, activeQuantity(succulentId));
+    }
+
+    @Test
+    @Order(4)
+    void unclassifiedCounts_applyToEveryConfig() throws Exception {
+        StockUpdateResult result = tenantScope.call(TENANT,
+                () -> orchestrator.processStockUpdate(unclassifiedSessionId));
+
+        assertEquals(2, result.batchesCreated());
+        assertEquals(22, activeQuantity(cactusId));
+        assertEquals(22, activeQuantity(succulentId));
+        // 40 -> 22 cactus sold; 7 -> 22 succulents is an anomaly, not a sale
+        assertEquals(18, result.totalSales());
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSessions() {
+        for (UUID sessionId : new UUID[] {classifiedSessionId, unclassifiedSessionId}) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/photo-sessions/" + sessionId)
+                    .then()
+                    .statusCode(204);
+        }
+    }
+
+    private static UUID createProduct(String sku, String name) {
+        return UUID.fromString(post("/api/v1/products", """
+                {"sku": "%s", "name": "%s"}
+                """.formatted(sku, name)));
+    }
+
+    private static String post(String path, String body) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post(path)
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    private static UUID classification(Connection connection, UUID sessionId, UUID productId) throws Exception {
+        UUID id = UUID.randomUUID();
+        execute(connection, """
+                INSERT INTO classifications (id, tenant_id, session_id, product_id)
+                VALUES (?, ?, ?, ?)
+                """, id, TENANT, sessionId, productId);
+        return id;
+    }
+
+    private static void countEstimation(Connection connection, UUID sessionId, UUID classificationId, int count)
+            throws Exception {
+        execute(connection, """
+                INSERT INTO estimations
+                    (tenant_id, session_id, classification_id, estimation_type, value, estimated_count)
+                VALUES (?, ?, ?, 'COUNT', 0, ?)
+                """, TENANT, sessionId, classificationId, count);
+    }
+
+    private static void execute(Connection connection, String sql, Object... params) throws Exception {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    private int activeQuantity(UUID productId) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     SELECT quantity_current FROM stock_batches
+                     WHERE current_storage_location_id = ? AND product_id = ? AND cycle_end_date IS NULL
+                     """)) {
+            stmt.setObject(1, locationId);
+            stmt.setObject(2, productId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
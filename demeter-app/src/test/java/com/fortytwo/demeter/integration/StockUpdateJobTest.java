@@ -0,0 +1,295 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.app.service.StockUpdateOrchestrator;
+import com.fortytwo.demeter.app.service.StockUpdateOrchestrator.StockUpdateResult;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that completing a photo session updates stock without any explicit
+ * call: the job is recorded after commit, run by the worker, and two sessions
+ * completing together on one location produce consecutive cycles rather than
+ * two first cycles.
+ */
+@QuarkusTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestSecurity(user = "test-user", roles = {"ADMIN"})
+class StockUpdateJobTest {
+
+    private static final String TENANT = "tenant-stock-update-job-test";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    StockUpdateOrchestrator orchestrator;
+
+    @Inject
+    TenantScope tenantScope;
+
+    private static String productId;
+    private static String locationId;
+    private static final UUID userId = UUID.randomUUID();
+    private static final UUID firstSessionId = UUID.randomUUID();
+    private static final UUID secondSessionId = UUID.randomUUID();
+    private static final UUID firstImageId = UUID.randomUUID();
+    private static final UUID secondImageId = UUID.randomUUID();
+
+    @Test
+    @Order(1)
+    void setup_createLocationAndProduct() {
+        productId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"sku": "JOB-PROD-001", "name": "Stock Job Test Product"}
+                        """)
+                .when()
+                .post("/api/v1/products")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String warehouseId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Stock Job Test Warehouse"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        String areaId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Stock Job Test Area"}
+                        """)
+                .when()
+                .post("/api/v1/warehouses/" + warehouseId + "/areas")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+
+        locationId = given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"name": "Stock Job Test Location"}
+                        """)
+                .when()
+                .post("/api/v1/areas/" + areaId + "/locations")
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+    }
+
+    @Test
+    @Order(2)
+    void setup_seedUserConfigAndSessions() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement user = connection.prepareStatement("""
+                    INSERT INTO users (id, tenant_id, external_id, email, name, role)
+                    VALUES (?, ?, ?, ?, 'Stock Job Tester', 'ADMIN')
+                    """)) {
+                user.setObject(1, userId);
+                user.setString(2, TENANT);
+                user.setString(3, "stock-job-" + userId);
+                user.setString(4, "stock-job-" + userId + "@example.com");
+                user.executeUpdate();
+            }
+
+            try (PreparedStatement config = connection.prepareStatement("""
+                    INSERT INTO storage_location_configs (tenant_id, storage_location_id, product_id)
+                    VALUES (?, ?, ?)
+                    """)) {
+                config.setString(1, TENANT);
+                config.setObject(2, UUID.fromString(locationId));
+                config.setObject(3, UUID.fromString(productId));
+                config.executeUpdate();
+            }
+
+            try (PreparedStatement session = connection.prepareStatement("""
+                    INSERT INTO photo_processing_sessions
+                        (id, tenant_id, status, total_images, processed_images,
+                         storage_location_id, uploaded_by, created_at)
+                    VALUES (?, ?, 'PROCESSING', 1, 0, ?, ?, now())
+                    """);
+                 PreparedStatement image = connection.prepareStatement("""
+                    INSERT INTO images (id, tenant_id, session_id, storage_url, created_at)
+                    VALUES (?, ?, ?, ?, now())
+                    """)) {
+                for (UUID[] ids : new UUID[][] {{firstSessionId, firstImageId}, {secondSessionId, secondImageId}}) {
+                    session.setObject(1, ids[0]);
+                    session.setString(2, TENANT);
+                    session.setObject(3, UUID.fromString(locationId));
+                    session.setObject(4, userId);
+                    session.executeUpdate();
+
+                    image.setObject(1, ids[1]);
+                    image.setString(2, TENANT);
+                    image.setObject(3, ids[0]);
+                    image.setString(4, "stock-job/" + ids[1] + ".jpg");
+                    image.executeUpdate();
+                }
+            }
+
+            connection.commit();
+        }
+    }
+
+    @Test
+    @Order(3)
+    void completeSessionsConcurrently() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                start.await();
+                return postCountCallback(firstSessionId, firstImageId, 40);
+            }));
+            futures.add(executor.submit(() -> {
+                start.await();
+                return postCountCallback(secondSessionId, secondImageId, 30);
+            }));
+            start.countDown();
+
+            for (Future<Integer> future : futures) {
+                assertEquals(200, future.get());
+            }
+        }
+    }
+
+    @Test
+    @Order(4)
+    void jobsSucceedWithoutExplicitCall() throws Exception {
+        awaitJob(firstSessionId);
+        awaitJob(secondSessionId);
+
+        assertEquals(1, queryInt("SELECT batches_created FROM stock_update_jobs WHERE session_id = ?", firstSessionId));
+        assertEquals(1, queryInt("SELECT batches_created FROM stock_update_jobs WHERE session_id = ?", secondSessionId));
+    }
+
+    @Test
+    @Order(5)
+    void sameLocation_cyclesAreConsecutive() throws Exception {
+        UUID location = UUID.fromString(locationId);
+
+        assertEquals(2, queryInt("SELECT count(*) FROM stock_batches WHERE current_storage_location_id = ?", location));
+        assertEquals(1, queryInt("""
+                SELECT count(*) FROM stock_batches
+                WHERE current_storage_location_id = ? AND cycle_end_date IS NULL
+                """, location));
+        assertEquals(2, queryInt("""
+                SELECT cycle_number FROM stock_batches
+                WHERE current_storage_location_id = ? AND cycle_end_date IS NULL
+                """, location));
+    }
+
+    @Test
+    @Order(6)
+    void processedSession_isNotProcessedAgain() throws Exception {
+        StockUpdateResult result = tenantScope.call(TENANT, () -> orchestrator.processStockUpdate(firstSessionId));
+
+        assertEquals(0, result.batchesCreated());
+        assertEquals(queryUuid("SELECT foto_movement_id FROM stock_update_jobs WHERE session_id = ?", firstSessionId),
+                result.fotoMovementId());
+        assertEquals(2, queryInt("SELECT count(*) FROM stock_batches WHERE current_storage_location_id = ?",
+                UUID.fromString(locationId)));
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteSessions() {
+        for (UUID sessionId : new UUID[] {firstSessionId, secondSessionId}) {
+            given()
+                    .header("X-Tenant-ID", TENANT)
+                    .when()
+                    .delete("/api/v1/photo-sessions/" + sessionId)
+                    .then()
+                    .statusCode(204);
+        }
+    }
+
+    private static int postCountCallback(UUID sessionId, UUID imageId, int count) {
+        return given()
+                .header("X-Tenant-ID", TENANT)
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                            "sessionId": "%s",
+                            "imageId": "%s",
+                            "estimations": [{"estimationType": "COUNT", "value": %d, "unit": "plants"}]
+                        }
+                        """.formatted(sessionId, imageId, count))
+                .when()
+                .post("/api/v1/processing-callback/results")
+                .then()
+                .body("status", equalTo("COMPLETED"))
+                .extract().statusCode();
+    }
+
+    private void awaitJob(UUID sessionId) throws Exception {
+        long deadline = System.currentTimeMillis() + 20_000;
+        String status = null;
+        while (System.currentTimeMillis() < deadline) {
+            status = queryString("SELECT status FROM stock_update_jobs WHERE session_id = ?", sessionId);
+            if ("SUCCEEDED".equals(status) || "FAILED".equals(status)) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals("SUCCEEDED", status,
+                "Job error: " + queryString("SELECT last_error FROM stock_update_jobs WHERE session_id = ?", sessionId));
+    }
+
+    private int queryInt(String sql, UUID id) throws Exception {
+        return ((Number) queryObject(sql, id)).intValue();
+    }
+
+    private String queryString(String sql, UUID id) throws Exception {
+        return (String) queryObject(sql, id);
+    }
+
+    private UUID queryUuid(String sql, UUID id) throws Exception {
+        return (UUID) queryObject(sql, id);
+    }
+
+    private Object queryObject(String sql, UUID id) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.fortytwo.demeter.integration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the GPU ML Worker.
+ *
+ * <p>Accepts tasks on {@code POST /tasks/process} (as sent by
+ * DirectTaskDispatcher with {@code demeter.cloudtasks.direct-dispatch-url}),
+ * waits a synthetic inference latency, and reports synthetic detections,
+ * a classification and a COUNT estimation to
+ * {@code /api/v1/processing-callback/results}. A share of tasks is answered
+ * with 503 before any work, to exercise dispatch retries; callbacks answered
+ * with 429 are retried after Retry-After.
+ *
+ * <p>With {@code holdSessions}, a session's tasks wait for
+ * {@link #release(UUID)}, so a test can finish setting the session up
+ * before results arrive.
+ */
+final class StubMlWorker implements AutoCloseable {
+
+    /**
+     * @param latencyMs          Minimum processing time per image
+     * @param latencyJitterMs    Random extra processing time, up to this much
+     * @param errorRate          Share of tasks answered with 503, from 0 to 1
+     * @param detectionsPerImage Detections reported per image, also the COUNT estimate
+     * @param holdSessions       Whether tasks wait for {@link #release(UUID)}
+     */
+    record Settings(long latencyMs, long latencyJitterMs, double errorRate,
+                    int detectionsPerImage, boolean holdSessions) {}
+
+    private static final Duration HOLD_TIMEOUT = Duration.ofSeconds(60);
+
+    private final Settings settings;
+    private final String resultsUrl;
+    private final HttpServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<UUID, CountDownLatch> holds = new ConcurrentHashMap<>();
+
+    private final AtomicInteger tasksReceived = new AtomicInteger();
+    private final AtomicInteger errorsReturned = new AtomicInteger();
+    private final AtomicInteger callbacksDelivered = new AtomicInteger();
+    private final AtomicInteger callbacksThrottled = new AtomicInteger();
+
+    private StubMlWorker(int port, String backendUrl, Settings settings) throws IOException {
+        this.settings = settings;
+        this.resultsUrl = backendUrl + "/api/v1/processing-callback/results";
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/tasks/process", this::handleTask);
+        server.start();
+    }
+
+    static StubMlWorker start(int port, String backendUrl, Settings settings) throws IOException {
+        return new StubMlWorker(port, backendUrl, settings);
+    }
+
+    void release(UUID sessionId) {
+        hold(sessionId).countDown();
+    }
+
+    int tasksReceived() {
+        return tasksReceived.get();
+    }
+
+    int errorsReturned() {
+        return errorsReturned.get();
+    }
+
+    int callbacksDelivered() {
+        return callbacksDelivered.get();
+    }
+
+    int callbacksThrottled() {
+        return callbacksThrottled.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        client.close();
+    }
+
+    private void handleTask(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode task = objectMapper.readTree(exchange.getRequestBody());
+            tasksReceived.incrementAndGet();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < settings.errorRate()) {
+                errorsReturned.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            UUID sessionId = UUID.fromString(task.get("session_id").asText());
+            if (settings.holdSessions()
+                    && !hold(sessionId).await(HOLD_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            long latencyMs = settings.latencyMs() + random.nextLong(settings.latencyJitterMs() + 1);
+            Thread.sleep(latencyMs);
+
+            boolean delivered = deliver(task.get("tenant_id").asText(),
+                    results(sessionId, UUID.fromString(task.get("image_id").asText()),
+                            task.path("pipeline").asText(null), latencyMs));
+            exchange.sendResponseHeaders(delivered ? 200 : 500, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * POST results to the backend, waiting out 429 responses.
+     *
+     * @return Whether the backend accepted them
+     */
+    private boolean deliver(String tenantId, Map<String, Object> results)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(resultsUrl))
+                .header("Content-Type", "application/json")
+                .header("X-Tenant-ID", tenantId)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(results)))
+                .build();
+
+        while (true) {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 429) {
+                boolean accepted = response.statusCode() / 100 == 2;
+                if (accepted) {
+                    callbacksDelivered.incrementAndGet();
+                }
+                return accepted;
+            }
+            callbacksThrottled.incrementAndGet();
+            long retryAfterSeconds = response.headers().firstValueAsLong("Retry-After").orElse(1);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(retryAfterSeconds));
+        }
+    }
+
+    private Map<String, Object> results(UUID sessionId, UUID imageId, String pipeline, long latencyMs) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Map<String, Object>> detections = new ArrayList<>(settings.detectionsPerImage());
+        for (int i = 0; i < settings.detectionsPerImage(); i++) {
+            double x1 = random.nextDouble(0, 3800);
+            double y1 = random.nextDouble(0, 2800);
+            detections.add(Map.of(
+                    "label", "plant",
+                    "confidence", random.nextDouble(0.5, 1.0),
+                    "boundingBox", Map.of(
+                            "x1", x1, "y1", y1,
+                            "x2", x1 + random.nextDouble(20, 200),
+                            "y2", y1 + random.nextDouble(20, 200))));
+        }
+
+        return Map.of(
+                "sessionId", sessionId,
+                "imageId", imageId,
+                "detections", detections,
+                "classifications", List.of(Map.of("label", "plant", "confidence", 0.9)),
+                "estimations", List.of(Map.of(
+                        "estimationType", "COUNT",
+                        "value", (double) settings.detectionsPerImage(),
+                        "unit", "plants",
+                        "confidence", 0.9)),
+                "metadata", Map.of(
+                        "pipeline", pipeline != null ? pipeline : "SEGMENT_DETECT",
+                        "processingTimeMs", latencyMs,
+                        "modelVersion", "stub",
+                        "workerVersion", "stub-ml-worker"));
+    }
+
+    private CountDownLatch hold(UUID sessionId) {
+        return holds.computeIfAbsent(sessionId, id -> new CountDownLatch(1));
+    }
+}
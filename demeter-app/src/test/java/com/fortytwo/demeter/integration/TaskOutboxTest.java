@@ -0,0 +1,226 @@
+package com.fortytwo.demeter.integration;
+
+import com.fortytwo.demeter.common.cloudtasks.CloudTasksService;
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import com.fortytwo.demeter.common.taskqueue.TaskQueue;
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.junit.mockito.InjectSpy;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests the Cloud Tasks outbox: rows commit and roll back with the enqueuing
+ * transaction, the relay creates each task once under a deduplicating task ID
+ * and deletes the row, failed creations are retried, and a task that keeps
+ * failing is marked FAILED and fails its session.
+ */
+@QuarkusTest
+@TestProfile(TaskOutboxTest.OutboxProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TaskOutboxTest {
+
+    private static final String TENANT = "tenant-task-outbox-test";
+
+    public static class OutboxProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "demeter.task-queue.provider", "cloudtasks",
+                    "demeter.task-queue.outbox.poll-interval-ms", "200",
+                    "demeter.task-queue.outbox.max-attempts", "3",
+                    "demeter.task-queue.outbox.initial-backoff-ms", "100",
+                    "demeter.task-queue.outbox.max-backoff-ms", "200");
+        }
+    }
+
+    @Inject
+    TaskQueue taskQueue;
+
+    @InjectSpy
+    CloudTasksService cloudTasksService;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Test
+    @Order(1)
+    void rolledBackEnqueue_leavesNoRow() throws Exception {
+        UUID imageId = UUID.randomUUID();
+
+        assertThrows(IllegalStateException.class, () -> QuarkusTransaction.requiringNew().run(() -> {
+            taskQueue.enqueue(task(null, imageId));
+            throw new IllegalStateException("business transaction failed");
+        }));
+
+        assertEquals(0, countRows(imageId));
+        Thread.sleep(500);
+        verify(cloudTasksService, never()).createProcessingTask(forImage(imageId), anyString(), anyString());
+    }
+
+    @Test
+    @Order(2)
+    void committedEnqueue_isDispatchedOnceAndDeleted() throws Exception {
+        UUID imageId = UUID.randomUUID();
+
+        String ref = QuarkusTransaction.requiringNew().call(() -> taskQueue.enqueue(task(null, imageId)));
+        assertTrue(ref.startsWith("outbox-"), ref);
+
+        ArgumentCaptor<String> taskId = ArgumentCaptor.forClass(String.class);
+        verify(cloudTasksService, timeout(5000)).createProcessingTask(forImage(imageId), eq("ml-tasks"), taskId.capture());
+        assertEquals("img-" + imageId.toString().replace("-", "") + "-" + ref.substring("outbox-".length()),
+                taskId.getValue());
+
+        await(() -> countRowsUnchecked(imageId) == 0);
+        Thread.sleep(500);
+        verify(cloudTasksService, times(1)).createProcessingTask(forImage(imageId), anyString(), anyString());
+    }
+
+    @Test
+    @Order(3)
+    void failedDispatch_isRetried() throws Exception {
+        UUID imageId = UUID.randomUUID();
+        doThrow(new IllegalStateException("Cloud Tasks unavailable"))
+                .doCallRealMethod()
+                .when(cloudTasksService).createProcessingTask(forImage(imageId), anyString(), anyString());
+
+        QuarkusTransaction.requiringNew().run(() -> taskQueue.enqueue(task(null, imageId)));
+
+        await(() -> countRowsUnchecked(imageId) == 0);
+        verify(cloudTasksService, times(2)).createProcessingTask(forImage(imageId), anyString(), anyString());
+    }
+
+    @Test
+    @Order(4)
+    void exhaustedDispatch_marksRowFailedAndFailsSession() throws Exception {
+        UUID sessionId = UUID.randomUUID();
+        UUID imageId = UUID.randomUUID();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement session = connection.prepareStatement("""
+                     INSERT INTO photo_processing_sessions
+                         (id, tenant_id, status, total_images, processed_images, created_at)
+                     VALUES (?, ?, 'PROCESSING', 1, 0, now())
+                     """)) {
+            session.setObject(1, sessionId);
+            session.setString(2, TENANT);
+            session.executeUpdate();
+        }
+        doThrow(new IllegalStateException("Cloud Tasks unavailable"))
+                .when(cloudTasksService).createProcessingTask(forImage(imageId), anyString(), anyString());
+
+        QuarkusTransaction.requiringNew().run(() -> taskQueue.enqueue(task(sessionId, imageId)));
+
+        await(() -> "FAILED".equals(queryUnchecked("SELECT state FROM ml_task_outbox WHERE image_id = ?", imageId)));
+        assertEquals(3, ((Number) query("SELECT attempts FROM ml_task_outbox WHERE image_id = ?", imageId)).intValue());
+        assertTrue(((String) query("SELECT last_error FROM ml_task_outbox WHERE image_id = ?", imageId))
+                .contains("Cloud Tasks unavailable"));
+        await(() -> "FAILED".equals(queryUnchecked("SELECT status FROM photo_processing_sessions WHERE id = ?", sessionId)));
+    }
+
+    @Test
+    @Order(5)
+    void relay_publishesMetrics() {
+        assertNotNull(registry.find("demeter.ml.outbox.pending").gauge());
+        assertNotNull(registry.find("demeter.ml.outbox.lag").gauge());
+        assertTrue(registry.get("demeter.ml.outbox.dispatched").counter().count() >= 2);
+        assertTrue(registry.get("demeter.ml.outbox.dispatch.failures").counter().count() >= 4);
+        assertTrue(registry.get("demeter.ml.outbox.failed").counter().count() >= 1);
+        assertTrue(registry.get("demeter.ml.outbox.dispatch.delay").timer().count() >= 2);
+    }
+
+    @Test
+    @Order(99)
+    void cleanup_deleteRowsAndSessions() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement outbox = connection.prepareStatement(
+                     "DELETE FROM ml_task_outbox WHERE tenant_id = ?");
+             PreparedStatement sessions = connection.prepareStatement(
+                     "DELETE FROM photo_processing_sessions WHERE tenant_id = ?")) {
+            outbox.setString(1, TENANT);
+            outbox.executeUpdate();
+            sessions.setString(1, TENANT);
+            sessions.executeUpdate();
+        }
+    }
+
+    private static ProcessingTaskRequest task(UUID sessionId, UUID imageId) {
+        return ProcessingTaskRequest.of(TENANT, sessionId, imageId, "sessions/" + imageId + ".jpg", "DETECTION");
+    }
+
+    private static ProcessingTaskRequest forImage(UUID imageId) {
+        return argThat(request -> request != null && imageId.equals(request.imageId()));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("Condition not met within 15 s");
+    }
+
+    private int countRows(UUID imageId) throws Exception {
+        return ((Number) query("SELECT count(*) FROM ml_task_outbox WHERE image_id = ?", imageId)).intValue();
+    }
+
+    private int countRowsUnchecked(UUID imageId) {
+        try {
+            return countRows(imageId);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object queryUnchecked(String sql, UUID id) {
+        try {
+            return query(sql, id);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object query(String sql, UUID id) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setObject(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getObject(1) : null;
+            }
+        }
+    }
+}
@@ -18,6 +18,9 @@ dependencies {
     // Google Cloud Tasks for background ML processing
     api("com.google.cloud:google-cloud-tasks:2.56.0")
 
+    // Metrics (registry chosen by the application)
+    api("io.quarkus:quarkus-micrometer")
+
     testImplementation("io.quarkus:quarkus-junit5")
     testImplementation("io.quarkus:quarkus-junit5-mockito")
 }
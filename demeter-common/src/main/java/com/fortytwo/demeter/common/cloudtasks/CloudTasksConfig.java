@@ -15,6 +15,10 @@ import java.util.Optional;
  * demeter.cloudtasks.ml-worker-url=https://ml-worker-xxx.run.app
  * demeter.cloudtasks.queue-name=ml-tasks
  * </pre>
+ *
+ * <p>With Cloud Tasks disabled, {@code demeter.cloudtasks.direct-dispatch-url}
+ * sends tasks straight to a local ML Worker (or a stand-in) instead of only
+ * logging them.
  */
 @ConfigMapping(prefix = "demeter.cloudtasks")
 public interface CloudTasksConfig {
@@ -59,4 +63,17 @@ public interface CloudTasksConfig {
      */
     @WithDefault("1800")
     int taskTimeoutSeconds();
+
+    /**
+     * Base URL of an ML Worker to POST tasks to directly when Cloud Tasks is
+     * disabled. If not set, disabled tasks are only logged.
+     */
+    Optional<String> directDispatchUrl();
+
+    /**
+     * Delivery attempts per directly dispatched task; connection errors and
+     * 5xx responses are retried, as Cloud Tasks would.
+     */
+    @WithDefault("5")
+    int directDispatchMaxAttempts();
 }
@@ -14,9 +14,10 @@ import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.TransactionSynchronizationRegistry;
 import org.jboss.logging.Logger;
 import java.io.IOException;
-import java.util.UUID;
 
 /**
  * Service for creating Cloud Tasks to dispatch ML processing jobs.
@@ -26,7 +27,14 @@ import java.util.UUID;
  * service-to-service communication.
  *
  * <p>When disabled (local development), logs the task details without
- * actually creating the task.
+ * actually creating the task. If a direct dispatch URL is configured, the
+ * task is instead POSTed straight to that ML Worker by
+ * {@link DirectTaskDispatcher}.
+ *
+ * <p>Creating a task is a remote call and is refused inside a transaction:
+ * it would hold the connection for the RPC and could create a task for rows
+ * that then roll back. Code that writes the images a task refers to
+ * enqueues through {@code TaskQueue}, whose outbox is relayed after commit.
  */
 @ApplicationScoped
 public class CloudTasksService {
@@ -41,6 +49,12 @@ public class CloudTasksService {
     @Inject
     ObjectMapper objectMapper;
 
+    @Inject
+    DirectTaskDispatcher directDispatcher;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
     private CloudTasksClient client;
 
     @PostConstruct
@@ -53,7 +67,7 @@ public class CloudTasksService {
                 log.error("Failed to create Cloud Tasks client", e);
                 throw new RuntimeException("Cloud Tasks client initialization failed", e);
             }
-        } else {
+        } else if (config.directDispatchUrl().isEmpty()) {
             log.info("Cloud Tasks disabled - tasks will be logged but not created");
         }
     }
@@ -73,7 +87,7 @@ public class CloudTasksService {
      * If Cloud Tasks is disabled, logs the request without creating a task.
      *
      * @param request Processing request with image details
-     * @return Task name if created, or null if disabled
+     * @return Task name if created or dispatched directly, or null if disabled
      */
     public String createProcessingTask(ProcessingTaskRequest request) {
         return createProcessingTask(request, config.queueName());
@@ -84,15 +98,36 @@ public class CloudTasksService {
      *
      * @param request Processing request with image details
      * @param queueName Target queue name
-     * @return Task name if created, or null if disabled
+     * @return Task name if created or dispatched directly, or null if disabled
      */
     public String createProcessingTask(ProcessingTaskRequest request, String queueName) {
+        return createProcessingTask(request, queueName, null);
+    }
+
+    /**
+     * Create an ML processing task with a given task ID.
+     *
+     * <p>Cloud Tasks rejects a second task with the same ID (for about an
+     * hour, even after the first one ran) with
+     * {@link com.google.api.gax.rpc.AlreadyExistsException}, so retrying a
+     * creation that may have succeeded cannot create a duplicate.
+     *
+     * @param request Processing request with image details
+     * @param queueName Target queue name
+     * @param taskId Task ID (letters, digits, hyphens, underscores), or null to let Cloud Tasks assign one
+     * @return Task name if created or dispatched directly, or null if disabled
+     */
+    public String createProcessingTask(ProcessingTaskRequest request, String queueName, String taskId) {
         if (!config.enabled()) {
+            if (directDispatcher.isEnabled()) {
+                return directDispatcher.dispatch(request, PROCESS_ENDPOINT);
+            }
             logDisabledTask(request, queueName);
             return null;
         }
 
         validateConfig();
+        requireNoTransaction();
 
         String projectId = config.projectId().orElseThrow();
         String mlWorkerUrl = config.mlWorkerUrl().orElseThrow();
@@ -100,7 +135,7 @@ public class CloudTasksService {
         QueueName queue = QueueName.of(projectId, config.location(), queueName);
         String targetUrl = mlWorkerUrl + PROCESS_ENDPOINT;
 
-        Task task = buildTask(request, targetUrl);
+        Task task = buildTask(request, targetUrl, queue, taskId);
         Task createdTask = client.createTask(queue, task);
 
         log.infof("Created Cloud Task: %s for image %s in session %s",
@@ -117,15 +152,19 @@ public class CloudTasksService {
      * @param request Processing request
      * @param endpoint Custom endpoint path (e.g., "/tasks/compress")
      * @param queueName Target queue name
-     * @return Task name if created, or null if disabled
+     * @return Task name if created or dispatched directly, or null if disabled
      */
     public String createCustomTask(ProcessingTaskRequest request, String endpoint, String queueName) {
         if (!config.enabled()) {
+            if (directDispatcher.isEnabled()) {
+                return directDispatcher.dispatch(request, endpoint);
+            }
             logDisabledTask(request, queueName);
             return null;
         }
 
         validateConfig();
+        requireNoTransaction();
 
         String projectId = config.projectId().orElseThrow();
         String mlWorkerUrl = config.mlWorkerUrl().orElseThrow();
@@ -133,7 +172,7 @@ public class CloudTasksService {
         QueueName queue = QueueName.of(projectId, config.location(), queueName);
         String targetUrl = mlWorkerUrl + endpoint;
 
-        Task task = buildTask(request, targetUrl);
+        Task task = buildTask(request, targetUrl, queue, null);
         Task createdTask = client.createTask(queue, task);
 
         log.infof("Created Cloud Task: %s for endpoint %s", createdTask.getName(), endpoint);
@@ -141,7 +180,7 @@ public class CloudTasksService {
         return createdTask.getName();
     }
 
-    private Task buildTask(ProcessingTaskRequest request, String targetUrl) {
+    private Task buildTask(ProcessingTaskRequest request, String targetUrl, QueueName queue, String taskId) {
         String payload;
         try {
             payload = objectMapper.writeValueAsString(request);
@@ -170,23 +209,20 @@ public class CloudTasksService {
                         .setSeconds(config.taskTimeoutSeconds())
                         .build());
 
-        // Use image ID as task name for idempotency
-        if (request.imageId() != null) {
-            String taskId = "img-" + request.imageId().toString().replace("-", "");
-            String projectId = config.projectId().orElseThrow();
-            String taskName = String.format(
-                    "projects/%s/locations/%s/queues/%s/tasks/%s",
-                    projectId,
-                    config.location(),
-                    config.queueName(),
-                    taskId
-            );
-            taskBuilder.setName(taskName);
+        if (taskId != null) {
+            taskBuilder.setName(queue.toString() + "/tasks/" + taskId);
         }
 
         return taskBuilder.build();
     }
 
+    private void requireNoTransaction() {
+        if (transactionRegistry.getTransactionStatus() != Status.STATUS_NO_TRANSACTION) {
+            throw new IllegalStateException(
+                    "Cloud Tasks must not be called inside a transaction; enqueue through TaskQueue");
+        }
+    }
+
     private void validateConfig() {
         if (config.projectId().isEmpty()) {
             throw new IllegalStateException("Cloud Tasks project ID not configured");
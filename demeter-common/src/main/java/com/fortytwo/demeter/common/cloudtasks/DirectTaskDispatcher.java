@@ -0,0 +1,162 @@
+package com.fortytwo.demeter.common.cloudtasks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * POSTs tasks straight to an ML Worker when Cloud Tasks is disabled and
+ * {@code demeter.cloudtasks.direct-dispatch-url} is set (local runs, the
+ * load harness).
+ *
+ * <p>Delivery runs on a virtual thread and retries connection errors and 5xx
+ * responses with backoff, as Cloud Tasks would. A task dispatched inside a
+ * transaction is only sent once it commits, so the worker never sees an
+ * image whose rows are not visible yet, or were rolled back.
+ */
+@ApplicationScoped
+public class DirectTaskDispatcher {
+
+    private static final Logger log = Logger.getLogger(DirectTaskDispatcher.class);
+    private static final String CONTENT_TYPE = "application/json";
+    private static final long INITIAL_BACKOFF_MS = 200;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    @Inject
+    CloudTasksConfig config;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private HttpClient client;
+
+    @PostConstruct
+    void init() {
+        if (!config.enabled() && config.directDispatchUrl().isPresent()) {
+            client = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .build();
+            log.infof("Cloud Tasks disabled - tasks will be sent directly to %s", config.directDispatchUrl().get());
+        }
+    }
+
+    @PreDestroy
+    void cleanup() {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return client != null;
+    }
+
+    /**
+     * Deliver a task in the background, after the current transaction
+     * commits if there is one (and not at all if it rolls back).
+     *
+     * @return Pseudo task name, for logging
+     */
+    public String dispatch(ProcessingTaskRequest request, String endpoint) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize task payload", e);
+        }
+
+        String taskName = "direct-" + (request.imageId() != null ? request.imageId() : UUID.randomUUID());
+        HttpRequest httpRequest = HttpRequest.newBuilder()
+                .uri(URI.create(config.directDispatchUrl().orElseThrow() + endpoint))
+                .timeout(Duration.ofSeconds(config.taskTimeoutSeconds()))
+                .header("Content-Type", CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8))
+                .build();
+
+        if (transactionRegistry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            start(taskName, httpRequest);
+            return taskName;
+        }
+
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    start(taskName, httpRequest);
+                } else {
+                    log.debugf("Direct task %s dropped: transaction rolled back", taskName);
+                }
+            }
+        });
+        return taskName;
+    }
+
+    private void start(String taskName, HttpRequest httpRequest) {
+        Thread.ofVirtual()
+                .name(taskName)
+                .start(() -> deliver(taskName, httpRequest));
+    }
+
+    private void deliver(String taskName, HttpRequest httpRequest) {
+        int maxAttempts = config.directDispatchMaxAttempts();
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            String failure;
+            try {
+                HttpResponse<Void> response = client.send(httpRequest, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() < 500) {
+                    if (response.statusCode() >= 400) {
+                        log.errorf("Direct task %s rejected with status %d", taskName, response.statusCode());
+                    }
+                    return;
+                }
+                failure = "status " + response.statusCode();
+            } catch (IOException e) {
+                failure = e.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (attempt == maxAttempts) {
+                log.errorf("Direct task %s failed after %d attempts: %s", taskName, attempt, failure);
+                return;
+            }
+            // Exponential backoff with equal jitter
+            long backoffMs = Math.min(INITIAL_BACKOFF_MS << (attempt - 1), MAX_BACKOFF_MS);
+            long delayMs = backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+            log.warnf("Direct task %s failed (attempt %d of %d), retrying in %d ms: %s",
+                    taskName, attempt, maxAttempts, delayMs, failure);
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
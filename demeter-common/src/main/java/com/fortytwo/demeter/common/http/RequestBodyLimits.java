@@ -0,0 +1,151 @@
+package com.fortytwo.demeter.common.http;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.exception.ErrorResponse;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.vertx.http.runtime.RouteConstants;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+
+/**
+ * Per-route request body limits, checked before the body is read.
+ *
+ * <p>{@code quarkus.http.limits.max-body-size} is global and sized for the
+ * streaming multipart upload, whose parts are spooled to disk. Uploads to
+ * signed storage URLs ({@code demeter.http.direct-upload-paths}) are
+ * streamed to storage and held to {@code demeter.http.max-direct-upload-size}.
+ * Every other request is buffered in memory, so it is held to
+ * {@code demeter.http.max-body-size}. A larger Content-Length is rejected
+ * with 413; a body without one (chunked) is buffered here and rejected with
+ * 413 as soon as it reads past the limit.
+ */
+@ApplicationScoped
+public class RequestBodyLimits {
+
+    private static final Logger log = Logger.getLogger(RequestBodyLimits.class);
+
+    private static final String MULTIPART_FORM_DATA = "multipart/form-data";
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "demeter.http.max-body-size", defaultValue = "10M")
+    MemorySize maxBodySize;
+
+    @ConfigProperty(name = "demeter.http.streaming-upload-paths", defaultValue = "/api/v1/ml/process")
+    List<String> streamingUploadPaths;
+
+    // Path prefixes
+    @ConfigProperty(name = "demeter.http.direct-upload-paths", defaultValue = "/api/v1/storage/upload/")
+    List<String> directUploadPaths;
+
+    @ConfigProperty(name = "demeter.http.max-direct-upload-size", defaultValue = "25M")
+    MemorySize maxDirectUploadSize;
+
+    private BodyHandler chunkedBodyHandler;
+
+    void install(@Observes Router router) {
+        // Fails the request with 413 once the body reads past the limit; the
+        // body handler after it sees the body was read and leaves it alone
+        chunkedBodyHandler = BodyHandler.create(false).setBodyLimit(maxBodySize.asLongValue());
+
+        // Ahead of the body handler, which would otherwise buffer the body first
+        router.route()
+                .order(RouteConstants.ROUTE_ORDER_BODY_HANDLER - 1)
+                .handler(this::check)
+                .failureHandler(this::onFailure);
+    }
+
+    void check(RoutingContext context) {
+        HttpServerRequest request = context.request();
+        if (!hasBody(request.method()) || isStreamingUpload(request)) {
+            context.next();
+            return;
+        }
+        boolean directUpload = isDirectUpload(request);
+        long limit = directUpload ? maxDirectUploadSize.asLongValue() : maxBodySize.asLongValue();
+
+        String contentLength = request.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength == null) {
+            // Direct uploads need a Content-Length to be stored (the endpoint asks for it)
+            if (!directUpload && request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null) {
+                chunkedBodyHandler.handle(context);
+                return;
+            }
+            context.next();
+            return;
+        }
+
+        long length;
+        try {
+            length = Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            reject(context, Response.Status.BAD_REQUEST, "Invalid Content-Length: " + contentLength);
+            return;
+        }
+        if (length > limit) {
+            log.debugf("Rejected %s %s: body of %d bytes", request.method(), request.path(), length);
+            reject(context, Response.Status.REQUEST_ENTITY_TOO_LARGE,
+                    "Request body exceeds " + limit + " bytes");
+            return;
+        }
+        context.next();
+    }
+
+    void onFailure(RoutingContext context) {
+        if (context.statusCode() != Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode()
+                || context.response().headWritten()) {
+            context.next();
+            return;
+        }
+        log.debugf("Rejected %s %s: chunked body over the limit", context.request().method(), context.request().path());
+        reject(context, Response.Status.REQUEST_ENTITY_TOO_LARGE,
+                "Request body exceeds " + maxBodySize.asLongValue() + " bytes");
+    }
+
+    private boolean isStreamingUpload(HttpServerRequest request) {
+        String contentType = request.getHeader(HttpHeaders.CONTENT_TYPE);
+        return request.method() == HttpMethod.POST
+                && contentType != null
+                && contentType.toLowerCase().startsWith(MULTIPART_FORM_DATA)
+                && streamingUploadPaths.contains(request.path());
+    }
+
+    private boolean isDirectUpload(HttpServerRequest request) {
+        return request.method() == HttpMethod.PUT
+                && directUploadPaths.stream().anyMatch(request.path()::startsWith);
+    }
+
+    private static boolean hasBody(HttpMethod method) {
+        return method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH;
+    }
+
+    private void reject(RoutingContext context, Response.Status status, String detail) {
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(
+                    new ErrorResponse(status.getStatusCode(), status.getReasonPhrase(), detail));
+        } catch (JsonProcessingException e) {
+            body = "";
+        }
+        // The unread body is not drained; close so the client stops sending it
+        context.response()
+                .setStatusCode(status.getStatusCode())
+                .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                .putHeader(HttpHeaders.CONNECTION, "close")
+                .end(body);
+    }
+}
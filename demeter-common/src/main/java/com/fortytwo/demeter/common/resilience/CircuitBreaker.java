@@ -0,0 +1,91 @@
+package com.fortytwo.demeter.common.resilience;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free circuit breaker for calls to a remote service.
+ *
+ * <ul>
+ *   <li><b>CLOSED:</b> calls are permitted; {@code failureThreshold}
+ *       consecutive failures open the circuit.</li>
+ *   <li><b>OPEN:</b> calls are refused until {@code openMillis} have passed.</li>
+ *   <li><b>HALF_OPEN:</b> exactly one probe call is permitted. Its success
+ *       closes the circuit, its failure opens it again.</li>
+ * </ul>
+ *
+ * <p>Every permitted call must report {@link #onSuccess()} or
+ * {@link #onFailure()}, otherwise a half-open circuit never leaves that state.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private record Snapshot(State state, int failures, long openedAt) {}
+
+    private static final Snapshot CLOSED = new Snapshot(State.CLOSED, 0, 0);
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(CLOSED);
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000;
+    }
+
+    /**
+     * @return Whether a call may be made now; when true, its outcome must be reported
+     */
+    public boolean tryAcquirePermission() {
+        while (true) {
+            Snapshot current = snapshot.get();
+            switch (current.state()) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    // The probe is still in flight
+                    return false;
+                case OPEN:
+                    if (System.nanoTime() - current.openedAt() < openNanos) {
+                        return false;
+                    }
+                    if (snapshot.compareAndSet(current,
+                            new Snapshot(State.HALF_OPEN, current.failures(), current.openedAt()))) {
+                        return true;
+                    }
+                    // Lost the race to become the probe: re-read
+                    break;
+            }
+        }
+    }
+
+    public void onSuccess() {
+        if (snapshot.get() != CLOSED) {
+            snapshot.set(CLOSED);
+        }
+    }
+
+    public void onFailure() {
+        while (true) {
+            Snapshot current = snapshot.get();
+            Snapshot next = switch (current.state()) {
+                case CLOSED -> current.failures() + 1 >= failureThreshold
+                        ? new Snapshot(State.OPEN, current.failures() + 1, System.nanoTime())
+                        : new Snapshot(State.CLOSED, current.failures() + 1, 0);
+                case HALF_OPEN -> new Snapshot(State.OPEN, current.failures() + 1, System.nanoTime());
+                // Late failure of a call permitted before the circuit opened
+                case OPEN -> current;
+            };
+            if (next == current || snapshot.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    public State getState() {
+        return snapshot.get().state();
+    }
+}
@@ -0,0 +1,71 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.Transactional;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link TaskQueue} backed by Google Cloud Tasks, through the
+ * {@code ml_task_outbox} table.
+ *
+ * <p>The task is written to the outbox in the caller's transaction (or a new
+ * one if there is none), so it exists exactly when the images it refers to
+ * do; {@link TaskOutboxRelay} creates it in Cloud Tasks after commit. Once
+ * the transaction commits, the local relay is woken up; other instances pick
+ * the row up on their next poll.
+ */
+@ApplicationScoped
+@Typed(CloudTasksTaskQueue.class)
+public class CloudTasksTaskQueue implements TaskQueue {
+
+    private static final Logger log = Logger.getLogger(CloudTasksTaskQueue.class);
+
+    @Inject
+    TaskOutboxRepository repository;
+
+    @Inject
+    TaskOutboxRelay relay;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @Override
+    @Transactional
+    public String enqueue(ProcessingTaskRequest request) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize task payload", e);
+        }
+
+        long id = repository.insert(request.tenantId(), request.sessionId(), request.imageId(), payload);
+
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    relay.wakeUp();
+                }
+            }
+        });
+
+        log.debugf("Queued outbox task %d for image %s in session %s", id, request.imageId(), request.sessionId());
+        return "outbox-" + id;
+    }
+}
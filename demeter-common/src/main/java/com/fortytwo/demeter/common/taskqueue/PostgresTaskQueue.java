@@ -0,0 +1,76 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.Transactional;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link TaskQueue} backed by the {@code task_queue} table.
+ *
+ * <p>The task is inserted in the caller's transaction (or a new one if there
+ * is none), so it exists exactly when the images it refers to do. A pending
+ * task for the same image is not queued twice. Once the transaction commits,
+ * the local {@link PostgresTaskQueueWorker} is woken up; other instances pick
+ * the task up on their next poll.
+ */
+@ApplicationScoped
+@Typed(PostgresTaskQueue.class)
+public class PostgresTaskQueue implements TaskQueue {
+
+    private static final Logger log = Logger.getLogger(PostgresTaskQueue.class);
+    private static final String PROCESS_ENDPOINT = "/tasks/process";
+
+    @Inject
+    TaskQueueRepository repository;
+
+    @Inject
+    PostgresTaskQueueWorker worker;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @Override
+    @Transactional
+    public String enqueue(ProcessingTaskRequest request) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize task payload", e);
+        }
+
+        String dedupKey = request.imageId() != null ? "img-" + request.imageId() : null;
+        Long id = repository.insert(request.tenantId(), PROCESS_ENDPOINT, payload, dedupKey);
+        if (id == null) {
+            log.infof("Task for image %s is already queued", request.imageId());
+            return dedupKey;
+        }
+
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    worker.wakeUp();
+                }
+            }
+        });
+
+        log.debugf("Queued task %d for image %s in session %s", id, request.imageId(), request.sessionId());
+        return "task-" + id;
+    }
+}
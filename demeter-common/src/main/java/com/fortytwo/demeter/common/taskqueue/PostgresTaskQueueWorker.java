@@ -0,0 +1,263 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import com.fortytwo.demeter.common.taskqueue.TaskQueueRepository.ClaimedTask;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers tasks of the PostgreSQL {@link TaskQueue} to the ML Worker.
+ *
+ * <p>Active only with {@code demeter.task-queue.provider=postgres}. Any number
+ * of instances may run it: tasks are claimed with {@code FOR UPDATE SKIP LOCKED}
+ * and hidden for {@code visibility-timeout-seconds}, after which a task whose
+ * worker stopped is claimed again. Claims take each tenant's oldest task
+ * before any tenant's second, so one large session does not hold back
+ * everyone else's.
+ *
+ * <p>Each claimed task is POSTed to {@code worker-url} + its endpoint on a
+ * virtual thread, at most {@code concurrency} at a time. A 2xx response
+ * deletes it; connection errors, timeouts, 408, 429 and 5xx are retried with
+ * exponential backoff and jitter up to {@code max-attempts}; other 4xx
+ * responses and exhausted tasks are dead-lettered. A dead-lettered task
+ * fires {@link TaskDispatchFailedEvent}: its image will not be processed.
+ */
+@ApplicationScoped
+public class PostgresTaskQueueWorker {
+
+    private static final Logger log = Logger.getLogger(PostgresTaskQueueWorker.class);
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    @Inject
+    TaskQueueRepository repository;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    Event<TaskDispatchFailedEvent> dispatchFailedEvent;
+
+    @ConfigProperty(name = "demeter.task-queue.provider", defaultValue = TaskQueueProducer.CLOUD_TASKS)
+    String provider;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.worker-url")
+    Optional<String> workerUrl;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.concurrency", defaultValue = "8")
+    int concurrency;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.poll-interval-ms", defaultValue = "1000")
+    long pollIntervalMs;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.request-timeout-seconds", defaultValue = "1800")
+    long requestTimeoutSeconds;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.visibility-timeout-seconds", defaultValue = "1900")
+    long visibilityTimeoutSeconds;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.initial-backoff-ms", defaultValue = "1000")
+    long initialBackoffMs;
+
+    @ConfigProperty(name = "demeter.task-queue.postgres.max-backoff-ms", defaultValue = "300000")
+    long maxBackoffMs;
+
+    private final Semaphore wakeUp = new Semaphore(0);
+    private Semaphore slots;
+    private HttpClient httpClient;
+    private volatile boolean running;
+    private Thread workerThread;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!TaskQueueProducer.POSTGRES.equals(provider)) {
+            return;
+        }
+        if (workerUrl.isEmpty()) {
+            throw new IllegalStateException(
+                    "demeter.task-queue.postgres.worker-url is required with demeter.task-queue.provider=postgres");
+        }
+        if (visibilityTimeoutSeconds <= requestTimeoutSeconds) {
+            log.warnf("Task visibility timeout (%d s) does not exceed the request timeout (%d s): "
+                    + "slow deliveries may be duplicated", visibilityTimeoutSeconds, requestTimeoutSeconds);
+        }
+
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        slots = new Semaphore(concurrency);
+        running = true;
+        workerThread = Thread.ofVirtual()
+                .name("task-queue-worker")
+                .start(this::pollLoop);
+        log.infof("PostgreSQL task queue worker started: delivering to %s", workerUrl.get());
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        if (workerThread != null) {
+            workerThread.interrupt();
+        }
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Poll now instead of at the next interval, e.g. after tasks were committed.
+     */
+    void wakeUp() {
+        wakeUp.release();
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                wakeUp.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+                claimAndDeliver();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException | RuntimeException e) {
+                log.warnf("Task queue poll failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    private void claimAndDeliver() throws SQLException {
+        int free = slots.availablePermits();
+        if (free == 0) {
+            return;
+        }
+
+        List<ClaimedTask> tasks = repository.claim(free, visibilityTimeoutSeconds);
+        for (ClaimedTask task : tasks) {
+            slots.acquireUninterruptibly();
+            Thread.ofVirtual()
+                    .name("task-" + task.id())
+                    .start(() -> {
+                        try {
+                            deliver(task);
+                        } finally {
+                            slots.release();
+                            // A slot is free: pick up tasks that were waiting for one
+                            wakeUp.release();
+                        }
+                    });
+        }
+    }
+
+    private void deliver(ClaimedTask task) {
+        try {
+            if (task.attempts() > maxAttempts) {
+                // Claimed again after visibility timeouts, e.g. its instance kept stopping
+                deadLetter(task, "Visibility timeout expired on the last attempt");
+                return;
+            }
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(workerUrl.get() + task.endpoint()))
+                    .timeout(Duration.ofSeconds(requestTimeoutSeconds))
+                    .header("Content-Type", "application/json")
+                    .header("X-Tenant-ID", task.tenantId())
+                    .POST(HttpRequest.BodyPublishers.ofString(task.payload(), StandardCharsets.UTF_8))
+                    .build();
+
+            int status;
+            try {
+                status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                retryOrDeadLetter(task, e.getClass().getSimpleName() + ": " + e.getMessage());
+                return;
+            }
+
+            if (status / 100 == 2) {
+                repository.delete(task);
+                log.debugf("Task %d delivered (attempt %d)", task.id(), task.attempts());
+            } else if (status >= 500 || status == 408 || status == 429) {
+                retryOrDeadLetter(task, "ML Worker returned " + status);
+            } else {
+                deadLetter(task, "ML Worker rejected the task with " + status);
+            }
+        } catch (InterruptedException e) {
+            // Shutting down: the task reappears after its visibility timeout
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            // Left claimed: reappears after its visibility timeout
+            log.errorf(e, "Failed to record the outcome of task %d", task.id());
+        }
+    }
+
+    private void retryOrDeadLetter(ClaimedTask task, String error) throws SQLException {
+        if (task.attempts() >= maxAttempts) {
+            deadLetter(task, error);
+            return;
+        }
+
+        long delayMs = backoff(task.attempts());
+        log.warnf("Task %d for tenant %s failed (attempt %d of %d), retrying in %d ms: %s",
+                task.id(), task.tenantId(), task.attempts(), maxAttempts, delayMs, error);
+        repository.scheduleRetry(task, delayMs, truncate(error));
+    }
+
+    private void deadLetter(ClaimedTask task, String error) throws SQLException {
+        log.errorf("Task %d for tenant %s dead-lettered after %d attempts: %s",
+                task.id(), task.tenantId(), task.attempts(), error);
+        if (!repository.deadLetter(task, truncate(error))) {
+            // Claimed again meanwhile: that attempt decides
+            return;
+        }
+
+        ProcessingTaskRequest request;
+        try {
+            request = objectMapper.readValue(task.payload(), ProcessingTaskRequest.class);
+        } catch (JsonProcessingException e) {
+            log.errorf("Unreadable payload of dead-lettered task %d: %s", task.id(), e.getMessage());
+            return;
+        }
+        try {
+            dispatchFailedEvent.fire(new TaskDispatchFailedEvent(
+                    task.tenantId(), request.sessionId(), request.imageId(), error));
+        } catch (RuntimeException e) {
+            log.errorf(e, "TaskDispatchFailedEvent observer failed for task %d", task.id());
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, half random.
+     */
+    private long backoff(int attempts) {
+        long delayMs = initialBackoffMs << Math.min(attempts - 1, 20);
+        delayMs = Math.min(delayMs, maxBackoffMs);
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
+    private static String truncate(String error) {
+        return error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -0,0 +1,19 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import java.util.UUID;
+
+/**
+ * Fired when an ML task will not be delivered, so its image will not be
+ * processed unless it is enqueued again: by {@link TaskOutboxRelay} when the
+ * task could not be created in Cloud Tasks within
+ * {@code demeter.task-queue.outbox.max-attempts}, and by
+ * {@link PostgresTaskQueueWorker} when it dead-letters the task.
+ *
+ * <p>Fired on the relay or worker thread, outside of any request or transaction.
+ */
+public record TaskDispatchFailedEvent(
+        String tenantId,
+        UUID sessionId,
+        UUID imageId,
+        String error
+) {}
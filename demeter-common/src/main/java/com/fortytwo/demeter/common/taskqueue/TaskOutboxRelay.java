@@ -0,0 +1,304 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.cloudtasks.CloudTasksConfig;
+import com.fortytwo.demeter.common.cloudtasks.CloudTasksService;
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import com.fortytwo.demeter.common.taskqueue.TaskOutboxRepository.Backlog;
+import com.fortytwo.demeter.common.taskqueue.TaskOutboxRepository.OutboxTask;
+import com.google.api.gax.rpc.AlreadyExistsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the Cloud Tasks of committed {@code ml_task_outbox} rows.
+ *
+ * <p>Active with {@code demeter.task-queue.provider=cloudtasks} (unless
+ * {@code demeter.task-queue.outbox.enabled=false}). Any number of instances
+ * may run it: rows are claimed with {@code FOR UPDATE SKIP LOCKED} and leased
+ * for {@code lease-seconds}. Each poll claims up to {@code batch-size} due
+ * rows, creates their tasks on virtual threads, at most {@code parallelism}
+ * at a time, and deletes the created ones in one statement; full batches are
+ * followed immediately by the next.
+ *
+ * <p>The task ID is {@code img-<imageId>-<rowId>}: a retry whose first
+ * creation succeeded unnoticed gets {@link AlreadyExistsException} and
+ * counts as created, while enqueuing the same image again later (a new row)
+ * still creates a task. Failed creations are retried with exponential
+ * backoff and jitter up to {@code max-attempts}; then the row is kept as
+ * FAILED and {@link TaskDispatchFailedEvent} is fired.
+ *
+ * <p>Metrics: {@code demeter.ml.outbox.pending} and
+ * {@code demeter.ml.outbox.lag} (age of the oldest pending row, seconds),
+ * refreshed every poll; counters {@code demeter.ml.outbox.dispatched},
+ * {@code demeter.ml.outbox.dispatch.failures} (failed attempts) and
+ * {@code demeter.ml.outbox.failed} (rows given up); and the timer
+ * {@code demeter.ml.outbox.dispatch.delay} from commit to task creation.
+ */
+@ApplicationScoped
+public class TaskOutboxRelay {
+
+    private static final Logger log = Logger.getLogger(TaskOutboxRelay.class);
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    @Inject
+    TaskOutboxRepository repository;
+
+    @Inject
+    CloudTasksService cloudTasksService;
+
+    @Inject
+    CloudTasksConfig cloudTasksConfig;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    Event<TaskDispatchFailedEvent> dispatchFailedEvent;
+
+    @ConfigProperty(name = "demeter.task-queue.provider", defaultValue = TaskQueueProducer.CLOUD_TASKS)
+    String provider;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.batch-size", defaultValue = "50")
+    int batchSize;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.parallelism", defaultValue = "16")
+    int parallelism;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.poll-interval-ms", defaultValue = "1000")
+    long pollIntervalMs;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.lease-seconds", defaultValue = "60")
+    long leaseSeconds;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.max-attempts", defaultValue = "10")
+    int maxAttempts;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.initial-backoff-ms", defaultValue = "1000")
+    long initialBackoffMs;
+
+    @ConfigProperty(name = "demeter.task-queue.outbox.max-backoff-ms", defaultValue = "300000")
+    long maxBackoffMs;
+
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private Semaphore slots;
+    private Counter dispatched;
+    private Counter dispatchFailures;
+    private Counter failed;
+    private Timer dispatchDelay;
+    private volatile boolean running;
+    private Thread relayThread;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!TaskQueueProducer.CLOUD_TASKS.equals(provider) || !enabled) {
+            return;
+        }
+
+        Gauge.builder("demeter.ml.outbox.pending", pending, AtomicLong::get)
+                .description("ML tasks committed but not yet created in Cloud Tasks")
+                .register(registry);
+        Gauge.builder("demeter.ml.outbox.lag", lagMillis, lag -> lag.get() / 1000.0)
+                .description("Age of the oldest pending ML task in the outbox")
+                .baseUnit("seconds")
+                .register(registry);
+        dispatched = Counter.builder("demeter.ml.outbox.dispatched")
+                .description("ML tasks created in Cloud Tasks from the outbox")
+                .register(registry);
+        dispatchFailures = Counter.builder("demeter.ml.outbox.dispatch.failures")
+                .description("Failed attempts to create an ML task in Cloud Tasks")
+                .register(registry);
+        failed = Counter.builder("demeter.ml.outbox.failed")
+                .description("ML tasks given up after max-attempts")
+                .register(registry);
+        dispatchDelay = Timer.builder("demeter.ml.outbox.dispatch.delay")
+                .description("Time from outbox insert to Cloud Tasks creation")
+                .register(registry);
+
+        slots = new Semaphore(parallelism);
+        running = true;
+        relayThread = Thread.ofVirtual()
+                .name("task-outbox-relay")
+                .start(this::pollLoop);
+        log.infof("ML task outbox relay started: batches of %d, %d in parallel", batchSize, parallelism);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        if (relayThread != null) {
+            relayThread.interrupt();
+        }
+    }
+
+    /**
+     * Poll now instead of at the next interval, e.g. after rows were committed.
+     */
+    void wakeUp() {
+        wakeUp.release();
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                wakeUp.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+                relay();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException | RuntimeException e) {
+                log.warnf("Task outbox poll failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    private void relay() throws SQLException, InterruptedException {
+        List<OutboxTask> batch;
+        do {
+            batch = repository.claim(batchSize, leaseSeconds);
+            dispatchBatch(batch);
+        } while (batch.size() == batchSize && running);
+
+        Backlog backlog = repository.backlog();
+        pending.set(backlog.pending());
+        lagMillis.set(Math.round(backlog.oldestAgeSeconds() * 1000));
+    }
+
+    private void dispatchBatch(List<OutboxTask> batch) throws SQLException, InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Queue<Long> created = new ConcurrentLinkedQueue<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (OutboxTask task : batch) {
+                slots.acquire();
+                executor.submit(() -> {
+                    try {
+                        if (dispatch(task)) {
+                            created.add(task.id());
+                        }
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        }
+
+        // Rows left here are dispatched again after their lease and get AlreadyExistsException
+        repository.delete(created);
+        dispatched.increment(created.size());
+        log.debugf("Dispatched %d of %d outbox tasks", created.size(), batch.size());
+    }
+
+    /**
+     * @return Whether the task exists in Cloud Tasks (or was handed over, with Cloud Tasks disabled)
+     */
+    private boolean dispatch(OutboxTask task) {
+        ProcessingTaskRequest request;
+        try {
+            request = objectMapper.readValue(task.payload(), ProcessingTaskRequest.class);
+        } catch (JsonProcessingException e) {
+            fail(task, "Unreadable payload: " + e.getMessage());
+            return false;
+        }
+
+        try {
+            cloudTasksService.createProcessingTask(request, cloudTasksConfig.queueName(), taskId(task));
+        } catch (AlreadyExistsException e) {
+            log.debugf("Task for outbox row %d already exists", task.id());
+        } catch (RuntimeException e) {
+            dispatchFailures.increment();
+            retryOrFail(task, e.getClass().getSimpleName() + ": " + e.getMessage());
+            return false;
+        }
+
+        dispatchDelay.record(Duration.between(task.createdAt(), Instant.now()));
+        return true;
+    }
+
+    private void retryOrFail(OutboxTask task, String error) {
+        if (task.attempts() >= maxAttempts) {
+            fail(task, error);
+            return;
+        }
+
+        long delayMs = backoff(task.attempts());
+        log.warnf("Creating the task of outbox row %d for image %s failed (attempt %d of %d), retrying in %d ms: %s",
+                task.id(), task.imageId(), task.attempts(), maxAttempts, delayMs, error);
+        try {
+            repository.scheduleRetry(task.id(), delayMs, truncate(error));
+        } catch (SQLException e) {
+            // Still leased: retried when the lease expires
+            log.errorf(e, "Failed to schedule the retry of outbox row %d", task.id());
+        }
+    }
+
+    private void fail(OutboxTask task, String error) {
+        log.errorf("Giving up on the task of outbox row %d for image %s in session %s after %d attempts: %s",
+                task.id(), task.imageId(), task.sessionId(), task.attempts(), error);
+        try {
+            repository.markFailed(task.id(), truncate(error));
+        } catch (SQLException e) {
+            log.errorf(e, "Failed to mark outbox row %d as failed", task.id());
+            return;
+        }
+        failed.increment();
+
+        try {
+            dispatchFailedEvent.fire(new TaskDispatchFailedEvent(
+                    task.tenantId(), task.sessionId(), task.imageId(), error));
+        } catch (RuntimeException e) {
+            log.errorf(e, "TaskDispatchFailedEvent observer failed for outbox row %d", task.id());
+        }
+    }
+
+    private static String taskId(OutboxTask task) {
+        String image = task.imageId() != null ? task.imageId().toString().replace("-", "") : "none";
+        return "img-" + image + "-" + task.id();
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, half random.
+     */
+    private long backoff(int attempts) {
+        long delayMs = initialBackoffMs << Math.min(attempts - 1, 20);
+        delayMs = Math.min(delayMs, maxBackoffMs);
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
+    private static String truncate(String error) {
+        return error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
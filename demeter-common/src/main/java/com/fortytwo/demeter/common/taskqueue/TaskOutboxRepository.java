@@ -0,0 +1,168 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import io.agroal.api.AgroalDataSource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Outbox of ML tasks for Cloud Tasks ({@code ml_task_outbox}).
+ *
+ * <p>{@link #insert} runs on the current transaction's connection, so the row
+ * commits or rolls back with the enqueuing transaction. The other methods are
+ * used by {@link TaskOutboxRelay} outside of any request, each on its own
+ * pooled connection (autocommit), across tenants.
+ */
+@ApplicationScoped
+public class TaskOutboxRepository {
+
+    private static final String CLAIM = """
+            UPDATE ml_task_outbox o
+            SET attempts = o.attempts + 1, next_attempt_at = now() + make_interval(secs => ?)
+            WHERE o.id IN (
+                SELECT id FROM ml_task_outbox
+                WHERE state = 'PENDING' AND next_attempt_at <= now()
+                ORDER BY next_attempt_at, id
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED)
+            RETURNING o.id, o.tenant_id, o.session_id, o.image_id, o.payload::text AS payload,
+                      o.attempts, o.created_at
+            """;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * A row claimed for dispatch; {@code attempts} includes this one.
+     */
+    public record OutboxTask(long id, String tenantId, UUID sessionId, UUID imageId, String payload,
+                             int attempts, Instant createdAt) {}
+
+    /**
+     * Pending rows and the age of the oldest one.
+     */
+    public record Backlog(long pending, double oldestAgeSeconds) {}
+
+    /**
+     * Insert a task in the current transaction.
+     *
+     * @return Id of the new row
+     */
+    public long insert(String tenantId, UUID sessionId, UUID imageId, String payload) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    INSERT INTO ml_task_outbox (tenant_id, session_id, image_id, payload)
+                    VALUES (?, ?, ?, CAST(? AS jsonb))
+                    RETURNING id
+                    """)) {
+                stmt.setString(1, tenantId);
+                stmt.setObject(2, sessionId);
+                stmt.setObject(3, imageId);
+                stmt.setString(4, payload);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Claim up to {@code limit} due rows, leasing them for {@code leaseSeconds}
+     * so another relay does not dispatch them meanwhile.
+     */
+    public List<OutboxTask> claim(int limit, long leaseSeconds) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(CLAIM)) {
+            stmt.setLong(1, leaseSeconds);
+            stmt.setInt(2, limit);
+            List<OutboxTask> tasks = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp createdAt = rs.getTimestamp("created_at");
+                    tasks.add(new OutboxTask(
+                            rs.getLong("id"),
+                            rs.getString("tenant_id"),
+                            rs.getObject("session_id", UUID.class),
+                            rs.getObject("image_id", UUID.class),
+                            rs.getString("payload"),
+                            rs.getInt("attempts"),
+                            createdAt.toInstant()));
+                }
+            }
+            return tasks;
+        }
+    }
+
+    /**
+     * Remove dispatched rows.
+     */
+    public void delete(Collection<Long> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "DELETE FROM ml_task_outbox WHERE id = ANY(?)")) {
+            Array array = connection.createArrayOf("bigint", ids.toArray());
+            stmt.setArray(1, array);
+            stmt.executeUpdate();
+        }
+    }
+
+    public void scheduleRetry(long id, long delayMs, String error) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE ml_task_outbox
+                     SET next_attempt_at = now() + make_interval(secs => ?), last_error = ?
+                     WHERE id = ?
+                     """)) {
+            stmt.setDouble(1, delayMs / 1000.0);
+            stmt.setString(2, error);
+            stmt.setLong(3, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Stop dispatching a row; it is kept with its last error.
+     */
+    public void markFailed(long id, String error) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "UPDATE ml_task_outbox SET state = 'FAILED', last_error = ? WHERE id = ?")) {
+            stmt.setString(1, error);
+            stmt.setLong(2, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    public Backlog backlog() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     SELECT count(*), COALESCE(EXTRACT(EPOCH FROM now() - min(created_at)), 0)
+                     FROM ml_task_outbox
+                     WHERE state = 'PENDING'
+                     """);
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return new Backlog(rs.getLong(1), rs.getDouble(2));
+        }
+    }
+}
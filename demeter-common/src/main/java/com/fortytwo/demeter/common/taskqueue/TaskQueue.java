@@ -0,0 +1,28 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+
+/**
+ * Queue of ML processing tasks for the ML Worker.
+ *
+ * <p>Enqueue inside the transaction that writes the images the tasks refer
+ * to. The implementation is chosen with {@code demeter.task-queue.provider}
+ * (see {@link TaskQueueProducer}):
+ * <ul>
+ *   <li><b>cloudtasks</b> (default): Google Cloud Tasks; the task is written
+ *       to the {@code ml_task_outbox} table and created in Cloud Tasks by
+ *       {@link TaskOutboxRelay} after commit</li>
+ *   <li><b>postgres</b>: the {@code task_queue} table, delivered by
+ *       {@link PostgresTaskQueueWorker}; the task commits or rolls back with
+ *       the enqueuing transaction</li>
+ * </ul>
+ */
+public interface TaskQueue {
+
+    /**
+     * Queue a task for the ML Worker's /tasks/process endpoint.
+     *
+     * @return Reference to the queued task (its row, or the pending task it duplicates)
+     */
+    String enqueue(ProcessingTaskRequest request);
+}
@@ -0,0 +1,41 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Selects the {@link TaskQueue} implementation from {@code demeter.task-queue.provider}.
+ */
+@ApplicationScoped
+public class TaskQueueProducer {
+
+    private static final Logger log = Logger.getLogger(TaskQueueProducer.class);
+
+    public static final String CLOUD_TASKS = "cloudtasks";
+    public static final String POSTGRES = "postgres";
+
+    @ConfigProperty(name = "demeter.task-queue.provider", defaultValue = CLOUD_TASKS)
+    String provider;
+
+    @Inject
+    Instance<CloudTasksTaskQueue> cloudTasksQueue;
+
+    @Inject
+    Instance<PostgresTaskQueue> postgresQueue;
+
+    @Produces
+    @ApplicationScoped
+    TaskQueue taskQueue() {
+        log.infof("ML task queue provider: %s", provider);
+        return switch (provider) {
+            case CLOUD_TASKS -> cloudTasksQueue.get();
+            case POSTGRES -> postgresQueue.get();
+            default -> throw new IllegalStateException("Unknown demeter.task-queue.provider: " + provider
+                    + " (expected " + CLOUD_TASKS + " or " + POSTGRES + ")");
+        };
+    }
+}
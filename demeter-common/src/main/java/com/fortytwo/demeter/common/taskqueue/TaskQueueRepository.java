@@ -0,0 +1,177 @@
+package com.fortytwo.demeter.common.taskqueue;
+
+import io.agroal.api.AgroalDataSource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PostgreSQL task queue table ({@code task_queue}).
+ *
+ * <p>{@link #insert} runs on the current transaction's connection, so a task
+ * commits or rolls back with the enqueuing transaction. The other methods are
+ * used by the worker outside of any request, each on its own pooled
+ * connection (autocommit), across tenants.
+ *
+ * <p>A claim increments {@code attempts}; the worker passes the attempt it
+ * holds to {@link #delete}, {@link #scheduleRetry} and {@link #deadLetter},
+ * which do nothing if the task was claimed again after its visibility
+ * timeout.
+ */
+@ApplicationScoped
+public class TaskQueueRepository {
+
+    // Oldest due tasks considered per claim; fairness applies within this window
+    private static final int CLAIM_WINDOW = 1000;
+
+    // Each tenant's oldest due task first, tenants with fewer tasks in flight
+    // first among those, then each tenant's second task, and so on
+    private static final String CLAIM = """
+            WITH due AS (
+                SELECT id, tenant_id, visible_at,
+                       row_number() OVER (PARTITION BY tenant_id ORDER BY visible_at, id) AS tenant_rank
+                FROM (SELECT id, tenant_id, visible_at FROM task_queue
+                      WHERE state = 'READY' AND visible_at <= now()
+                      ORDER BY visible_at, id
+                      LIMIT %d) candidates
+            ),
+            in_flight AS (
+                SELECT tenant_id, count(*) AS tasks FROM task_queue
+                WHERE state = 'READY' AND claimed_at IS NOT NULL AND visible_at > now()
+                GROUP BY tenant_id
+            ),
+            picked AS (
+                SELECT q.id FROM task_queue q
+                JOIN due ON due.id = q.id
+                LEFT JOIN in_flight f ON f.tenant_id = due.tenant_id
+                ORDER BY due.tenant_rank, COALESCE(f.tasks, 0), due.visible_at, due.id
+                LIMIT ?
+                FOR UPDATE OF q SKIP LOCKED
+            )
+            UPDATE task_queue t
+            SET attempts = t.attempts + 1, claimed_at = now(),
+                visible_at = now() + make_interval(secs => ?)
+            FROM picked
+            WHERE t.id = picked.id
+            RETURNING t.id, t.tenant_id, t.endpoint, t.payload::text AS payload, t.attempts
+            """.formatted(CLAIM_WINDOW);
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * A task claimed for delivery; {@code attempts} includes this one.
+     */
+    public record ClaimedTask(long id, String tenantId, String endpoint, String payload, int attempts) {}
+
+    /**
+     * Insert a task in the current transaction.
+     *
+     * @param dedupKey Key of which at most one task may be pending, or null
+     * @return Id of the new task, or null if a pending task has the same key
+     */
+    public Long insert(String tenantId, String endpoint, String payload, String dedupKey) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    INSERT INTO task_queue (tenant_id, endpoint, payload, dedup_key)
+                    VALUES (?, ?, CAST(? AS jsonb), ?)
+                    ON CONFLICT (dedup_key) WHERE state = 'READY' DO NOTHING
+                    RETURNING id
+                    """)) {
+                stmt.setString(1, tenantId);
+                stmt.setString(2, endpoint);
+                stmt.setString(3, payload);
+                stmt.setString(4, dedupKey);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Claim up to {@code limit} due tasks, hiding them for the visibility
+     * timeout and skipping tasks another instance is claiming.
+     */
+    public List<ClaimedTask> claim(int limit, long visibilityTimeoutSeconds) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(CLAIM)) {
+            stmt.setInt(1, limit);
+            stmt.setLong(2, visibilityTimeoutSeconds);
+            List<ClaimedTask> tasks = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tasks.add(new ClaimedTask(
+                            rs.getLong("id"),
+                            rs.getString("tenant_id"),
+                            rs.getString("endpoint"),
+                            rs.getString("payload"),
+                            rs.getInt("attempts")));
+                }
+            }
+            return tasks;
+        }
+    }
+
+    /**
+     * Remove a delivered task.
+     */
+    public void delete(ClaimedTask task) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                     "DELETE FROM task_queue WHERE id = ? AND attempts = ?")) {
+            stmt.setLong(1, task.id());
+            stmt.setInt(2, task.attempts());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Release a task after a failed delivery, to be claimed again after {@code delayMs}.
+     */
+    public void scheduleRetry(ClaimedTask task, long delayMs, String error) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE task_queue
+                     SET visible_at = now() + make_interval(secs => ?), claimed_at = NULL, last_error = ?
+                     WHERE id = ? AND attempts = ?
+                     """)) {
+            stmt.setDouble(1, delayMs / 1000.0);
+            stmt.setString(2, error);
+            stmt.setLong(3, task.id());
+            stmt.setInt(4, task.attempts());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Move a task to the dead letter state; it is kept with its last error
+     * and no longer claimed.
+     *
+     * @return Whether the task was moved (false if it was claimed again meanwhile)
+     */
+    public boolean deadLetter(ClaimedTask task, String error) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE task_queue
+                     SET state = 'DEAD', claimed_at = NULL, last_error = ?, dead_at = now()
+                     WHERE id = ? AND attempts = ?
+                     """)) {
+            stmt.setString(1, error);
+            stmt.setLong(2, task.id());
+            stmt.setInt(3, task.attempts());
+            return stmt.executeUpdate() == 1;
+        }
+    }
+}
@@ -31,7 +31,12 @@ public class DemeterTenantResolver implements TenantResolver {
 
     @Override
     public String resolveTenantId() {
-        String tenantId = null;
+        // Priority 0: Tenant already established for this context (TenantFilter
+        // or TenantScope for background work, where no HTTP request exists)
+        String tenantId = tenantContext.getCurrentTenantId();
+        if (tenantId != null) {
+            return tenantId;
+        }
 
         // Priority 1: JWT claim (guarded because the proxy throws if the
         // current principal is not a real JsonWebToken, e.g. during tests
@@ -0,0 +1,74 @@
+package com.fortytwo.demeter.common.tenant;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs work on behalf of a tenant outside of an HTTP request.
+ *
+ * <p>Background threads (cache refreshes, queue workers, schedulers) have no
+ * request context, so {@link TenantContext} is unavailable and both
+ * {@link RlsConnectionCustomizer} and {@link DemeterTenantResolver} would fail
+ * to resolve a tenant. This helper activates a fresh request context for the
+ * duration of the call and seeds it with the given tenant ID.
+ *
+ * <p>If a request context is already active (e.g. when called from a REST
+ * endpoint), the work runs inline and the current tenant is temporarily
+ * replaced, then restored.
+ */
+@ApplicationScoped
+public class TenantScope {
+
+    private static final Logger log = Logger.getLogger(TenantScope.class);
+
+    @Inject
+    TenantContext tenantContext;
+
+    /**
+     * Execute {@code work} with {@code tenantId} as the current tenant.
+     *
+     * @param tenantId Tenant to run as
+     * @param work     Work to execute
+     * @return Result of the work
+     */
+    public <T> T call(String tenantId, Supplier<T> work) {
+        ManagedContext requestContext = Arc.container().requestContext();
+
+        if (requestContext.isActive()) {
+            String previous = tenantContext.getCurrentTenantId();
+            tenantContext.setCurrentTenantId(tenantId);
+            try {
+                return work.get();
+            } finally {
+                tenantContext.setCurrentTenantId(previous);
+            }
+        }
+
+        requestContext.activate();
+        try {
+            tenantContext.setCurrentTenantId(tenantId);
+            log.debugf("TenantScope: running background work for tenant '%s'", tenantId);
+            return work.get();
+        } finally {
+            requestContext.terminate();
+        }
+    }
+
+    /**
+     * Execute {@code work} with {@code tenantId} as the current tenant.
+     *
+     * @param tenantId Tenant to run as
+     * @param work     Work to execute
+     */
+    public void run(String tenantId, Runnable work) {
+        call(tenantId, () -> {
+            work.run();
+            return null;
+        });
+    }
+}
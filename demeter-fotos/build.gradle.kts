@@ -1,3 +1,8 @@
+plugins {
+    // JMH benchmarks in src/jmh (./gradlew :demeter-fotos:jmh)
+    id("me.champeau.jmh") version "0.7.3"
+}
+
 dependencies {
     implementation(project(":demeter-common"))
     implementation(project(":demeter-productos"))
@@ -6,9 +11,16 @@ dependencies {
     // REST client for calling ML Worker
     implementation("io.quarkus:quarkus-rest-client-jackson")
 
+    // Caffeine for the signed URL cache (per-entry expiry)
+    implementation("io.quarkus:quarkus-caffeine")
+
     // Google Cloud Storage for image storage (production)
     implementation("com.google.cloud:google-cloud-storage:2.36.1")
 
     // Google Cloud Tasks for async ML processing (production)
     implementation("com.google.cloud:google-cloud-tasks:2.37.0")
 }
+
+jmh {
+    jmhVersion.set("1.37")
+}
@@ -0,0 +1,76 @@
+package com.fortytwo.demeter.fotos.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-image suppression of a bed photographed as a grid of 1000 x 1000 px
+ * images overlapping by 20%, with plants every 40 px seen by each image that
+ * covers them (a quarter or more of the boxes are duplicates).
+ *
+ * <p>Run with {@code ./gradlew :demeter-fotos:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OverlapSuppressionBenchmark {
+
+    private static final int IMAGE_SIZE = 1000;
+    private static final int IMAGE_STEP = 800;
+    private static final int PLANT_SPACING = 40;
+    private static final int BOX_SIZE = 30;
+
+    @Param({"10000", "30000", "100000"})
+    int boxes;
+
+    private OverlapSuppression.Boxes input;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(42);
+        int perSide = (IMAGE_SIZE - BOX_SIZE) / PLANT_SPACING + 1;
+        int side = (int) Math.ceil(Math.sqrt((double) boxes / (perSide * perSide)));
+        int bedSize = (side - 1) * IMAGE_STEP + IMAGE_SIZE;
+
+        // Square grid of images, filled row by row until there are enough boxes
+        input = new OverlapSuppression.Boxes(boxes);
+        for (int image = 0; image < side * side && input.size() < boxes; image++) {
+            int offsetX = image % side * IMAGE_STEP;
+            int offsetY = image / side * IMAGE_STEP;
+            for (int y = 0; y < bedSize; y += PLANT_SPACING) {
+                for (int x = 0; x < bedSize && input.size() < boxes; x += PLANT_SPACING) {
+                    boolean inImage = x >= offsetX && x + BOX_SIZE <= offsetX + IMAGE_SIZE
+                            && y >= offsetY && y + BOX_SIZE <= offsetY + IMAGE_SIZE;
+                    if (inImage) {
+                        // Each view of a plant is off by a few pixels
+                        double jx = random.nextGaussian() * 2;
+                        double jy = random.nextGaussian() * 2;
+                        input.add(image, 0, 0.5 + random.nextDouble() / 2,
+                                x + jx, y + jy, x + jx + BOX_SIZE, y + jy + BOX_SIZE);
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean[] suppress() {
+        return OverlapSuppression.suppress(input, 0.5);
+    }
+}
@@ -12,6 +12,7 @@ import com.fortytwo.demeter.fotos.service.ImageService;
 import com.fortytwo.demeter.fotos.service.MLWorkerClient;
 import com.fortytwo.demeter.fotos.service.MLWorkerClient.DetectionResult;
 import com.fortytwo.demeter.fotos.service.MLWorkerClient.MLWorkerResponse;
+import com.fortytwo.demeter.fotos.service.MLWorkerClient.MLWorkerUnavailableException;
 import com.fortytwo.demeter.fotos.service.ProcessingResultService;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
@@ -219,6 +220,11 @@ public class DevUploadController {
 
             return Response.ok(response).build();
 
+        } catch (MLWorkerUnavailableException e) {
+            log.warn("ML Worker unavailable: " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(Map.of("error", "ML Worker is not available: " + e.getMessage()))
+                    .build();
         } catch (Exception e) {
             log.error("Processing failed", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
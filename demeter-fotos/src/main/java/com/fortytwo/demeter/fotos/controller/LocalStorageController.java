@@ -1,69 +1,224 @@
 package com.fortytwo.demeter.fotos.controller;
 
 import com.fortytwo.demeter.fotos.storage.LocalStorageService;
+import com.fortytwo.demeter.fotos.storage.StoredObject;
 import io.quarkus.arc.profile.IfBuildProfile;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.PathPart;
 
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
 import java.util.Optional;
 
 /**
  * Serves locally stored files in development mode.
  *
- * <p>This controller is only active in dev profile and serves files
- * that were stored by {@link LocalStorageService}.
+ * <p>This controller is only active in dev and test profiles and serves files
+ * that were stored by {@link LocalStorageService}. It also accepts uploads to
+ * the signed URLs from {@link LocalStorageService#generateUploadUrl}, so the
+ * direct-to-storage upload flow works without cloud storage.
  *
  * <p>In production, files are served directly from cloud storage via signed URLs.
  */
 @Path("/api/v1/storage")
 @Tag(name = "Storage (Dev)", description = "Local file serving for development")
-@IfBuildProfile("dev")
+@IfBuildProfile(anyOf = {"dev", "test"})
 public class LocalStorageController {
 
     private static final Logger log = Logger.getLogger(LocalStorageController.class);
 
+    /** IMF-fixdate, the preferred HTTP date format (RFC 9110, 5.6.7). */
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
     @Inject
     LocalStorageService storageService;
 
+    /**
+     * Serve a file with {@code sendfile}: the response body is handed to the
+     * HTTP layer as a file region and never copied through the heap.
+     *
+     * <p>Supports a single byte range ({@code Range}, answered with 206 or
+     * 416, and {@code If-Range}), and revalidation by {@code If-None-Match}
+     * or {@code If-Modified-Since} (answered with 304). Multiple ranges are
+     * not supported; such requests get the whole file.
+     */
     @GET
     @Path("/{path:.+}")
     @Operation(summary = "Serve a locally stored file (dev only)")
-    public Response serveFile(@PathParam("path") String path) {
+    public Response serveFile(@PathParam("path") String path,
+                              @HeaderParam("Range") String range,
+                              @HeaderParam("If-Range") String ifRange,
+                              @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                              @HeaderParam(HttpHeaders.IF_MODIFIED_SINCE) String ifModifiedSince) {
         log.debugf("Serving local file: %s", path);
 
-        Optional<byte[]> data = storageService.download(path);
-
-        if (data.isEmpty()) {
+        Optional<StoredObject.Metadata> found = storageService.getMetadata(path);
+        if (found.isEmpty()) {
             return Response.status(Response.Status.NOT_FOUND)
                     .entity("File not found: " + path)
                     .build();
         }
+        StoredObject.Metadata metadata = found.get();
+        String lastModified = httpDate(metadata.lastModified());
+
+        // If-None-Match takes precedence over If-Modified-Since (RFC 9110, 13.1.3)
+        boolean notModified = ifNoneMatch != null
+                ? matchesAny(ifNoneMatch, metadata.etag())
+                : ifModifiedSince != null && !modifiedSince(metadata.lastModified(), ifModifiedSince);
+        if (notModified) {
+            return cacheHeaders(Response.notModified(), metadata, lastModified).build();
+        }
 
-        // Detect content type from extension
-        String contentType = detectContentType(path);
+        long size = metadata.size();
+        java.nio.file.Path file = storageService.getFullPath(path);
+        ByteRange byteRange = range != null && rangeStillValid(ifRange, metadata.etag(), lastModified)
+                ? ByteRange.parse(range, size)
+                : null;
 
-        return Response.ok(data.get())
-                .type(contentType)
-                .header("Cache-Control", "public, max-age=3600")
+        if (byteRange == null) {
+            return cacheHeaders(Response.ok(new PathPart(file, 0, size)), metadata, lastModified)
+                    .type(metadata.contentType())
+                    .build();
+        }
+        if (!byteRange.isSatisfiable(size)) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + size)
+                    .build();
+        }
+        long end = Math.min(byteRange.end(), size - 1);
+        return cacheHeaders(Response.status(Response.Status.PARTIAL_CONTENT), metadata, lastModified)
+                .entity(new PathPart(file, byteRange.start(), end - byteRange.start() + 1))
+                .type(metadata.contentType())
+                .header("Content-Range", "bytes " + byteRange.start() + "-" + end + "/" + size)
                 .build();
     }
 
-    private String detectContentType(String path) {
-        String lower = path.toLowerCase();
-        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
-            return "image/jpeg";
-        } else if (lower.endsWith(".png")) {
-            return "image/png";
-        } else if (lower.endsWith(".webp")) {
-            return "image/webp";
-        } else if (lower.endsWith(".gif")) {
-            return "image/gif";
+    @PUT
+    @Path("/upload/{path:.+}")
+    @Consumes(MediaType.WILDCARD)
+    @Operation(summary = "Accept a signed direct upload (dev only)")
+    public Response uploadFile(@PathParam("path") String path,
+                               @QueryParam("expires") long expires,
+                               @QueryParam("signature") String signature,
+                               @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                               @HeaderParam(HttpHeaders.CONTENT_LENGTH) Long contentLength,
+                               InputStream body) {
+        if (!storageService.isValidUploadSignature(path, contentType, expires, signature)) {
+            log.warnf("Rejected local upload with invalid or expired signature: %s", path);
+            return Response.status(Response.Status.FORBIDDEN)
+                    .entity("Invalid or expired upload signature")
+                    .build();
+        }
+        if (contentLength == null) {
+            return Response.status(Response.Status.LENGTH_REQUIRED).build();
+        }
+
+        storageService.upload(body, contentLength, path, contentType);
+        return Response.ok().build();
+    }
+
+    private static Response.ResponseBuilder cacheHeaders(Response.ResponseBuilder response,
+                                                         StoredObject.Metadata metadata, String lastModified) {
+        return response
+                .header(HttpHeaders.ETAG, metadata.etag())
+                .header(HttpHeaders.LAST_MODIFIED, lastModified)
+                .header(HttpHeaders.CACHE_CONTROL, "public, max-age=3600")
+                .header("Accept-Ranges", "bytes");
+    }
+
+    /**
+     * Weak comparison against an {@code If-None-Match} list.
+     */
+    private static boolean matchesAny(String header, String etag) {
+        String tag = stripWeak(etag);
+        for (String candidate : header.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || stripWeak(trimmed).equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static boolean modifiedSince(Instant lastModified, String header) {
+        try {
+            Instant since = ZonedDateTime.parse(header, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return lastModified.truncatedTo(ChronoUnit.SECONDS).isAfter(since);
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+    }
+
+    /**
+     * {@code If-Range} keeps a range request only while the file is unchanged
+     * (strong comparison), else the whole file is sent.
+     */
+    private static boolean rangeStillValid(String ifRange, String etag, String lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        return value.startsWith("\"") ? value.equals(etag) : value.equals(lastModified);
+    }
+
+    private static String httpDate(Instant instant) {
+        return HTTP_DATE.format(instant);
+    }
+
+    /**
+     * First and last byte requested by a single-range {@code Range} header.
+     * A suffix range ({@code bytes=-500}) is resolved against the size.
+     */
+    private record ByteRange(long start, long end) {
+
+        /**
+         * @return The range, or null if the header is malformed or asks for
+         *         several ranges, in which case it is ignored
+         */
+        static ByteRange parse(String header, long size) {
+            if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+                return null;
+            }
+            String spec = header.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last);
+                    return new ByteRange(Math.max(0, size - suffix), suffix == 0 ? -1 : size - 1);
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                return start <= end ? new ByteRange(start, end) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        boolean isSatisfiable(long size) {
+            return start < size && end >= start;
         }
-        return MediaType.APPLICATION_OCTET_STREAM;
     }
 }
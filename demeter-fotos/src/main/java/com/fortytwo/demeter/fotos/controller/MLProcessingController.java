@@ -1,30 +1,35 @@
 package com.fortytwo.demeter.fotos.controller;
 
-import com.fortytwo.demeter.common.cloudtasks.CloudTasksService;
-import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
-import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.fotos.dto.CreateUploadSessionRequest;
+import com.fortytwo.demeter.fotos.dto.FinalizeUploadSessionRequest;
 import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest;
 import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
-import com.fortytwo.demeter.fotos.model.Image;
-import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
-import com.fortytwo.demeter.fotos.model.ProcessingStatus;
-import com.fortytwo.demeter.fotos.repository.ImageRepository;
-import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository;
-import com.fortytwo.demeter.fotos.service.ImageService;
+import com.fortytwo.demeter.fotos.dto.UploadSessionDTO;
+import com.fortytwo.demeter.fotos.service.CallbackQueue;
 import com.fortytwo.demeter.fotos.service.ProcessingResultService;
+import com.fortytwo.demeter.fotos.service.SessionIngestService;
+import com.fortytwo.demeter.fotos.service.SessionIngestService.IncomingImage;
+import com.fortytwo.demeter.fotos.service.SessionIngestService.IngestResult;
+import com.fortytwo.demeter.fotos.service.UploadSessionService;
 import io.quarkus.arc.profile.UnlessBuildProfile;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
+import jakarta.validation.Valid;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.RestForm;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
 
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 
@@ -32,8 +37,9 @@ import java.util.UUID;
  * Production ML processing controller using Cloud Tasks.
  *
  * <p>Flow:
- * 1. Frontend uploads images
- * 2. Backend creates session + image records
+ * 1. Frontend uploads images (base64 JSON, or streamed multipart/form-data),
+ *    or PUTs them directly to storage via an upload session and finalizes it
+ * 2. Backend stores the images, then creates session + image records
  * 3. Backend enqueues tasks in Cloud Tasks
  * 4. Cloud Tasks calls ML Worker asynchronously
  * 5. ML Worker calls callback endpoint when done
@@ -48,26 +54,28 @@ public class MLProcessingController {
 
     private static final Logger log = Logger.getLogger(MLProcessingController.class);
 
-    @Inject
-    CloudTasksService cloudTasksService;
+    private static final String DEFAULT_PIPELINE = "SEGMENT_DETECT";
 
     @Inject
-    PhotoProcessingSessionRepository sessionRepository;
+    ProcessingResultService processingResultService;
 
     @Inject
-    ImageRepository imageRepository;
+    CallbackQueue callbackQueue;
 
     @Inject
-    ImageService imageService;
+    UploadSessionService uploadSessionService;
 
     @Inject
-    ProcessingResultService processingResultService;
+    SessionIngestService sessionIngestService;
 
-    @Inject
-    TenantContext tenantContext;
+    @ConfigProperty(name = "demeter.ml.upload.max-part-bytes", defaultValue = "26214400")
+    long maxPartBytes;
+
+    @ConfigProperty(name = "demeter.ml.upload.max-parts", defaultValue = "100")
+    int maxParts;
 
-    @ConfigProperty(name = "demeter.backend.callback-url", defaultValue = "")
-    String callbackBaseUrl;
+    @ConfigProperty(name = "demeter.ml.upload.allowed-content-types", defaultValue = "image/jpeg,image/png,image/webp")
+    List<String> allowedContentTypes;
 
     /**
      * Request for processing images via Cloud Tasks.
@@ -83,6 +91,10 @@ public class MLProcessingController {
             String imageBase64
     ) {}
 
+    /**
+     * Images are uploaded in parallel before any database work; the session and
+     * image rows are then written in one short transaction (see {@link SessionIngestService}).
+     */
     @POST
     @Path("/process")
     @Operation(
@@ -90,92 +102,177 @@ public class MLProcessingController {
             description = "Uploads images and enqueues them for async processing via Cloud Tasks. " +
                     "Returns immediately with session ID. Poll /sessions/{id}/status for progress."
     )
-    @Transactional
     public Response processImages(ProcessImagesRequest request) {
         if (request.images() == null || request.images().isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
-                    .entity(Map.of("error", "At least one image is required"))
-                    .build();
+            return badRequest("At least one image is required");
         }
 
-        String pipeline = request.pipeline() != null ? request.pipeline() : "SEGMENT_DETECT";
-        String tenantId = tenantContext.getCurrentTenantId();
+        String pipeline = request.pipeline() != null ? request.pipeline() : DEFAULT_PIPELINE;
 
         try {
-            // Create session
-            PhotoProcessingSession session = new PhotoProcessingSession();
-            session.setStatus(ProcessingStatus.PENDING);
-            session.setTotalImages(request.images().size());
-            session.setProcessedImages(0);
-            sessionRepository.persist(session);
-
-            log.infof("Created session: %s with %d images", session.getId(), request.images().size());
-
-            // Process each image
-            List<String> taskNames = new ArrayList<>();
-            String callbackUrl = callbackBaseUrl.isEmpty() ? null : callbackBaseUrl + "/api/v1/ml/callback";
-
+            List<IncomingImage> images = new ArrayList<>(request.images().size());
             for (ImageUpload upload : request.images()) {
-                // Decode image
                 byte[] imageData = decodeBase64Image(upload.imageBase64());
                 String filename = upload.filename() != null ? upload.filename() : "image.jpg";
                 String contentType = upload.contentType() != null ? upload.contentType() : "image/jpeg";
+                images.add(new IncomingImage(filename, contentType, imageData.length,
+                        () -> new ByteArrayInputStream(imageData)));
+            }
 
-                // Upload to storage (returns gs:// URL)
-                String storagePath = imageService.uploadAndStoreImage(
-                        session.getId(), imageData, filename, contentType
-                );
+            return accepted(sessionIngestService.ingest(images, pipeline));
 
-                // Create image record
-                Image image = new Image();
-                image.setSession(session);
-                image.setStorageUrl(storagePath);
-                image.setOriginalFilename(filename);
-                image.setFileSize((long) imageData.length);
-                image.setMimeType(contentType);
-                imageRepository.persist(image);
-
-                // Enqueue for ML processing
-                ProcessingTaskRequest taskRequest = ProcessingTaskRequest.of(
-                        tenantId,
-                        session.getId(),
-                        image.getId(),
-                        storagePath,
-                        pipeline,
-                        callbackUrl
-                );
+        } catch (Exception e) {
+            log.error("Failed to process images", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(Map.of("error", "Failed to process images: " + e.getMessage()))
+                    .build();
+        }
+    }
 
-                String taskName = cloudTasksService.createProcessingTask(taskRequest);
-                if (taskName != null) {
-                    taskNames.add(taskName);
-                }
-            }
+    /**
+     * Multipart variant of {@link #processImages(ProcessImagesRequest)}.
+     *
+     * <p>The HTTP layer spools each part to a temporary file; from there it is
+     * streamed to storage, so heap use stays flat regardless of session size.
+     * All parts are checked against the count, size and content type limits
+     * before anything is stored.
+     */
+    @POST
+    @Path("/process")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Operation(
+            summary = "Upload (multipart) and enqueue images for ML processing",
+            description = "Streams each 'images' part to storage and enqueues it for async processing. " +
+                    "Same response as the JSON variant, without base64 overhead."
+    )
+    @APIResponse(responseCode = "202", description = "Images stored and enqueued")
+    @APIResponse(responseCode = "400", description = "No images, too many images, or a part exceeds the size/type limits")
+    public Response processImagesMultipart(
+            @RestForm("images") List<FileUpload> images,
+            @RestForm("pipeline") String pipeline) {
+        if (images == null || images.isEmpty()) {
+            return badRequest("At least one image is required");
+        }
 
-            // Update session status
-            session.setStatus(ProcessingStatus.PROCESSING);
+        String violation = validateParts(images);
+        if (violation != null) {
+            return badRequest(violation);
+        }
+
+        String effectivePipeline = pipeline != null && !pipeline.isBlank() ? pipeline : DEFAULT_PIPELINE;
 
-            log.infof("Enqueued %d images for session %s", taskNames.size(), session.getId());
+        try {
+            List<IncomingImage> incoming = images.stream()
+                    .map(part -> new IncomingImage(
+                            partFilename(part),
+                            normalizeContentType(part.contentType()),
+                            part.size(),
+                            () -> Files.newInputStream(part.uploadedFile())))
+                    .toList();
 
-            return Response.accepted(Map.of(
-                    "sessionId", session.getId(),
-                    "imagesEnqueued", taskNames.size(),
-                    "status", "PROCESSING",
-                    "statusUrl", "/api/v1/photo-sessions/" + session.getId() + "/status"
-            )).build();
+            return accepted(sessionIngestService.ingest(incoming, effectivePipeline));
 
         } catch (Exception e) {
-            log.error("Failed to process images", e);
+            log.error("Failed to process multipart images", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(Map.of("error", "Failed to process images: " + e.getMessage()))
                     .build();
         }
     }
 
+    @POST
+    @Path("/sessions")
+    @Operation(
+            summary = "Open a direct-to-storage upload session",
+            description = "Creates a session and returns one signed upload URL per expected image. " +
+                    "The client PUTs each image to its URL, then calls /sessions/{id}/finalize."
+    )
+    @APIResponse(responseCode = "201", description = "Session created with signed upload URLs")
+    @APIResponse(responseCode = "400", description = "Too many images, or an image exceeds the size/type limits")
+    public Response createUploadSession(@Valid CreateUploadSessionRequest request) {
+        UploadSessionDTO created = uploadSessionService.createUploadSession(request);
+        return Response.status(Response.Status.CREATED).entity(created).build();
+    }
+
+    @POST
+    @Path("/sessions/{id}/finalize")
+    @Operation(
+            summary = "Finalize a direct-to-storage upload session",
+            description = "Verifies every image exists in storage with the expected size, " +
+                    "then enqueues them for ML processing."
+    )
+    @APIResponse(responseCode = "202", description = "Uploads verified and enqueued")
+    @APIResponse(responseCode = "400", description = "An image is missing or has the wrong size")
+    @APIResponse(responseCode = "404", description = "Session not found")
+    @APIResponse(responseCode = "409", description = "Session was already finalized")
+    public Response finalizeUploadSession(@PathParam("id") UUID id, FinalizeUploadSessionRequest request) {
+        SessionStatusDTO status = uploadSessionService.finalizeUploadSession(
+                id, request != null ? request.pipeline() : null);
+        return Response.accepted(status).build();
+    }
+
+    private Response accepted(IngestResult result) {
+        return Response.accepted(Map.of(
+                "sessionId", result.sessionId(),
+                "imagesEnqueued", result.imagesEnqueued(),
+                "imagesDeduplicated", result.imagesDeduplicated(),
+                "status", "PROCESSING",
+                "statusUrl", "/api/v1/photo-sessions/" + result.sessionId() + "/status"
+        )).build();
+    }
+
+    /**
+     * Check every part against the upload limits.
+     *
+     * @return Error message for the first violation, or null if all parts are acceptable
+     */
+    private String validateParts(List<FileUpload> parts) {
+        if (parts.size() > maxParts) {
+            return "Too many images: " + parts.size() + " (max " + maxParts + ")";
+        }
+        for (FileUpload part : parts) {
+            String filename = partFilename(part);
+            if (part.size() <= 0) {
+                return "Image " + filename + " is empty";
+            }
+            if (part.size() > maxPartBytes) {
+                return "Image " + filename + " is " + part.size() + " bytes (max " + maxPartBytes + ")";
+            }
+            String contentType = normalizeContentType(part.contentType());
+            if (!allowedContentTypes.contains(contentType)) {
+                return "Invalid content type for " + filename + ": " + contentType +
+                        ". Allowed: " + String.join(", ", allowedContentTypes);
+            }
+        }
+        return null;
+    }
+
+    private static String partFilename(FileUpload part) {
+        return part.fileName() != null && !part.fileName().isBlank() ? part.fileName() : "image.jpg";
+    }
+
+    private static String normalizeContentType(String contentType) {
+        if (contentType == null) {
+            return "";
+        }
+        int paramsIndex = contentType.indexOf(';');
+        String mediaType = paramsIndex >= 0 ? contentType.substring(0, paramsIndex) : contentType;
+        return mediaType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", message))
+                .build();
+    }
+
     /**
      * Callback endpoint for ML Worker to report results.
      *
      * <p>Called by ML Worker when processing is complete.
      * This endpoint should be protected and only accessible from Cloud Tasks.
+     * Successful results go through the {@link CallbackQueue} (202, or 429
+     * with Retry-After when it is full) unless the queue is disabled.
      */
     @POST
     @Path("/callback")
@@ -183,7 +280,8 @@ public class MLProcessingController {
             summary = "ML Worker callback",
             description = "Receives processing results from ML Worker. Called by Cloud Tasks."
     )
-    @Transactional
+    @APIResponse(responseCode = "202", description = "Results queued for persistence")
+    @APIResponse(responseCode = "429", description = "Callback queue is full, retry after the Retry-After delay")
     public Response processCallback(MLWorkerCallbackRequest request) {
         log.infof("Received ML callback: sessionId=%s, imageId=%s, success=%s",
                 request.sessionId(), request.imageId(), request.success());
@@ -205,11 +303,25 @@ public class MLProcessingController {
                         )
                 );
 
-                SessionStatusDTO status = processingResultService.processResults(resultRequest);
+                if (!callbackQueue.isEnabled()) {
+                    SessionStatusDTO status = processingResultService.processResults(resultRequest);
 
-                return Response.ok(Map.of(
+                    return Response.ok(Map.of(
+                            "success", true,
+                            "sessionStatus", status
+                    )).build();
+                }
+
+                if (callbackQueue.submit(resultRequest) == CallbackQueue.Admission.REJECTED) {
+                    return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                            .header("Retry-After", callbackQueue.retryAfterSeconds())
+                            .entity(Map.of("error", "Callback queue is full"))
+                            .build();
+                }
+
+                return Response.accepted(Map.of(
                         "success", true,
-                        "sessionStatus", status
+                        "queued", true
                 )).build();
             } else {
                 // Mark as failed
@@ -0,0 +1,32 @@
+package com.fortytwo.demeter.fotos.controller;
+
+import com.fortytwo.demeter.common.auth.RoleConstants;
+import com.fortytwo.demeter.fotos.dto.RetentionReportDTO;
+import com.fortytwo.demeter.fotos.service.PhotoRetentionService;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+
+@Path("/api/v1/photo-retention")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class PhotoRetentionController {
+
+    @Inject
+    PhotoRetentionService photoRetentionService;
+
+    /**
+     * Apply the tenant's retention policy to its due sessions now, without
+     * waiting for the background job.
+     *
+     * <p>With {@code dryRun=true} (the default) nothing is changed: the
+     * report says what a run would reclaim.
+     */
+    @POST
+    @Path("/run")
+    @RolesAllowed({RoleConstants.ADMIN})
+    public RetentionReportDTO run(@QueryParam("dryRun") @DefaultValue("true") boolean dryRun) {
+        return photoRetentionService.run(dryRun);
+    }
+}
@@ -4,20 +4,32 @@ import com.fortytwo.demeter.common.auth.RoleConstants;
 import com.fortytwo.demeter.common.dto.PagedResponse;
 import com.fortytwo.demeter.fotos.dto.CreatePhotoSessionRequest;
 import com.fortytwo.demeter.fotos.dto.EstimationDTO;
+import com.fortytwo.demeter.fotos.dto.GalleryImageDTO;
 import com.fortytwo.demeter.fotos.dto.PhotoSessionDTO;
 import com.fortytwo.demeter.fotos.dto.ImageDTO;
+import com.fortytwo.demeter.fotos.dto.ImageOffsetsRequest;
 import com.fortytwo.demeter.fotos.dto.ImageWithUrlsDTO;
+import com.fortytwo.demeter.fotos.dto.OverlapCorrectionDTO;
 import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
 import com.fortytwo.demeter.fotos.service.ImageService;
 import com.fortytwo.demeter.fotos.service.PhotoSessionService;
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.inject.Inject;
 import jakarta.validation.Valid;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 @Path("/api/v1/photo-sessions")
 @Produces(MediaType.APPLICATION_JSON)
@@ -30,6 +42,12 @@ public class PhotoSessionController {
     @Inject
     ImageService imageService;
 
+    @ConfigProperty(name = "demeter.sessions.status.max-wait-seconds", defaultValue = "30")
+    int maxWaitSeconds;
+
+    @ConfigProperty(name = "demeter.sessions.status.stream-heartbeat-seconds", defaultValue = "25")
+    int streamHeartbeatSeconds;
+
     @GET
     @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
     public PagedResponse<PhotoSessionDTO> list(
@@ -45,11 +63,46 @@ public class PhotoSessionController {
         return photoSessionService.findById(id);
     }
 
+    /**
+     * Get session status, optionally long-polling for a change.
+     *
+     * <p>With {@code waitForChangeFrom}, the request is held until the
+     * processed count differs from it or the session finishes, for at most
+     * {@code timeout} (e.g. {@code 25s}; default and cap
+     * {@code demeter.sessions.status.max-wait-seconds}), and then returns the
+     * current status. Waiting parks a virtual thread and runs no queries.
+     */
     @GET
     @Path("/{id}/status")
+    @RunOnVirtualThread
+    @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
+    public SessionStatusDTO getStatus(
+            @PathParam("id") UUID id,
+            @QueryParam("waitForChangeFrom") Integer waitForChangeFrom,
+            @QueryParam("timeout") String timeout) {
+        if (waitForChangeFrom == null) {
+            return photoSessionService.getSessionStatus(id);
+        }
+        return photoSessionService.awaitStatusChange(id, waitForChangeFrom, waitTimeout(timeout));
+    }
+
+    /**
+     * Stream session status as server-sent {@code status} events: the current
+     * status, then every change until the session completes or fails.
+     * Without changes the status is re-sent every
+     * {@code demeter.sessions.status.stream-heartbeat-seconds}.
+     */
+    @GET
+    @Path("/{id}/status/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RunOnVirtualThread
     @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
-    public SessionStatusDTO getStatus(@PathParam("id") UUID id) {
-        return photoSessionService.getSessionStatus(id);
+    public void streamStatus(@PathParam("id") UUID id, @Context SseEventSink sink, @Context Sse sse) {
+        // Not closed on exceptions: a missing session must still map to 404,
+        // which closing the sink before anything was sent would turn into 200
+        photoSessionService.streamStatus(id, Duration.ofSeconds(streamHeartbeatSeconds),
+                status -> send(sink, sse, status));
+        sink.close();
     }
 
     @POST
@@ -59,6 +112,17 @@ public class PhotoSessionController {
         return Response.status(Response.Status.CREATED).entity(created).build();
     }
 
+    /**
+     * Place the session's images in their bed (offsets of their pixel (0, 0)),
+     * so detections in the overlap of two images are counted once.
+     */
+    @PUT
+    @Path("/{id}/image-offsets")
+    @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR})
+    public OverlapCorrectionDTO placeImages(@PathParam("id") UUID id, @Valid ImageOffsetsRequest request) {
+        return photoSessionService.placeImages(id, request);
+    }
+
     @DELETE
     @Path("/{id}")
     @RolesAllowed({RoleConstants.ADMIN})
@@ -87,6 +151,10 @@ public class PhotoSessionController {
      * <p>Returns images with time-limited signed URLs that can be used
      * directly in img src attributes. URLs expire after configured duration
      * (default 60 minutes).
+     *
+     * <p>Each image carries its detections and classifications, plus a
+     * summary of them. Galleries that only show the summary should use
+     * {@code /{id}/gallery}, which does not load the detections.
      */
     @GET
     @Path("/{id}/images/with-urls")
@@ -95,6 +163,20 @@ public class PhotoSessionController {
         return imageService.getSessionImagesWithUrls(id);
     }
 
+    /**
+     * Get the session gallery: images with signed URLs and a summary of
+     * their results (counts and most frequent labels).
+     *
+     * <p>Detections and classifications are not included; they are returned
+     * by {@code /{id}/images/with-urls} and the single-image endpoint.
+     */
+    @GET
+    @Path("/{id}/gallery")
+    @RolesAllowed({RoleConstants.ADMIN, RoleConstants.SUPERVISOR, RoleConstants.WORKER, RoleConstants.VIEWER})
+    public List<GalleryImageDTO> getGallery(@PathParam("id") UUID id) {
+        return imageService.getSessionGallery(id);
+    }
+
     /**
      * Get a single image with signed URL.
      */
@@ -106,4 +188,39 @@ public class PhotoSessionController {
             @PathParam("imageId") UUID imageId) {
         return imageService.getImageWithUrl(imageId);
     }
+
+    private Duration waitTimeout(String timeout) {
+        Duration max = Duration.ofSeconds(maxWaitSeconds);
+        if (timeout == null || timeout.isBlank()) {
+            return max;
+        }
+        Duration requested;
+        try {
+            requested = DurationConverter.parseDuration(timeout);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new BadRequestException("Invalid timeout: " + timeout);
+        }
+        if (requested.isNegative()) {
+            return Duration.ZERO;
+        }
+        return requested.compareTo(max) > 0 ? max : requested;
+    }
+
+    private static boolean send(SseEventSink sink, Sse sse, SessionStatusDTO status) {
+        if (sink.isClosed()) {
+            return false;
+        }
+        try {
+            sink.send(sse.newEventBuilder()
+                    .name("status")
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(SessionStatusDTO.class, status)
+                    .build())
+                    .toCompletableFuture().join();
+            return true;
+        } catch (CompletionException e) {
+            // Client went away
+            return false;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.fortytwo.demeter.fotos.controller;
 
 import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest;
 import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
+import com.fortytwo.demeter.fotos.service.CallbackQueue;
 import com.fortytwo.demeter.fotos.service.ProcessingResultService;
 import jakarta.inject.Inject;
 import jakarta.validation.Valid;
@@ -19,6 +20,7 @@ import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.jboss.logging.Logger;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -28,6 +30,10 @@ import java.util.UUID;
  * completing image processing. It receives detections, classifications,
  * and estimations and persists them to the database.
  *
+ * <p>Results are accepted into the {@link CallbackQueue} and persisted in
+ * micro-batches (202), or rejected with 429 and Retry-After when the queue
+ * is full. With the queue disabled they are persisted in the request (200).
+ *
  * <p>Authentication: The ML Worker authenticates via OIDC token issued
  * by Cloud Tasks. The X-Tenant-ID header is required for multi-tenant
  * isolation.
@@ -43,6 +49,9 @@ public class ProcessingCallbackController {
     @Inject
     ProcessingResultService processingResultService;
 
+    @Inject
+    CallbackQueue callbackQueue;
+
     @POST
     @Path("/results")
     @Operation(
@@ -51,11 +60,13 @@ public class ProcessingCallbackController {
     )
     @APIResponse(
             responseCode = "200",
-            description = "Results processed successfully",
+            description = "Results processed successfully (callback queue disabled)",
             content = @Content(schema = @Schema(implementation = SessionStatusDTO.class))
     )
+    @APIResponse(responseCode = "202", description = "Results queued for persistence")
     @APIResponse(responseCode = "400", description = "Invalid request payload")
-    @APIResponse(responseCode = "404", description = "Session or image not found")
+    @APIResponse(responseCode = "404", description = "Session or image not found (callback queue disabled)")
+    @APIResponse(responseCode = "429", description = "Callback queue is full, retry after the Retry-After delay")
     public Response receiveResults(
             @HeaderParam("X-Tenant-ID") String tenantId,
             @Valid @RequestBody ProcessingResultRequest request
@@ -63,9 +74,23 @@ public class ProcessingCallbackController {
         log.infof("Received processing results: session=%s, image=%s, tenant=%s",
                 request.sessionId(), request.imageId(), tenantId);
 
-        SessionStatusDTO status = processingResultService.processResults(request);
+        if (!callbackQueue.isEnabled()) {
+            SessionStatusDTO status = processingResultService.processResults(request);
+            return Response.ok(status).build();
+        }
 
-        return Response.ok(status).build();
+        if (callbackQueue.submit(request) == CallbackQueue.Admission.REJECTED) {
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .header("Retry-After", callbackQueue.retryAfterSeconds())
+                    .entity(Map.of("error", "Callback queue is full"))
+                    .build();
+        }
+
+        return Response.accepted(Map.of(
+                "sessionId", request.sessionId(),
+                "imageId", request.imageId(),
+                "queued", true
+        )).build();
     }
 
     @POST
@@ -0,0 +1,26 @@
+package com.fortytwo.demeter.fotos.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * Request to open a direct-to-storage upload session.
+ *
+ * <p>One signed upload URL is issued per expected image.
+ */
+public record CreateUploadSessionRequest(
+        @NotEmpty @Valid List<ExpectedImage> images
+) {
+    /**
+     * Image the client is about to upload.
+     *
+     * @param fileSize Optional declared size; if present, finalize requires an exact match
+     */
+    public record ExpectedImage(
+            @NotBlank String filename,
+            @NotBlank String contentType,
+            Long fileSize
+    ) {}
+}
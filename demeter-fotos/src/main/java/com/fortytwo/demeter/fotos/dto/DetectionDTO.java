@@ -1,8 +1,11 @@
 package com.fortytwo.demeter.fotos.dto;
 
 import com.fortytwo.demeter.fotos.model.Detection;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec.CompactDetection;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -27,7 +30,7 @@ public record DetectionDTO(
             d.getClassification() != null ? d.getClassification().getId() : null,
             d.getLabel(),
             d.getConfidence(),
-            d.getBoundingBox(),
+            boundingBox(d.getBboxX1(), d.getBboxY1(), d.getBboxX2(), d.getBboxY2()),
             d.getCenterXPx(),
             d.getCenterYPx(),
             d.getWidthPx(),
@@ -36,4 +39,41 @@ public record DetectionDTO(
             d.getCreatedAt()
         );
     }
+
+    /**
+     * Detection decoded from a compact block. Compact detections have no row,
+     * so {@code id} is synthetic and they carry no classification or pixel geometry.
+     */
+    public static DetectionDTO fromCompact(UUID id, UUID sessionId, CompactDetection d, Instant createdAt) {
+        return new DetectionDTO(
+            id,
+            sessionId,
+            null,
+            d.label(),
+            BigDecimal.valueOf(d.confidence()).setScale(4, RoundingMode.HALF_UP),
+            boundingBox(d.x1(), d.y1(), d.x2(), d.y2()),
+            null,
+            null,
+            null,
+            null,
+            d.alive(),
+            createdAt
+        );
+    }
+
+    /**
+     * Bounding box in the {@code {x1, y1, x2, y2}} shape clients already use,
+     * or null if the detection has none.
+     */
+    private static Map<String, Object> boundingBox(Double x1, Double y1, Double x2, Double y2) {
+        if (x1 == null) {
+            return null;
+        }
+        Map<String, Object> bbox = new LinkedHashMap<>();
+        bbox.put("x1", x1);
+        bbox.put("y1", y1);
+        bbox.put("x2", x2);
+        bbox.put("y2", y2);
+        return bbox;
+    }
 }
@@ -0,0 +1,10 @@
+package com.fortytwo.demeter.fotos.dto;
+
+/**
+ * Request to finalize an upload session once every image was uploaded.
+ *
+ * @param pipeline ML pipeline to run (defaults to SEGMENT_DETECT)
+ */
+public record FinalizeUploadSessionRequest(
+        String pipeline
+) {}
@@ -0,0 +1,41 @@
+package com.fortytwo.demeter.fotos.dto;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Session gallery item: an image with signed URLs and a summary of its
+ * results instead of the individual detections and classifications (see
+ * {@link ImageWithUrlsDTO} for those).
+ */
+public record GalleryImageDTO(
+        UUID id,
+        UUID sessionId,
+        String originalFilename,
+        Long fileSize,
+        String mimeType,
+        Integer width,
+        Integer height,
+
+        // Signed URLs for direct browser access; thumbnail and preview are
+        // null until generated (use imageUrl meanwhile)
+        String imageUrl,
+        String thumbnailUrl,
+        String previewUrl,
+
+        ResultsSummaryDTO results,
+
+        // Timestamps
+        Instant createdAt,
+        Instant updatedAt
+) {
+    public static GalleryImageDTO from(ImageWithUrlsDTO image, ResultsSummaryDTO results) {
+        return new GalleryImageDTO(
+                image.id(), image.sessionId(), image.originalFilename(), image.fileSize(),
+                image.mimeType(), image.width(), image.height(),
+                image.imageUrl(), image.thumbnailUrl(), image.previewUrl(),
+                results,
+                image.createdAt(), image.updatedAt()
+        );
+    }
+}
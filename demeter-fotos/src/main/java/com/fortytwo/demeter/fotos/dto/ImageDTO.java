@@ -9,9 +9,12 @@ public record ImageDTO(
     UUID sessionId,
     String storageUrl,
     String thumbnailUrl,
+    String previewUrl,
     String originalFilename,
     Long fileSize,
     String mimeType,
+    Integer width,
+    Integer height,
     int detectionCount,
     int classificationCount,
     Instant createdAt,
@@ -23,9 +26,12 @@ public record ImageDTO(
             img.getSession() != null ? img.getSession().getId() : null,
             img.getStorageUrl(),
             img.getThumbnailUrl(),
+            img.getPreviewUrl(),
             img.getOriginalFilename(),
             img.getFileSize(),
             img.getMimeType(),
+            img.getWidth(),
+            img.getHeight(),
             img.getDetections() != null ? img.getDetections().size() : 0,
             img.getClassifications() != null ? img.getClassifications().size() : 0,
             img.getCreatedAt(),
@@ -0,0 +1,27 @@
+package com.fortytwo.demeter.fotos.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Placement of a session's images in their bed, for overlap correction.
+ *
+ * <p>Images not listed keep their current placement. Offsets are in the
+ * pixel units of the images' detection boxes.
+ */
+public record ImageOffsetsRequest(
+        @NotEmpty @Valid List<ImageOffset> images
+) {
+    /**
+     * @param x Bed x coordinate of the image's pixel (0, 0)
+     * @param y Bed y coordinate of the image's pixel (0, 0)
+     */
+    public record ImageOffset(
+            @NotNull UUID imageId,
+            @NotNull Double x,
+            @NotNull Double y
+    ) {}
+}
@@ -16,14 +16,19 @@ public record ImageWithUrlsDTO(
         String originalFilename,
         Long fileSize,
         String mimeType,
+        Integer width,
+        Integer height,
 
-        // Signed URLs for direct browser access
+        // Signed URLs for direct browser access; thumbnail and preview are
+        // null until generated (use imageUrl meanwhile)
         String imageUrl,
         String thumbnailUrl,
+        String previewUrl,
 
         // Processing results
         List<DetectionDTO> detections,
         List<ClassificationDTO> classifications,
+        ResultsSummaryDTO results,
 
         // Timestamps
         Instant createdAt,
@@ -42,10 +47,14 @@ public record ImageWithUrlsDTO(
         private String originalFilename;
         private Long fileSize;
         private String mimeType;
+        private Integer width;
+        private Integer height;
         private String imageUrl;
         private String thumbnailUrl;
+        private String previewUrl;
         private List<DetectionDTO> detections = List.of();
         private List<ClassificationDTO> classifications = List.of();
+        private ResultsSummaryDTO results;
         private Instant createdAt;
         private Instant updatedAt;
 
@@ -54,18 +63,22 @@ public record ImageWithUrlsDTO(
         public Builder originalFilename(String originalFilename) { this.originalFilename = originalFilename; return this; }
         public Builder fileSize(Long fileSize) { this.fileSize = fileSize; return this; }
         public Builder mimeType(String mimeType) { this.mimeType = mimeType; return this; }
+        public Builder width(Integer width) { this.width = width; return this; }
+        public Builder height(Integer height) { this.height = height; return this; }
         public Builder imageUrl(String imageUrl) { this.imageUrl = imageUrl; return this; }
         public Builder thumbnailUrl(String thumbnailUrl) { this.thumbnailUrl = thumbnailUrl; return this; }
+        public Builder previewUrl(String previewUrl) { this.previewUrl = previewUrl; return this; }
         public Builder detections(List<DetectionDTO> detections) { this.detections = detections; return this; }
         public Builder classifications(List<ClassificationDTO> classifications) { this.classifications = classifications; return this; }
+        public Builder results(ResultsSummaryDTO results) { this.results = results; return this; }
         public Builder createdAt(Instant createdAt) { this.createdAt = createdAt; return this; }
         public Builder updatedAt(Instant updatedAt) { this.updatedAt = updatedAt; return this; }
 
         public ImageWithUrlsDTO build() {
             return new ImageWithUrlsDTO(
-                    id, sessionId, originalFilename, fileSize, mimeType,
-                    imageUrl, thumbnailUrl,
-                    detections, classifications,
+                    id, sessionId, originalFilename, fileSize, mimeType, width, height,
+                    imageUrl, thumbnailUrl, previewUrl,
+                    detections, classifications, results,
                     createdAt, updatedAt
             );
         }
@@ -0,0 +1,23 @@
+package com.fortytwo.demeter.fotos.dto;
+
+import java.util.UUID;
+
+/**
+ * Outcome of cross-image duplicate suppression for a session.
+ *
+ * @param images     Images with a bed placement and stored detections
+ * @param boxes      Detection boxes compared
+ * @param suppressed Boxes counted again by an overlapping image; the session's
+ *                   COUNT correction estimations (one per classification)
+ *                   sum to minus this
+ */
+public record OverlapCorrectionDTO(
+    UUID sessionId,
+    int images,
+    int boxes,
+    int suppressed
+) {
+    public static OverlapCorrectionDTO none(UUID sessionId) {
+        return new OverlapCorrectionDTO(sessionId, 0, 0, 0);
+    }
+}
@@ -12,6 +12,7 @@ public record PhotoSessionDTO(
     UUID uploadedBy,
     int totalImages,
     int processedImages,
+    int deduplicatedImages,
     int imageCount,
     Instant createdAt,
     Instant updatedAt
@@ -25,6 +26,7 @@ public record PhotoSessionDTO(
             s.getUploadedBy(),
             s.getTotalImages(),
             s.getProcessedImages(),
+            s.getDeduplicatedImages(),
             s.getImages() != null ? s.getImages().size() : 0,
             s.getCreatedAt(),
             s.getUpdatedAt()
@@ -0,0 +1,31 @@
+package com.fortytwo.demeter.fotos.dto;
+
+import com.fortytwo.demeter.fotos.repository.ImageRepository.LabelCount;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.ResultsSummary;
+import java.util.List;
+
+/**
+ * Counts of an image's ML results and its most frequent labels (most
+ * frequent first), for galleries that do not show individual detections.
+ */
+public record ResultsSummaryDTO(
+    long detectionCount,
+    List<LabelCountDTO> topDetectionLabels,
+    long classificationCount,
+    List<LabelCountDTO> topClassifications
+) {
+    public record LabelCountDTO(String label, long count) {
+        static List<LabelCountDTO> from(List<LabelCount> counts) {
+            return counts.stream().map(c -> new LabelCountDTO(c.label(), c.count())).toList();
+        }
+    }
+
+    public static ResultsSummaryDTO from(ResultsSummary s) {
+        return new ResultsSummaryDTO(
+            s.detectionCount(),
+            LabelCountDTO.from(s.topDetectionLabels()),
+            s.classificationCount(),
+            LabelCountDTO.from(s.topClassifications())
+        );
+    }
+}
@@ -0,0 +1,24 @@
+package com.fortytwo.demeter.fotos.dto;
+
+/**
+ * What a photo retention run reclaimed or, with {@code dryRun}, would reclaim.
+ *
+ * @param imagesPurged      Images whose result details were reduced to label counts
+ * @param databaseBytes     Approximate size of the deleted detail rows
+ * @param originalsArchived Originals moved to cold storage
+ * @param originalBytes     Size of those originals, freed in hot storage
+ * @param deferredImages    Images kept as they are because a duplicate of them
+ *                          belongs to a session that is not yet due
+ */
+public record RetentionReportDTO(
+    boolean dryRun,
+    int sessions,
+    int imagesPurged,
+    long detectionRows,
+    long classificationRows,
+    long detectionBlockRows,
+    long databaseBytes,
+    int originalsArchived,
+    long originalBytes,
+    int deferredImages
+) {}
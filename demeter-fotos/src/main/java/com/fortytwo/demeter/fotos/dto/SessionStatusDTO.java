@@ -1,6 +1,7 @@
 package com.fortytwo.demeter.fotos.dto;
 
 import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
+import com.fortytwo.demeter.fotos.model.ProcessingStatus;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.UUID;
@@ -10,20 +11,27 @@ public record SessionStatusDTO(
     String status,
     int totalImages,
     int processedImages,
+    int deduplicatedImages,
     BigDecimal progress
 ) {
     public static SessionStatusDTO from(PhotoProcessingSession s) {
-        BigDecimal progressPct = s.getTotalImages() > 0
-            ? BigDecimal.valueOf(s.getProcessedImages())
+        return of(s.getId(), s.getStatus(), s.getTotalImages(), s.getProcessedImages(), s.getDeduplicatedImages());
+    }
+
+    public static SessionStatusDTO of(UUID sessionId, ProcessingStatus status, int totalImages, int processedImages,
+                                      int deduplicatedImages) {
+        BigDecimal progressPct = totalImages > 0
+            ? BigDecimal.valueOf(processedImages)
                 .multiply(BigDecimal.valueOf(100))
-                .divide(BigDecimal.valueOf(s.getTotalImages()), 2, RoundingMode.HALF_UP)
+                .divide(BigDecimal.valueOf(totalImages), 2, RoundingMode.HALF_UP)
             : BigDecimal.ZERO;
 
         return new SessionStatusDTO(
-            s.getId(),
-            s.getStatus().name(),
-            s.getTotalImages(),
-            s.getProcessedImages(),
+            sessionId,
+            status.name(),
+            totalImages,
+            processedImages,
+            deduplicatedImages,
             progressPct
         );
     }
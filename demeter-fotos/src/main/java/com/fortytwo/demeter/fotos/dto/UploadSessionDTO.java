@@ -0,0 +1,25 @@
+package com.fortytwo.demeter.fotos.dto;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Upload session with the signed URLs the client PUTs each image to.
+ */
+public record UploadSessionDTO(
+        UUID sessionId,
+        String status,
+        Instant uploadUrlsExpireAt,
+        List<UploadTarget> uploads
+) {
+    /**
+     * Signed upload URL for one image. The PUT must send the same Content-Type.
+     */
+    public record UploadTarget(
+            UUID imageId,
+            String filename,
+            String contentType,
+            String uploadUrl
+    ) {}
+}
@@ -0,0 +1,16 @@
+package com.fortytwo.demeter.fotos.event;
+
+import java.util.UUID;
+
+/**
+ * Fired once per session, inside the callback transaction that processed its
+ * last image.
+ *
+ * <p>Observers that act on committed data should use
+ * {@code @Observes(during = TransactionPhase.AFTER_SUCCESS)}.
+ */
+public record SessionCompletedEvent(
+        UUID sessionId,
+        String tenantId,
+        int totalImages
+) {}
@@ -0,0 +1,18 @@
+package com.fortytwo.demeter.fotos.event;
+
+import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
+
+import java.util.UUID;
+
+/**
+ * Fired inside the transaction that changed a session's progress or status,
+ * with the status it wrote.
+ *
+ * <p>{@link com.fortytwo.demeter.fotos.service.SessionStatusNotifier} hands it
+ * to the status long-polls and streams waiting on the session after commit.
+ */
+public record SessionProgressEvent(
+        UUID sessionId,
+        String tenantId,
+        SessionStatusDTO status
+) {}
@@ -2,10 +2,7 @@ package com.fortytwo.demeter.fotos.model;
 
 import com.fortytwo.demeter.common.model.BaseEntity;
 import jakarta.persistence.*;
-import org.hibernate.annotations.JdbcTypeCode;
-import org.hibernate.type.SqlTypes;
 import java.math.BigDecimal;
-import java.util.Map;
 
 /**
  * ML detection result representing a single detected object/plant in an image.
@@ -29,9 +26,18 @@ public class Detection extends BaseEntity {
     @Column(nullable = false, precision = 5, scale = 4)
     private BigDecimal confidence;
 
-    @JdbcTypeCode(SqlTypes.JSON)
-    @Column(name = "bounding_box", columnDefinition = "jsonb")
-    private Map<String, Object> boundingBox;
+    // Bounding box corners, as sent by the ML worker (normalized 0-1 or pixels)
+    @Column(name = "bbox_x1")
+    private Double bboxX1;
+
+    @Column(name = "bbox_y1")
+    private Double bboxY1;
+
+    @Column(name = "bbox_x2")
+    private Double bboxX2;
+
+    @Column(name = "bbox_y2")
+    private Double bboxY2;
 
     // Geometry fields for precise positioning
     @Column(name = "center_x_px")
@@ -60,7 +66,10 @@ public class Detection extends BaseEntity {
     public Classification getClassification() { return classification; }
     public String getLabel() { return label; }
     public BigDecimal getConfidence() { return confidence; }
-    public Map<String, Object> getBoundingBox() { return boundingBox; }
+    public Double getBboxX1() { return bboxX1; }
+    public Double getBboxY1() { return bboxY1; }
+    public Double getBboxX2() { return bboxX2; }
+    public Double getBboxY2() { return bboxY2; }
     public Integer getCenterXPx() { return centerXPx; }
     public Integer getCenterYPx() { return centerYPx; }
     public Integer getWidthPx() { return widthPx; }
@@ -73,7 +82,12 @@ public class Detection extends BaseEntity {
     public void setClassification(Classification classification) { this.classification = classification; }
     public void setLabel(String label) { this.label = label; }
     public void setConfidence(BigDecimal confidence) { this.confidence = confidence; }
-    public void setBoundingBox(Map<String, Object> boundingBox) { this.boundingBox = boundingBox; }
+    public void setBoundingBox(double x1, double y1, double x2, double y2) {
+        this.bboxX1 = x1;
+        this.bboxY1 = y1;
+        this.bboxX2 = x2;
+        this.bboxY2 = y2;
+    }
     public void setCenterXPx(Integer centerXPx) { this.centerXPx = centerXPx; }
     public void setCenterYPx(Integer centerYPx) { this.centerYPx = centerYPx; }
     public void setWidthPx(Integer widthPx) { this.widthPx = widthPx; }
@@ -0,0 +1,286 @@
+package com.fortytwo.demeter.fotos.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar encoding of all detections of one image, stored as a single
+ * {@code detection_blocks} row.
+ *
+ * <p>Columns, detection {@code i} at position {@code i} in each:
+ * <ul>
+ *   <li>labels: dictionary of distinct labels, first-seen order;
+ *       label_codes: one varint index per detection</li>
+ *   <li>confidences: uint16 big-endian, {@code round(confidence * 65535)}</li>
+ *   <li>alive, boxed: bitsets, bit {@code i} is {@code 1 << (i % 8)} of byte {@code i / 8}</li>
+ *   <li>boxes: for each boxed detection, zigzag varints of
+ *       {@code x1 - previous x1}, {@code y1 - previous y1}, {@code x2 - x1}, {@code y2 - y1},
+ *       with coordinates in fixed point ({@code round(value * coordScale)})</li>
+ * </ul>
+ *
+ * <p>Lossy: confidences are exact to 1/65535 and coordinates to 1/10000.
+ */
+public final class DetectionBlockCodec {
+
+    /**
+     * Fixed-point scales for coordinates, coarsest first. A block uses the
+     * coarsest one that holds all its coordinates exactly (1 for integer pixel
+     * boxes), or the finest: 4 decimals.
+     */
+    private static final int[] COORD_SCALES = {1, 10, 100, 1_000, 10_000};
+
+    private static final int CONFIDENCE_MAX = 0xFFFF;
+
+    private DetectionBlockCodec() {}
+
+    /**
+     * Decoded detection. Box coordinates are all null or all set.
+     */
+    public record CompactDetection(String label, double confidence, boolean alive,
+                                   Double x1, Double y1, Double x2, Double y2) {
+        public boolean hasBox() {
+            return x1 != null;
+        }
+    }
+
+    /**
+     * Encoded columns of one block.
+     */
+    public record EncodedBlock(int count, int coordScale, String[] labels, byte[] labelCodes,
+                               byte[] confidences, byte[] alive, byte[] boxed, byte[] boxes) {}
+
+    public static EncodedBlock encode(List<CompactDetection> detections) {
+        int count = detections.size();
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        ByteArrayOutputStream labelCodes = new ByteArrayOutputStream(count);
+        byte[] confidences = new byte[count * 2];
+        byte[] alive = new byte[bitsetLength(count)];
+        byte[] boxed = new byte[bitsetLength(count)];
+        ByteArrayOutputStream boxes = new ByteArrayOutputStream(count * 8);
+
+        int coordScale = chooseCoordScale(detections);
+        long previousX1 = 0;
+        long previousY1 = 0;
+        for (int i = 0; i < count; i++) {
+            CompactDetection detection = detections.get(i);
+
+            Integer code = dictionary.get(detection.label());
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(detection.label(), code);
+            }
+            writeVarint(labelCodes, code);
+
+            int confidence = quantizeConfidence(detection.confidence());
+            confidences[2 * i] = (byte) (confidence >>> 8);
+            confidences[2 * i + 1] = (byte) confidence;
+
+            if (detection.alive()) {
+                setBit(alive, i);
+            }
+
+            if (detection.hasBox()) {
+                setBit(boxed, i);
+                long x1 = Math.round(detection.x1() * coordScale);
+                long y1 = Math.round(detection.y1() * coordScale);
+                long x2 = Math.round(detection.x2() * coordScale);
+                long y2 = Math.round(detection.y2() * coordScale);
+                writeVarint(boxes, zigzag(x1 - previousX1));
+                writeVarint(boxes, zigzag(y1 - previousY1));
+                writeVarint(boxes, zigzag(x2 - x1));
+                writeVarint(boxes, zigzag(y2 - y1));
+                previousX1 = x1;
+                previousY1 = y1;
+            }
+        }
+
+        return new EncodedBlock(count, coordScale, dictionary.keySet().toArray(String[]::new),
+                labelCodes.toByteArray(), confidences, alive, boxed, boxes.toByteArray());
+    }
+
+    /**
+     * @throws IllegalStateException if the block is truncated or inconsistent
+     */
+    public static List<CompactDetection> decode(EncodedBlock block) {
+        int count = block.count();
+        double scale = block.coordScale();
+        if (block.confidences().length != count * 2
+                || block.alive().length != bitsetLength(count)
+                || block.boxed().length != bitsetLength(count)) {
+            throw new IllegalStateException("Corrupt detection block: column lengths do not match count " + count);
+        }
+
+        List<CompactDetection> detections = new ArrayList<>(count);
+        Cursor labelCodes = new Cursor(block.labelCodes());
+        Cursor boxes = new Cursor(block.boxes());
+
+        long previousX1 = 0;
+        long previousY1 = 0;
+        for (int i = 0; i < count; i++) {
+            long code = labelCodes.readVarint();
+            if (code >= block.labels().length) {
+                throw new IllegalStateException("Corrupt detection block: label code " + code
+                        + " outside dictionary of " + block.labels().length);
+            }
+
+            int confidence = ((block.confidences()[2 * i] & 0xFF) << 8) | (block.confidences()[2 * i + 1] & 0xFF);
+
+            Double x1 = null;
+            Double y1 = null;
+            Double x2 = null;
+            Double y2 = null;
+            if (getBit(block.boxed(), i)) {
+                long qx1 = previousX1 + unzigzag(boxes.readVarint());
+                long qy1 = previousY1 + unzigzag(boxes.readVarint());
+                long qx2 = qx1 + unzigzag(boxes.readVarint());
+                long qy2 = qy1 + unzigzag(boxes.readVarint());
+                x1 = qx1 / scale;
+                y1 = qy1 / scale;
+                x2 = qx2 / scale;
+                y2 = qy2 / scale;
+                previousX1 = qx1;
+                previousY1 = qy1;
+            }
+
+            detections.add(new CompactDetection(
+                    block.labels()[(int) code],
+                    (double) confidence / CONFIDENCE_MAX,
+                    getBit(block.alive(), i),
+                    x1, y1, x2, y2));
+        }
+
+        if (labelCodes.hasRemaining() || boxes.hasRemaining()) {
+            throw new IllegalStateException("Corrupt detection block: trailing bytes");
+        }
+        return detections;
+    }
+
+    /**
+     * Count the detections of each label without decoding the other columns.
+     *
+     * @param labelCodes     The block's label_codes column
+     * @param count          Number of detections in the block
+     * @param dictionarySize Number of labels in the block's dictionary
+     * @return Detections per label code (index into the dictionary)
+     * @throws IllegalStateException if the codes are truncated or inconsistent
+     */
+    public static long[] countLabelCodes(byte[] labelCodes, int count, int dictionarySize) {
+        long[] counts = new long[dictionarySize];
+        Cursor cursor = new Cursor(labelCodes);
+        for (int i = 0; i < count; i++) {
+            long code = cursor.readVarint();
+            if (code >= dictionarySize) {
+                throw new IllegalStateException("Corrupt detection block: label code " + code
+                        + " outside dictionary of " + dictionarySize);
+            }
+            counts[(int) code]++;
+        }
+        if (cursor.hasRemaining()) {
+            throw new IllegalStateException("Corrupt detection block: trailing bytes");
+        }
+        return counts;
+    }
+
+    private static int quantizeConfidence(double confidence) {
+        double clamped = Math.clamp(confidence, 0.0, 1.0);
+        return (int) Math.round(clamped * CONFIDENCE_MAX);
+    }
+
+    private static int chooseCoordScale(List<CompactDetection> detections) {
+        int finest = COORD_SCALES[COORD_SCALES.length - 1];
+        for (CompactDetection detection : detections) {
+            if (detection.hasBox()) {
+                requireFinite(detection.x1());
+                requireFinite(detection.y1());
+                requireFinite(detection.x2());
+                requireFinite(detection.y2());
+            }
+        }
+        for (int scale : COORD_SCALES) {
+            if (scale == finest || holdsExactly(detections, scale)) {
+                return scale;
+            }
+        }
+        return finest;
+    }
+
+    private static boolean holdsExactly(List<CompactDetection> detections, int scale) {
+        for (CompactDetection detection : detections) {
+            if (detection.hasBox()
+                    && !(isWhole(detection.x1() * scale) && isWhole(detection.y1() * scale)
+                    && isWhole(detection.x2() * scale) && isWhole(detection.y2() * scale))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhole(double value) {
+        return Math.abs(value - Math.rint(value)) < 1e-6;
+    }
+
+    private static void requireFinite(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Bounding box coordinate is not finite: " + value);
+        }
+    }
+
+    private static int bitsetLength(int count) {
+        return (count + 7) / 8;
+    }
+
+    private static void setBit(byte[] bits, int index) {
+        bits[index >>> 3] |= (byte) (1 << (index & 7));
+    }
+
+    private static boolean getBit(byte[] bits, int index) {
+        return (bits[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final class Cursor {
+        private final byte[] bytes;
+        private int position;
+
+        Cursor(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new IllegalStateException("Corrupt detection block: truncated varint");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Corrupt detection block: varint too long");
+        }
+
+        boolean hasRemaining() {
+            return position < bytes.length;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.fortytwo.demeter.fotos.model;
+
+/**
+ * How ML callback detections are stored ({@code demeter.ml.detections.storage-mode}).
+ *
+ * <p>Reads handle both modes, so the mode can be switched at any time.
+ */
+public enum DetectionStorageMode {
+    /** One {@code detections} row per detection. */
+    ROWS,
+    /** One {@code detection_blocks} row per image, see {@link DetectionBlockCodec}. */
+    COMPACT
+}
@@ -2,8 +2,10 @@ package com.fortytwo.demeter.fotos.model;
 
 import com.fortytwo.demeter.common.model.BaseEntity;
 import jakarta.persistence.*;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 @Entity
 @Table(name = "images")
@@ -28,6 +30,49 @@ public class Image extends BaseEntity {
     @Column(name = "mime_type", length = 100)
     private String mimeType;
 
+    private Integer width;
+
+    private Integer height;
+
+    @Column(name = "thumbnail_width")
+    private Integer thumbnailWidth;
+
+    @Column(name = "thumbnail_height")
+    private Integer thumbnailHeight;
+
+    @Column(name = "preview_url", columnDefinition = "TEXT")
+    private String previewUrl;
+
+    @Column(name = "preview_width")
+    private Integer previewWidth;
+
+    @Column(name = "preview_height")
+    private Integer previewHeight;
+
+    @Column(name = "derivatives_error", columnDefinition = "TEXT")
+    private String derivativesError;
+
+    @Column(name = "content_sha256")
+    private byte[] contentSha256;
+
+    @Column(name = "duplicate_of")
+    private UUID duplicateOf;
+
+    @Column(name = "processed_at")
+    private Instant processedAt;
+
+    @Column(name = "results_purged_at")
+    private Instant resultsPurgedAt;
+
+    @Column(name = "archived_at")
+    private Instant archivedAt;
+
+    @Column(name = "bed_offset_x")
+    private Double bedOffsetX;
+
+    @Column(name = "bed_offset_y")
+    private Double bedOffsetY;
+
     @OneToMany(mappedBy = "image", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Detection> detections = new ArrayList<>();
 
@@ -41,6 +86,21 @@ public class Image extends BaseEntity {
     public String getOriginalFilename() { return originalFilename; }
     public Long getFileSize() { return fileSize; }
     public String getMimeType() { return mimeType; }
+    public Integer getWidth() { return width; }
+    public Integer getHeight() { return height; }
+    public Integer getThumbnailWidth() { return thumbnailWidth; }
+    public Integer getThumbnailHeight() { return thumbnailHeight; }
+    public String getPreviewUrl() { return previewUrl; }
+    public Integer getPreviewWidth() { return previewWidth; }
+    public Integer getPreviewHeight() { return previewHeight; }
+    public String getDerivativesError() { return derivativesError; }
+    public byte[] getContentSha256() { return contentSha256; }
+    public UUID getDuplicateOf() { return duplicateOf; }
+    public Instant getProcessedAt() { return processedAt; }
+    public Instant getResultsPurgedAt() { return resultsPurgedAt; }
+    public Instant getArchivedAt() { return archivedAt; }
+    public Double getBedOffsetX() { return bedOffsetX; }
+    public Double getBedOffsetY() { return bedOffsetY; }
     public List<Detection> getDetections() { return detections; }
     public List<Classification> getClassifications() { return classifications; }
 
@@ -51,4 +111,29 @@ public class Image extends BaseEntity {
     public void setOriginalFilename(String originalFilename) { this.originalFilename = originalFilename; }
     public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
     public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+    public void setWidth(Integer width) { this.width = width; }
+    public void setHeight(Integer height) { this.height = height; }
+    public void setThumbnailWidth(Integer thumbnailWidth) { this.thumbnailWidth = thumbnailWidth; }
+    public void setThumbnailHeight(Integer thumbnailHeight) { this.thumbnailHeight = thumbnailHeight; }
+    public void setPreviewUrl(String previewUrl) { this.previewUrl = previewUrl; }
+    public void setPreviewWidth(Integer previewWidth) { this.previewWidth = previewWidth; }
+    public void setPreviewHeight(Integer previewHeight) { this.previewHeight = previewHeight; }
+    public void setDerivativesError(String derivativesError) { this.derivativesError = derivativesError; }
+    public void setContentSha256(byte[] contentSha256) { this.contentSha256 = contentSha256; }
+    public void setDuplicateOf(UUID duplicateOf) { this.duplicateOf = duplicateOf; }
+    public void setProcessedAt(Instant processedAt) { this.processedAt = processedAt; }
+    public void setResultsPurgedAt(Instant resultsPurgedAt) { this.resultsPurgedAt = resultsPurgedAt; }
+    public void setArchivedAt(Instant archivedAt) { this.archivedAt = archivedAt; }
+    public void setBedOffsetX(Double bedOffsetX) { this.bedOffsetX = bedOffsetX; }
+    public void setBedOffsetY(Double bedOffsetY) { this.bedOffsetY = bedOffsetY; }
+
+    /**
+     * Whether a preview should still be generated: none yet, and no earlier attempt failed for good.
+     */
+    public boolean needsDerivatives() { return previewUrl == null && derivativesError == null; }
+
+    /**
+     * Image whose ML results apply to this one: the canonical image for a duplicate upload, else itself.
+     */
+    public UUID getResultsImageId() { return duplicateOf != null ? duplicateOf : getId(); }
 }
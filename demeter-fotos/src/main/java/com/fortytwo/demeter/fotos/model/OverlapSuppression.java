@@ -0,0 +1,265 @@
+package com.fortytwo.demeter.fotos.model;
+
+import java.util.Arrays;
+
+/**
+ * Non-max suppression of detections across the overlapping images of a bed.
+ *
+ * <p>Boxes are in bed coordinates (an image's pixel coordinates plus its bed
+ * offset). Greedy, highest confidence first: a box is suppressed when a kept
+ * box of another image with the same label overlaps it with an IoU of at
+ * least the threshold. Boxes of the same image never suppress each other;
+ * the model already applied NMS within an image.
+ *
+ * <p>Boxes are sorted into flat arrays by horizontal band (as high as the
+ * highest box) and then x1, so the candidates of a kept box are a contiguous
+ * range in each of the two or three bands it can reach: {@code x1} within the
+ * widest box of its own {@code x1}, up to its {@code x2}. The loop over a
+ * range is branch-free over primitive arrays, which the JIT can compile to
+ * SIMD code.
+ */
+public final class OverlapSuppression {
+
+    private static final int MAX_BANDS = 1 << 20;
+
+    private OverlapSuppression() {}
+
+    /**
+     * Boxes to suppress, added one by one. Images and labels are caller-chosen
+     * codes; only equality matters.
+     */
+    public static final class Boxes {
+
+        private int size;
+        private int[] image;
+        private int[] label;
+        private float[] score;
+        private float[] x1;
+        private float[] y1;
+        private float[] x2;
+        private float[] y2;
+
+        public Boxes(int capacity) {
+            int initial = Math.max(capacity, 16);
+            image = new int[initial];
+            label = new int[initial];
+            score = new float[initial];
+            x1 = new float[initial];
+            y1 = new float[initial];
+            x2 = new float[initial];
+            y2 = new float[initial];
+        }
+
+        /**
+         * Add a box; corners may be given in either order.
+         *
+         * @return Index of the box in {@link #suppress} results
+         */
+        public int add(int imageCode, int labelCode, double confidence,
+                       double left, double top, double right, double bottom) {
+            if (size == image.length) {
+                grow();
+            }
+            image[size] = imageCode;
+            label[size] = labelCode;
+            score[size] = (float) confidence;
+            x1[size] = (float) Math.min(left, right);
+            y1[size] = (float) Math.min(top, bottom);
+            x2[size] = (float) Math.max(left, right);
+            y2[size] = (float) Math.max(top, bottom);
+            return size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private void grow() {
+            int capacity = size * 2;
+            image = Arrays.copyOf(image, capacity);
+            label = Arrays.copyOf(label, capacity);
+            score = Arrays.copyOf(score, capacity);
+            x1 = Arrays.copyOf(x1, capacity);
+            y1 = Arrays.copyOf(y1, capacity);
+            x2 = Arrays.copyOf(x2, capacity);
+            y2 = Arrays.copyOf(y2, capacity);
+        }
+    }
+
+    /**
+     * @param iouThreshold IoU from which two boxes are the same object, in (0, 1]
+     * @return Per box, in insertion order, whether it duplicates a kept box of another image
+     */
+    public static boolean[] suppress(Boxes boxes, double iouThreshold) {
+        if (!(iouThreshold > 0 && iouThreshold <= 1)) {
+            throw new IllegalArgumentException("iouThreshold must be in (0, 1]: " + iouThreshold);
+        }
+        int n = boxes.size;
+        boolean[] result = new boolean[n];
+        if (n < 2) {
+            return result;
+        }
+
+        float minY = Float.POSITIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxWidth = 0;
+        float maxHeight = 0;
+        for (int i = 0; i < n; i++) {
+            minY = Math.min(minY, boxes.y1[i]);
+            maxY = Math.max(maxY, boxes.y1[i]);
+            maxWidth = Math.max(maxWidth, boxes.x2[i] - boxes.x1[i]);
+            maxHeight = Math.max(maxHeight, boxes.y2[i] - boxes.y1[i]);
+        }
+        // Bands at least as high as the highest box, and at most MAX_BANDS of them
+        float bandHeight = Math.max(Math.max(maxHeight, (maxY - minY) / MAX_BANDS), Float.MIN_NORMAL);
+
+        // Sweep order: by band, then x1, ties by insertion order
+        int[] byX = sortedIndices(boxes.x1, n, false);
+        long[] keys = new long[n];
+        for (int r = 0; r < n; r++) {
+            keys[r] = ((long) band(boxes.y1[byX[r]], minY, bandHeight) << 32) | r;
+        }
+        Arrays.sort(keys);
+
+        int[] sweep = new int[n];
+        int[] band = new int[n];
+        float[] x1 = new float[n];
+        float[] y1 = new float[n];
+        float[] x2 = new float[n];
+        float[] y2 = new float[n];
+        float[] area = new float[n];
+        int[] image = new int[n];
+        int[] label = new int[n];
+        for (int p = 0; p < n; p++) {
+            int i = byX[(int) keys[p]];
+            sweep[p] = i;
+            band[p] = (int) (keys[p] >>> 32);
+            x1[p] = boxes.x1[i];
+            y1[p] = boxes.y1[i];
+            x2[p] = boxes.x2[i];
+            y2[p] = boxes.y2[i];
+            area[p] = (x2[p] - x1[p]) * (y2[p] - y1[p]);
+            image[p] = boxes.image[i];
+            label[p] = boxes.label[i];
+        }
+
+        // Greedy order: by confidence descending; rank[p] is the position of sweep slot p in it
+        int[] byScore = sortedIndices(boxes.score, n, true);
+        int[] slotOf = new int[n];
+        for (int p = 0; p < n; p++) {
+            slotOf[sweep[p]] = p;
+        }
+        int[] rank = new int[n];
+        for (int r = 0; r < n; r++) {
+            rank[slotOf[byScore[r]]] = r;
+        }
+
+        // inter / (a + b - inter) >= t  <=>  inter * (1 + t) >= t * (a + b)
+        float t = (float) iouThreshold;
+        float onePlusT = 1 + t;
+        boolean[] suppressed = new boolean[n];
+        for (int r = 0; r < n; r++) {
+            int p = slotOf[byScore[r]];
+            if (suppressed[p]) {
+                continue;
+            }
+            float px1 = x1[p];
+            float py1 = y1[p];
+            float px2 = x2[p];
+            float py2 = y2[p];
+            float pArea = area[p];
+            int pImage = image[p];
+            int pLabel = label[p];
+
+            // Overlapping boxes start within maxHeight above and maxWidth left of this one
+            int lastBand = band(py2, minY, bandHeight);
+            for (int b = band(py1 - maxHeight, minY, bandHeight); b <= lastBand; b++) {
+                int bandFrom = lowerBound(band, 0, n, b);
+                int bandTo = lowerBound(band, bandFrom, n, b + 1);
+                int from = lowerBound(x1, bandFrom, bandTo, px1 - maxWidth);
+                int to = lowerBound(x1, from, bandTo, px2);
+                for (int j = from; j < to; j++) {
+                    float w = Math.max(0f, Math.min(px2, x2[j]) - Math.max(px1, x1[j]));
+                    float h = Math.max(0f, Math.min(py2, y2[j]) - Math.max(py1, y1[j]));
+                    float inter = w * h;
+                    boolean duplicate = inter > 0
+                            & inter * onePlusT >= t * (pArea + area[j])
+                            & image[j] != pImage
+                            & label[j] == pLabel
+                            & rank[j] > r;
+                    suppressed[j] |= duplicate;
+                }
+            }
+        }
+
+        for (int p = 0; p < n; p++) {
+            result[sweep[p]] = suppressed[p];
+        }
+        return result;
+    }
+
+    public static int count(boolean[] suppressed) {
+        int count = 0;
+        for (boolean s : suppressed) {
+            if (s) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Indices sorted by value (descending if asked), ties by index, with one
+     * primitive sort of packed keys: the value's order-preserving int bits
+     * high, the index low.
+     */
+    private static int[] sortedIndices(float[] values, int n, boolean descending) {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int bits = Float.floatToIntBits(descending ? -values[i] : values[i]);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = (int) keys[i];
+        }
+        return indices;
+    }
+
+    private static int band(float y, float minY, float bandHeight) {
+        return (int) Math.min(MAX_BANDS, Math.max(0f, (y - minY) / bandHeight));
+    }
+
+    /**
+     * First position in {@code [from, to)} whose value is not less than {@code value}.
+     */
+    private static int lowerBound(float[] sorted, int from, int to, float value) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(int[] sorted, int from, int to, int value) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -32,6 +32,9 @@ public class PhotoProcessingSession extends BaseEntity {
     @Column(name = "processed_images", nullable = false)
     private int processedImages;
 
+    @Column(name = "deduplicated_images", nullable = false)
+    private int deduplicatedImages;
+
     @OneToMany(mappedBy = "session", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Image> images = new ArrayList<>();
 
@@ -46,6 +49,7 @@ public class PhotoProcessingSession extends BaseEntity {
     public UUID getUploadedBy() { return uploadedBy; }
     public int getTotalImages() { return totalImages; }
     public int getProcessedImages() { return processedImages; }
+    public int getDeduplicatedImages() { return deduplicatedImages; }
     public List<Image> getImages() { return images; }
     public List<Estimation> getEstimations() { return estimations; }
 
@@ -57,4 +61,5 @@ public class PhotoProcessingSession extends BaseEntity {
     public void setUploadedBy(UUID uploadedBy) { this.uploadedBy = uploadedBy; }
     public void setTotalImages(int totalImages) { this.totalImages = totalImages; }
     public void setProcessedImages(int processedImages) { this.processedImages = processedImages; }
+    public void setDeduplicatedImages(int deduplicatedImages) { this.deduplicatedImages = deduplicatedImages; }
 }
@@ -3,12 +3,40 @@ package com.fortytwo.demeter.fotos.repository;
 import com.fortytwo.demeter.fotos.model.Classification;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.Session;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @ApplicationScoped
 public class ClassificationRepository implements PanacheRepositoryBase<Classification, UUID> {
 
+    private static final String INSERT_CLASSIFICATION = """
+            INSERT INTO classifications
+                (id, tenant_id, session_id, image_id, category, product_conf, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    // Images of a session with exactly one classification
+    private static final String SELECT_SOLE_IMAGE_CLASSIFICATIONS = """
+            SELECT image_id, (array_agg(id))[1]
+            FROM classifications
+            WHERE session_id = ? AND tenant_id = ? AND image_id IS NOT NULL
+            GROUP BY image_id
+            HAVING count(*) = 1
+            """;
+
+    /**
+     * Row for {@link #insertBatch}.
+     */
+    public record NewClassification(UUID id, String category, Integer productConf) {}
+
     public List<Classification> findBySessionId(UUID sessionId) {
         return find("session.id", sessionId).list();
     }
@@ -17,8 +45,64 @@ public class ClassificationRepository implements PanacheRepositoryBase<Classific
         return find("product.id", productId).list();
     }
 
+    /**
+     * The classification of each image of a session that has exactly one,
+     * by image id: what an image's detections without a classification of
+     * their own belong to.
+     */
+    public Map<UUID, UUID> findSoleClassificationsByImage(UUID sessionId, String tenantId) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(SELECT_SOLE_IMAGE_CLASSIFICATIONS)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                Map<UUID, UUID> classifications = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        classifications.put(rs.getObject(1, UUID.class), rs.getObject(2, UUID.class));
+                    }
+                }
+                return classifications;
+            }
+        });
+    }
+
     @Deprecated
     public List<Classification> findByImageId(UUID imageId) {
         return find("image.id", imageId).list();
     }
+
+    /**
+     * Insert classifications of one image with JDBC batches on the current
+     * transaction's connection. Bypasses the persistence context.
+     */
+    public void insertBatch(String tenantId, UUID sessionId, UUID imageId, List<NewClassification> classifications) {
+        if (classifications.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_CLASSIFICATION)) {
+                int pending = 0;
+                for (NewClassification classification : classifications) {
+                    stmt.setObject(1, classification.id());
+                    stmt.setString(2, tenantId);
+                    stmt.setObject(3, sessionId);
+                    stmt.setObject(4, imageId);
+                    stmt.setString(5, classification.category());
+                    stmt.setObject(6, classification.productConf(), Types.INTEGER);
+                    stmt.setTimestamp(7, now);
+                    stmt.setTimestamp(8, now);
+                    stmt.addBatch();
+                    if (++pending == DetectionRepository.BATCH_SIZE) {
+                        stmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    stmt.executeBatch();
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,164 @@
+package com.fortytwo.demeter.fotos.repository;
+
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec.EncodedBlock;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Compact detection storage: one {@code detection_blocks} row per image.
+ *
+ * <p>Plain JDBC on the current transaction's connection, with the tenant
+ * passed explicitly (the table has no entity).
+ */
+@ApplicationScoped
+public class DetectionBlockRepository {
+
+    private static final String UPSERT_BLOCK = """
+            INSERT INTO detection_blocks
+                (id, tenant_id, session_id, image_id, detection_count, coord_scale,
+                 labels, label_codes, confidences, alive, boxed, boxes, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (image_id) DO UPDATE SET
+                detection_count = EXCLUDED.detection_count,
+                coord_scale = EXCLUDED.coord_scale,
+                labels = EXCLUDED.labels,
+                label_codes = EXCLUDED.label_codes,
+                confidences = EXCLUDED.confidences,
+                alive = EXCLUDED.alive,
+                boxed = EXCLUDED.boxed,
+                boxes = EXCLUDED.boxes,
+                updated_at = EXCLUDED.updated_at
+            """;
+
+    private static final String SELECT_BLOCKS = """
+            SELECT id, session_id, image_id, created_at, detection_count, coord_scale,
+                   labels, label_codes, confidences, alive, boxed, boxes
+            FROM detection_blocks
+            """;
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * A stored block with the columns needed to present its detections.
+     */
+    public record StoredBlock(UUID id, UUID sessionId, UUID imageId, Instant createdAt, EncodedBlock data) {}
+
+    /**
+     * Store the detections of an image, replacing any block it already has
+     * (a redelivered callback does not duplicate detections).
+     */
+    public void upsert(String tenantId, UUID sessionId, UUID imageId, EncodedBlock block) {
+        Timestamp now = Timestamp.from(Instant.now());
+
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(UPSERT_BLOCK)) {
+                stmt.setObject(1, UUID.randomUUID());
+                stmt.setString(2, tenantId);
+                stmt.setObject(3, sessionId);
+                stmt.setObject(4, imageId);
+                stmt.setInt(5, block.count());
+                stmt.setInt(6, block.coordScale());
+                stmt.setArray(7, connection.createArrayOf("text", block.labels()));
+                stmt.setBytes(8, block.labelCodes());
+                stmt.setBytes(9, block.confidences());
+                stmt.setBytes(10, block.alive());
+                stmt.setBytes(11, block.boxed());
+                stmt.setBytes(12, block.boxes());
+                stmt.setTimestamp(13, now);
+                stmt.setTimestamp(14, now);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    public Optional<StoredBlock> findByImageId(UUID imageId, String tenantId) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    SELECT_BLOCKS + " WHERE image_id = ? AND tenant_id = ?")) {
+                stmt.setObject(1, imageId);
+                stmt.setString(2, tenantId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? Optional.of(toStoredBlock(rs)) : Optional.<StoredBlock>empty();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Blocks of the session's images, by image id
+     */
+    public Map<UUID, StoredBlock> findBySessionId(UUID sessionId, String tenantId) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    SELECT_BLOCKS + " WHERE session_id = ? AND tenant_id = ?")) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                Map<UUID, StoredBlock> blocks = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        StoredBlock block = toStoredBlock(rs);
+                        blocks.put(block.imageId(), block);
+                    }
+                }
+                return blocks;
+            }
+        });
+    }
+
+    /**
+     * @return Blocks of the given images, by image id
+     */
+    public Map<UUID, StoredBlock> findByImageIds(Collection<UUID> imageIds, String tenantId) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    SELECT_BLOCKS + " WHERE image_id = ANY(?) AND tenant_id = ?")) {
+                stmt.setArray(1, connection.createArrayOf("uuid", imageIds.toArray()));
+                stmt.setString(2, tenantId);
+                Map<UUID, StoredBlock> blocks = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        StoredBlock block = toStoredBlock(rs);
+                        blocks.put(block.imageId(), block);
+                    }
+                }
+                return blocks;
+            }
+        });
+    }
+
+    private static StoredBlock toStoredBlock(ResultSet rs) throws SQLException {
+        Array labels = rs.getArray("labels");
+        EncodedBlock data = new EncodedBlock(
+                rs.getInt("detection_count"),
+                rs.getInt("coord_scale"),
+                (String[]) labels.getArray(),
+                rs.getBytes("label_codes"),
+                rs.getBytes("confidences"),
+                rs.getBytes("alive"),
+                rs.getBytes("boxed"),
+                rs.getBytes("boxes"));
+        labels.free();
+
+        return new StoredBlock(
+                rs.getObject("id", UUID.class),
+                rs.getObject("session_id", UUID.class),
+                rs.getObject("image_id", UUID.class),
+                rs.getTimestamp("created_at").toInstant(),
+                data);
+    }
+}
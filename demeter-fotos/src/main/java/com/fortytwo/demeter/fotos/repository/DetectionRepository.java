@@ -3,12 +3,50 @@ package com.fortytwo.demeter.fotos.repository;
 import com.fortytwo.demeter.fotos.model.Detection;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.Session;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 @ApplicationScoped
 public class DetectionRepository implements PanacheRepositoryBase<Detection, UUID> {
 
+    /** Rows per executeBatch; pgjdbc rewrites each batch into multi-row INSERTs. */
+    static final int BATCH_SIZE = 1000;
+
+    private static final String INSERT_DETECTION = """
+            INSERT INTO detections
+                (id, tenant_id, session_id, image_id, label, confidence,
+                 bbox_x1, bbox_y1, bbox_x2, bbox_y2, is_alive, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, true, ?, ?)
+            """;
+
+    private static final String SELECT_SESSION_BOXES = """
+            SELECT image_id, classification_id, label, confidence, bbox_x1, bbox_y1, bbox_x2, bbox_y2
+            FROM detections
+            WHERE session_id = ? AND tenant_id = ? AND bbox_x1 IS NOT NULL
+            """;
+
+    /**
+     * Row for {@link #insertBatch}. Bounding box coordinates are all null or all set.
+     */
+    public record NewDetection(UUID id, String label, BigDecimal confidence,
+                               Double x1, Double y1, Double x2, Double y2) {}
+
+    /**
+     * Detection with a bounding box, as read by {@link #findBoxesBySessionId}.
+     *
+     * @param classificationId Classification the detection belongs to, or null
+     */
+    public record DetectionBox(UUID imageId, UUID classificationId, String label, double confidence,
+                               double x1, double y1, double x2, double y2) {}
+
     public List<Detection> findBySessionId(UUID sessionId) {
         return find("session.id", sessionId).list();
     }
@@ -29,8 +67,79 @@ public class DetectionRepository implements PanacheRepositoryBase<Detection, UUI
         return count("session.id = ?1 AND isAlive = true", sessionId);
     }
 
+    /**
+     * Detections of a session that have a bounding box, read with plain JDBC
+     * (no entities: a session can hold hundreds of thousands).
+     */
+    public List<DetectionBox> findBoxesBySessionId(UUID sessionId, String tenantId) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(SELECT_SESSION_BOXES)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                stmt.setFetchSize(BATCH_SIZE);
+                List<DetectionBox> boxes = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        boxes.add(new DetectionBox(
+                                rs.getObject(1, UUID.class),
+                                rs.getObject(2, UUID.class),
+                                rs.getString(3),
+                                rs.getDouble(4),
+                                rs.getDouble(5),
+                                rs.getDouble(6),
+                                rs.getDouble(7),
+                                rs.getDouble(8)));
+                    }
+                }
+                return boxes;
+            }
+        });
+    }
+
     @Deprecated
     public List<Detection> findByImageId(UUID imageId) {
         return find("image.id", imageId).list();
     }
+
+    /**
+     * Insert detections of one image with JDBC batches on the current
+     * transaction's connection.
+     *
+     * <p>Bypasses the persistence context, so the tenant is written explicitly
+     * and ids are assigned by the caller.
+     */
+    public void insertBatch(String tenantId, UUID sessionId, UUID imageId, List<NewDetection> detections) {
+        if (detections.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_DETECTION)) {
+                int pending = 0;
+                for (NewDetection detection : detections) {
+                    stmt.setObject(1, detection.id());
+                    stmt.setString(2, tenantId);
+                    stmt.setObject(3, sessionId);
+                    stmt.setObject(4, imageId);
+                    stmt.setString(5, detection.label());
+                    stmt.setBigDecimal(6, detection.confidence());
+                    stmt.setObject(7, detection.x1(), Types.DOUBLE);
+                    stmt.setObject(8, detection.y1(), Types.DOUBLE);
+                    stmt.setObject(9, detection.x2(), Types.DOUBLE);
+                    stmt.setObject(10, detection.y2(), Types.DOUBLE);
+                    stmt.setTimestamp(11, now);
+                    stmt.setTimestamp(12, now);
+                    stmt.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        stmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    stmt.executeBatch();
+                }
+            }
+        });
+    }
 }
@@ -3,12 +3,82 @@ package com.fortytwo.demeter.fotos.repository;
 import com.fortytwo.demeter.fotos.model.Estimation;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.Session;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @ApplicationScoped
 public class EstimationRepository implements PanacheRepositoryBase<Estimation, UUID> {
 
+    private static final String INSERT_ESTIMATION = """
+            INSERT INTO estimations
+                (id, tenant_id, session_id, estimation_type, value, unit, confidence, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String DELETE_BY_METHOD = """
+            DELETE FROM estimations
+            WHERE session_id = ? AND tenant_id = ? AND calculation_method = ?
+            """;
+
+    private static final String INSERT_COUNT_CORRECTION = """
+            INSERT INTO estimations
+                (id, tenant_id, session_id, classification_id, estimation_type, value, estimated_count,
+                 calculation_method, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, now(), now())
+            """;
+
+    // estimated_count when set, otherwise the raw value (callbacks only send value)
+    private static final String SUM_COUNTS_BY_PRODUCT = """
+            SELECT c.product_id, c.packaging_catalog_id,
+                   SUM(COALESCE(e.estimated_count, ROUND(e.value))) AS total
+            FROM estimations e
+            LEFT JOIN classifications c ON c.id = e.classification_id
+            WHERE e.session_id = ? AND e.tenant_id = ? AND upper(e.estimation_type) = ?
+            GROUP BY c.product_id, c.packaging_catalog_id
+            """;
+
+    // Classifications whose product/packaging group has counts of its own
+    // (other than the correction's) in SUM_COUNTS_BY_PRODUCT
+    private static final String SELECT_COUNTED_CLASSIFICATIONS = """
+            SELECT c.id
+            FROM classifications c
+            WHERE c.session_id = ? AND c.tenant_id = ?
+              AND EXISTS (
+                  SELECT 1
+                  FROM estimations e
+                  JOIN classifications ec ON ec.id = e.classification_id
+                  WHERE e.session_id = c.session_id AND e.tenant_id = c.tenant_id
+                    AND upper(e.estimation_type) = ?
+                    AND e.calculation_method IS DISTINCT FROM ?
+                    AND ec.product_id IS NOT DISTINCT FROM c.product_id
+                    AND ec.packaging_catalog_id IS NOT DISTINCT FROM c.packaging_catalog_id
+              )
+            """;
+
+    /**
+     * Row for {@link #insertBatch}.
+     */
+    public record NewEstimation(UUID id, String estimationType, BigDecimal value, String unit, BigDecimal confidence) {}
+
+    /**
+     * Summed count of a session for one product/packaging. Both are null for
+     * estimations without a classification; packaging is null when the
+     * classification has none.
+     */
+    public record CountTotal(UUID productId, UUID packagingCatalogId, long count) {}
+
     public List<Estimation> findBySessionId(UUID sessionId) {
         return find("session.id", sessionId).list();
     }
@@ -20,4 +90,128 @@ public class EstimationRepository implements PanacheRepositoryBase<Estimation, U
     public List<Estimation> findByClassificationId(UUID classificationId) {
         return find("classification.id", classificationId).list();
     }
+
+    /**
+     * Insert estimations of one session with JDBC batches on the current
+     * transaction's connection. Bypasses the persistence context.
+     */
+    public void insertBatch(String tenantId, UUID sessionId, List<NewEstimation> estimations) {
+        if (estimations.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_ESTIMATION)) {
+                int pending = 0;
+                for (NewEstimation estimation : estimations) {
+                    stmt.setObject(1, estimation.id());
+                    stmt.setString(2, tenantId);
+                    stmt.setObject(3, sessionId);
+                    stmt.setString(4, estimation.estimationType());
+                    stmt.setBigDecimal(5, estimation.value());
+                    stmt.setString(6, estimation.unit());
+                    stmt.setBigDecimal(7, estimation.confidence());
+                    stmt.setTimestamp(8, now);
+                    stmt.setTimestamp(9, now);
+                    stmt.addBatch();
+                    if (++pending == DetectionRepository.BATCH_SIZE) {
+                        stmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    stmt.executeBatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace a session's count correction made by {@code calculationMethod}:
+     * its earlier correction is deleted, and one estimation is written per
+     * classification with a non-zero delta. The correction adds to the
+     * session's other estimations of the type in {@link #sumCountsByProduct},
+     * under the classification's product.
+     *
+     * @param deltas Count delta by classification id; the null key holds the
+     *               delta of unclassified counts
+     */
+    public void replaceCountCorrection(String tenantId, UUID sessionId, String estimationType,
+                                       String calculationMethod, Map<UUID, Integer> deltas) {
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(DELETE_BY_METHOD)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                stmt.setString(3, calculationMethod);
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_COUNT_CORRECTION)) {
+                for (Map.Entry<UUID, Integer> delta : deltas.entrySet()) {
+                    if (delta.getValue() == 0) {
+                        continue;
+                    }
+                    stmt.setObject(1, UUID.randomUUID());
+                    stmt.setString(2, tenantId);
+                    stmt.setObject(3, sessionId);
+                    stmt.setObject(4, delta.getKey(), Types.OTHER);
+                    stmt.setString(5, estimationType);
+                    stmt.setBigDecimal(6, BigDecimal.valueOf(delta.getValue()));
+                    stmt.setInt(7, delta.getValue());
+                    stmt.setString(8, calculationMethod);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Classifications of a session whose product and packaging have
+     * estimations of the type in {@link #sumCountsByProduct}, leaving out
+     * those made by {@code excludedMethod}. A correction written under any
+     * other classification would be summed apart from the counts it corrects.
+     */
+    public Set<UUID> findCountedClassificationIds(UUID sessionId, String tenantId, String estimationType,
+                                                  String excludedMethod) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(SELECT_COUNTED_CLASSIFICATIONS)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                stmt.setString(3, estimationType.toUpperCase(Locale.ROOT));
+                stmt.setString(4, excludedMethod);
+                Set<UUID> ids = new HashSet<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getObject(1, UUID.class));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+
+    /**
+     * Sum the counts of a session's estimations of one type (case-insensitive)
+     * per classified product and packaging, in one aggregate query.
+     */
+    public List<CountTotal> sumCountsByProduct(UUID sessionId, String tenantId, String estimationType) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(SUM_COUNTS_BY_PRODUCT)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                stmt.setString(3, estimationType.toUpperCase(Locale.ROOT));
+                List<CountTotal> totals = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        totals.add(new CountTotal(
+                                rs.getObject("product_id", UUID.class),
+                                rs.getObject("packaging_catalog_id", UUID.class),
+                                rs.getLong("total")));
+                    }
+                }
+                return totals;
+            }
+        });
+    }
 }
@@ -1,15 +1,596 @@
 package com.fortytwo.demeter.fotos.repository;
 
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec;
 import com.fortytwo.demeter.fotos.model.Image;
+import com.fortytwo.demeter.fotos.model.ProcessingStatus;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @ApplicationScoped
 public class ImageRepository implements PanacheRepositoryBase<Image, UUID> {
 
+    private static final String INSERT_SESSION = """
+            INSERT INTO photo_processing_sessions
+                (id, tenant_id, status, total_images, processed_images, deduplicated_images, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_IMAGE = """
+            INSERT INTO images
+                (id, tenant_id, session_id, storage_url, original_filename, file_size, mime_type,
+                 content_sha256, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    // Shares the canonical's object, results state and derivatives
+    private static final String INSERT_DUPLICATE = """
+            INSERT INTO images
+                (id, tenant_id, session_id, storage_url, original_filename, file_size, mime_type,
+                 duplicate_of, processed_at, width, height, thumbnail_url, thumbnail_width, thumbnail_height,
+                 preview_url, preview_width, preview_height, derivatives_error, created_at, updated_at)
+            SELECT ?, tenant_id, ?, storage_url, ?, ?, ?,
+                   id, processed_at, width, height, thumbnail_url, thumbnail_width, thumbnail_height,
+                   preview_url, preview_width, preview_height, derivatives_error, ?, ?
+            FROM images
+            WHERE id = ?
+            """;
+
+    // Lock keys in a fixed order so two uploads sharing contents cannot deadlock
+    private static final String LOCK_CONTENT_HASHES = """
+            SELECT count(pg_advisory_xact_lock(k))
+            FROM (SELECT DISTINCT hashtextextended(? || h, 0) AS k FROM unnest(?::text[]) h ORDER BY k) locks
+            """;
+
+    // Abandoned: not processed, and its session failed or its queued task was dead-lettered
+    private static final String FIND_CANONICALS = """
+            SELECT i.id, encode(i.content_sha256, 'hex'), i.processed_at IS NOT NULL,
+                   i.processed_at IS NULL AND (s.status = 'FAILED' OR EXISTS (
+                       SELECT 1 FROM task_queue t
+                       WHERE t.state = 'DEAD' AND t.payload ->> 'image_id' = i.id::text))
+            FROM images i
+            JOIN photo_processing_sessions s ON s.id = i.session_id
+            WHERE i.tenant_id = ?
+              AND i.content_sha256 IN (SELECT decode(h, 'hex') FROM unnest(?::text[]) h)
+            FOR SHARE OF i
+            """;
+
+    private static final String RELEASE_CONTENT = """
+            UPDATE images SET content_sha256 = NULL, updated_at = now()
+            WHERE id = ? AND tenant_id = ?
+            """;
+
+    // Duplicates in sessions that did not fail with the abandoned image; they share the replacement's object
+    private static final String REPOINT_DUPLICATES = """
+            UPDATE images d SET duplicate_of = r.id, storage_url = r.storage_url, updated_at = now()
+            FROM images r
+            WHERE r.id = ? AND d.duplicate_of = ? AND d.tenant_id = ? AND d.processed_at IS NULL
+              AND d.session_id IN (SELECT id FROM photo_processing_sessions
+                                   WHERE tenant_id = d.tenant_id AND status <> 'FAILED')
+            """;
+
+    private static final String MARK_PROCESSED = """
+            UPDATE images SET processed_at = now(), updated_at = now()
+            WHERE id = ? AND processed_at IS NULL
+            """;
+
+    private static final String MARK_DUPLICATES_PROCESSED = """
+            UPDATE images SET processed_at = now(), updated_at = now()
+            WHERE duplicate_of = ? AND tenant_id = ? AND processed_at IS NULL
+            RETURNING session_id
+            """;
+
+    private static final String UPDATE_BED_OFFSET = """
+            UPDATE images SET bed_offset_x = ?, bed_offset_y = ?, updated_at = now()
+            WHERE id = ? AND session_id = ? AND tenant_id = ?
+            """;
+
+    // Duplicates have no results of their own in the session
+    private static final String FIND_BED_PLACEMENTS = """
+            SELECT id, bed_offset_x, bed_offset_y
+            FROM images
+            WHERE session_id = ? AND tenant_id = ? AND bed_offset_x IS NOT NULL AND duplicate_of IS NULL
+            """;
+
+    private static final String HAS_PURGED_RESULTS = """
+            SELECT EXISTS (
+                SELECT 1 FROM images
+                WHERE session_id = ? AND tenant_id = ? AND results_purged_at IS NOT NULL
+            )
+            """;
+
+    // One statement for the whole gallery. Rows: per image and kind, the most
+    // frequent detection (D) and classification (C) labels with their counts
+    // and the image's total; for compact blocks, the label dictionary (L, code
+    // in n) and the label codes (B), counted in Java. Duplicates are
+    // summarized through their canonical image; images whose details were
+    // purged by retention contribute their stored label counts.
+    private static final String SUMMARIZE_SESSION_RESULTS = """
+            WITH results AS (
+                SELECT DISTINCT COALESCE(duplicate_of, id) AS image_id
+                FROM images
+                WHERE session_id = :sessionId AND tenant_id = :tenantId
+            ),
+            labels AS (
+                SELECT 'D' AS kind, d.image_id, d.label, count(*) AS n
+                FROM detections d JOIN results r ON r.image_id = d.image_id
+                WHERE d.tenant_id = :tenantId
+                GROUP BY d.image_id, d.label
+                UNION ALL
+                SELECT 'C', c.image_id, COALESCE(c.name, c.category), count(*)
+                FROM classifications c JOIN results r ON r.image_id = c.image_id
+                WHERE c.tenant_id = :tenantId
+                GROUP BY c.image_id, COALESCE(c.name, c.category)
+                UNION ALL
+                SELECT a.kind::text, a.image_id, NULLIF(a.label, ''), a.label_count::bigint
+                FROM image_result_labels a JOIN results r ON r.image_id = a.image_id
+                WHERE a.tenant_id = :tenantId
+            ),
+            ranked AS (
+                SELECT kind, image_id, label, n,
+                       sum(n) OVER per_image AS total,
+                       row_number() OVER (per_image ORDER BY n DESC, label) AS rank
+                FROM labels
+                WINDOW per_image AS (PARTITION BY kind, image_id)
+            )
+            SELECT kind, image_id, label, n, total::bigint, NULL::bytea AS label_codes
+            FROM ranked
+            WHERE rank <= :topLabels
+            UNION ALL
+            SELECT 'L', b.image_id, dict.label, dict.code - 1, b.detection_count, NULL
+            FROM detection_blocks b
+            JOIN results r ON r.image_id = b.image_id
+            CROSS JOIN LATERAL unnest(b.labels) WITH ORDINALITY AS dict(label, code)
+            WHERE b.tenant_id = :tenantId
+            UNION ALL
+            SELECT 'B', b.image_id, NULL, NULL, b.detection_count, b.label_codes
+            FROM detection_blocks b JOIN results r ON r.image_id = b.image_id
+            WHERE b.tenant_id = :tenantId
+            """;
+
+    /**
+     * Position of an image's pixel (0, 0) in its bed.
+     */
+    public record BedPlacement(UUID imageId, double x, double y) {}
+
+    /**
+     * Row for {@link #insertSessionWithImages}.
+     *
+     * @param contentSha256 SHA-256 of the stored bytes, or null if unknown
+     */
+    public record NewImage(UUID id, String storageUrl, String originalFilename, long fileSize, String mimeType,
+                           byte[] contentSha256) {}
+
+    /**
+     * Duplicate row for {@link #insertSessionWithImages}: stored with the
+     * canonical image's storage object instead of its own.
+     */
+    public record DuplicateImage(NewImage image, UUID duplicateOf) {}
+
+    /**
+     * Existing image with a given content.
+     *
+     * @param processed Whether its ML results are stored
+     * @param abandoned Whether they never will be: not processed, and its
+     *                  session failed or its task was dead-lettered
+     */
+    public record ContentMatch(UUID imageId, boolean processed, boolean abandoned) {}
+
+    /**
+     * Counts of an image's ML results and its most frequent labels, most
+     * frequent first.
+     */
+    public record ResultsSummary(long detectionCount, List<LabelCount> topDetectionLabels,
+                                 long classificationCount, List<LabelCount> topClassifications) {
+        public static final ResultsSummary EMPTY = new ResultsSummary(0, List.of(), 0, List.of());
+    }
+
+    public record LabelCount(String label, long count) {
+
+        static final Comparator<LabelCount> MOST_FREQUENT_FIRST =
+                Comparator.comparingLong(LabelCount::count).reversed()
+                        .thenComparing(LabelCount::label, Comparator.nullsLast(Comparator.naturalOrder()));
+
+        /**
+         * The {@code limit} most frequent labels, most frequent first.
+         */
+        public static List<LabelCount> top(Map<String, Long> counts, int limit) {
+            return counts.entrySet().stream()
+                    .map(entry -> new LabelCount(entry.getKey(), entry.getValue()))
+                    .sorted(MOST_FREQUENT_FIRST)
+                    .limit(limit)
+                    .toList();
+        }
+    }
+
     public List<Image> findBySessionId(UUID sessionId) {
         return find("session.id", sessionId).list();
     }
+
+    /**
+     * Summarize the ML results of every image of a session in one statement,
+     * in place of loading each image's detections and classifications.
+     *
+     * <p>Results are keyed by the image holding them: the canonical image for
+     * duplicates ({@link Image#getResultsImageId()}). Compact detection
+     * blocks take precedence over detection rows, as in the detail reads.
+     *
+     * @param topLabels Number of most frequent labels to return per kind
+     * @return Summaries by results image ID; images without results are absent
+     */
+    public Map<UUID, ResultsSummary> summarizeSessionResults(UUID sessionId, String tenantId, int topLabels) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = getEntityManager().createNativeQuery(SUMMARIZE_SESSION_RESULTS)
+                .setParameter("sessionId", sessionId)
+                .setParameter("tenantId", tenantId)
+                .setParameter("topLabels", topLabels)
+                .getResultList();
+
+        Map<UUID, SummaryRows> byImage = new HashMap<>();
+        for (Object[] row : rows) {
+            SummaryRows summary = byImage.computeIfAbsent((UUID) row[1], id -> new SummaryRows());
+            String label = (String) row[2];
+            long total = ((Number) row[4]).longValue();
+            switch ((String) row[0]) {
+                case "D" -> {
+                    summary.detectionCount = total;
+                    summary.detectionLabels.add(new LabelCount(label, ((Number) row[3]).longValue()));
+                }
+                case "C" -> {
+                    summary.classificationCount = total;
+                    summary.classificationLabels.add(new LabelCount(label, ((Number) row[3]).longValue()));
+                }
+                case "L" -> summary.blockDictionary.put(((Number) row[3]).intValue(), label);
+                case "B" -> {
+                    summary.blockCount = (int) total;
+                    summary.blockLabelCodes = (byte[]) row[5];
+                }
+                default -> throw new IllegalStateException("Unknown summary row kind: " + row[0]);
+            }
+        }
+
+        Map<UUID, ResultsSummary> summaries = new HashMap<>();
+        byImage.forEach((imageId, summary) -> summaries.put(imageId, summary.toSummary(topLabels)));
+        return summaries;
+    }
+
+    /**
+     * Summarize an image's results from the label counts stored when
+     * retention purged its details ({@link Image#getResultsPurgedAt()}).
+     *
+     * @param imageId Image holding the results (the canonical image for duplicates)
+     */
+    public ResultsSummary summarizePurgedResults(UUID imageId, String tenantId, int topLabels) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = getEntityManager().createNativeQuery("""
+                        SELECT kind, NULLIF(label, ''), label_count
+                        FROM image_result_labels
+                        WHERE image_id = :imageId AND tenant_id = :tenantId
+                        """)
+                .setParameter("imageId", imageId)
+                .setParameter("tenantId", tenantId)
+                .getResultList();
+
+        Map<String, Long> detections = new HashMap<>();
+        Map<String, Long> classifications = new HashMap<>();
+        for (Object[] row : rows) {
+            Map<String, Long> counts = "D".equals(String.valueOf(row[0])) ? detections : classifications;
+            counts.put((String) row[1], ((Number) row[2]).longValue());
+        }
+        return new ResultsSummary(
+                detections.values().stream().mapToLong(Long::longValue).sum(),
+                LabelCount.top(detections, topLabels),
+                classifications.values().stream().mapToLong(Long::longValue).sum(),
+                LabelCount.top(classifications, topLabels));
+    }
+
+    /**
+     * Rows of {@link #summarizeSessionResults} for one image.
+     */
+    private static final class SummaryRows {
+        long detectionCount;
+        final List<LabelCount> detectionLabels = new ArrayList<>();
+        long classificationCount;
+        final List<LabelCount> classificationLabels = new ArrayList<>();
+        final Map<Integer, String> blockDictionary = new HashMap<>();
+        int blockCount;
+        byte[] blockLabelCodes;
+
+        ResultsSummary toSummary(int topLabels) {
+            List<LabelCount> classifications = classificationLabels.stream()
+                    .sorted(LabelCount.MOST_FREQUENT_FIRST)
+                    .toList();
+            if (blockLabelCodes == null) {
+                List<LabelCount> detections = detectionLabels.stream()
+                        .sorted(LabelCount.MOST_FREQUENT_FIRST)
+                        .toList();
+                return new ResultsSummary(detectionCount, detections, classificationCount, classifications);
+            }
+
+            long[] codeCounts = DetectionBlockCodec.countLabelCodes(
+                    blockLabelCodes, blockCount, blockDictionary.size());
+            Map<String, Long> labelCounts = new HashMap<>();
+            for (int code = 0; code < codeCounts.length; code++) {
+                labelCounts.put(blockDictionary.get(code), codeCounts[code]);
+            }
+            return new ResultsSummary(blockCount, LabelCount.top(labelCounts, topLabels),
+                    classificationCount, classifications);
+        }
+    }
+
+    /**
+     * Lock the given contents for the rest of the transaction, so concurrent
+     * uploads of the same bytes register one after the other and the later
+     * one finds the earlier one's canonical image.
+     */
+    public void lockContentHashes(String tenantId, Collection<byte[]> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(LOCK_CONTENT_HASHES)) {
+                stmt.setString(1, "image-content:" + tenantId + ":");
+                stmt.setArray(2, connection.createArrayOf("text", toHex(hashes)));
+                stmt.executeQuery().close();
+            }
+        });
+    }
+
+    /**
+     * Find the canonical images with the given contents, and lock them
+     * against a concurrent {@link #markProcessed} until the transaction ends.
+     *
+     * @return Matches by lower-case hex hash
+     */
+    public Map<String, ContentMatch> findCanonicals(String tenantId, Collection<byte[]> hashes) {
+        if (hashes.isEmpty()) {
+            return Map.of();
+        }
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(FIND_CANONICALS)) {
+                stmt.setString(1, tenantId);
+                stmt.setArray(2, connection.createArrayOf("text", toHex(hashes)));
+                Map<String, ContentMatch> matches = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        matches.put(rs.getString(2),
+                                new ContentMatch(rs.getObject(1, UUID.class), rs.getBoolean(3), rs.getBoolean(4)));
+                    }
+                }
+                return matches;
+            }
+        });
+    }
+
+    /**
+     * Clear the content hash of abandoned canonical images, so images with
+     * the same content can be registered as canonical in their place.
+     */
+    public void releaseContent(Collection<UUID> imageIds, String tenantId) {
+        if (imageIds.isEmpty()) {
+            return;
+        }
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(RELEASE_CONTENT)) {
+                for (UUID imageId : imageIds) {
+                    stmt.setObject(1, imageId);
+                    stmt.setString(2, tenantId);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Link the duplicates still waiting for abandoned canonical images to
+     * their replacements, whose results will complete them instead; call
+     * once the replacements are inserted.
+     *
+     * @param replacements Replacement image by abandoned image
+     */
+    public void repointDuplicates(Map<UUID, UUID> replacements, String tenantId) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(REPOINT_DUPLICATES)) {
+                for (Map.Entry<UUID, UUID> replacement : replacements.entrySet()) {
+                    stmt.setObject(1, replacement.getValue());
+                    stmt.setObject(2, replacement.getKey());
+                    stmt.setString(3, tenantId);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Record that an image's ML results are stored. Of concurrent or repeated
+     * calls for an image, exactly one returns {@code true}: the row lock held
+     * until commit makes the others see it already processed.
+     *
+     * @return Whether the image was not processed yet
+     */
+    public boolean markProcessed(UUID imageId) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(MARK_PROCESSED)) {
+                stmt.setObject(1, imageId);
+                return stmt.executeUpdate() == 1;
+            }
+        });
+    }
+
+    /**
+     * Mark the duplicates of a processed image that were still waiting for
+     * its results; call after {@link #markProcessed}, whose canonical row
+     * lock orders this against registrations reading it.
+     *
+     * @return Number of duplicates marked, by session
+     */
+    public Map<UUID, Integer> markDuplicatesProcessed(UUID imageId, String tenantId) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            Map<UUID, Integer> sessions = new LinkedHashMap<>();
+            try (PreparedStatement stmt = connection.prepareStatement(MARK_DUPLICATES_PROCESSED)) {
+                stmt.setObject(1, imageId);
+                stmt.setString(2, tenantId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        sessions.merge(rs.getObject(1, UUID.class), 1, Integer::sum);
+                    }
+                }
+            }
+            return sessions;
+        });
+    }
+
+    /**
+     * Set the bed placement of images of a session with one JDBC batch.
+     *
+     * @return Number of the given images that belong to the session
+     */
+    public int updateBedPlacements(UUID sessionId, String tenantId, List<BedPlacement> placements) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(UPDATE_BED_OFFSET)) {
+                for (BedPlacement placement : placements) {
+                    stmt.setDouble(1, placement.x());
+                    stmt.setDouble(2, placement.y());
+                    stmt.setObject(3, placement.imageId());
+                    stmt.setObject(4, sessionId);
+                    stmt.setString(5, tenantId);
+                    stmt.addBatch();
+                }
+                int updated = 0;
+                for (int count : stmt.executeBatch()) {
+                    updated += count;
+                }
+                return updated;
+            }
+        });
+    }
+
+    /**
+     * @return Placements of the session's placed images that hold their own
+     *         results (not duplicates), by image id
+     */
+    public Map<UUID, BedPlacement> findBedPlacements(UUID sessionId, String tenantId) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(FIND_BED_PLACEMENTS)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                Map<UUID, BedPlacement> placements = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        UUID imageId = rs.getObject(1, UUID.class);
+                        placements.put(imageId, new BedPlacement(imageId, rs.getDouble(2), rs.getDouble(3)));
+                    }
+                }
+                return placements;
+            }
+        });
+    }
+
+    /**
+     * Whether retention purged the result details of any image of the session.
+     */
+    public boolean hasPurgedResults(UUID sessionId, String tenantId) {
+        return getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(HAS_PURGED_RESULTS)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return rs.getBoolean(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Insert a session and its images with one statement plus a JDBC batch
+     * per kind of image row, on the current transaction's connection.
+     *
+     * <p>Bypasses the persistence context, so the tenant is written explicitly
+     * and ids are assigned by the caller.
+     *
+     * @param images          Images stored with their own object
+     * @param duplicates      Images sharing an earlier image's object and results
+     *                        (which may be one of {@code images})
+     * @param processedImages Images whose results are already stored
+     */
+    public void insertSessionWithImages(UUID sessionId, String tenantId, ProcessingStatus status,
+                                        List<NewImage> images, List<DuplicateImage> duplicates,
+                                        int processedImages) {
+        Timestamp now = Timestamp.from(Instant.now());
+
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_SESSION)) {
+                stmt.setObject(1, sessionId);
+                stmt.setString(2, tenantId);
+                stmt.setString(3, status.name());
+                stmt.setInt(4, images.size() + duplicates.size());
+                stmt.setInt(5, processedImages);
+                stmt.setInt(6, duplicates.size());
+                stmt.setTimestamp(7, now);
+                stmt.setTimestamp(8, now);
+                stmt.executeUpdate();
+            }
+
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_IMAGE)) {
+                for (NewImage image : images) {
+                    stmt.setObject(1, image.id());
+                    stmt.setString(2, tenantId);
+                    stmt.setObject(3, sessionId);
+                    stmt.setString(4, image.storageUrl());
+                    stmt.setString(5, image.originalFilename());
+                    stmt.setLong(6, image.fileSize());
+                    stmt.setString(7, image.mimeType());
+                    stmt.setBytes(8, image.contentSha256());
+                    stmt.setTimestamp(9, now);
+                    stmt.setTimestamp(10, now);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+
+            if (duplicates.isEmpty()) {
+                return;
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_DUPLICATE)) {
+                for (DuplicateImage duplicate : duplicates) {
+                    NewImage image = duplicate.image();
+                    stmt.setObject(1, image.id());
+                    stmt.setObject(2, sessionId);
+                    stmt.setString(3, image.originalFilename());
+                    stmt.setLong(4, image.fileSize());
+                    stmt.setString(5, image.mimeType());
+                    stmt.setTimestamp(6, now);
+                    stmt.setTimestamp(7, now);
+                    stmt.setObject(8, duplicate.duplicateOf());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        });
+    }
+
+    private static String[] toHex(Collection<byte[]> hashes) {
+        HexFormat hex = HexFormat.of();
+        return hashes.stream().map(hex::formatHex).toArray(String[]::new);
+    }
 }
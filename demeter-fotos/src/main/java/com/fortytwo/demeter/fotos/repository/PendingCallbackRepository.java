@@ -0,0 +1,180 @@
+package com.fortytwo.demeter.fotos.repository;
+
+import io.agroal.api.AgroalDataSource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Durable spill of the ML callback queue ({@code pending_callbacks}).
+ *
+ * <p>Rows belong to any tenant and are read by the queue worker outside of a
+ * request, so most methods use their own pooled connection (autocommit) with
+ * the tenant passed explicitly. {@link #lock} and {@link #delete} run on the
+ * current transaction's connection, so that claiming a spilled callback,
+ * persisting its results and removing it commit together.
+ */
+@ApplicationScoped
+public class PendingCallbackRepository {
+
+    private static final String INSERT = """
+            INSERT INTO pending_callbacks (tenant_id, session_id, image_id, payload, attempts, next_attempt_at)
+            VALUES (?, ?, ?, CAST(? AS jsonb), ?, now())
+            """;
+
+    // The oldest due callback picks the group; its session's other due callbacks come along
+    private static final String SELECT_DUE_GROUP = """
+            SELECT id, tenant_id, session_id, attempts, payload::text AS payload
+            FROM pending_callbacks
+            WHERE (tenant_id, session_id) = (
+                    SELECT tenant_id, session_id FROM pending_callbacks
+                    WHERE next_attempt_at <= now()
+                    ORDER BY id
+                    LIMIT 1)
+              AND next_attempt_at <= now()
+            ORDER BY id
+            LIMIT ?
+            """;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * A callback to spill.
+     */
+    public record NewPendingCallback(String tenantId, UUID sessionId, UUID imageId, String payload, int attempts) {}
+
+    /**
+     * A spilled callback.
+     */
+    public record PendingCallback(long id, String tenantId, UUID sessionId, int attempts, String payload) {}
+
+    public void insert(List<NewPendingCallback> callbacks) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(INSERT)) {
+            for (NewPendingCallback callback : callbacks) {
+                stmt.setString(1, callback.tenantId());
+                stmt.setObject(2, callback.sessionId());
+                stmt.setObject(3, callback.imageId());
+                stmt.setString(4, callback.payload());
+                stmt.setInt(5, callback.attempts());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    public long count() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("SELECT count(*) FROM pending_callbacks");
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Due callbacks of one session, oldest first. Rows are not locked here:
+     * another instance may read the same group, {@link #lock} decides who
+     * persists each row.
+     *
+     * @param limit Maximum number of callbacks
+     * @return Callbacks of a single (tenant, session), or empty if none are due
+     */
+    public List<PendingCallback> findDueGroup(int limit) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(SELECT_DUE_GROUP)) {
+            stmt.setInt(1, limit);
+            List<PendingCallback> callbacks = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    callbacks.add(new PendingCallback(
+                            rs.getLong("id"),
+                            rs.getString("tenant_id"),
+                            rs.getObject("session_id", UUID.class),
+                            rs.getInt("attempts"),
+                            rs.getString("payload")));
+                }
+            }
+            return callbacks;
+        }
+    }
+
+    /**
+     * Lock the given rows for the current transaction, skipping rows already
+     * locked by another worker.
+     *
+     * @return IDs that were locked (rows deleted in the meantime are missing too)
+     */
+    public Set<Long> lock(Collection<Long> ids) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT id FROM pending_callbacks WHERE id = ANY(?) FOR UPDATE SKIP LOCKED")) {
+                stmt.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+                Set<Long> locked = new HashSet<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        locked.add(rs.getLong(1));
+                    }
+                }
+                return locked;
+            }
+        });
+    }
+
+    /**
+     * Delete rows in the current transaction.
+     */
+    public void delete(Collection<Long> ids) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "DELETE FROM pending_callbacks WHERE id = ANY(?)")) {
+                stmt.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Delete a row that will not be retried.
+     */
+    public void discard(long id) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("DELETE FROM pending_callbacks WHERE id = ?")) {
+            stmt.setLong(1, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Count a failed attempt and postpone the next one.
+     */
+    public void recordFailure(long id, long retryDelayMs) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("""
+                     UPDATE pending_callbacks
+                     SET attempts = attempts + 1,
+                         next_attempt_at = now() + make_interval(secs => ?)
+                     WHERE id = ?
+                     """)) {
+            stmt.setDouble(1, retryDelayMs / 1000.0);
+            stmt.setLong(2, id);
+            stmt.executeUpdate();
+        }
+    }
+}
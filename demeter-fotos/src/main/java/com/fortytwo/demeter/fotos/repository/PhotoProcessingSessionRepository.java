@@ -4,12 +4,49 @@ import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
 import com.fortytwo.demeter.fotos.model.ProcessingStatus;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import jakarta.enterprise.context.ApplicationScoped;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 @ApplicationScoped
 public class PhotoProcessingSessionRepository implements PanacheRepositoryBase<PhotoProcessingSession, UUID> {
 
+    private static final String INCREMENT_PROCESSED = """
+            UPDATE photo_processing_sessions
+            SET processed_images = processed_images + :count,
+                status = CASE
+                    WHEN processed_images + :count >= total_images THEN 'COMPLETED'
+                    WHEN status = 'PENDING' THEN 'PROCESSING'
+                    ELSE status
+                END,
+                updated_at = now()
+            WHERE id = :id AND tenant_id = :tenantId
+            RETURNING processed_images, total_images, status, deduplicated_images
+            """;
+
+    private static final String START_PENDING = """
+            UPDATE photo_processing_sessions
+            SET status = 'PROCESSING', updated_at = now()
+            WHERE id = :id AND tenant_id = :tenantId AND status = 'PENDING'
+            """;
+
+    private static final String FAIL_AWAITING_DUPLICATES = """
+            UPDATE photo_processing_sessions
+            SET status = 'FAILED', updated_at = now()
+            WHERE tenant_id = :tenantId
+              AND status <> 'COMPLETED'
+              AND id IN (SELECT session_id FROM images WHERE duplicate_of = :imageId AND processed_at IS NULL)
+            RETURNING id, processed_images, total_images, status, deduplicated_images
+            """;
+
+    /**
+     * Session counters as written by {@link #incrementProcessed}.
+     */
+    public record SessionProgress(int processedImages, int totalImages, ProcessingStatus status,
+                                  int deduplicatedImages) {}
+
     public List<PhotoProcessingSession> findByStatus(ProcessingStatus status) {
         return find("status", status).list();
     }
@@ -17,4 +54,73 @@ public class PhotoProcessingSessionRepository implements PanacheRepositoryBase<P
     public List<PhotoProcessingSession> findByProductId(UUID productId) {
         return find("productId", productId).list();
     }
+
+    /**
+     * Count one more processed image and move the status forward, in a single
+     * statement: PENDING becomes PROCESSING, and the session becomes COMPLETED
+     * once every image is processed.
+     *
+     * <p>The row lock taken by the UPDATE serializes concurrent callbacks, so
+     * each caller gets a distinct {@code processedImages} value.
+     *
+     * @return Counters after the increment, or empty if the session does not exist
+     */
+    public Optional<SessionProgress> incrementProcessed(UUID sessionId, String tenantId) {
+        return incrementProcessed(sessionId, tenantId, 1);
+    }
+
+    /**
+     * Count {@code count} more processed images, as {@link #incrementProcessed(UUID, String)}.
+     */
+    public Optional<SessionProgress> incrementProcessed(UUID sessionId, String tenantId, int count) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = getEntityManager().createNativeQuery(INCREMENT_PROCESSED)
+                .setParameter("id", sessionId)
+                .setParameter("tenantId", tenantId)
+                .setParameter("count", count)
+                .getResultList();
+
+        return rows.stream().findFirst().map(row -> toProgress(row, 0));
+    }
+
+    /**
+     * Move a PENDING session to PROCESSING, in a single statement: of
+     * concurrent callers, exactly one sees {@code true}.
+     *
+     * @return Whether the session was PENDING
+     */
+    public boolean startPending(UUID sessionId, String tenantId) {
+        return getEntityManager().createNativeQuery(START_PENDING)
+                .setParameter("id", sessionId)
+                .setParameter("tenantId", tenantId)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Fail the unfinished sessions holding duplicates of an image that are
+     * still waiting for its results.
+     *
+     * @return Counters of the failed sessions by session ID
+     */
+    public Map<UUID, SessionProgress> failSessionsAwaitingDuplicates(UUID imageId, String tenantId) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = getEntityManager().createNativeQuery(FAIL_AWAITING_DUPLICATES)
+                .setParameter("imageId", imageId)
+                .setParameter("tenantId", tenantId)
+                .getResultList();
+
+        Map<UUID, SessionProgress> failed = new HashMap<>();
+        for (Object[] row : rows) {
+            failed.put((UUID) row[0], toProgress(row, 1));
+        }
+        return failed;
+    }
+
+    private static SessionProgress toProgress(Object[] row, int offset) {
+        return new SessionProgress(
+                ((Number) row[offset]).intValue(),
+                ((Number) row[offset + 1]).intValue(),
+                ProcessingStatus.valueOf((String) row[offset + 2]),
+                ((Number) row[offset + 3]).intValue());
+    }
 }
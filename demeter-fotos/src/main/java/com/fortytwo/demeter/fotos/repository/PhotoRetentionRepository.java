@@ -0,0 +1,416 @@
+package com.fortytwo.demeter.fotos.repository;
+
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec;
+import io.agroal.api.AgroalDataSource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Data access for photo retention ({@code PhotoRetentionService}).
+ *
+ * <p>{@link #claim} and {@link #findDue} read sessions of every tenant (or of
+ * one) on their own pooled connection (autocommit), like the other
+ * background workers. The per-session methods run on the current
+ * transaction's connection, with the tenant passed explicitly.
+ */
+@ApplicationScoped
+public class PhotoRetentionRepository {
+
+    /**
+     * Finished sessions with retention work due under their tenant's policy
+     * ({@code settings.retention}, else the defaults bound first). The tenant
+     * filter is optional.
+     */
+    private static final String DUE_SESSIONS = """
+            SELECT s.id, s.tenant_id, s.created_at, p.detail_days, p.original_days,
+                   d.details_due, d.originals_due
+            FROM photo_processing_sessions s
+            LEFT JOIN tenants t ON t.id = s.tenant_id
+            CROSS JOIN LATERAL (
+                SELECT COALESCE(substring(t.settings->'retention'->>'detailDays' FROM '^[0-9]{1,5}$')::int, ?)
+                           AS detail_days,
+                       COALESCE(substring(t.settings->'retention'->>'originalDays' FROM '^[0-9]{1,5}$')::int, ?)
+                           AS original_days
+            ) p
+            CROSS JOIN LATERAL (
+                SELECT s.details_purged_at IS NULL AND p.detail_days > 0
+                           AND s.created_at < now() - make_interval(days => p.detail_days) AS details_due,
+                       s.originals_archived_at IS NULL AND p.original_days > 0
+                           AND s.created_at < now() - make_interval(days => p.original_days) AS originals_due
+            ) d
+            WHERE s.status IN ('COMPLETED', 'FAILED')
+              AND (s.details_purged_at IS NULL OR s.originals_archived_at IS NULL)
+              AND (d.details_due OR d.originals_due)
+              AND (CAST(? AS varchar) IS NULL OR s.tenant_id = ?)
+            """;
+
+    private static final String CLAIM = """
+            WITH due AS (
+            %s
+              AND (s.retention_next_at IS NULL OR s.retention_next_at <= now())
+            ORDER BY s.created_at
+            LIMIT ?
+            FOR UPDATE OF s SKIP LOCKED
+            )
+            UPDATE photo_processing_sessions s
+            SET retention_next_at = now() + make_interval(secs => ?)
+            FROM due
+            WHERE s.id = due.id
+            RETURNING due.*
+            """.formatted(DUE_SESSIONS);
+
+    private static final String FIND_DUE = DUE_SESSIONS + """
+              AND (s.created_at, s.id) > (?, ?)
+            ORDER BY s.created_at, s.id
+            LIMIT ?
+            """;
+
+    /**
+     * Canonical images of a session (the ones holding results and storage
+     * objects) not yet handled, each flagged if a duplicate of it belongs to a
+     * session younger than the retention period bound first.
+     */
+    private static final String FIND_CANDIDATES = """
+            SELECT i.id, i.storage_url, EXISTS (
+                       SELECT 1
+                       FROM images d
+                       JOIN photo_processing_sessions ds ON ds.id = d.session_id
+                       WHERE d.duplicate_of = i.id AND d.tenant_id = i.tenant_id
+                         AND ds.created_at >= now() - make_interval(days => ?)
+                   ) AS deferred
+            FROM images i
+            WHERE i.session_id = ? AND i.tenant_id = ?
+              AND i.duplicate_of IS NULL AND i.%s IS NULL
+            ORDER BY i.id
+            """;
+
+    private static final String MEASURE_DETAILS = """
+            SELECT count(*), COALESCE(sum(pg_column_size(x.*)), 0)
+            FROM %s x
+            WHERE x.image_id = ANY(?) AND x.tenant_id = ?
+            """;
+
+    private static final String DELETE_DETAILS = """
+            WITH deleted AS (
+                DELETE FROM %s x
+                WHERE x.image_id = ANY(?) AND x.tenant_id = ?
+                RETURNING pg_column_size(x.*) AS bytes
+            )
+            SELECT count(*), COALESCE(sum(bytes), 0) FROM deleted
+            """;
+
+    private static final String INSERT_ROW_LABEL_COUNTS = """
+            INSERT INTO image_result_labels (tenant_id, image_id, kind, label, label_count)
+            SELECT tenant_id, image_id, 'D', label, count(*)
+            FROM detections
+            WHERE image_id = ANY(?) AND tenant_id = ?
+            GROUP BY tenant_id, image_id, label
+            UNION ALL
+            SELECT tenant_id, image_id, 'C', COALESCE(name, category, ''), count(*)
+            FROM classifications
+            WHERE image_id = ANY(?) AND tenant_id = ?
+            GROUP BY tenant_id, image_id, COALESCE(name, category, '')
+            ON CONFLICT (image_id, kind, label)
+                DO UPDATE SET label_count = image_result_labels.label_count + EXCLUDED.label_count
+            """;
+
+    private static final String INSERT_LABEL_COUNT = """
+            INSERT INTO image_result_labels (tenant_id, image_id, kind, label, label_count)
+            VALUES (?, ?, 'D', ?, ?)
+            ON CONFLICT (image_id, kind, label)
+                DO UPDATE SET label_count = image_result_labels.label_count + EXCLUDED.label_count
+            """;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * A session with retention work due.
+     *
+     * @param detailsDue   Its result details are past the tenant's detail retention
+     * @param originalsDue Its originals are past the tenant's original retention
+     */
+    public record DueSession(UUID id, String tenantId, Instant createdAt, int detailDays, int originalDays,
+                             boolean detailsDue, boolean originalsDue) {}
+
+    /**
+     * A canonical image of a due session.
+     *
+     * @param deferred A duplicate in a session that is not yet due shares its results and original
+     */
+    public record Candidate(UUID imageId, String storageUrl, boolean deferred) {}
+
+    /**
+     * Detail rows of a set of images, and their approximate size.
+     */
+    public record DetailUsage(long detectionRows, long classificationRows, long detectionBlockRows, long bytes) {}
+
+    /**
+     * Claim up to {@code limit} due sessions, leasing them for
+     * {@code leaseSeconds} so another instance does not process them meanwhile.
+     *
+     * @param tenantId Only sessions of this tenant, or null for all tenants
+     */
+    public List<DueSession> claim(String tenantId, int defaultDetailDays, int defaultOriginalDays,
+                                  int limit, long leaseSeconds) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(CLAIM)) {
+            int i = bindDue(stmt, tenantId, defaultDetailDays, defaultOriginalDays);
+            stmt.setInt(i++, limit);
+            stmt.setLong(i, leaseSeconds);
+            return readDue(stmt);
+        }
+    }
+
+    /**
+     * Due sessions of a tenant after a keyset position, without claiming them
+     * (leases and rechecks are ignored).
+     */
+    public List<DueSession> findDue(String tenantId, int defaultDetailDays, int defaultOriginalDays,
+                                    Instant afterCreatedAt, UUID afterId, int limit) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(FIND_DUE)) {
+            int i = bindDue(stmt, tenantId, defaultDetailDays, defaultOriginalDays);
+            stmt.setTimestamp(i++, Timestamp.from(afterCreatedAt));
+            stmt.setObject(i++, afterId);
+            stmt.setInt(i, limit);
+            return readDue(stmt);
+        }
+    }
+
+    /**
+     * Canonical images of a session whose results have not been purged.
+     *
+     * @param detailDays Detail retention of the tenant
+     */
+    public List<Candidate> findResultCandidates(UUID sessionId, String tenantId, int detailDays) {
+        return findCandidates("results_purged_at", sessionId, tenantId, detailDays);
+    }
+
+    /**
+     * Canonical images of a session whose originals have not been archived.
+     *
+     * @param originalDays Original retention of the tenant
+     */
+    public List<Candidate> findOriginalCandidates(UUID sessionId, String tenantId, int originalDays) {
+        return findCandidates("archived_at", sessionId, tenantId, originalDays);
+    }
+
+    /**
+     * Count the detail rows of images without changing them.
+     */
+    public DetailUsage measureDetails(List<UUID> imageIds, String tenantId) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            Array ids = connection.createArrayOf("uuid", imageIds.toArray());
+            long[] detections = countDetails(connection, MEASURE_DETAILS.formatted("detections"), ids, tenantId);
+            long[] classifications = countDetails(connection, MEASURE_DETAILS.formatted("classifications"), ids, tenantId);
+            long[] blocks = countDetails(connection, MEASURE_DETAILS.formatted("detection_blocks"), ids, tenantId);
+            return new DetailUsage(detections[0], classifications[0], blocks[0],
+                    detections[1] + classifications[1] + blocks[1]);
+        });
+    }
+
+    /**
+     * Replace the results of images with per-label counts: store the counts
+     * in {@code image_result_labels}, delete the detections, classifications
+     * and detection blocks, and mark the images purged. A purged image is no
+     * longer a deduplication target, so later uploads of its content are
+     * processed again.
+     *
+     * @return What was deleted
+     */
+    public DetailUsage purgeDetails(List<UUID> imageIds, String tenantId) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            Array ids = connection.createArrayOf("uuid", imageIds.toArray());
+
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_ROW_LABEL_COUNTS)) {
+                stmt.setArray(1, ids);
+                stmt.setString(2, tenantId);
+                stmt.setArray(3, ids);
+                stmt.setString(4, tenantId);
+                stmt.executeUpdate();
+            }
+            insertBlockLabelCounts(connection, ids, tenantId);
+
+            // Detections first: they reference classifications
+            long[] detections = countDetails(connection, DELETE_DETAILS.formatted("detections"), ids, tenantId);
+            long[] classifications = countDetails(connection, DELETE_DETAILS.formatted("classifications"), ids, tenantId);
+            long[] blocks = countDetails(connection, DELETE_DETAILS.formatted("detection_blocks"), ids, tenantId);
+
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    UPDATE images
+                    SET results_purged_at = now(), content_sha256 = NULL, updated_at = now()
+                    WHERE id = ANY(?) AND tenant_id = ?
+                    """)) {
+                stmt.setArray(1, ids);
+                stmt.setString(2, tenantId);
+                stmt.executeUpdate();
+            }
+            return new DetailUsage(detections[0], classifications[0], blocks[0],
+                    detections[1] + classifications[1] + blocks[1]);
+        });
+    }
+
+    /**
+     * Point a canonical image and its duplicates stored at {@code storageUrl}
+     * at the archived copy. Found by id and {@code duplicate_of} (both
+     * indexed); {@code storage_url} is not. An archived image is no longer a
+     * deduplication target.
+     *
+     * @param archivedUrl Storage path of the archived copy; {@code storageUrl}
+     *                    itself if the original was missing
+     * @return Number of images updated
+     */
+    public int markArchived(String tenantId, UUID imageId, String storageUrl, String archivedUrl) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    UPDATE images
+                    SET storage_url = ?, archived_at = now(), content_sha256 = NULL, updated_at = now()
+                    WHERE tenant_id = ? AND (id = ? OR duplicate_of = ?) AND storage_url = ?
+                    """)) {
+                stmt.setString(1, archivedUrl);
+                stmt.setString(2, tenantId);
+                stmt.setObject(3, imageId);
+                stmt.setObject(4, imageId);
+                stmt.setString(5, storageUrl);
+                return stmt.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Record the end of a session's retention pass: mark the phases that are
+     * complete, and do not claim it again for {@code recheckSeconds}.
+     */
+    public void finish(UUID sessionId, String tenantId, boolean detailsPurged, boolean originalsArchived,
+                       long recheckSeconds) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    UPDATE photo_processing_sessions
+                    SET details_purged_at = CASE WHEN ? THEN now() ELSE details_purged_at END,
+                        originals_archived_at = CASE WHEN ? THEN now() ELSE originals_archived_at END,
+                        retention_next_at = now() + make_interval(secs => ?)
+                    WHERE id = ? AND tenant_id = ?
+                    """)) {
+                stmt.setBoolean(1, detailsPurged);
+                stmt.setBoolean(2, originalsArchived);
+                stmt.setLong(3, recheckSeconds);
+                stmt.setObject(4, sessionId);
+                stmt.setString(5, tenantId);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    private List<Candidate> findCandidates(String handledColumn, UUID sessionId, String tenantId, int days) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(FIND_CANDIDATES.formatted(handledColumn))) {
+                stmt.setInt(1, days);
+                stmt.setObject(2, sessionId);
+                stmt.setString(3, tenantId);
+                List<Candidate> candidates = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        candidates.add(new Candidate(
+                                rs.getObject("id", UUID.class),
+                                rs.getString("storage_url"),
+                                rs.getBoolean("deferred")));
+                    }
+                }
+                return candidates;
+            }
+        });
+    }
+
+    /**
+     * Count the labels of compact blocks in Java: their codes are varints.
+     */
+    private static void insertBlockLabelCounts(Connection connection, Array ids, String tenantId)
+            throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement("""
+                     SELECT image_id, labels, label_codes, detection_count
+                     FROM detection_blocks
+                     WHERE image_id = ANY(?) AND tenant_id = ?
+                     """);
+             PreparedStatement insert = connection.prepareStatement(INSERT_LABEL_COUNT)) {
+            select.setArray(1, ids);
+            select.setString(2, tenantId);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    UUID imageId = rs.getObject("image_id", UUID.class);
+                    String[] labels = (String[]) rs.getArray("labels").getArray();
+                    long[] counts = DetectionBlockCodec.countLabelCodes(
+                            rs.getBytes("label_codes"), rs.getInt("detection_count"), labels.length);
+                    for (int code = 0; code < labels.length; code++) {
+                        if (counts[code] == 0) {
+                            continue;
+                        }
+                        insert.setString(1, tenantId);
+                        insert.setObject(2, imageId);
+                        insert.setString(3, labels[code]);
+                        insert.setLong(4, counts[code]);
+                        insert.addBatch();
+                    }
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * @return Row count and total row size
+     */
+    private static long[] countDetails(Connection connection, String sql, Array ids, String tenantId)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setArray(1, ids);
+            stmt.setString(2, tenantId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return new long[] {rs.getLong(1), rs.getLong(2)};
+            }
+        }
+    }
+
+    private static int bindDue(PreparedStatement stmt, String tenantId, int defaultDetailDays,
+                               int defaultOriginalDays) throws SQLException {
+        stmt.setInt(1, defaultDetailDays);
+        stmt.setInt(2, defaultOriginalDays);
+        stmt.setString(3, tenantId);
+        stmt.setString(4, tenantId);
+        return 5;
+    }
+
+    private static List<DueSession> readDue(PreparedStatement stmt) throws SQLException {
+        List<DueSession> sessions = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                sessions.add(new DueSession(
+                        rs.getObject("id", UUID.class),
+                        rs.getString("tenant_id"),
+                        rs.getTimestamp("created_at").toInstant(),
+                        rs.getInt("detail_days"),
+                        rs.getInt("original_days"),
+                        rs.getBoolean("details_due"),
+                        rs.getBoolean("originals_due")));
+            }
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,408 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.exception.EntityNotFoundException;
+import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest;
+import com.fortytwo.demeter.fotos.repository.PendingCallbackRepository;
+import com.fortytwo.demeter.fotos.repository.PendingCallbackRepository.NewPendingCallback;
+import com.fortytwo.demeter.fotos.repository.PendingCallbackRepository.PendingCallback;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded in-process queue for ML result callbacks.
+ *
+ * <p>Persisting a callback in the request meant one transaction per image,
+ * all contending on the same session row during a burst. Callbacks are now
+ * accepted into memory and a single worker persists them in micro-batches:
+ * it waits until {@code batch-size} callbacks are queued or
+ * {@code flush-interval-ms} has passed since the first one, groups them by
+ * session and persists each group in one transaction.
+ *
+ * <p><b>Backpressure:</b> when the memory queue is full, callbacks are written
+ * to {@code pending_callbacks} instead (also on shutdown, for callbacks still
+ * queued). When that spill holds {@code spill-capacity} rows too,
+ * {@link #submit} rejects and the caller should answer 429 with
+ * {@link #retryAfterSeconds()}. Spilled callbacks are drained by any
+ * instance once its memory queue is empty.
+ *
+ * <p><b>Failures:</b> if a group fails, its callbacks are retried one by one
+ * so a single bad callback does not hold back the rest. Callbacks that can
+ * never succeed (unknown image, image of another session) are dropped; others
+ * are spilled and retried up to {@code max-attempts} times.
+ *
+ * <p>Disabled with {@code demeter.ml.callback-queue.enabled=false}: callbacks
+ * are then persisted synchronously by the controllers.
+ */
+@ApplicationScoped
+public class CallbackQueue {
+
+    private static final Logger log = Logger.getLogger(CallbackQueue.class);
+    private static final long SHUTDOWN_TIMEOUT_MS = 10_000;
+
+    @Inject
+    ProcessingResultService processingResultService;
+
+    @Inject
+    PendingCallbackRepository pendingCallbackRepository;
+
+    @Inject
+    TenantContext tenantContext;
+
+    @Inject
+    TenantScope tenantScope;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.capacity", defaultValue = "500")
+    int capacity;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.batch-size", defaultValue = "50")
+    int batchSize;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.flush-interval-ms", defaultValue = "200")
+    long flushIntervalMs;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.spill-capacity", defaultValue = "10000")
+    long spillCapacity;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.spill-poll-interval-ms", defaultValue = "5000")
+    long spillPollIntervalMs;
+
+    @ConfigProperty(name = "demeter.ml.callback-queue.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    /**
+     * Outcome of {@link #submit}.
+     */
+    public enum Admission {
+        /** Held in memory, persisted with the next batch. */
+        QUEUED,
+        /** Memory queue full, written to {@code pending_callbacks}. */
+        SPILLED,
+        /** Memory queue and spill full; nothing was stored. */
+        REJECTED
+    }
+
+    /**
+     * A callback waiting to be persisted; {@code spillId} is set if it comes
+     * from {@code pending_callbacks}.
+     */
+    record QueuedCallback(String tenantId, ProcessingResultRequest request, int attempts, Long spillId) {}
+
+    private record GroupKey(String tenantId, UUID sessionId) {}
+
+    private BlockingQueue<QueuedCallback> queue;
+    private volatile boolean running;
+    private long nextSpillPollAt;
+    private Thread workerThread;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            log.info("Callback queue disabled - ML callbacks are persisted synchronously");
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(capacity);
+        running = true;
+        workerThread = Thread.ofVirtual()
+                .name("ml-callback-queue")
+                .start(this::drainLoop);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        running = false;
+        try {
+            workerThread.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<QueuedCallback> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            try {
+                spill(remaining);
+                log.infof("Spilled %d queued ML callbacks on shutdown", remaining.size());
+            } catch (SQLException | RuntimeException e) {
+                log.errorf(e, "Lost %d queued ML callbacks on shutdown", remaining.size());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Accept a callback for the current tenant.
+     *
+     * @param request Validated callback payload
+     * @return Whether the callback was stored, and where
+     */
+    public Admission submit(ProcessingResultRequest request) {
+        QueuedCallback callback = new QueuedCallback(tenantContext.getCurrentTenantId(), request, 0, null);
+
+        if (running && queue.offer(callback)) {
+            return Admission.QUEUED;
+        }
+
+        try {
+            // Approximate bound: concurrent spills may overshoot it slightly
+            if (pendingCallbackRepository.count() >= spillCapacity) {
+                log.warnf("Callback queue full, rejecting callback: session=%s, image=%s",
+                        request.sessionId(), request.imageId());
+                return Admission.REJECTED;
+            }
+            spill(List.of(callback));
+            return Admission.SPILLED;
+        } catch (SQLException e) {
+            log.errorf(e, "Failed to spill callback: session=%s, image=%s", request.sessionId(), request.imageId());
+            return Admission.REJECTED;
+        }
+    }
+
+    /**
+     * Suggested Retry-After for rejected callbacks: about one flush.
+     */
+    public long retryAfterSeconds() {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(flushIntervalMs + 999));
+    }
+
+    /**
+     * Number of callbacks held in memory.
+     */
+    public int size() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                List<QueuedCallback> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    persist(batch);
+                }
+                if (queue.isEmpty() && System.currentTimeMillis() >= nextSpillPollAt) {
+                    drainSpill();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Callback queue worker iteration failed", e);
+            }
+        }
+    }
+
+    /**
+     * Wait up to one flush interval for a first callback, then until the
+     * batch is full or the interval since that first callback has passed.
+     */
+    private List<QueuedCallback> nextBatch() throws InterruptedException {
+        List<QueuedCallback> batch = new ArrayList<>(batchSize);
+        QueuedCallback first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            QueuedCallback next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void persist(List<QueuedCallback> batch) {
+        Map<GroupKey, List<QueuedCallback>> groups = new LinkedHashMap<>();
+        for (QueuedCallback callback : batch) {
+            groups.computeIfAbsent(new GroupKey(callback.tenantId(), callback.request().sessionId()),
+                    key -> new ArrayList<>()).add(callback);
+        }
+
+        long start = System.nanoTime();
+        groups.forEach((key, group) -> persistGroup(key.tenantId(), group));
+        log.debugf("Persisted %d ML callbacks in %d groups in %d ms", batch.size(), groups.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Drain one session's due spilled callbacks, if any.
+     */
+    private void drainSpill() {
+        List<PendingCallback> rows;
+        try {
+            rows = pendingCallbackRepository.findDueGroup(batchSize);
+        } catch (SQLException e) {
+            log.warnf("Failed to read spilled callbacks: %s", e.getMessage());
+            nextSpillPollAt = System.currentTimeMillis() + spillPollIntervalMs;
+            return;
+        }
+
+        if (rows.isEmpty()) {
+            nextSpillPollAt = System.currentTimeMillis() + spillPollIntervalMs;
+            return;
+        }
+        // More may be due: poll again on the next idle iteration
+        nextSpillPollAt = 0;
+
+        List<QueuedCallback> group = new ArrayList<>(rows.size());
+        for (PendingCallback row : rows) {
+            try {
+                ProcessingResultRequest request = objectMapper.readValue(row.payload(), ProcessingResultRequest.class);
+                group.add(new QueuedCallback(row.tenantId(), request, row.attempts(), row.id()));
+            } catch (JsonProcessingException e) {
+                log.errorf("Dropping unreadable spilled callback %d: %s", row.id(), e.getMessage());
+                discard(row.id());
+            }
+        }
+        if (!group.isEmpty()) {
+            persistGroup(rows.getFirst().tenantId(), group);
+        }
+    }
+
+    /**
+     * Persist the callbacks of one session in one transaction, falling back to
+     * one transaction per callback if that fails.
+     */
+    private void persistGroup(String tenantId, List<QueuedCallback> group) {
+        try {
+            tenantScope.run(tenantId, () -> QuarkusTransaction.requiringNew().run(() -> persistInTransaction(group)));
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                handleFailure(group.getFirst(), e);
+                return;
+            }
+            log.warnf("Callback group of session %s failed (%s), retrying callbacks individually",
+                    group.getFirst().request().sessionId(), e.getMessage());
+            for (QueuedCallback callback : group) {
+                persistGroup(tenantId, List.of(callback));
+            }
+        }
+    }
+
+    private void persistInTransaction(List<QueuedCallback> group) {
+        List<Long> spillIds = group.stream()
+                .map(QueuedCallback::spillId)
+                .filter(Objects::nonNull)
+                .toList();
+
+        // Spilled rows another instance is already persisting are skipped
+        Set<Long> locked = spillIds.isEmpty() ? Set.of() : pendingCallbackRepository.lock(spillIds);
+
+        for (QueuedCallback callback : group) {
+            if (callback.spillId() == null || locked.contains(callback.spillId())) {
+                processingResultService.processResults(callback.request());
+            }
+        }
+
+        if (!locked.isEmpty()) {
+            pendingCallbackRepository.delete(locked);
+        }
+    }
+
+    private void handleFailure(QueuedCallback callback, RuntimeException e) {
+        ProcessingResultRequest request = callback.request();
+
+        if (isPermanent(e)) {
+            log.warnf("Dropping ML callback: session=%s, image=%s: %s",
+                    request.sessionId(), request.imageId(), e.getMessage());
+            if (callback.spillId() != null) {
+                discard(callback.spillId());
+            }
+            return;
+        }
+
+        int attempts = callback.attempts() + 1;
+        if (attempts >= maxAttempts) {
+            log.errorf(e, "Dropping ML callback after %d attempts: session=%s, image=%s",
+                    attempts, request.sessionId(), request.imageId());
+            if (callback.spillId() != null) {
+                discard(callback.spillId());
+            }
+            return;
+        }
+
+        log.warnf("ML callback failed (attempt %d of %d), will retry: session=%s, image=%s: %s",
+                attempts, maxAttempts, request.sessionId(), request.imageId(), e.getMessage());
+        try {
+            if (callback.spillId() != null) {
+                pendingCallbackRepository.recordFailure(callback.spillId(), attempts * spillPollIntervalMs);
+            } else {
+                spill(List.of(new QueuedCallback(callback.tenantId(), request, attempts, null)));
+            }
+        } catch (SQLException | RuntimeException spillError) {
+            log.errorf(spillError, "Lost ML callback: session=%s, image=%s", request.sessionId(), request.imageId());
+        }
+    }
+
+    private static boolean isPermanent(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EntityNotFoundException || cause instanceof IllegalArgumentException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void spill(List<QueuedCallback> callbacks) throws SQLException {
+        List<NewPendingCallback> rows = new ArrayList<>(callbacks.size());
+        for (QueuedCallback callback : callbacks) {
+            ProcessingResultRequest request = callback.request();
+            try {
+                rows.add(new NewPendingCallback(callback.tenantId(), request.sessionId(), request.imageId(),
+                        objectMapper.writeValueAsString(request), callback.attempts()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to serialize callback for image " + request.imageId(), e);
+            }
+        }
+        pendingCallbackRepository.insert(rows);
+    }
+
+    private void discard(long spillId) {
+        try {
+            pendingCallbackRepository.discard(spillId);
+        } catch (SQLException e) {
+            log.warnf("Failed to delete spilled callback %d: %s", spillId, e.getMessage());
+        }
+    }
+}
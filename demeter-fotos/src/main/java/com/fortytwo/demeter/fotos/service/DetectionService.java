@@ -100,7 +100,13 @@ public class DetectionService {
 
         detection.setLabel(label);
         detection.setConfidence(confidence);
-        detection.setBoundingBox(boundingBox);
+        if (boundingBox != null) {
+            detection.setBoundingBox(
+                    coordinate(boundingBox, "x1"),
+                    coordinate(boundingBox, "y1"),
+                    coordinate(boundingBox, "x2"),
+                    coordinate(boundingBox, "y2"));
+        }
         detection.setCenterXPx(centerXPx);
         detection.setCenterYPx(centerYPx);
         detection.setWidthPx(widthPx);
@@ -131,4 +137,11 @@ public class DetectionService {
                 .orElseThrow(() -> new EntityNotFoundException("Detection", id));
         detectionRepository.delete(detection);
     }
+
+    private static double coordinate(Map<String, Object> boundingBox, String key) {
+        if (!(boundingBox.get(key) instanceof Number value)) {
+            throw new IllegalArgumentException("Bounding box " + key + " must be a number");
+        }
+        return value.doubleValue();
+    }
 }
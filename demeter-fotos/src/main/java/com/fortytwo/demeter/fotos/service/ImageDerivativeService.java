@@ -0,0 +1,259 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import com.fortytwo.demeter.fotos.model.Image;
+import com.fortytwo.demeter.fotos.service.ImageDerivatives.Derivatives;
+import com.fortytwo.demeter.fotos.service.ImageDerivatives.UndecodableImageException;
+import com.fortytwo.demeter.fotos.repository.ImageRepository;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import com.fortytwo.demeter.fotos.storage.StoredObject;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Creates the thumbnail and preview of uploaded images (see {@link ImageDerivatives}).
+ *
+ * <p>Uploads request derivatives once their images are committed; galleries
+ * and the map history request them for images that still have none, so
+ * images uploaded before this existed, or dropped while the queue was full,
+ * get them on first view. Requests go to a bounded in-memory queue
+ * ({@code queue-capacity}, excess is dropped until the next request) and are
+ * processed on virtual threads, at most {@code concurrency} at a time since
+ * each decode holds a raster of up to twice the preview size. An image
+ * already queued or in progress is not queued again.
+ *
+ * <p>Derivatives are stored at deterministic paths,
+ * {@code sessions/{sessionId}/derivatives/{imageId}/thumb.jpg} and
+ * {@code preview.jpg}, so two instances generating the same image write the
+ * same objects. Originals are decoded as they stream from storage. An
+ * original that is missing or cannot be decoded is recorded in
+ * {@code images.derivatives_error} and not tried again; storage errors,
+ * including one while the original streams, are only logged and retried on
+ * the next request.
+ */
+@ApplicationScoped
+public class ImageDerivativeService {
+
+    private static final Logger log = Logger.getLogger(ImageDerivativeService.class);
+    private static final int MAX_ERROR_LENGTH = 2000;
+    private static final String CONTENT_TYPE = "image/jpeg";
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    ImageRepository imageRepository;
+
+    @Inject
+    TenantScope tenantScope;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.concurrency", defaultValue = "2")
+    int concurrency;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.queue-capacity", defaultValue = "1000")
+    int queueCapacity;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.thumbnail-size", defaultValue = "320")
+    int thumbnailSize;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.thumbnail-quality", defaultValue = "0.75")
+    float thumbnailQuality;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.preview-size", defaultValue = "1280")
+    int previewSize;
+
+    @ConfigProperty(name = "demeter.storage.derivatives.preview-quality", defaultValue = "0.82")
+    float previewQuality;
+
+    private record Job(String tenantId, UUID imageId) {}
+
+    private record Source(UUID sessionId, String storageUrl) {}
+
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private BlockingQueue<Job> queue;
+    private Semaphore slots;
+    private volatile boolean running;
+    private Thread dispatcherThread;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            log.info("Image derivatives disabled - galleries serve originals only");
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        slots = new Semaphore(concurrency);
+        running = true;
+        dispatcherThread = Thread.ofVirtual()
+                .name("image-derivatives")
+                .start(this::dispatchLoop);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        if (dispatcherThread != null) {
+            dispatcherThread.interrupt();
+        }
+    }
+
+    /**
+     * Request derivatives once the current transaction commits (immediately
+     * if there is none).
+     */
+    public void requestAfterCommit(String tenantId, Collection<UUID> imageIds) {
+        if (!running || imageIds.isEmpty()) {
+            return;
+        }
+        if (transactionRegistry.getTransactionKey() == null) {
+            request(tenantId, imageIds);
+            return;
+        }
+
+        List<UUID> ids = List.copyOf(imageIds);
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    request(tenantId, ids);
+                }
+            }
+        });
+    }
+
+    /**
+     * Request derivatives of committed images. Never blocks: images that do
+     * not fit in the queue are skipped and picked up by a later request.
+     */
+    public void request(String tenantId, Collection<UUID> imageIds) {
+        if (!running) {
+            return;
+        }
+        int dropped = 0;
+        for (UUID imageId : imageIds) {
+            if (!pending.add(imageId)) {
+                continue;
+            }
+            if (!queue.offer(new Job(tenantId, imageId))) {
+                pending.remove(imageId);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.debugf("Derivative queue full, %d images left for a later request", dropped);
+        }
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                Job job = queue.take();
+                slots.acquire();
+                Thread.ofVirtual()
+                        .name("image-derivatives-" + job.imageId())
+                        .start(() -> {
+                            try {
+                                tenantScope.run(job.tenantId(), () -> generate(job.imageId()));
+                            } catch (RuntimeException e) {
+                                log.warnf("Derivatives of image %s failed, retried on next request: %s",
+                                        job.imageId(), e.getMessage());
+                            } finally {
+                                pending.remove(job.imageId());
+                                slots.release();
+                            }
+                        });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void generate(UUID imageId) {
+        Source source = QuarkusTransaction.requiringNew().call(() -> imageRepository.findByIdOptional(imageId)
+                .filter(Image::needsDerivatives)
+                .map(image -> new Source(image.getSession().getId(), image.getStorageUrl()))
+                .orElse(null));
+        if (source == null) {
+            return;
+        }
+
+        // Storage errors propagate and are retried on the next request
+        Optional<StoredObject> opened = storageService.openRead(source.storageUrl());
+        if (opened.isEmpty()) {
+            recordError(imageId, "Original not found: " + source.storageUrl());
+            return;
+        }
+
+        // Decoded straight from the storage stream, without a copy of the original in memory
+        Derivatives derivatives;
+        try (StoredObject original = opened.get()) {
+            derivatives = ImageDerivatives.create(original.inputStream(),
+                    thumbnailSize, thumbnailQuality, previewSize, previewQuality);
+        } catch (UndecodableImageException e) {
+            recordError(imageId, "Unreadable original: " + e.getMessage());
+            return;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Original could not be read: " + source.storageUrl(), e);
+        }
+
+        String prefix = "sessions/" + source.sessionId() + "/derivatives/" + imageId + "/";
+        String thumbnailPath = storageService.upload(derivatives.thumbnail().data(), prefix + "thumb.jpg", CONTENT_TYPE);
+        String previewPath = storageService.upload(derivatives.preview().data(), prefix + "preview.jpg", CONTENT_TYPE);
+
+        QuarkusTransaction.requiringNew().run(() -> imageRepository.findByIdOptional(imageId).ifPresent(image -> {
+            image.setWidth(derivatives.width());
+            image.setHeight(derivatives.height());
+            // A thumbnail supplied with the image is kept
+            if (image.getThumbnailUrl() == null) {
+                image.setThumbnailUrl(thumbnailPath);
+                image.setThumbnailWidth(derivatives.thumbnail().width());
+                image.setThumbnailHeight(derivatives.thumbnail().height());
+            }
+            image.setPreviewUrl(previewPath);
+            image.setPreviewWidth(derivatives.preview().width());
+            image.setPreviewHeight(derivatives.preview().height());
+        }));
+
+        log.debugf("Created derivatives of image %s (%dx%d): thumbnail %d bytes, preview %d bytes",
+                imageId, derivatives.width(), derivatives.height(),
+                derivatives.thumbnail().data().length, derivatives.preview().data().length);
+    }
+
+    private void recordError(UUID imageId, String error) {
+        log.warnf("No derivatives for image %s: %s", imageId, error);
+        String truncated = error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+        QuarkusTransaction.requiringNew().run(() -> imageRepository.findByIdOptional(imageId)
+                .ifPresent(image -> image.setDerivativesError(truncated)));
+    }
+}
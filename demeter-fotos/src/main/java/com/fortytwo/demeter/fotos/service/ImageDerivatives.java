@@ -0,0 +1,362 @@
+package com.fortytwo.demeter.fotos.service;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Downscaled JPEG copies of a photo (thumbnail and preview), with the JDK's
+ * ImageIO only.
+ *
+ * <p>The original is decoded with source subsampling, at no less than twice
+ * the preview size, so a 12 MP photo never needs a full-resolution raster.
+ * It is then halved with bilinear filtering until within a factor of two of
+ * the target, and scaled once more; the thumbnail is made from the preview.
+ * Images are never upscaled. The EXIF orientation of a JPEG is applied
+ * before scaling, so derivatives and dimensions are as the photo is viewed.
+ *
+ * <p>Failures are told apart for the caller: data that cannot be decoded
+ * throws {@link UndecodableImageException}, which will not change on a
+ * retry; an error reading the original stream is thrown as it is.
+ */
+public final class ImageDerivatives {
+
+    private static final int ORIENTATION_TAG = 0x0112;
+    private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+
+    private ImageDerivatives() {}
+
+    /**
+     * The original was read completely but is not an image ImageIO can decode.
+     */
+    public static final class UndecodableImageException extends IOException {
+        public UndecodableImageException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * One encoded derivative.
+     */
+    public record Derivative(byte[] data, int width, int height) {}
+
+    /**
+     * Derivatives of one original, and the original's dimensions.
+     */
+    public record Derivatives(int width, int height, Derivative thumbnail, Derivative preview) {}
+
+    /**
+     * Create a thumbnail and a preview.
+     *
+     * @param original         Encoded original (any format ImageIO reads: JPEG, PNG, BMP, GIF)
+     * @param thumbnailSize    Longest edge of the thumbnail, in pixels
+     * @param thumbnailQuality JPEG quality of the thumbnail (0-1)
+     * @param previewSize      Longest edge of the preview, in pixels
+     * @param previewQuality   JPEG quality of the preview (0-1)
+     * @throws UndecodableImageException if the original cannot be decoded
+     * @throws IOException                if reading the original fails
+     */
+    public static Derivatives create(InputStream original,
+                                     int thumbnailSize, float thumbnailQuality,
+                                     int previewSize, float previewQuality) throws IOException {
+        SourceStream source = new SourceStream(original);
+        Derivatives derivatives;
+        try {
+            derivatives = decode(source, thumbnailSize, thumbnailQuality, previewSize, previewQuality);
+        } catch (IOException | RuntimeException e) {
+            if (source.failure != null) {
+                throw source.failure;
+            }
+            throw new UndecodableImageException(e.getMessage() != null ? e.getMessage() : e.toString(), e);
+        }
+        // A reader may take a failed read for the end of a truncated image
+        if (source.failure != null) {
+            throw source.failure;
+        }
+        return derivatives;
+    }
+
+    private static Derivatives decode(InputStream original,
+                                      int thumbnailSize, float thumbnailQuality,
+                                      int previewSize, float previewQuality) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(original)) {
+            int orientation = readOrientation(input);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IIOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (previewSize * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = orient(toRgb(reader.read(0, param)), orientation);
+                if (orientation >= 5) {
+                    int swap = width;
+                    width = height;
+                    height = swap;
+                }
+
+                BufferedImage preview = scale(decoded, previewSize);
+                BufferedImage thumbnail = scale(preview, thumbnailSize);
+                return new Derivatives(width, height,
+                        encode(thumbnail, thumbnailQuality),
+                        encode(preview, previewQuality));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * EXIF orientation (1-8) of a JPEG, from the APP1 segments before its
+     * image data; 1 for other formats or without one. The stream is left at
+     * its start.
+     */
+    static int readOrientation(ImageInputStream input) throws IOException {
+        input.mark();
+        try {
+            if (input.read() != 0xFF || input.read() != 0xD8) {
+                return 1;
+            }
+            while (true) {
+                if (input.read() != 0xFF) {
+                    return 1;
+                }
+                int marker = input.read();
+                while (marker == 0xFF) {
+                    marker = input.read();
+                }
+                // Start of scan or end of image: no EXIF before the image data
+                if (marker < 0 || marker == 0xDA || marker == 0xD9) {
+                    return 1;
+                }
+                int length = input.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return 1;
+                }
+                if (marker == 0xE1) {
+                    byte[] segment = new byte[length];
+                    input.readFully(segment);
+                    int orientation = exifOrientation(segment);
+                    if (orientation != 0) {
+                        return orientation;
+                    }
+                } else if (input.skipBytes(length) < length) {
+                    return 1;
+                }
+            }
+        } catch (EOFException e) {
+            // Truncated headers are left to the decoder
+            return 1;
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * Orientation tag of IFD0 of an APP1 segment: 0 if the segment is not
+     * EXIF, 1 if it has no valid orientation.
+     */
+    private static int exifOrientation(byte[] segment) {
+        if (segment.length < EXIF_HEADER.length + 8
+                || !Arrays.equals(segment, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length)) {
+            return 0;
+        }
+        int tiff = EXIF_HEADER.length;
+        boolean littleEndian = segment[tiff] == 'I' && segment[tiff + 1] == 'I';
+        if (!littleEndian && !(segment[tiff] == 'M' && segment[tiff + 1] == 'M')) {
+            return 1;
+        }
+        long ifd = tiff + readInt(segment, tiff + 4, littleEndian);
+        if (ifd + 2 > segment.length) {
+            return 1;
+        }
+        int entries = readShort(segment, (int) ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > segment.length) {
+                return 1;
+            }
+            if (readShort(segment, entry, littleEndian) == ORIENTATION_TAG) {
+                int orientation = readShort(segment, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? b0 | b1 << 8 : b0 << 8 | b1;
+    }
+
+    private static long readInt(byte[] data, int offset, boolean littleEndian) {
+        long high = readShort(data, offset + (littleEndian ? 2 : 0), littleEndian);
+        long low = readShort(data, offset + (littleEndian ? 0 : 2), littleEndian);
+        return high << 16 | low;
+    }
+
+    /**
+     * Turn a decoded image as its EXIF orientation says it is viewed.
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);   // mirrored
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);  // 180
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);   // mirrored vertically
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);    // transposed
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);   // 90 clockwise
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);  // transversed
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, w);   // 90 counter-clockwise
+            default -> null;
+        };
+        if (transform == null) {
+            return image;
+        }
+        boolean swapped = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapped ? h : w, swapped ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = oriented.createGraphics();
+        try {
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return oriented;
+    }
+
+    /**
+     * Scale so the longest edge is at most {@code size}, keeping the aspect ratio.
+     */
+    static BufferedImage scale(BufferedImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double factor = (double) size / Math.max(width, height);
+        if (factor >= 1) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) Math.round(width * factor));
+        int targetHeight = Math.max(1, (int) Math.round(height * factor));
+
+        // Single bilinear steps of more than 2x skip source pixels and alias
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = resize(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return current.getWidth() == targetWidth && current.getHeight() == targetHeight
+                ? current
+                : resize(current, targetWidth, targetHeight);
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return resized;
+    }
+
+    /**
+     * JPEG has no alpha and ImageIO writes custom or indexed rasters badly.
+     */
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    private static Derivative encode(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return new Derivative(bytes.toByteArray(), image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Remembers the first error of the original stream, to tell it from a
+     * decoding error the reader reports in its place.
+     */
+    private static final class SourceStream extends FilterInputStream {
+
+        private IOException failure;
+
+        SourceStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failure = failure != null ? failure : e;
+                throw e;
+            } catch (RuntimeException e) {
+                failure = failure != null ? failure : new IOException(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failure = failure != null ? failure : e;
+                throw e;
+            } catch (RuntimeException e) {
+                failure = failure != null ? failure : new IOException(e);
+                throw e;
+            }
+        }
+    }
+}
@@ -1,37 +1,64 @@
 package com.fortytwo.demeter.fotos.service;
 
-import com.fortytwo.demeter.common.cloudtasks.CloudTasksService;
 import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
 import com.fortytwo.demeter.common.exception.EntityNotFoundException;
+import com.fortytwo.demeter.common.taskqueue.TaskQueue;
 import com.fortytwo.demeter.common.tenant.TenantContext;
 import com.fortytwo.demeter.fotos.dto.ClassificationDTO;
 import com.fortytwo.demeter.fotos.dto.CreateImageRequest;
 import com.fortytwo.demeter.fotos.dto.DetectionDTO;
+import com.fortytwo.demeter.fotos.dto.GalleryImageDTO;
 import com.fortytwo.demeter.fotos.dto.ImageDTO;
 import com.fortytwo.demeter.fotos.dto.ImageWithUrlsDTO;
+import com.fortytwo.demeter.fotos.dto.ResultsSummaryDTO;
+import com.fortytwo.demeter.fotos.event.SessionCompletedEvent;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec.CompactDetection;
 import com.fortytwo.demeter.fotos.model.Image;
 import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
+import com.fortytwo.demeter.fotos.model.ProcessingStatus;
 import com.fortytwo.demeter.fotos.repository.ClassificationRepository;
+import com.fortytwo.demeter.fotos.repository.DetectionBlockRepository;
+import com.fortytwo.demeter.fotos.repository.DetectionBlockRepository.StoredBlock;
 import com.fortytwo.demeter.fotos.repository.DetectionRepository;
 import com.fortytwo.demeter.fotos.repository.ImageRepository;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.ContentMatch;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.DuplicateImage;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.LabelCount;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.NewImage;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.ResultsSummary;
 import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository;
 import com.fortytwo.demeter.fotos.storage.StorageService;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class ImageService {
 
     private static final Logger log = Logger.getLogger(ImageService.class);
 
+    /** Most frequent labels listed per image in results summaries. */
+    private static final int TOP_LABELS = 3;
+
     @Inject
     ImageRepository imageRepository;
 
@@ -41,11 +68,14 @@ public class ImageService {
     @Inject
     DetectionRepository detectionRepository;
 
+    @Inject
+    DetectionBlockRepository detectionBlockRepository;
+
     @Inject
     ClassificationRepository classificationRepository;
 
     @Inject
-    CloudTasksService cloudTasksService;
+    TaskQueue taskQueue;
 
     @Inject
     TenantContext tenantContext;
@@ -53,9 +83,31 @@ public class ImageService {
     @Inject
     StorageService storageService;
 
+    @Inject
+    ImageDerivativeService imageDerivativeService;
+
+    @Inject
+    Event<SessionCompletedEvent> sessionCompletedEvent;
+
     @ConfigProperty(name = "demeter.storage.url-expiration-minutes", defaultValue = "60")
     int urlExpirationMinutes;
 
+    /**
+     * Image streamed to storage by {@link #uploadAndStoreImage(UUID, InputStream, long, String, String)}.
+     *
+     * @param contentSha256 SHA-256 of the bytes stored
+     */
+    public record StoredImage(String storagePath, byte[] contentSha256) {}
+
+    /**
+     * Outcome of {@link #registerUploadedSession}.
+     *
+     * @param unique     Images stored with their own object, to be sent to ML
+     * @param duplicates Images linked to an earlier image with the same content;
+     *                   their own uploaded objects are no longer referenced
+     */
+    public record Registration(List<NewImage> unique, List<NewImage> duplicates) {}
+
     @Transactional
     public ImageDTO addImage(UUID sessionId, CreateImageRequest request) {
         return addImage(sessionId, request, "DETECTION");
@@ -81,15 +133,16 @@ public class ImageService {
 
         // Dispatch ML processing task
         dispatchProcessingTask(session, image, pipeline);
+        imageDerivativeService.requestAfterCommit(tenantContext.getCurrentTenantId(), List.of(image.getId()));
 
         return ImageDTO.from(image);
     }
 
     /**
-     * Dispatch an ML processing task via Cloud Tasks.
+     * Dispatch an ML processing task via the {@link TaskQueue}.
      *
-     * <p>Creates a Cloud Task that will invoke the ML Worker to process
-     * the image. The task includes tenant isolation via tenant_id.
+     * <p>Queues a task that will invoke the ML Worker to process the image,
+     * in the current transaction. The task includes tenant isolation via tenant_id.
      */
     private void dispatchProcessingTask(PhotoProcessingSession session, Image image, String pipeline) {
         String tenantId = tenantContext.getCurrentTenantId();
@@ -102,7 +155,7 @@ public class ImageService {
                 pipeline
         );
 
-        String taskName = cloudTasksService.createProcessingTask(taskRequest);
+        String taskName = taskQueue.enqueue(taskRequest);
 
         if (taskName != null) {
             log.infof("Dispatched ML processing task: %s for image %s", taskName, image.getId());
@@ -123,16 +176,20 @@ public class ImageService {
     }
 
     public List<DetectionDTO> findDetectionsByImageId(UUID imageId) {
-        imageRepository.findByIdOptional(imageId)
-                .orElseThrow(() -> new EntityNotFoundException("Image", imageId));
-        return detectionRepository.findByImageId(imageId)
-                .stream().map(DetectionDTO::from).toList();
+        UUID resultsImageId = imageRepository.findByIdOptional(imageId)
+                .orElseThrow(() -> new EntityNotFoundException("Image", imageId))
+                .getResultsImageId();
+        return detectionBlockRepository.findByImageId(resultsImageId, tenantContext.getCurrentTenantId())
+                .map(ImageService::decodeDetections)
+                .orElseGet(() -> detectionRepository.findByImageId(resultsImageId)
+                        .stream().map(DetectionDTO::from).toList());
     }
 
     public List<ClassificationDTO> findClassificationsByImageId(UUID imageId) {
-        imageRepository.findByIdOptional(imageId)
-                .orElseThrow(() -> new EntityNotFoundException("Image", imageId));
-        return classificationRepository.findByImageId(imageId)
+        UUID resultsImageId = imageRepository.findByIdOptional(imageId)
+                .orElseThrow(() -> new EntityNotFoundException("Image", imageId))
+                .getResultsImageId();
+        return classificationRepository.findByImageId(resultsImageId)
                 .stream().map(ClassificationDTO::from).toList();
     }
 
@@ -141,21 +198,69 @@ public class ImageService {
     // =========================================================================
 
     /**
-     * Get all images for a session with signed URLs.
+     * Get all images for a session with signed URLs and their full results.
+     *
+     * <p>Detections and classifications are loaded per image; galleries that
+     * only show counts should use {@link #getSessionGallery}.
      *
      * @param sessionId Session ID
-     * @return List of images with signed URLs and detections
+     * @return List of images with signed URLs, detections and classifications
      */
     public List<ImageWithUrlsDTO> getSessionImagesWithUrls(UUID sessionId) {
-        sessionRepository.findByIdOptional(sessionId)
-                .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", sessionId));
+        List<Image> images = findSessionImages(sessionId);
+        if (images.isEmpty()) {
+            return List.of();
+        }
+        Map<String, String> urls = signImages(sessionId, images);
 
-        List<Image> images = imageRepository.findBySessionId(sessionId);
+        Map<UUID, StoredBlock> blocks = new HashMap<>(
+                detectionBlockRepository.findBySessionId(sessionId, tenantContext.getCurrentTenantId()));
 
-        log.infof("Converting %d images for session %s with signed URLs", images.size(), sessionId);
+        // Duplicates show the results of their canonical image, which may be in another session
+        Map<UUID, Image> canonicals = new HashMap<>();
+        List<UUID> canonicalIds = images.stream()
+                .map(Image::getDuplicateOf)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (!canonicalIds.isEmpty()) {
+            imageRepository.list("id in ?1", canonicalIds).forEach(image -> canonicals.put(image.getId(), image));
+            blocks.putAll(detectionBlockRepository.findByImageIds(canonicalIds, tenantContext.getCurrentTenantId()));
+        }
 
         return images.stream()
-                .map(this::toImageWithUrls)
+                .map(image -> withResults(image, canonicals.getOrDefault(image.getResultsImageId(), image),
+                        urls, blocks.get(image.getResultsImageId())))
+                .toList();
+    }
+
+    /**
+     * Get the session gallery: every image with signed URLs and a summary of
+     * its results.
+     *
+     * <p>Built from one image query and one aggregate query over the results
+     * ({@link ImageRepository#summarizeSessionResults}), whatever the number
+     * of images: each image carries counts and top labels of its detections
+     * and classifications instead of the detections themselves. URLs are
+     * signed in one cached, parallel batch.
+     *
+     * @param sessionId Session ID
+     * @return List of images with signed URLs and results summaries
+     */
+    public List<GalleryImageDTO> getSessionGallery(UUID sessionId) {
+        List<Image> images = findSessionImages(sessionId);
+        if (images.isEmpty()) {
+            return List.of();
+        }
+        Map<String, String> urls = signImages(sessionId, images);
+
+        // Duplicates show the results of their canonical image, which may be in another session
+        Map<UUID, ResultsSummary> summaries = imageRepository.summarizeSessionResults(
+                sessionId, tenantContext.getCurrentTenantId(), TOP_LABELS);
+
+        return images.stream()
+                .map(image -> GalleryImageDTO.from(withUrls(image, urls).build(), ResultsSummaryDTO.from(
+                        summaries.getOrDefault(image.getResultsImageId(), ResultsSummary.EMPTY))))
                 .toList();
     }
 
@@ -168,7 +273,16 @@ public class ImageService {
     public ImageWithUrlsDTO getImageWithUrl(UUID imageId) {
         Image image = imageRepository.findByIdOptional(imageId)
                 .orElseThrow(() -> new EntityNotFoundException("Image", imageId));
-        return toImageWithUrls(image);
+        if (image.needsDerivatives()) {
+            imageDerivativeService.request(tenantContext.getCurrentTenantId(), List.of(imageId));
+        }
+        Image results = image.getDuplicateOf() != null
+                ? imageRepository.findByIdOptional(image.getDuplicateOf()).orElse(image)
+                : image;
+        StoredBlock block = detectionBlockRepository
+                .findByImageId(results.getId(), tenantContext.getCurrentTenantId())
+                .orElse(null);
+        return withResults(image, results, null, block);
     }
 
     /**
@@ -180,7 +294,6 @@ public class ImageService {
      * @param contentType MIME type
      * @return Storage path that was used
      */
-    @Transactional
     public String uploadAndStoreImage(UUID sessionId, byte[] data, String filename, String contentType) {
         // Generate storage path
         String storagePath = generateStoragePath(sessionId, filename);
@@ -195,42 +308,222 @@ public class ImageService {
     }
 
     /**
-     * Convert Image entity to DTO with signed URLs.
+     * Stream an image to storage without holding it in memory, hashing it
+     * (SHA-256) on the way.
+     *
+     * @param sessionId   Session to attach the image to
+     * @param data        Image stream (not closed here)
+     * @param size        Image size in bytes
+     * @param filename    Original filename
+     * @param contentType MIME type
+     * @return Storage path that was used and the content hash
+     */
+    public StoredImage uploadAndStoreImage(UUID sessionId, InputStream data, long size,
+                                           String filename, String contentType) {
+        String storagePath = generateStoragePath(sessionId, filename);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        String actualPath = storageService.upload(new DigestInputStream(data, digest), size, storagePath, contentType);
+        byte[] contentSha256 = digest.digest();
+
+        log.infof("Streamed image to storage: %s (%d bytes, sha256=%s, provider=%s)",
+                actualPath, size, HexFormat.of().formatHex(contentSha256), storageService.getProviderName());
+
+        return new StoredImage(actualPath, contentSha256);
+    }
+
+    /**
+     * Record an already uploaded session in one short transaction: the session
+     * row plus JDBC batches of image rows, created directly as PROCESSING.
+     *
+     * <p>An image whose content the tenant already uploaded (or that repeats
+     * an earlier image of this session) is registered as a duplicate: it
+     * shares the canonical image's storage object and ML results, counts as
+     * processed right away if those results are stored, and is otherwise
+     * completed together with the canonical image. A session made only of
+     * processed duplicates is completed here. A canonical image that was
+     * abandoned (its session failed or its task was dead-lettered) is no
+     * match: the new image is processed and replaces it as canonical, also
+     * for the duplicates still waiting for it.
+     *
+     * @param sessionId Pre-assigned session id (used in the storage paths)
+     * @param images    Uploaded images with pre-assigned ids
+     * @return Which images still need ML processing
+     */
+    @Transactional
+    public Registration registerUploadedSession(UUID sessionId, List<NewImage> images) {
+        String tenantId = tenantContext.getCurrentTenantId();
+        List<byte[]> hashes = images.stream()
+                .map(NewImage::contentSha256)
+                .filter(Objects::nonNull)
+                .toList();
+        imageRepository.lockContentHashes(tenantId, hashes);
+        Map<String, ContentMatch> existing = imageRepository.findCanonicals(tenantId, hashes);
+        Map<UUID, UUID> replacements = new HashMap<>();
+
+        HexFormat hex = HexFormat.of();
+        Map<String, UUID> canonicalInSession = new HashMap<>();
+        List<NewImage> unique = new ArrayList<>();
+        List<DuplicateImage> duplicates = new ArrayList<>();
+        int processed = 0;
+        for (NewImage image : images) {
+            if (image.contentSha256() == null) {
+                unique.add(image);
+                continue;
+            }
+            String key = hex.formatHex(image.contentSha256());
+            ContentMatch match = existing.get(key);
+            if (match != null && match.abandoned()) {
+                // Later images of this content in the session are duplicates of this one
+                replacements.putIfAbsent(match.imageId(), image.id());
+                match = null;
+            }
+            UUID canonical = match != null ? match.imageId() : canonicalInSession.get(key);
+            if (canonical == null) {
+                canonicalInSession.put(key, image.id());
+                unique.add(image);
+                continue;
+            }
+            duplicates.add(new DuplicateImage(image, canonical));
+            if (match != null && match.processed()) {
+                processed++;
+            }
+        }
+
+        boolean completed = !images.isEmpty() && processed == images.size();
+        imageRepository.releaseContent(replacements.keySet(), tenantId);
+        imageRepository.insertSessionWithImages(sessionId, tenantId,
+                completed ? ProcessingStatus.COMPLETED : ProcessingStatus.PROCESSING,
+                unique, duplicates, processed);
+        imageRepository.repointDuplicates(replacements, tenantId);
+        if (completed) {
+            sessionCompletedEvent.fire(new SessionCompletedEvent(sessionId, tenantId, images.size()));
+        }
+
+        log.infof("Registered session %s with %d uploaded images (%d duplicates, %d already processed, "
+                        + "%d replacing abandoned images)",
+                sessionId, images.size(), duplicates.size(), processed, replacements.size());
+        return new Registration(unique, duplicates.stream().map(DuplicateImage::image).toList());
+    }
+
+    /**
+     * The session's images; an empty list for an existing session without
+     * images, which only then needs to be told from a missing one.
      */
-    private ImageWithUrlsDTO toImageWithUrls(Image image) {
+    private List<Image> findSessionImages(UUID sessionId) {
+        List<Image> images = imageRepository.findBySessionId(sessionId);
+        if (images.isEmpty()) {
+            sessionRepository.findByIdOptional(sessionId)
+                    .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", sessionId));
+        }
+        return images;
+    }
+
+    /**
+     * Sign every image, thumbnail and preview in one batch (cached + parallel),
+     * and request the derivatives that are missing.
+     *
+     * @return Signed URLs by storage path
+     */
+    private Map<String, String> signImages(UUID sessionId, List<Image> images) {
+        log.infof("Converting %d images for session %s with signed URLs", images.size(), sessionId);
+
+        List<String> storagePaths = new ArrayList<>();
+        List<UUID> missingDerivatives = new ArrayList<>();
+        for (Image image : images) {
+            if (hasText(image.getStorageUrl())) {
+                storagePaths.add(image.getStorageUrl());
+            }
+            if (hasText(image.getThumbnailUrl())) {
+                storagePaths.add(image.getThumbnailUrl());
+            }
+            if (hasText(image.getPreviewUrl())) {
+                storagePaths.add(image.getPreviewUrl());
+            }
+            if (image.needsDerivatives()) {
+                missingDerivatives.add(image.getId());
+            }
+        }
+        Map<String, String> urls = storagePaths.isEmpty()
+                ? Map.of()
+                : storageService.generateReadUrlsBatch(storagePaths, Duration.ofMinutes(urlExpirationMinutes));
+
+        // Uploaded before derivatives existed, or dropped from a full queue
+        if (!missingDerivatives.isEmpty()) {
+            imageDerivativeService.request(tenantContext.getCurrentTenantId(), missingDerivatives);
+        }
+        return urls;
+    }
+
+    /**
+     * Convert Image entity to DTO with signed URLs and the full results.
+     *
+     * @param results    Image whose ML results are shown (the canonical image of a duplicate)
+     * @param signedUrls Pre-signed URLs by storage path, or null to sign here
+     * @param block      Compact detections of {@code results}, or null if stored as rows
+     */
+    private ImageWithUrlsDTO withResults(Image image, Image results, Map<String, String> signedUrls,
+                                         StoredBlock block) {
+        // Convert detections
+        List<DetectionDTO> detections;
+        if (block != null) {
+            detections = decodeDetections(block);
+        } else if (results.getDetections() != null) {
+            detections = results.getDetections().stream().map(DetectionDTO::from).toList();
+        } else {
+            detections = List.of();
+        }
+
+        // Convert classifications
+        List<ClassificationDTO> classifications = results.getClassifications() != null
+                ? results.getClassifications().stream().map(ClassificationDTO::from).toList()
+                : List.of();
+
+        // Details purged by retention leave only the label counts
+        ResultsSummaryDTO summary = results.getResultsPurgedAt() != null
+                ? ResultsSummaryDTO.from(imageRepository.summarizePurgedResults(
+                        results.getId(), tenantContext.getCurrentTenantId(), TOP_LABELS))
+                : summarize(detections, classifications);
+
+        return withUrls(image, signedUrls)
+                .detections(detections)
+                .classifications(classifications)
+                .results(summary)
+                .build();
+    }
+
+    /**
+     * Convert Image entity to a DTO builder with signed URLs, without results.
+     *
+     * @param signedUrls Pre-signed URLs by storage path, or null to sign here
+     */
+    private ImageWithUrlsDTO.Builder withUrls(Image image, Map<String, String> signedUrls) {
         Duration expiration = Duration.ofMinutes(urlExpirationMinutes);
 
         // Generate signed URL for the image
         String imageUrl = null;
-        if (image.getStorageUrl() != null && !image.getStorageUrl().isEmpty()) {
+        if (hasText(image.getStorageUrl())) {
             try {
-                imageUrl = storageService.generateReadUrl(image.getStorageUrl(), expiration);
+                imageUrl = signedUrls != null
+                        ? signedUrls.get(image.getStorageUrl())
+                        : storageService.generateReadUrl(image.getStorageUrl(), expiration);
             } catch (Exception e) {
                 log.warnf("Failed to generate signed URL for image %s: %s", image.getId(), e.getMessage());
+            }
+            if (!hasText(imageUrl)) {
                 // Fallback to raw URL for dev compatibility
                 imageUrl = image.getStorageUrl();
             }
         }
 
-        // Generate signed URL for thumbnail (if exists)
-        String thumbnailUrl = null;
-        if (image.getThumbnailUrl() != null && !image.getThumbnailUrl().isEmpty()) {
-            try {
-                thumbnailUrl = storageService.generateReadUrl(image.getThumbnailUrl(), expiration);
-            } catch (Exception e) {
-                log.warnf("Failed to generate signed URL for thumbnail %s: %s", image.getId(), e.getMessage());
-            }
-        }
-
-        // Convert detections
-        List<DetectionDTO> detections = image.getDetections() != null
-                ? image.getDetections().stream().map(DetectionDTO::from).toList()
-                : List.of();
-
-        // Convert classifications
-        List<ClassificationDTO> classifications = image.getClassifications() != null
-                ? image.getClassifications().stream().map(ClassificationDTO::from).toList()
-                : List.of();
+        // Signed URLs for the derivatives (if generated yet)
+        String thumbnailUrl = signDerivative(image, image.getThumbnailUrl(), "thumbnail", signedUrls, expiration);
+        String previewUrl = signDerivative(image, image.getPreviewUrl(), "preview", signedUrls, expiration);
 
         return ImageWithUrlsDTO.builder()
                 .id(image.getId())
@@ -238,24 +531,79 @@ public class ImageService {
                 .originalFilename(image.getOriginalFilename())
                 .fileSize(image.getFileSize())
                 .mimeType(image.getMimeType())
+                .width(image.getWidth())
+                .height(image.getHeight())
                 .imageUrl(imageUrl)
                 .thumbnailUrl(thumbnailUrl)
-                .detections(detections)
-                .classifications(classifications)
+                .previewUrl(previewUrl)
                 .createdAt(image.getCreatedAt())
-                .updatedAt(image.getUpdatedAt())
-                .build();
+                .updatedAt(image.getUpdatedAt());
+    }
+
+    /**
+     * The same summary the gallery shows, from results already loaded.
+     */
+    private static ResultsSummaryDTO summarize(List<DetectionDTO> detections,
+                                               List<ClassificationDTO> classifications) {
+        Map<String, Long> detectionLabels = detections.stream()
+                .filter(d -> d.label() != null)
+                .collect(Collectors.groupingBy(DetectionDTO::label, Collectors.counting()));
+        Map<String, Long> classificationLabels = classifications.stream()
+                .filter(c -> c.name() != null)
+                .collect(Collectors.groupingBy(ClassificationDTO::name, Collectors.counting()));
+        return ResultsSummaryDTO.from(new ResultsSummary(
+                detections.size(), LabelCount.top(detectionLabels, TOP_LABELS),
+                classifications.size(), LabelCount.top(classificationLabels, TOP_LABELS)));
+    }
+
+    /**
+     * Sign a derivative's storage path.
+     *
+     * @return Signed URL, or null if there is no derivative or signing failed
+     */
+    private String signDerivative(Image image, String storagePath, String kind,
+                                  Map<String, String> signedUrls, Duration expiration) {
+        if (!hasText(storagePath)) {
+            return null;
+        }
+        String url = null;
+        try {
+            url = signedUrls != null
+                    ? signedUrls.get(storagePath)
+                    : storageService.generateReadUrl(storagePath, expiration);
+        } catch (Exception e) {
+            log.warnf("Failed to generate signed URL for %s %s: %s", kind, image.getId(), e.getMessage());
+        }
+        return hasText(url) ? url : null;
+    }
+
+    /**
+     * Decode a compact detection block. Ids are derived from the block id and
+     * position, so they are stable across reads.
+     */
+    private static List<DetectionDTO> decodeDetections(StoredBlock block) {
+        List<CompactDetection> decoded = DetectionBlockCodec.decode(block.data());
+        List<DetectionDTO> detections = new ArrayList<>(decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            UUID id = UUID.nameUUIDFromBytes((block.id() + "/" + i).getBytes(StandardCharsets.UTF_8));
+            detections.add(DetectionDTO.fromCompact(id, block.sessionId(), decoded.get(i), block.createdAt()));
+        }
+        return detections;
     }
 
     /**
      * Generate a unique storage path for an image.
      */
-    private String generateStoragePath(UUID sessionId, String filename) {
+    String generateStoragePath(UUID sessionId, String filename) {
         String extension = getFileExtension(filename);
         String uniqueFilename = UUID.randomUUID() + extension;
         return String.format("sessions/%s/images/%s", sessionId, uniqueFilename);
     }
 
+    private static boolean hasText(String value) {
+        return value != null && !value.isEmpty();
+    }
+
     private String getFileExtension(String filename) {
         int dotIndex = filename.lastIndexOf('.');
         return dotIndex > 0 ? filename.substring(dotIndex) : ".jpg";
@@ -3,82 +3,162 @@ package com.fortytwo.demeter.fotos.service;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fortytwo.demeter.common.resilience.CircuitBreaker;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * HTTP client for calling the ML Worker service directly.
  *
  * <p>Used in development mode when Cloud Tasks is disabled.
  * Makes synchronous HTTP calls to the ML Worker's /dev/process-image endpoint.
+ *
+ * <p>Calls are guarded against a slow or failing worker:
+ * <ul>
+ *   <li><b>Bulkhead:</b> at most {@code max-concurrent-requests} calls in
+ *       flight; callers wait up to {@code bulkhead-wait-ms} for a slot.</li>
+ *   <li><b>Circuit breaker:</b> consecutive connection errors, timeouts or
+ *       5xx responses open the circuit; after {@code open-ms} a single probe
+ *       call decides whether it closes again.</li>
+ *   <li><b>Retry:</b> connection errors and 502/503/504 responses are retried
+ *       with exponential backoff and jitter. Request timeouts are not.</li>
+ * </ul>
+ * Refused calls throw {@link MLWorkerUnavailableException}.
  */
 @ApplicationScoped
 public class MLWorkerClient {
 
     private static final Logger log = Logger.getLogger(MLWorkerClient.class);
 
+    private static final Duration HEALTH_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration PIPELINES_TIMEOUT = Duration.ofSeconds(10);
+
     @ConfigProperty(name = "demeter.mlworker.url", defaultValue = "http://localhost:8000")
     String mlWorkerUrl;
 
     @ConfigProperty(name = "demeter.mlworker.timeout-seconds", defaultValue = "300")
     int timeoutSeconds;
 
+    @ConfigProperty(name = "demeter.mlworker.connect-timeout-seconds", defaultValue = "10")
+    int connectTimeoutSeconds;
+
+    @ConfigProperty(name = "demeter.mlworker.http2", defaultValue = "true")
+    boolean http2;
+
+    @ConfigProperty(name = "demeter.mlworker.max-concurrent-requests", defaultValue = "8")
+    int maxConcurrentRequests;
+
+    @ConfigProperty(name = "demeter.mlworker.bulkhead-wait-ms", defaultValue = "0")
+    long bulkheadWaitMs;
+
+    @ConfigProperty(name = "demeter.mlworker.circuit-breaker.failure-threshold", defaultValue = "5")
+    int failureThreshold;
+
+    @ConfigProperty(name = "demeter.mlworker.circuit-breaker.open-ms", defaultValue = "30000")
+    long openMs;
+
+    @ConfigProperty(name = "demeter.mlworker.retry.max-attempts", defaultValue = "3")
+    int maxAttempts;
+
+    @ConfigProperty(name = "demeter.mlworker.retry.initial-backoff-ms", defaultValue = "200")
+    long initialBackoffMs;
+
+    @ConfigProperty(name = "demeter.mlworker.retry.max-backoff-ms", defaultValue = "5000")
+    long maxBackoffMs;
+
     @Inject
     ObjectMapper objectMapper;
 
-    private HttpClient httpClient;
+    private final AtomicReference<HttpClient> httpClient = new AtomicReference<>();
+    private Semaphore bulkhead;
+    private CircuitBreaker circuitBreaker;
+
+    @PostConstruct
+    void init() {
+        bulkhead = new Semaphore(maxConcurrentRequests);
+        circuitBreaker = new CircuitBreaker(failureThreshold, openMs);
+    }
+
+    @PreDestroy
+    void close() {
+        HttpClient client = httpClient.getAndSet(null);
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Thrown without calling the ML Worker when its circuit is open or all
+     * concurrent request slots are taken.
+     */
+    public static class MLWorkerUnavailableException extends RuntimeException {
+        public MLWorkerUnavailableException(String message) {
+            super(message);
+        }
+    }
 
     /**
      * Process an image through the ML Worker pipeline.
      *
      * <p>Uses JSON endpoint with Base64-encoded image to avoid multipart complexity.
+     * The body is streamed, encoding the image as it is sent.
      *
      * @param imageData Image bytes to process
      * @param filename Original filename
      * @param contentType MIME type (e.g., image/jpeg)
      * @param pipeline Pipeline name (e.g., SEGMENT_DETECT)
      * @return Processing result from ML Worker
+     * @throws MLWorkerUnavailableException if the call was refused
      */
     public MLWorkerResponse processImage(byte[] imageData, String filename, String contentType, String pipeline) {
         log.infof("Calling ML Worker: url=%s, pipeline=%s, filename=%s, size=%d bytes",
                 mlWorkerUrl, pipeline, filename, imageData.length);
 
         try {
-            // Encode image as Base64
-            String imageBase64 = java.util.Base64.getEncoder().encodeToString(imageData);
-
-            // Build JSON request body
-            String jsonBody = objectMapper.writeValueAsString(Map.of(
-                    "filename", filename,
-                    "contentType", contentType,
-                    "imageBase64", imageBase64,
-                    "pipeline", pipeline
-            ));
-
-            String targetUrl = mlWorkerUrl + "/dev/process-image-json";
+            byte[] prefix = ("{\"filename\":" + objectMapper.writeValueAsString(filename)
+                    + ",\"contentType\":" + objectMapper.writeValueAsString(contentType)
+                    + ",\"pipeline\":" + objectMapper.writeValueAsString(pipeline)
+                    + ",\"imageBase64\":\"").getBytes(StandardCharsets.UTF_8);
+            byte[] suffix = "\"}".getBytes(StandardCharsets.UTF_8);
 
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(targetUrl))
+                    .uri(URI.create(mlWorkerUrl + "/dev/process-image-json"))
                     .timeout(Duration.ofSeconds(timeoutSeconds))
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(
+                            Collections.enumeration(List.of(
+                                    new ByteArrayInputStream(prefix),
+                                    new Base64InputStream(imageData),
+                                    new ByteArrayInputStream(suffix))))))
                     .build();
 
-            log.debugf("Sending request to ML Worker: url=%s, jsonLength=%d", targetUrl, jsonBody.length());
-
-            HttpResponse<String> response = getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<byte[]> response = send(request, maxAttempts);
 
             if (response.statusCode() == 200) {
                 MLWorkerResponse result = objectMapper.readValue(response.body(), MLWorkerResponse.class);
@@ -87,9 +167,12 @@ public class MLWorkerClient {
                         result.results != null && result.results.detection != null ? result.results.detection.size() : 0);
                 return result;
             } else {
-                log.errorf("ML Worker error: status=%d, body=%s", response.statusCode(), response.body());
-                throw new RuntimeException("ML Worker returned status " + response.statusCode() + ": " + response.body());
+                String body = new String(response.body(), StandardCharsets.UTF_8);
+                log.errorf("ML Worker error: status=%d, body=%s", response.statusCode(), body);
+                throw new RuntimeException("ML Worker returned status " + response.statusCode() + ": " + body);
             }
+        } catch (MLWorkerUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to call ML Worker", e);
             throw new RuntimeException("ML Worker call failed: " + e.getMessage(), e);
@@ -98,17 +181,18 @@ public class MLWorkerClient {
 
     /**
      * Check if ML Worker is available.
+     *
+     * <p>Returns false without calling it while its circuit is open.
      */
     public boolean isAvailable() {
         try {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(mlWorkerUrl + "/health"))
-                    .timeout(Duration.ofSeconds(5))
+                    .timeout(HEALTH_TIMEOUT)
                     .GET()
                     .build();
 
-            HttpResponse<String> response = getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
-            return response.statusCode() == 200;
+            return send(request, 1).statusCode() == 200;
         } catch (Exception e) {
             log.warn("ML Worker health check failed: " + e.getMessage());
             return false;
@@ -122,11 +206,11 @@ public class MLWorkerClient {
         try {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(mlWorkerUrl + "/dev/pipelines"))
-                    .timeout(Duration.ofSeconds(10))
+                    .timeout(PIPELINES_TIMEOUT)
                     .GET()
                     .build();
 
-            HttpResponse<String> response = getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<byte[]> response = send(request, maxAttempts);
 
             if (response.statusCode() == 200) {
                 return objectMapper.readValue(response.body(), PipelinesResponse.class);
@@ -137,14 +221,156 @@ public class MLWorkerClient {
         }
     }
 
-    private synchronized HttpClient getHttpClient() {
-        if (httpClient == null) {
-            httpClient = HttpClient.newBuilder()
-                    .connectTimeout(Duration.ofSeconds(10))
-                    .version(HttpClient.Version.HTTP_1_1)  // Uvicorn only supports HTTP/1.1
-                    .build();
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Send through the bulkhead and circuit breaker, retrying connection
+     * errors and 502/503/504 up to {@code attempts} times.
+     */
+    private HttpResponse<byte[]> send(HttpRequest request, int attempts) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            HttpResponse<byte[]> response;
+            try {
+                response = sendOnce(request);
+            } catch (IOException e) {
+                if (attempt >= attempts || !isRetryable(e)) {
+                    throw e;
+                }
+                log.warnf("ML Worker call failed (attempt %d of %d): %s", attempt, attempts, e.getMessage());
+                Thread.sleep(backoff(attempt));
+                continue;
+            }
+
+            if (attempt >= attempts || !isRetryable(response.statusCode())) {
+                return response;
+            }
+            log.warnf("ML Worker returned %d (attempt %d of %d)", response.statusCode(), attempt, attempts);
+            Thread.sleep(backoff(attempt));
+        }
+    }
+
+    private HttpResponse<byte[]> sendOnce(HttpRequest request) throws IOException, InterruptedException {
+        if (!bulkhead.tryAcquire(bulkheadWaitMs, TimeUnit.MILLISECONDS)) {
+            throw new MLWorkerUnavailableException(
+                    "ML Worker has " + maxConcurrentRequests + " requests in flight");
+        }
+        try {
+            if (!circuitBreaker.tryAcquirePermission()) {
+                throw new MLWorkerUnavailableException("ML Worker circuit is open");
+            }
+
+            HttpResponse<byte[]> response;
+            try {
+                response = getHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                circuitBreaker.onFailure();
+                throw e;
+            }
+            // 4xx means the worker is up and rejected the request
+            if (response.statusCode() >= 500) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+            return response;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private static boolean isRetryable(IOException e) {
+        // A request timeout has already waited the full per-call timeout
+        return !(e instanceof HttpTimeoutException) || e instanceof HttpConnectTimeoutException;
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the delay is fixed, half random.
+     */
+    private long backoff(int attempt) {
+        long delayMs = Math.min(initialBackoffMs << Math.min(attempt - 1, 20), maxBackoffMs);
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
+    private HttpClient getHttpClient() {
+        HttpClient client = httpClient.get();
+        if (client != null) {
+            return client;
+        }
+
+        HttpClient created = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                // HTTP/2 is negotiated over TLS only: Uvicorn does not speak cleartext h2c
+                .version(http2 && mlWorkerUrl.startsWith("https:")
+                        ? HttpClient.Version.HTTP_2
+                        : HttpClient.Version.HTTP_1_1)
+                .build();
+        HttpClient existing = httpClient.compareAndExchange(null, created);
+        if (existing != null) {
+            // Another caller built one first
+            created.close();
+            return existing;
+        }
+        return created;
+    }
+
+    /**
+     * Base64-encodes a byte array as it is read, one chunk at a time.
+     */
+    private static final class Base64InputStream extends InputStream {
+
+        // Multiple of 3, so chunks encode without padding except the last
+        private static final int CHUNK_BYTES = 3 * 4096;
+
+        private final byte[] source;
+        private int sourcePos;
+        private byte[] encoded = new byte[0];
+        private int encodedPos;
+
+        Base64InputStream(byte[] source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return encoded[encodedPos++];
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, encoded.length - encodedPos);
+            System.arraycopy(encoded, encodedPos, buffer, offset, count);
+            encodedPos += count;
+            return count;
+        }
+
+        private boolean fill() {
+            if (encodedPos < encoded.length) {
+                return true;
+            }
+            if (sourcePos >= source.length) {
+                return false;
+            }
+            int count = Math.min(CHUNK_BYTES, source.length - sourcePos);
+            encoded = Base64.getEncoder().encode(ByteBuffer.wrap(source, sourcePos, count)).array();
+            sourcePos += count;
+            encodedPos = 0;
+            return true;
         }
-        return httpClient;
     }
 
     // DTO classes for ML Worker responses
@@ -0,0 +1,372 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import com.fortytwo.demeter.fotos.dto.RetentionReportDTO;
+import com.fortytwo.demeter.fotos.repository.PhotoRetentionRepository;
+import com.fortytwo.demeter.fotos.repository.PhotoRetentionRepository.Candidate;
+import com.fortytwo.demeter.fotos.repository.PhotoRetentionRepository.DetailUsage;
+import com.fortytwo.demeter.fotos.repository.PhotoRetentionRepository.DueSession;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies each tenant's photo retention policy to finished sessions.
+ *
+ * <p>The policy is part of the tenant's settings,
+ * {@code {"retention": {"detailDays": 90, "originalDays": 365}}}, with
+ * {@code demeter.retention.default-detail-days} and
+ * {@code default-original-days} for tenants that set none; 0 keeps forever.
+ * Ages count from the session's creation.
+ * <ul>
+ *   <li>Past {@code detailDays}, each image's detections, classifications
+ *       and detection block are reduced to per-label counts
+ *       ({@code image_result_labels}, which galleries then read) and
+ *       deleted, {@code images-per-batch} images per transaction.
+ *   <li>Past {@code originalDays}, each original is copied to its
+ *       cold-storage key ({@link StorageService#copyToArchive}), its images
+ *       are pointed at the copy and the hot object is deleted. Thumbnails
+ *       and previews stay where they are.
+ * </ul>
+ * Results and originals of a canonical image are shared with its
+ * duplicates; while one of them belongs to a session that is not yet due,
+ * the image is deferred and its session rechecked after {@code recheck-hours}.
+ *
+ * <p>Any number of instances may run the job: every {@code poll-interval-seconds}
+ * it claims up to {@code sessions-per-claim} due sessions of all tenants with
+ * {@code FOR UPDATE SKIP LOCKED}, leased for {@code lease-seconds}, until none
+ * are left. With {@code dry-run} the claimed sessions are only measured and
+ * the report logged. {@link #run} does the same for the current tenant on
+ * demand.
+ *
+ * <p>Metrics: counters {@code demeter.retention.rows.reclaimed} (tag
+ * {@code table}), {@code demeter.retention.bytes.reclaimed} (tag
+ * {@code source}: {@code database}, approximate size of the deleted rows,
+ * or {@code storage}, originals moved out of hot storage) and
+ * {@code demeter.retention.originals.archived}. Dry runs are not counted.
+ */
+@ApplicationScoped
+public class PhotoRetentionService {
+
+    private static final Logger log = Logger.getLogger(PhotoRetentionService.class);
+    private static final UUID FIRST_ID = new UUID(0, 0);
+
+    @Inject
+    PhotoRetentionRepository repository;
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    TenantScope tenantScope;
+
+    @Inject
+    TenantContext tenantContext;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "demeter.retention.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "demeter.retention.dry-run", defaultValue = "false")
+    boolean jobDryRun;
+
+    @ConfigProperty(name = "demeter.retention.default-detail-days", defaultValue = "0")
+    int defaultDetailDays;
+
+    @ConfigProperty(name = "demeter.retention.default-original-days", defaultValue = "0")
+    int defaultOriginalDays;
+
+    @ConfigProperty(name = "demeter.retention.sessions-per-claim", defaultValue = "10")
+    int sessionsPerClaim;
+
+    @ConfigProperty(name = "demeter.retention.images-per-batch", defaultValue = "100")
+    int imagesPerBatch;
+
+    @ConfigProperty(name = "demeter.retention.poll-interval-seconds", defaultValue = "600")
+    long pollIntervalSeconds;
+
+    @ConfigProperty(name = "demeter.retention.lease-seconds", defaultValue = "1800")
+    long leaseSeconds;
+
+    @ConfigProperty(name = "demeter.retention.recheck-hours", defaultValue = "24")
+    long recheckHours;
+
+    private Counter detectionRows;
+    private Counter classificationRows;
+    private Counter detectionBlockRows;
+    private Counter databaseBytes;
+    private Counter storageBytes;
+    private Counter originalsArchived;
+    private volatile boolean running;
+    private Thread jobThread;
+
+    void onStart(@Observes StartupEvent event) {
+        detectionRows = rowsReclaimed("detections");
+        classificationRows = rowsReclaimed("classifications");
+        detectionBlockRows = rowsReclaimed("detection_blocks");
+        databaseBytes = bytesReclaimed("database");
+        storageBytes = bytesReclaimed("storage");
+        originalsArchived = Counter.builder("demeter.retention.originals.archived")
+                .description("Originals moved to cold storage by retention")
+                .register(registry);
+
+        if (!enabled) {
+            log.info("Photo retention job disabled - results and originals are kept until deleted");
+            return;
+        }
+
+        running = true;
+        jobThread = Thread.ofVirtual()
+                .name("photo-retention")
+                .start(this::pollLoop);
+        log.infof("Photo retention job started%s: every %d s, %d sessions per claim",
+                jobDryRun ? " in dry-run mode" : "", pollIntervalSeconds, sessionsPerClaim);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        if (jobThread != null) {
+            jobThread.interrupt();
+        }
+    }
+
+    /**
+     * Apply the current tenant's policy to all its due sessions now.
+     *
+     * @param dryRun Only measure what would be reclaimed; nothing is changed or leased
+     */
+    public RetentionReportDTO run(boolean dryRun) {
+        String tenantId = tenantContext.getCurrentTenantId();
+        try {
+            return dryRun ? measureDue(tenantId) : runClaimed(tenantId, false);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Retention run failed for tenant " + tenantId, e);
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                TimeUnit.SECONDS.sleep(pollIntervalSeconds);
+                RetentionReportDTO report = runClaimed(null, jobDryRun);
+                if (report.sessions() > 0) {
+                    log.infof("Photo retention%s: %s", jobDryRun ? " (dry run)" : "", report);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException | RuntimeException e) {
+                log.warnf("Photo retention poll failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Claim due sessions until none are left and process them.
+     *
+     * @param tenantId Only sessions of this tenant, or null for all tenants
+     */
+    private RetentionReportDTO runClaimed(String tenantId, boolean dryRun) throws SQLException {
+        Report report = new Report(dryRun);
+        List<DueSession> batch;
+        do {
+            batch = repository.claim(tenantId, defaultDetailDays, defaultOriginalDays,
+                    sessionsPerClaim, leaseSeconds);
+            for (DueSession session : batch) {
+                process(session, dryRun, true, report);
+            }
+        } while (batch.size() == sessionsPerClaim && !Thread.currentThread().isInterrupted());
+        return report.toDTO();
+    }
+
+    private RetentionReportDTO measureDue(String tenantId) throws SQLException {
+        Report report = new Report(true);
+        Instant afterCreatedAt = Instant.EPOCH;
+        UUID afterId = FIRST_ID;
+        List<DueSession> page;
+        do {
+            page = repository.findDue(tenantId, defaultDetailDays, defaultOriginalDays,
+                    afterCreatedAt, afterId, sessionsPerClaim);
+            for (DueSession session : page) {
+                process(session, true, false, report);
+            }
+            if (!page.isEmpty()) {
+                afterCreatedAt = page.getLast().createdAt();
+                afterId = page.getLast().id();
+            }
+        } while (page.size() == sessionsPerClaim);
+        return report.toDTO();
+    }
+
+    /**
+     * @param claimed Whether the session was claimed, and its lease must be ended
+     */
+    private void process(DueSession session, boolean dryRun, boolean claimed, Report report) {
+        try {
+            tenantScope.run(session.tenantId(), () -> {
+                boolean detailsPurged = session.detailsDue() && purgeDetails(session, dryRun, report);
+                boolean originalsArchived = session.originalsDue() && archiveOriginals(session, dryRun, report);
+                if (claimed) {
+                    QuarkusTransaction.requiringNew().run(() -> repository.finish(
+                            session.id(), session.tenantId(), detailsPurged && !dryRun,
+                            originalsArchived && !dryRun, TimeUnit.HOURS.toSeconds(recheckHours)));
+                }
+            });
+            report.sessions++;
+        } catch (RuntimeException e) {
+            // Still leased: retried when the lease expires
+            log.errorf(e, "Retention of session %s (tenant %s) failed", session.id(), session.tenantId());
+        }
+    }
+
+    /**
+     * @return Whether no image of the session was deferred
+     */
+    private boolean purgeDetails(DueSession session, boolean dryRun, Report report) {
+        List<Candidate> candidates = QuarkusTransaction.requiringNew().call(() ->
+                repository.findResultCandidates(session.id(), session.tenantId(), session.detailDays()));
+        List<UUID> due = candidates.stream()
+                .filter(candidate -> !report.deferred(candidate))
+                .map(Candidate::imageId)
+                .toList();
+
+        for (int from = 0; from < due.size(); from += imagesPerBatch) {
+            List<UUID> batch = due.subList(from, Math.min(from + imagesPerBatch, due.size()));
+            DetailUsage usage = QuarkusTransaction.requiringNew().call(() -> dryRun
+                    ? repository.measureDetails(batch, session.tenantId())
+                    : repository.purgeDetails(batch, session.tenantId()));
+            report.purged(batch.size(), usage);
+            if (!dryRun) {
+                detectionRows.increment(usage.detectionRows());
+                classificationRows.increment(usage.classificationRows());
+                detectionBlockRows.increment(usage.detectionBlockRows());
+                databaseBytes.increment(usage.bytes());
+            }
+        }
+        if (!dryRun && !due.isEmpty()) {
+            log.infof("Purged result details of %d images of session %s", due.size(), session.id());
+        }
+        return due.size() == candidates.size();
+    }
+
+    /**
+     * Copy, repoint, then delete: a failure in between leaves an extra copy,
+     * never an image without its original.
+     *
+     * @return Whether no image of the session was deferred
+     */
+    private boolean archiveOriginals(DueSession session, boolean dryRun, Report report) {
+        List<Candidate> candidates = QuarkusTransaction.requiringNew().call(() ->
+                repository.findOriginalCandidates(session.id(), session.tenantId(), session.originalDays()));
+        boolean complete = true;
+
+        for (Candidate candidate : candidates) {
+            if (report.deferred(candidate)) {
+                complete = false;
+                continue;
+            }
+            String storageUrl = candidate.storageUrl();
+            long bytes = storageService.getSize(storageUrl).orElse(0L);
+            if (dryRun) {
+                report.archived(bytes);
+                continue;
+            }
+
+            Optional<String> archived = storageService.copyToArchive(storageUrl);
+            String archivedUrl = archived.orElse(storageUrl);
+            QuarkusTransaction.requiringNew().run(() ->
+                    repository.markArchived(session.tenantId(), candidate.imageId(), storageUrl, archivedUrl));
+            if (archived.isEmpty()) {
+                log.warnf("Original of image %s is missing (%s); marked archived", candidate.imageId(), storageUrl);
+                continue;
+            }
+            if (!archivedUrl.equals(storageUrl)) {
+                storageService.delete(storageUrl);
+            }
+            report.archived(bytes);
+            originalsArchived.increment();
+            storageBytes.increment(bytes);
+        }
+        return complete;
+    }
+
+    private Counter rowsReclaimed(String table) {
+        return Counter.builder("demeter.retention.rows.reclaimed")
+                .description("Result detail rows deleted by retention")
+                .tag("table", table)
+                .register(registry);
+    }
+
+    private Counter bytesReclaimed(String source) {
+        return Counter.builder("demeter.retention.bytes.reclaimed")
+                .description("Bytes reclaimed by retention")
+                .baseUnit("bytes")
+                .tag("source", source)
+                .register(registry);
+    }
+
+    /**
+     * Running totals of one run.
+     */
+    private static final class Report {
+        final boolean dryRun;
+        final Set<UUID> deferredImages = new HashSet<>();
+        int sessions;
+        int imagesPurged;
+        long detectionRows;
+        long classificationRows;
+        long detectionBlockRows;
+        long databaseBytes;
+        int originalsArchived;
+        long originalBytes;
+
+        Report(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        boolean deferred(Candidate candidate) {
+            if (candidate.deferred()) {
+                deferredImages.add(candidate.imageId());
+            }
+            return candidate.deferred();
+        }
+
+        void purged(int images, DetailUsage usage) {
+            imagesPurged += images;
+            detectionRows += usage.detectionRows();
+            classificationRows += usage.classificationRows();
+            detectionBlockRows += usage.detectionBlockRows();
+            databaseBytes += usage.bytes();
+        }
+
+        void archived(long bytes) {
+            originalsArchived++;
+            originalBytes += bytes;
+        }
+
+        RetentionReportDTO toDTO() {
+            return new RetentionReportDTO(dryRun, sessions, imagesPurged, detectionRows, classificationRows,
+                    detectionBlockRows, databaseBytes, originalsArchived, originalBytes, deferredImages.size());
+        }
+    }
+}
@@ -2,21 +2,35 @@ package com.fortytwo.demeter.fotos.service;
 
 import com.fortytwo.demeter.common.dto.PagedResponse;
 import com.fortytwo.demeter.common.exception.EntityNotFoundException;
+import com.fortytwo.demeter.common.tenant.TenantContext;
 import com.fortytwo.demeter.fotos.dto.CreatePhotoSessionRequest;
 import com.fortytwo.demeter.fotos.dto.EstimationDTO;
+import com.fortytwo.demeter.fotos.dto.ImageOffsetsRequest;
+import com.fortytwo.demeter.fotos.dto.OverlapCorrectionDTO;
 import com.fortytwo.demeter.fotos.dto.PhotoSessionDTO;
 import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
+import com.fortytwo.demeter.fotos.event.SessionProgressEvent;
 import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
 import com.fortytwo.demeter.fotos.model.ProcessingStatus;
 import com.fortytwo.demeter.fotos.repository.EstimationRepository;
+import com.fortytwo.demeter.fotos.repository.ImageRepository;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.BedPlacement;
 import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository;
+import com.fortytwo.demeter.fotos.service.SessionStatusNotifier.Subscription;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.panache.common.Page;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.core.Response;
 import org.jboss.logging.Logger;
+import java.time.Duration;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Predicate;
 
 @ApplicationScoped
 public class PhotoSessionService {
@@ -29,6 +43,21 @@ public class PhotoSessionService {
     @Inject
     EstimationRepository estimationRepository;
 
+    @Inject
+    ImageRepository imageRepository;
+
+    @Inject
+    ProcessingResultService processingResultService;
+
+    @Inject
+    SessionStatusNotifier statusNotifier;
+
+    @Inject
+    TenantContext tenantContext;
+
+    @Inject
+    Event<SessionProgressEvent> sessionProgressEvent;
+
     public PagedResponse<PhotoSessionDTO> findAll(int page, int size) {
         var query = sessionRepository.findAll();
         var sessions = query.page(Page.of(page, size)).list();
@@ -49,6 +78,51 @@ public class PhotoSessionService {
         return SessionStatusDTO.from(session);
     }
 
+    /**
+     * Long-poll a session's status: return as soon as its processed count
+     * differs from {@code fromProcessedImages} or it finishes.
+     *
+     * <p>The current status is read once. While it is unchanged, the calling
+     * thread parks until {@link SessionStatusNotifier} delivers a change
+     * committed on this instance, and the status is only read again when
+     * {@code timeout} elapses without one.
+     *
+     * @return The changed status, or the current one after {@code timeout}
+     */
+    public SessionStatusDTO awaitStatusChange(UUID id, int fromProcessedImages, Duration timeout) {
+        try (Subscription subscription = statusNotifier.subscribe(id, tenantContext.getCurrentTenantId())) {
+            SessionStatusDTO current = readStatus(id);
+            if (current.processedImages() != fromProcessedImages || SessionStatusNotifier.isFinished(current)) {
+                return current;
+            }
+            subscription.seen(current);
+            return subscription.await(timeout).orElseGet(() -> readStatus(id));
+        }
+    }
+
+    /**
+     * Push a session's status to {@code emitter}: the current status, then
+     * every change, until the session finishes or {@code emitter} returns
+     * false. Without changes the status is read and sent again every
+     * {@code heartbeat}, which also reveals disconnected clients.
+     */
+    public void streamStatus(UUID id, Duration heartbeat, Predicate<SessionStatusDTO> emitter) {
+        try (Subscription subscription = statusNotifier.subscribe(id, tenantContext.getCurrentTenantId())) {
+            SessionStatusDTO status = readStatus(id);
+            while (emitter.test(status) && !SessionStatusNotifier.isFinished(status)
+                    && !Thread.currentThread().isInterrupted()) {
+                subscription.seen(status);
+                status = subscription.await(heartbeat).orElseGet(() -> readStatus(id));
+            }
+        }
+    }
+
+    private SessionStatusDTO readStatus(UUID id) {
+        // A transaction per read: outside of one, the request's persistence
+        // context would keep returning the entity loaded by the first read
+        return QuarkusTransaction.requiringNew().call(() -> getSessionStatus(id));
+    }
+
     public List<EstimationDTO> findEstimationsBySessionId(UUID sessionId) {
         sessionRepository.findByIdOptional(sessionId)
                 .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", sessionId));
@@ -70,6 +144,40 @@ public class PhotoSessionService {
         return PhotoSessionDTO.from(session);
     }
 
+    /**
+     * Place images of a session in their bed, for the overlap correction that
+     * runs when the session completes. Placements should be set before then:
+     * on a completed session the correction is redone right away, but the
+     * stock update it already triggered is not.
+     *
+     * @return The correction made, or zeros while the session is still processing
+     */
+    @Transactional
+    public OverlapCorrectionDTO placeImages(UUID sessionId, ImageOffsetsRequest request) {
+        PhotoProcessingSession session = sessionRepository.findByIdOptional(sessionId)
+                .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", sessionId));
+        String tenantId = tenantContext.getCurrentTenantId();
+
+        if (imageRepository.hasPurgedResults(sessionId, tenantId)) {
+            throw new ClientErrorException(
+                    "Session " + sessionId + " results were purged by retention", Response.Status.CONFLICT);
+        }
+
+        List<BedPlacement> placements = request.images().stream()
+                .map(offset -> new BedPlacement(offset.imageId(), offset.x(), offset.y()))
+                .toList();
+        int updated = imageRepository.updateBedPlacements(sessionId, tenantId, placements);
+        if (updated != placements.size()) {
+            throw new BadRequestException("Not all images belong to session " + sessionId);
+        }
+        log.infof("Placed %d images of session %s", updated, sessionId);
+
+        if (session.getStatus() != ProcessingStatus.COMPLETED) {
+            return OverlapCorrectionDTO.none(sessionId);
+        }
+        return processingResultService.suppressOverlaps(sessionId, tenantId);
+    }
+
     @Transactional
     public SessionStatusDTO updateProcessingProgress(UUID sessionId, int processedCount) {
         PhotoProcessingSession session = sessionRepository.findByIdOptional(sessionId)
@@ -81,7 +189,7 @@ public class PhotoSessionService {
         }
 
         log.infof("Updated session %s progress: %d/%d", sessionId, processedCount, session.getTotalImages());
-        return SessionStatusDTO.from(session);
+        return notifyProgress(session);
     }
 
     @Transactional
@@ -92,7 +200,7 @@ public class PhotoSessionService {
         session.setProcessedImages(session.getTotalImages());
 
         log.infof("Completed photo processing session: %s", sessionId);
-        return SessionStatusDTO.from(session);
+        return notifyProgress(session);
     }
 
     @Transactional
@@ -102,7 +210,13 @@ public class PhotoSessionService {
         session.setStatus(ProcessingStatus.FAILED);
 
         log.warnf("Failed photo processing session: %s", sessionId);
-        return SessionStatusDTO.from(session);
+        return notifyProgress(session);
+    }
+
+    private SessionStatusDTO notifyProgress(PhotoProcessingSession session) {
+        SessionStatusDTO status = SessionStatusDTO.from(session);
+        sessionProgressEvent.fire(new SessionProgressEvent(session.getId(), tenantContext.getCurrentTenantId(), status));
+        return status;
     }
 
     @Transactional
@@ -1,42 +1,78 @@
 package com.fortytwo.demeter.fotos.service;
 
 import com.fortytwo.demeter.common.exception.EntityNotFoundException;
+import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.fotos.dto.OverlapCorrectionDTO;
 import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest;
+import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest.BoundingBox;
 import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest.ClassificationResultItem;
 import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest.DetectionResultItem;
 import com.fortytwo.demeter.fotos.dto.ProcessingResultRequest.EstimationResultItem;
 import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
-import com.fortytwo.demeter.fotos.model.Classification;
-import com.fortytwo.demeter.fotos.model.Detection;
-import com.fortytwo.demeter.fotos.model.Estimation;
+import com.fortytwo.demeter.fotos.event.SessionCompletedEvent;
+import com.fortytwo.demeter.fotos.event.SessionProgressEvent;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec;
+import com.fortytwo.demeter.fotos.model.DetectionBlockCodec.CompactDetection;
+import com.fortytwo.demeter.fotos.model.DetectionStorageMode;
+import com.fortytwo.demeter.fotos.model.OverlapSuppression;
 import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
 import com.fortytwo.demeter.fotos.model.ProcessingStatus;
 import com.fortytwo.demeter.fotos.model.Image;
 import com.fortytwo.demeter.fotos.repository.ClassificationRepository;
+import com.fortytwo.demeter.fotos.repository.ClassificationRepository.NewClassification;
+import com.fortytwo.demeter.fotos.repository.DetectionBlockRepository;
+import com.fortytwo.demeter.fotos.repository.DetectionBlockRepository.StoredBlock;
 import com.fortytwo.demeter.fotos.repository.DetectionRepository;
+import com.fortytwo.demeter.fotos.repository.DetectionRepository.DetectionBox;
+import com.fortytwo.demeter.fotos.repository.DetectionRepository.NewDetection;
 import com.fortytwo.demeter.fotos.repository.EstimationRepository;
+import com.fortytwo.demeter.fotos.repository.EstimationRepository.NewEstimation;
 import com.fortytwo.demeter.fotos.repository.ImageRepository;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.BedPlacement;
 import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository;
+import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository.SessionProgress;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
  * Service for processing ML Worker callback results.
  *
  * <p>Persists ML results (detections, classifications, estimations) to database.
- * For stock update orchestration, see StockUpdateOrchestrator in demeter-app.
+ * Completing a session fires {@link SessionCompletedEvent}; demeter-app runs
+ * StockUpdateOrchestrator for it after commit (StockUpdateJobService).
+ *
+ * <p>Duplicate uploads of an image (see {@link ImageService#registerUploadedSession})
+ * are not processed themselves: they count as processed in their own sessions
+ * when the canonical image's results arrive, and fail with it.
+ *
+ * <p>Every progress or status change fires {@link SessionProgressEvent}, which
+ * wakes the status long-polls and streams waiting on the session.
+ *
+ * <p>On completion, detections counted twice by overlapping images are
+ * corrected for (see {@link #suppressOverlaps}) before the event fires, so
+ * the stock update sees the corrected count.
  */
 @ApplicationScoped
 public class ProcessingResultService {
 
     private static final Logger log = Logger.getLogger(ProcessingResultService.class);
 
+    // Estimation type and calculation method of the overlap correction
+    private static final String ESTIMATION_TYPE_COUNT = "COUNT";
+    private static final String OVERLAP_CORRECTION_METHOD = "CROSS_IMAGE_NMS";
+
     @Inject
     PhotoProcessingSessionRepository sessionRepository;
 
@@ -46,76 +82,213 @@ public class ProcessingResultService {
     @Inject
     DetectionRepository detectionRepository;
 
+    @Inject
+    DetectionBlockRepository detectionBlockRepository;
+
     @Inject
     ClassificationRepository classificationRepository;
 
     @Inject
     EstimationRepository estimationRepository;
 
+    @Inject
+    TenantContext tenantContext;
+
+    @Inject
+    Event<SessionCompletedEvent> sessionCompletedEvent;
+
+    @Inject
+    Event<SessionProgressEvent> sessionProgressEvent;
+
+    @ConfigProperty(name = "demeter.ml.detections.storage-mode", defaultValue = "rows")
+    DetectionStorageMode detectionStorageMode;
+
+    @ConfigProperty(name = "demeter.ml.overlap.enabled", defaultValue = "true")
+    boolean overlapCorrectionEnabled;
+
+    @ConfigProperty(name = "demeter.ml.overlap.iou-threshold", defaultValue = "0.5")
+    double overlapIouThreshold;
+
     /**
      * Process and persist ML Worker results.
      *
+     * <p>Safe to call concurrently for images of the same session. The call
+     * that processes the last image fires {@link SessionCompletedEvent}.
+     * Results for an image already processed are ignored, and the session's
+     * current status is returned.
+     *
      * @param request Processing results from ML Worker
      * @return Updated session status
      */
     @Transactional
     public SessionStatusDTO processResults(ProcessingResultRequest request) {
-        PhotoProcessingSession session = sessionRepository.findByIdOptional(request.sessionId())
-                .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", request.sessionId()));
-
         Image image = imageRepository.findByIdOptional(request.imageId())
                 .orElseThrow(() -> new EntityNotFoundException("Image", request.imageId()));
 
-        // Validate image belongs to session
-        if (!image.getSession().getId().equals(session.getId())) {
+        // Validate image belongs to session. The session itself is not loaded:
+        // its counters are only changed by the atomic update below.
+        if (!image.getSession().getId().equals(request.sessionId())) {
             throw new IllegalArgumentException("Image does not belong to the specified session");
         }
 
-        // Persist detections
-        Map<Integer, UUID> detectionIdMap = new HashMap<>();
-        if (request.detections() != null) {
-            for (int i = 0; i < request.detections().size(); i++) {
-                DetectionResultItem item = request.detections().get(i);
-                Detection detection = createDetection(image, item);
-                detectionRepository.persist(detection);
-                detectionIdMap.put(i, detection.getId());
-            }
-            log.infof("Persisted %d detections for image %s", request.detections().size(), image.getId());
+        String tenantId = tenantContext.getCurrentTenantId();
+
+        // Results are stored and counted once per image: a redelivered callback
+        // (task retry, replay after a timeout) only reads the session's status
+        if (!imageRepository.markProcessed(image.getId())) {
+            log.infof("Ignoring repeated results for image %s in session %s", image.getId(), request.sessionId());
+            return SessionStatusDTO.from(sessionRepository.findByIdOptional(request.sessionId())
+                    .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", request.sessionId())));
+        }
+
+        long start = System.nanoTime();
+
+        // Results are written with JDBC batches: a dense image yields thousands
+        // of detections, and one persist() per row made callbacks take seconds
+        if (request.detections() != null && detectionStorageMode == DetectionStorageMode.COMPACT) {
+            List<CompactDetection> detections = request.detections().stream()
+                    .map(ProcessingResultService::toCompactDetection)
+                    .toList();
+            detectionBlockRepository.upsert(tenantId, request.sessionId(), image.getId(),
+                    DetectionBlockCodec.encode(detections));
+        } else if (request.detections() != null) {
+            List<NewDetection> detections = request.detections().stream()
+                    .map(ProcessingResultService::toNewDetection)
+                    .toList();
+            detectionRepository.insertBatch(tenantId, request.sessionId(), image.getId(), detections);
         }
 
-        // Persist classifications
         if (request.classifications() != null) {
-            for (ClassificationResultItem item : request.classifications()) {
-                Classification classification = createClassification(image, item);
-                classificationRepository.persist(classification);
-            }
-            log.infof("Persisted %d classifications for image %s", request.classifications().size(), image.getId());
+            List<NewClassification> classifications = request.classifications().stream()
+                    .map(ProcessingResultService::toNewClassification)
+                    .toList();
+            classificationRepository.insertBatch(tenantId, request.sessionId(), image.getId(), classifications);
         }
 
-        // Persist estimations
         if (request.estimations() != null) {
-            for (EstimationResultItem item : request.estimations()) {
-                Estimation estimation = createEstimation(session, item);
-                estimationRepository.persist(estimation);
-            }
-            log.infof("Persisted %d estimations for session %s", request.estimations().size(), session.getId());
+            List<NewEstimation> estimations = request.estimations().stream()
+                    .map(ProcessingResultService::toNewEstimation)
+                    .toList();
+            estimationRepository.insertBatch(tenantId, request.sessionId(), estimations);
         }
 
+        log.infof("Persisted %d detections, %d classifications, %d estimations for image %s in %d ms",
+                sizeOf(request.detections()), sizeOf(request.classifications()), sizeOf(request.estimations()),
+                image.getId(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+
         // Update session progress
-        session.setProcessedImages(session.getProcessedImages() + 1);
+        SessionProgress progress = sessionRepository.incrementProcessed(request.sessionId(), tenantId)
+                .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", request.sessionId()));
+        publishProgress(request.sessionId(), tenantId, progress);
 
-        if (session.getStatus() == ProcessingStatus.PENDING) {
-            session.setStatus(ProcessingStatus.PROCESSING);
-        }
+        // Duplicates waiting for these results are done too
+        Map<UUID, Integer> duplicates = imageRepository.markDuplicatesProcessed(image.getId(), tenantId);
+        duplicates.forEach((sessionId, count) -> sessionRepository.incrementProcessed(sessionId, tenantId, count)
+                .ifPresent(duplicateProgress -> publishProgress(sessionId, tenantId, duplicateProgress)));
+
+        return toStatus(request.sessionId(), progress);
+    }
 
-        // Check if all images processed
-        if (session.getProcessedImages() >= session.getTotalImages()) {
-            session.setStatus(ProcessingStatus.COMPLETED);
+    private void publishProgress(UUID sessionId, String tenantId, SessionProgress progress) {
+        sessionProgressEvent.fire(new SessionProgressEvent(sessionId, tenantId, toStatus(sessionId, progress)));
+
+        // Exactly one increment observes the count reaching the total
+        if (progress.processedImages() == progress.totalImages()) {
             log.infof("Session %s completed: %d/%d images processed",
-                    session.getId(), session.getProcessedImages(), session.getTotalImages());
+                    sessionId, progress.processedImages(), progress.totalImages());
+            if (overlapCorrectionEnabled) {
+                suppressOverlaps(sessionId, tenantId);
+            }
+            sessionCompletedEvent.fire(new SessionCompletedEvent(sessionId, tenantId, progress.totalImages()));
         }
+    }
 
-        return SessionStatusDTO.from(session);
+    /**
+     * Count detections seen by several overlapping images of a session once.
+     *
+     * <p>The boxes of every image with a bed placement are moved into bed
+     * coordinates and run through {@link OverlapSuppression}; the session's
+     * COUNT correction estimations are replaced by minus the suppressed
+     * boxes, per classification so each product's total is corrected. A box
+     * belongs to its detection's classification, else to its image's only
+     * classification, else to none; it is corrected as unclassified when its
+     * classification's product has no COUNT estimations of its own. Images
+     * without a placement, and boxless detections, are left out.
+     *
+     * <p>Runs in the caller's transaction.
+     */
+    public OverlapCorrectionDTO suppressOverlaps(UUID sessionId, String tenantId) {
+        long start = System.nanoTime();
+        Map<UUID, BedPlacement> placements = imageRepository.findBedPlacements(sessionId, tenantId);
+        if (placements.size() < 2) {
+            estimationRepository.replaceCountCorrection(tenantId, sessionId, ESTIMATION_TYPE_COUNT,
+                    OVERLAP_CORRECTION_METHOD, Map.of());
+            return OverlapCorrectionDTO.none(sessionId);
+        }
+
+        Map<UUID, Integer> imageCodes = new HashMap<>();
+        Map<String, Integer> labelCodes = new HashMap<>();
+        List<DetectionBox> rows = detectionRepository.findBoxesBySessionId(sessionId, tenantId);
+        Map<UUID, StoredBlock> blocks = detectionBlockRepository.findBySessionId(sessionId, tenantId);
+        Map<UUID, UUID> imageClassifications =
+                classificationRepository.findSoleClassificationsByImage(sessionId, tenantId);
+
+        // Classification of each box, by the index add() returns
+        List<UUID> boxClassifications = new ArrayList<>(rows.size());
+        OverlapSuppression.Boxes boxes = new OverlapSuppression.Boxes(rows.size());
+        for (DetectionBox row : rows) {
+            BedPlacement placement = placements.get(row.imageId());
+            if (placement != null) {
+                boxClassifications.add(row.classificationId() != null
+                        ? row.classificationId()
+                        : imageClassifications.get(row.imageId()));
+                boxes.add(imageCodes.computeIfAbsent(row.imageId(), id -> imageCodes.size()),
+                        labelCodes.computeIfAbsent(row.label(), label -> labelCodes.size()),
+                        row.confidence(),
+                        placement.x() + row.x1(), placement.y() + row.y1(),
+                        placement.x() + row.x2(), placement.y() + row.y2());
+            }
+        }
+        for (StoredBlock block : blocks.values()) {
+            BedPlacement placement = placements.get(block.imageId());
+            if (placement == null) {
+                continue;
+            }
+            int imageCode = imageCodes.computeIfAbsent(block.imageId(), id -> imageCodes.size());
+            UUID classificationId = imageClassifications.get(block.imageId());
+            for (CompactDetection detection : DetectionBlockCodec.decode(block.data())) {
+                if (detection.hasBox()) {
+                    boxClassifications.add(classificationId);
+                    boxes.add(imageCode,
+                            labelCodes.computeIfAbsent(detection.label(), label -> labelCodes.size()),
+                            detection.confidence(),
+                            placement.x() + detection.x1(), placement.y() + detection.y1(),
+                            placement.x() + detection.x2(), placement.y() + detection.y2());
+                }
+            }
+        }
+
+        // Each box is taken off the count it was summed in: its classification's
+        // product when that has counts, else the unclassified count (callbacks
+        // post unclassified estimations)
+        Set<UUID> counted = estimationRepository.findCountedClassificationIds(sessionId, tenantId,
+                ESTIMATION_TYPE_COUNT, OVERLAP_CORRECTION_METHOD);
+        boolean[] duplicates = OverlapSuppression.suppress(boxes, overlapIouThreshold);
+        Map<UUID, Integer> deltas = new HashMap<>();
+        for (int i = 0; i < duplicates.length; i++) {
+            if (duplicates[i]) {
+                UUID classificationId = boxClassifications.get(i);
+                deltas.merge(counted.contains(classificationId) ? classificationId : null, -1, Integer::sum);
+            }
+        }
+        int suppressed = OverlapSuppression.count(duplicates);
+        estimationRepository.replaceCountCorrection(tenantId, sessionId, ESTIMATION_TYPE_COUNT,
+                OVERLAP_CORRECTION_METHOD, deltas);
+
+        log.infof("Session %s overlap correction: %d of %d boxes in %d images suppressed in %d ms",
+                sessionId, suppressed, boxes.size(), imageCodes.size(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return new OverlapCorrectionDTO(sessionId, imageCodes.size(), boxes.size(), suppressed);
     }
 
     /**
@@ -143,51 +316,65 @@ public class ProcessingResultService {
         session.setStatus(ProcessingStatus.FAILED);
         log.warnf("Session %s marked as failed: image=%s, error=%s", sessionId, imageId, errorMessage);
 
-        return SessionStatusDTO.from(session);
-    }
+        String tenantId = tenantContext.getCurrentTenantId();
+        SessionStatusDTO status = SessionStatusDTO.from(session);
+        sessionProgressEvent.fire(new SessionProgressEvent(sessionId, tenantId, status));
 
-    private Detection createDetection(Image image, DetectionResultItem item) {
-        Detection detection = new Detection();
-        // Set session from image (required)
-        detection.setSession(image.getSession());
-        // Keep legacy image reference for backward compatibility
-        detection.setImage(image);
-        detection.setLabel(item.label());
-        detection.setConfidence(BigDecimal.valueOf(item.confidence()));
-
-        if (item.boundingBox() != null) {
-            Map<String, Object> bbox = new HashMap<>();
-            bbox.put("x1", item.boundingBox().x1());
-            bbox.put("y1", item.boundingBox().y1());
-            bbox.put("x2", item.boundingBox().x2());
-            bbox.put("y2", item.boundingBox().y2());
-            detection.setBoundingBox(bbox);
+        Map<UUID, SessionProgress> duplicateSessions = sessionRepository.failSessionsAwaitingDuplicates(
+                imageId, tenantId);
+        if (!duplicateSessions.isEmpty()) {
+            log.warnf("Failed %d sessions waiting for duplicates of image %s", duplicateSessions.size(), imageId);
         }
+        duplicateSessions.forEach((duplicateSessionId, progress) -> sessionProgressEvent.fire(
+                new SessionProgressEvent(duplicateSessionId, tenantId, toStatus(duplicateSessionId, progress))));
 
-        return detection;
+        return status;
     }
 
-    private Classification createClassification(Image image, ClassificationResultItem item) {
-        Classification classification = new Classification();
-        // Set session from image
-        classification.setSession(image.getSession());
-        // Keep legacy fields for backward compatibility
-        classification.setImage(image);
-        classification.setCategory(item.label());
-        // Set confidence as productConf (will be properly populated when ML Worker sends structured data)
-        classification.setProductConf((int) (item.confidence() * 100));
-        return classification;
+    private static SessionStatusDTO toStatus(UUID sessionId, SessionProgress progress) {
+        return SessionStatusDTO.of(sessionId, progress.status(),
+                progress.totalImages(), progress.processedImages(), progress.deduplicatedImages());
     }
 
-    private Estimation createEstimation(PhotoProcessingSession session, EstimationResultItem item) {
-        Estimation estimation = new Estimation();
-        estimation.setSession(session);
-        estimation.setEstimationType(item.estimationType());
-        estimation.setValue(BigDecimal.valueOf(item.value()));
-        estimation.setUnit(item.unit());
-        if (item.confidence() != null) {
-            estimation.setConfidence(BigDecimal.valueOf(item.confidence()));
-        }
-        return estimation;
+    private static NewDetection toNewDetection(DetectionResultItem item) {
+        BoundingBox bbox = item.boundingBox();
+        return new NewDetection(
+                UUID.randomUUID(),
+                item.label(),
+                BigDecimal.valueOf(item.confidence()),
+                bbox != null ? bbox.x1() : null,
+                bbox != null ? bbox.y1() : null,
+                bbox != null ? bbox.x2() : null,
+                bbox != null ? bbox.y2() : null);
+    }
+
+    private static CompactDetection toCompactDetection(DetectionResultItem item) {
+        BoundingBox bbox = item.boundingBox();
+        return new CompactDetection(
+                item.label(),
+                item.confidence(),
+                true,
+                bbox != null ? bbox.x1() : null,
+                bbox != null ? bbox.y1() : null,
+                bbox != null ? bbox.x2() : null,
+                bbox != null ? bbox.y2() : null);
+    }
+
+    private static NewClassification toNewClassification(ClassificationResultItem item) {
+        // Confidence as productConf (will be properly populated when ML Worker sends structured data)
+        return new NewClassification(UUID.randomUUID(), item.label(), (int) (item.confidence() * 100));
+    }
+
+    private static NewEstimation toNewEstimation(EstimationResultItem item) {
+        return new NewEstimation(
+                UUID.randomUUID(),
+                item.estimationType(),
+                BigDecimal.valueOf(item.value()),
+                item.unit(),
+                item.confidence() != null ? BigDecimal.valueOf(item.confidence()) : null);
+    }
+
+    private static int sizeOf(List<?> items) {
+        return items != null ? items.size() : 0;
     }
 }
@@ -0,0 +1,204 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import com.fortytwo.demeter.common.taskqueue.TaskQueue;
+import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.fotos.repository.ImageRepository.NewImage;
+import com.fortytwo.demeter.fotos.service.ImageService.Registration;
+import com.fortytwo.demeter.fotos.service.ImageService.StoredImage;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Stores the images of a new processing session and enqueues them for ML.
+ *
+ * <p>Phases, none of which hold a database connection across storage I/O:
+ * 1. Upload every image in parallel on virtual threads, at most
+ *    {@code demeter.ml.upload.concurrency} at a time per request, hashing
+ *    each one as it streams
+ * 2. One short transaction inserts the session and JDBC batches of image rows,
+ *    and enqueues one ML task per image on the {@link TaskQueue}; images the
+ *    tenant already uploaded are linked to the earlier image instead of being
+ *    enqueued again (see {@link ImageService#registerUploadedSession}).
+ *    Enqueuing only writes rows; the tasks reach Cloud Tasks or the ML
+ *    Worker after commit, so no remote call runs in the transaction
+ * 3. The now unreferenced objects of those duplicates are deleted, and
+ *    thumbnails and previews are requested from {@link ImageDerivativeService}
+ *
+ * <p>If an upload or the transaction fails, the objects already uploaded
+ * are deleted so storage is not left with orphans.
+ */
+@ApplicationScoped
+public class SessionIngestService {
+
+    private static final Logger log = Logger.getLogger(SessionIngestService.class);
+
+    @Inject
+    ImageService imageService;
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    TaskQueue taskQueue;
+
+    @Inject
+    ImageDerivativeService imageDerivativeService;
+
+    @Inject
+    TenantContext tenantContext;
+
+    @ConfigProperty(name = "demeter.backend.callback-url", defaultValue = "")
+    String callbackBaseUrl;
+
+    @ConfigProperty(name = "demeter.ml.upload.concurrency", defaultValue = "4")
+    int uploadConcurrency;
+
+    /**
+     * Image received by the backend, not yet stored.
+     *
+     * @param size   Exact size in bytes
+     * @param source Opens the image data; called once, on an upload thread
+     */
+    public record IncomingImage(String filename, String contentType, long size, ImageSource source) {}
+
+    @FunctionalInterface
+    public interface ImageSource {
+        InputStream open() throws IOException;
+    }
+
+    public record IngestResult(UUID sessionId, int imagesEnqueued, int imagesDeduplicated) {}
+
+    private record Registered(Registration registration, int enqueued) {}
+
+    /**
+     * Upload, register and enqueue a new session.
+     *
+     * @throws IllegalStateException if an upload fails (uploaded objects are removed)
+     */
+    public IngestResult ingest(List<IncomingImage> images, String pipeline) {
+        UUID sessionId = UUID.randomUUID();
+        String tenantId = tenantContext.getCurrentTenantId();
+
+        long start = System.nanoTime();
+        List<StoredImage> stored = uploadAll(sessionId, images);
+        log.infof("Uploaded %d images for session %s in %d ms", images.size(), sessionId,
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+
+        List<NewImage> rows = new ArrayList<>(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            IncomingImage image = images.get(i);
+            rows.add(new NewImage(UUID.randomUUID(), stored.get(i).storagePath(),
+                    image.filename(), image.size(), image.contentType(), stored.get(i).contentSha256()));
+        }
+
+        String callbackUrl = callbackBaseUrl.isEmpty() ? null : callbackBaseUrl + "/api/v1/ml/callback";
+        Registered registered;
+        try {
+            registered = QuarkusTransaction.requiringNew().call(() -> {
+                Registration registration = imageService.registerUploadedSession(sessionId, rows);
+                int queued = 0;
+                for (NewImage row : registration.unique()) {
+                    ProcessingTaskRequest taskRequest = ProcessingTaskRequest.of(
+                            tenantId,
+                            sessionId,
+                            row.id(),
+                            row.storageUrl(),
+                            pipeline,
+                            callbackUrl
+                    );
+                    if (taskQueue.enqueue(taskRequest) != null) {
+                        queued++;
+                    }
+                }
+                return new Registered(registration, queued);
+            });
+        } catch (RuntimeException e) {
+            log.errorf("Failed to register session %s, removing %d uploaded objects", sessionId, rows.size());
+            deleteQuietly(rows.stream().map(NewImage::storageUrl).toList());
+            throw e;
+        }
+
+        // Duplicate rows point at the canonical image's object; their own uploads are unreferenced
+        Registration registration = registered.registration();
+        List<NewImage> duplicates = registration.duplicates();
+        deleteQuietly(duplicates.stream().map(NewImage::storageUrl).toList());
+
+        log.infof("Enqueued %d images for session %s, %d deduplicated", registered.enqueued(), sessionId,
+                duplicates.size());
+        imageDerivativeService.request(tenantId, registration.unique().stream().map(NewImage::id).toList());
+        return new IngestResult(sessionId, registered.enqueued(), duplicates.size());
+    }
+
+    /**
+     * Upload all images in parallel.
+     *
+     * @return Stored images, in input order
+     */
+    private List<StoredImage> uploadAll(UUID sessionId, List<IncomingImage> images) {
+        Semaphore permits = new Semaphore(uploadConcurrency);
+        List<Future<StoredImage>> futures = new ArrayList<>(images.size());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (IncomingImage image : images) {
+                futures.add(executor.submit(() -> upload(sessionId, image, permits)));
+            }
+        }
+
+        List<StoredImage> stored = new ArrayList<>(images.size());
+        Throwable failure = null;
+        for (Future<StoredImage> future : futures) {
+            try {
+                stored.add(future.get());
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : e;
+            }
+        }
+
+        if (failure != null) {
+            log.errorf("Upload failed for session %s, removing %d uploaded objects", sessionId, stored.size());
+            deleteQuietly(stored.stream().map(StoredImage::storagePath).toList());
+            throw new IllegalStateException("Failed to upload images: " + failure.getMessage(), failure);
+        }
+        return stored;
+    }
+
+    private StoredImage upload(UUID sessionId, IncomingImage image, Semaphore permits) throws Exception {
+        permits.acquire();
+        try (InputStream data = image.source().open()) {
+            return imageService.uploadAndStoreImage(
+                    sessionId, data, image.size(), image.filename(), image.contentType());
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void deleteQuietly(List<String> storagePaths) {
+        for (String storagePath : storagePaths) {
+            try {
+                storageService.delete(storagePath);
+            } catch (RuntimeException e) {
+                log.warnf("Failed to remove orphaned object %s: %s", storagePath, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
+import com.fortytwo.demeter.fotos.event.SessionProgressEvent;
+import com.fortytwo.demeter.fotos.model.ProcessingStatus;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process wake-ups for clients waiting on a session's status.
+ *
+ * <p>Status long-polls and streams {@link #subscribe} to a session and park
+ * their (virtual) thread in {@link Subscription#await}; every committed
+ * {@link SessionProgressEvent} for the session wakes them with the new
+ * status, so waiting costs no queries.
+ *
+ * <p>Only changes committed by this instance are seen. Waiters re-read the
+ * session when {@code await} times out, which picks up callbacks handled
+ * by other instances.
+ */
+@ApplicationScoped
+public class SessionStatusNotifier {
+
+    private final ConcurrentHashMap<UUID, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Start receiving status changes of a session. Subscribe before reading
+     * the current status, so that no change committed in between is missed.
+     *
+     * @param sessionId Session to watch
+     * @param tenantId  Tenant of the caller; changes of other tenants are not delivered
+     * @return Subscription, to be closed when the caller stops waiting
+     */
+    public Subscription subscribe(UUID sessionId, String tenantId) {
+        Subscription subscription = new Subscription(sessionId, tenantId);
+        subscriptions.compute(sessionId, (id, subscribers) -> {
+            Set<Subscription> set = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            set.add(subscription);
+            return set;
+        });
+        return subscription;
+    }
+
+    void onProgress(@Observes(during = TransactionPhase.AFTER_SUCCESS) SessionProgressEvent event) {
+        Set<Subscription> subscribers = subscriptions.get(event.sessionId());
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            if (subscription.tenantId.equals(event.tenantId())) {
+                subscription.deliver(event.status());
+            }
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscriptions.computeIfPresent(subscription.sessionId, (id, subscribers) -> {
+            subscribers.remove(subscription);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * Whether a session has reached a status it will not leave.
+     */
+    public static boolean isFinished(SessionStatusDTO status) {
+        return ProcessingStatus.COMPLETED.name().equals(status.status())
+                || ProcessingStatus.FAILED.name().equals(status.status());
+    }
+
+    /**
+     * A waiter's view of one session: the newest status it has seen and
+     * whether a newer one was delivered since it last looked.
+     *
+     * <p>Events of one session can be observed out of order when callbacks
+     * commit concurrently; statuses older than the newest seen are dropped.
+     */
+    public final class Subscription implements AutoCloseable {
+
+        private final UUID sessionId;
+        private final String tenantId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private SessionStatusDTO latest;
+        private boolean pending;
+
+        private Subscription(UUID sessionId, String tenantId) {
+            this.sessionId = sessionId;
+            this.tenantId = tenantId;
+        }
+
+        /**
+         * Record a status the caller has read or sent. Deliveries that are not
+         * newer than it no longer wake {@link #await}.
+         */
+        public void seen(SessionStatusDTO status) {
+            lock.lock();
+            try {
+                if (latest == null || !isNewer(latest, status)) {
+                    latest = status;
+                    pending = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Wait for a status newer than the last one {@link #seen}.
+         *
+         * @param timeout Longest time to wait
+         * @return The newest status, or empty if none arrived in time or the
+         *         thread was interrupted (the interrupt flag is kept)
+         */
+        public Optional<SessionStatusDTO> await(Duration timeout) {
+            long nanos = timeout.toNanos();
+            lock.lock();
+            try {
+                while (!pending) {
+                    if (nanos <= 0) {
+                        return Optional.empty();
+                    }
+                    nanos = changed.awaitNanos(nanos);
+                }
+                pending = false;
+                return Optional.of(latest);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void deliver(SessionStatusDTO status) {
+            lock.lock();
+            try {
+                if (latest == null || isNewer(status, latest)) {
+                    latest = status;
+                    pending = true;
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+
+    private static boolean isNewer(SessionStatusDTO candidate, SessionStatusDTO current) {
+        return candidate.processedImages() > current.processedImages()
+                || (candidate.processedImages() == current.processedImages()
+                        && !candidate.status().equals(current.status()));
+    }
+}
@@ -0,0 +1,40 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fortytwo.demeter.common.exception.EntityNotFoundException;
+import com.fortytwo.demeter.common.taskqueue.TaskDispatchFailedEvent;
+import com.fortytwo.demeter.common.tenant.TenantScope;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+/**
+ * Fails the session of an image whose ML task could not be dispatched or
+ * was dead-lettered.
+ *
+ * <p>Without its task the image never gets a result, so the session would
+ * stay in PROCESSING forever.
+ */
+@ApplicationScoped
+public class TaskDispatchFailureObserver {
+
+    private static final Logger log = Logger.getLogger(TaskDispatchFailureObserver.class);
+
+    @Inject
+    ProcessingResultService processingResultService;
+
+    @Inject
+    TenantScope tenantScope;
+
+    void onDispatchFailed(@Observes TaskDispatchFailedEvent event) {
+        if (event.sessionId() == null) {
+            return;
+        }
+        try {
+            tenantScope.run(event.tenantId(), () -> processingResultService.markFailed(
+                    event.sessionId(), event.imageId(), "ML task failed: " + event.error()));
+        } catch (EntityNotFoundException e) {
+            log.warnf("Session %s of undispatched image %s no longer exists", event.sessionId(), event.imageId());
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.fortytwo.demeter.fotos.service;
+
+import com.fortytwo.demeter.common.cloudtasks.ProcessingTaskRequest;
+import com.fortytwo.demeter.common.exception.EntityNotFoundException;
+import com.fortytwo.demeter.common.taskqueue.TaskQueue;
+import com.fortytwo.demeter.common.tenant.TenantContext;
+import com.fortytwo.demeter.fotos.dto.CreateUploadSessionRequest;
+import com.fortytwo.demeter.fotos.dto.CreateUploadSessionRequest.ExpectedImage;
+import com.fortytwo.demeter.fotos.dto.SessionStatusDTO;
+import com.fortytwo.demeter.fotos.dto.UploadSessionDTO;
+import com.fortytwo.demeter.fotos.dto.UploadSessionDTO.UploadTarget;
+import com.fortytwo.demeter.fotos.model.Image;
+import com.fortytwo.demeter.fotos.model.PhotoProcessingSession;
+import com.fortytwo.demeter.fotos.model.ProcessingStatus;
+import com.fortytwo.demeter.fotos.repository.ImageRepository;
+import com.fortytwo.demeter.fotos.repository.PhotoProcessingSessionRepository;
+import com.fortytwo.demeter.fotos.storage.StorageService;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Two-phase direct-to-storage uploads.
+ *
+ * <p>Flow:
+ * 1. {@link #createUploadSession} creates a PENDING session with one image
+ *    record and one signed upload URL per expected image
+ * 2. The client PUTs each image straight to storage
+ * 3. {@link #finalizeUploadSession} checks every object exists with the
+ *    expected size, then enqueues ML processing and moves the session to PROCESSING
+ *
+ * <p>Uploads never pass through the backend; once finalized, the images are
+ * read back in the background by {@link ImageDerivativeService}.
+ */
+@ApplicationScoped
+public class UploadSessionService {
+
+    private static final Logger log = Logger.getLogger(UploadSessionService.class);
+
+    private static final String DEFAULT_PIPELINE = "SEGMENT_DETECT";
+
+    @Inject
+    PhotoProcessingSessionRepository sessionRepository;
+
+    @Inject
+    ImageRepository imageRepository;
+
+    @Inject
+    ImageService imageService;
+
+    @Inject
+    StorageService storageService;
+
+    @Inject
+    TaskQueue taskQueue;
+
+    @Inject
+    ImageDerivativeService imageDerivativeService;
+
+    @Inject
+    TenantContext tenantContext;
+
+    @ConfigProperty(name = "demeter.backend.callback-url", defaultValue = "")
+    String callbackBaseUrl;
+
+    @ConfigProperty(name = "demeter.ml.upload.url-expiration-minutes", defaultValue = "15")
+    int uploadUrlExpirationMinutes;
+
+    @ConfigProperty(name = "demeter.ml.upload.max-part-bytes", defaultValue = "26214400")
+    long maxPartBytes;
+
+    @ConfigProperty(name = "demeter.ml.upload.max-parts", defaultValue = "100")
+    int maxParts;
+
+    @ConfigProperty(name = "demeter.ml.upload.allowed-content-types", defaultValue = "image/jpeg,image/png,image/webp")
+    List<String> allowedContentTypes;
+
+    /**
+     * Create a PENDING session and sign one upload URL per expected image.
+     *
+     * @throws BadRequestException if the images exceed the upload limits
+     */
+    @Transactional
+    public UploadSessionDTO createUploadSession(CreateUploadSessionRequest request) {
+        List<ExpectedImage> expected = request.images();
+        validateExpectedImages(expected);
+
+        PhotoProcessingSession session = new PhotoProcessingSession();
+        session.setStatus(ProcessingStatus.PENDING);
+        session.setTotalImages(expected.size());
+        session.setProcessedImages(0);
+        sessionRepository.persist(session);
+
+        Duration expiration = Duration.ofMinutes(uploadUrlExpirationMinutes);
+        Instant expiresAt = Instant.now().plus(expiration);
+
+        List<UploadTarget> uploads = new ArrayList<>(expected.size());
+        for (ExpectedImage item : expected) {
+            String contentType = normalizeContentType(item.contentType());
+            String path = imageService.generateStoragePath(session.getId(), item.filename());
+
+            Image image = new Image();
+            image.setSession(session);
+            image.setStorageUrl(storageService.resolveStoragePath(path));
+            image.setOriginalFilename(item.filename());
+            image.setFileSize(item.fileSize());
+            image.setMimeType(contentType);
+            imageRepository.persist(image);
+
+            String uploadUrl = storageService.generateUploadUrl(path, contentType, expiration);
+            uploads.add(new UploadTarget(image.getId(), item.filename(), contentType, uploadUrl));
+        }
+
+        log.infof("Created upload session %s with %d signed upload URLs", session.getId(), uploads.size());
+
+        return new UploadSessionDTO(session.getId(), session.getStatus().name(), expiresAt, uploads);
+    }
+
+    /**
+     * Verify every image of a PENDING upload session is in storage and enqueue
+     * them for ML processing.
+     *
+     * <p>The storage lookups run outside any transaction. The session then
+     * moves from PENDING to PROCESSING with one conditional UPDATE, so of
+     * concurrent finalize calls exactly one enqueues the images.
+     *
+     * @param pipeline ML pipeline, or null for the default
+     * @throws EntityNotFoundException if the session does not exist
+     * @throws ClientErrorException    (409) if the session was already finalized
+     * @throws BadRequestException     if an image is missing, has the wrong size or is too large
+     */
+    public SessionStatusDTO finalizeUploadSession(UUID sessionId, String pipeline) {
+        String tenantId = tenantContext.getCurrentTenantId();
+
+        List<Image> images = QuarkusTransaction.requiringNew().call(() -> {
+            PhotoProcessingSession session = sessionRepository.findByIdOptional(sessionId)
+                    .orElseThrow(() -> new EntityNotFoundException("PhotoProcessingSession", sessionId));
+            if (session.getStatus() != ProcessingStatus.PENDING) {
+                throw alreadyFinalized(sessionId, session.getStatus());
+            }
+            return imageRepository.findBySessionId(sessionId);
+        });
+        if (images.isEmpty()) {
+            throw new BadRequestException("Session " + sessionId + " has no images to finalize");
+        }
+
+        Map<UUID, Long> verifiedSizes = new HashMap<>();
+        List<String> problems = new ArrayList<>();
+        for (Image image : images) {
+            Optional<Long> actualSize = storageService.getSize(image.getStorageUrl());
+            if (actualSize.isEmpty()) {
+                problems.add(image.getOriginalFilename() + " was not uploaded");
+            } else if (image.getFileSize() != null && !image.getFileSize().equals(actualSize.get())) {
+                problems.add(image.getOriginalFilename() + " is " + actualSize.get()
+                        + " bytes, expected " + image.getFileSize());
+            } else if (actualSize.get() <= 0 || actualSize.get() > maxPartBytes) {
+                problems.add(image.getOriginalFilename() + " is " + actualSize.get()
+                        + " bytes (max " + maxPartBytes + ")");
+            } else {
+                verifiedSizes.put(image.getId(), actualSize.get());
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new BadRequestException("Uploads incomplete: " + String.join("; ", problems));
+        }
+
+        String effectivePipeline = pipeline != null && !pipeline.isBlank() ? pipeline : DEFAULT_PIPELINE;
+        String callbackUrl = callbackBaseUrl.isEmpty() ? null : callbackBaseUrl + "/api/v1/ml/callback";
+
+        return QuarkusTransaction.requiringNew().call(() -> {
+            if (!sessionRepository.startPending(sessionId, tenantId)) {
+                throw alreadyFinalized(sessionId, null);
+            }
+
+            int enqueued = 0;
+            List<Image> managed = imageRepository.findBySessionId(sessionId);
+            for (Image image : managed) {
+                image.setFileSize(verifiedSizes.get(image.getId()));
+                ProcessingTaskRequest taskRequest = ProcessingTaskRequest.of(
+                        tenantId,
+                        sessionId,
+                        image.getId(),
+                        image.getStorageUrl(),
+                        effectivePipeline,
+                        callbackUrl
+                );
+                if (taskQueue.enqueue(taskRequest) != null) {
+                    enqueued++;
+                }
+            }
+
+            imageDerivativeService.requestAfterCommit(tenantId, managed.stream().map(Image::getId).toList());
+            log.infof("Finalized upload session %s: %d images verified, %d enqueued",
+                    sessionId, managed.size(), enqueued);
+
+            return SessionStatusDTO.from(sessionRepository.findById(sessionId));
+        });
+    }
+
+    private static ClientErrorException alreadyFinalized(UUID sessionId, ProcessingStatus status) {
+        String message = status != null
+                ? "Session " + sessionId + " is already " + status
+                : "Session " + sessionId + " was already finalized";
+        return new ClientErrorException(message, Response.Status.CONFLICT);
+    }
+
+    private void validateExpectedImages(List<ExpectedImage> expected) {
+        if (expected.size() > maxParts) {
+            throw new BadRequestException("Too many images: " + expected.size() + " (max " + maxParts + ")");
+        }
+        for (ExpectedImage item : expected) {
+            String contentType = normalizeContentType(item.contentType());
+            if (!allowedContentTypes.contains(contentType)) {
+                throw new BadRequestException("Invalid content type for " + item.filename() + ": " + contentType
+                        + ". Allowed: " + String.join(", ", allowedContentTypes));
+            }
+            if (item.fileSize() != null && (item.fileSize() <= 0 || item.fileSize() > maxPartBytes)) {
+                throw new BadRequestException("Image " + item.filename() + " is " + item.fileSize()
+                        + " bytes (max " + maxPartBytes + ")");
+            }
+        }
+    }
+
+    private static String normalizeContentType(String contentType) {
+        int paramsIndex = contentType.indexOf(';');
+        String mediaType = paramsIndex >= 0 ? contentType.substring(0, paramsIndex) : contentType;
+        return mediaType.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,16 +1,24 @@
 package com.fortytwo.demeter.fotos.storage;
 
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.*;
 import io.quarkus.arc.profile.UnlessBuildProfile;
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
@@ -35,6 +43,13 @@ public class GcsStorageService implements StorageService {
 
     private static final Logger log = Logger.getLogger(GcsStorageService.class);
 
+    /** Resumable upload chunk buffered per stream (must be a multiple of 256 KiB). */
+    private static final int UPLOAD_CHUNK_SIZE = 2 * 1024 * 1024;
+
+    private static final Storage.BlobField[] METADATA_FIELDS = {
+            Storage.BlobField.SIZE, Storage.BlobField.CONTENT_TYPE, Storage.BlobField.ETAG,
+            Storage.BlobField.UPDATED, Storage.BlobField.GENERATION};
+
     @ConfigProperty(name = "demeter.storage.bucket")
     String bucketName;
 
@@ -44,6 +59,15 @@ public class GcsStorageService implements StorageService {
     @ConfigProperty(name = "demeter.storage.base-path", defaultValue = "images")
     String basePath;
 
+    @ConfigProperty(name = "demeter.storage.archive.prefix", defaultValue = "archive")
+    String archivePrefix;
+
+    @ConfigProperty(name = "demeter.storage.archive.storage-class", defaultValue = "COLDLINE")
+    String archiveStorageClass;
+
+    @Inject
+    SignedUrlCache signedUrlCache;
+
     private Storage storage;
 
     @PostConstruct
@@ -90,8 +114,52 @@ public class GcsStorageService implements StorageService {
         }
     }
 
+    /**
+     * Streams through a resumable upload; only one chunk is held in memory.
+     */
+    @Override
+    public String upload(InputStream data, long contentLength, String path, String contentType) {
+        String fullPath = basePath + "/" + path;
+
+        BlobId blobId = BlobId.of(bucketName, fullPath);
+        BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
+                .setContentType(contentType)
+                .build();
+
+        long written;
+        try (WriteChannel writer = storage.writer(blobInfo)) {
+            writer.setChunkSize(UPLOAD_CHUNK_SIZE);
+            written = data.transferTo(Channels.newOutputStream(writer));
+        } catch (IOException | StorageException e) {
+            log.errorf("Failed to upload to cloud storage: %s - %s", fullPath, e.getMessage());
+            throw new RuntimeException("Failed to upload to cloud storage: " + e.getMessage(), e);
+        }
+
+        if (written != contentLength) {
+            storage.delete(blobId);
+            throw new RuntimeException(String.format(
+                    "Upload size mismatch for %s: expected %d bytes, got %d", fullPath, contentLength, written));
+        }
+
+        String storageUrl = String.format("gs://%s/%s", bucketName, fullPath);
+        log.infof("Uploaded to cloud storage: %s (%d bytes, streamed)", storageUrl, written);
+        return storageUrl;
+    }
+
     @Override
     public String generateReadUrl(String storagePath, Duration expiration) {
+        return signedUrlCache.get(storagePath, expiration, path -> signReadUrl(path, expiration));
+    }
+
+    /**
+     * Cached URLs are reused; misses are V4-signed in parallel (see {@link SignedUrlCache}).
+     */
+    @Override
+    public Map<String, String> generateReadUrlsBatch(List<String> storagePaths, Duration expiration) {
+        return signedUrlCache.getAll(storagePaths, expiration, path -> signReadUrl(path, expiration));
+    }
+
+    private String signReadUrl(String storagePath, Duration expiration) {
         String blobPath = extractBlobPath(storagePath);
         BlobId blobId = BlobId.of(bucketName, blobPath);
         BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
@@ -145,6 +213,67 @@ public class GcsStorageService implements StorageService {
         }
     }
 
+    @Override
+    public String resolveStoragePath(String path) {
+        return String.format("gs://%s/%s/%s", bucketName, basePath, path);
+    }
+
+    @Override
+    public Optional<Long> getSize(String storagePath) {
+        String blobPath = extractBlobPath(storagePath);
+        BlobId blobId = BlobId.of(bucketName, blobPath);
+
+        try {
+            Blob blob = storage.get(blobId, Storage.BlobGetOption.fields(Storage.BlobField.SIZE));
+            return blob != null ? Optional.ofNullable(blob.getSize()) : Optional.empty();
+
+        } catch (StorageException e) {
+            log.errorf("Failed to read metadata from cloud storage: %s - %s", storagePath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<StoredObject.Metadata> getMetadata(String storagePath) {
+        String blobPath = extractBlobPath(storagePath);
+        BlobId blobId = BlobId.of(bucketName, blobPath);
+
+        try {
+            Blob blob = storage.get(blobId, Storage.BlobGetOption.fields(METADATA_FIELDS));
+            return Optional.ofNullable(blob).map(GcsStorageService::toMetadata);
+
+        } catch (StorageException e) {
+            log.errorf("Failed to read metadata from cloud storage: %s - %s", storagePath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Streams through a {@link ReadChannel}, which fetches the object in
+     * chunks as it is read.
+     */
+    @Override
+    public Optional<StoredObject> openRead(String storagePath) {
+        String blobPath = extractBlobPath(storagePath);
+        Blob blob = storage.get(BlobId.of(bucketName, blobPath), Storage.BlobGetOption.fields(METADATA_FIELDS));
+        if (blob == null) {
+            return Optional.empty();
+        }
+
+        // Read the generation the metadata describes, even if the object is replaced meanwhile
+        ReadChannel reader = storage.reader(BlobId.of(bucketName, blobPath, blob.getGeneration()));
+        log.debugf("Opened cloud storage object for streaming: %s (%d bytes)", storagePath, blob.getSize());
+        return Optional.of(new StoredObject(toMetadata(blob), reader));
+    }
+
+    private static StoredObject.Metadata toMetadata(Blob blob) {
+        return new StoredObject.Metadata(
+                blob.getSize(),
+                blob.getContentType(),
+                "\"" + blob.getEtag() + "\"",
+                blob.getUpdateTime() != null ? Instant.ofEpochMilli(blob.getUpdateTime()) : null);
+    }
+
     @Override
     public Optional<byte[]> download(String storagePath) {
         String blobPath = extractBlobPath(storagePath);
@@ -174,6 +303,7 @@ public class GcsStorageService implements StorageService {
 
         try {
             boolean deleted = storage.delete(blobId);
+            signedUrlCache.invalidate(storagePath);
             if (deleted) {
                 log.infof("Deleted from cloud storage: %s", storagePath);
             }
@@ -185,6 +315,48 @@ public class GcsStorageService implements StorageService {
         }
     }
 
+    /**
+     * Rewrites the object server-side into {@code demeter.storage.archive.storage-class},
+     * keeping its content type; nothing passes through this process.
+     */
+    @Override
+    public Optional<String> copyToArchive(String storagePath) {
+        String blobPath = extractBlobPath(storagePath);
+        if (blobPath.startsWith(archivePrefix + "/")) {
+            return exists(storagePath) ? Optional.of(storagePath) : Optional.empty();
+        }
+        String archivePath = archivePrefix + "/" + blobPath;
+
+        try {
+            Blob source = storage.get(BlobId.of(bucketName, blobPath),
+                    Storage.BlobGetOption.fields(Storage.BlobField.CONTENT_TYPE));
+            if (source == null) {
+                return Optional.empty();
+            }
+            BlobInfo target = BlobInfo.newBuilder(BlobId.of(bucketName, archivePath))
+                    .setContentType(source.getContentType())
+                    .setStorageClass(StorageClass.valueOfStrict(archiveStorageClass))
+                    .build();
+            // Large objects take several rewrite calls; getResult() drives them all
+            storage.copy(Storage.CopyRequest.newBuilder()
+                            .setSource(source.getBlobId())
+                            .setTarget(target)
+                            .build())
+                    .getResult();
+
+            String archiveUrl = String.format("gs://%s/%s", bucketName, archivePath);
+            log.infof("Archived in cloud storage: %s -> %s (%s)", storagePath, archiveUrl, archiveStorageClass);
+            return Optional.of(archiveUrl);
+
+        } catch (StorageException e) {
+            if (e.getCode() == 404) {
+                return Optional.empty();
+            }
+            log.errorf("Failed to archive in cloud storage: %s - %s", storagePath, e.getMessage());
+            throw new RuntimeException("Failed to archive in cloud storage: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public boolean exists(String storagePath) {
         String blobPath = extractBlobPath(storagePath);
@@ -3,13 +3,32 @@ package com.fortytwo.demeter.fotos.storage;
 import io.quarkus.arc.profile.IfBuildProfile;
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -26,17 +45,29 @@ public class LocalStorageService implements StorageService {
 
     private static final Logger log = Logger.getLogger(LocalStorageService.class);
 
+    private static final String SIGNING_ALGORITHM = "HmacSHA256";
+
     @ConfigProperty(name = "demeter.storage.local.base-path", defaultValue = "/tmp/demeter-storage")
     String basePath;
 
     @ConfigProperty(name = "demeter.storage.local.base-url", defaultValue = "http://localhost:8080/api/v1/storage")
     String baseUrl;
 
+    @ConfigProperty(name = "demeter.storage.archive.prefix", defaultValue = "archive")
+    String archivePrefix;
+
+    @Inject
+    SignedUrlCache signedUrlCache;
+
     private Path storageRoot;
+    private byte[] signingKey;
 
     @PostConstruct
     void init() {
         storageRoot = Path.of(basePath);
+        // Upload URLs only need to survive as long as this process
+        signingKey = new byte[32];
+        new SecureRandom().nextBytes(signingKey);
         try {
             Files.createDirectories(storageRoot);
             log.infof("Local storage initialized at: %s", storageRoot.toAbsolutePath());
@@ -68,20 +99,171 @@ public class LocalStorageService implements StorageService {
         }
     }
 
+    @Override
+    public String upload(InputStream data, long contentLength, String path, String contentType) {
+        Path targetPath = storageRoot.resolve(path);
+
+        try {
+            Files.createDirectories(targetPath.getParent());
+
+            long written = Files.copy(data, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            if (written != contentLength) {
+                Files.deleteIfExists(targetPath);
+                throw new RuntimeException(String.format(
+                        "Upload size mismatch for %s: expected %d bytes, got %d", path, contentLength, written));
+            }
+
+            log.infof("Stored file locally: %s (%d bytes, streamed)", path, written);
+            return path;
+
+        } catch (IOException e) {
+            log.errorf("Failed to store file: %s - %s", path, e.getMessage());
+            throw new RuntimeException("Failed to store file: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public String generateReadUrl(String storagePath, Duration expiration) {
+        return signedUrlCache.get(storagePath, expiration, path -> signReadUrl(path, expiration));
+    }
+
+    /**
+     * Same caching and parallel signing as the cloud implementation, so it can
+     * be exercised without GCS.
+     */
+    @Override
+    public Map<String, String> generateReadUrlsBatch(List<String> storagePaths, Duration expiration) {
+        return signedUrlCache.getAll(storagePaths, expiration, path -> signReadUrl(path, expiration));
+    }
+
+    private String signReadUrl(String storagePath, Duration expiration) {
         // For local dev, we serve files through a backend endpoint
-        // The "signature" is just a dummy param for dev
-        String url = baseUrl + "/" + storagePath + "?expires=" + System.currentTimeMillis() + expiration.toMillis();
+        // The "signature" is just an expiry param for dev
+        long expiresAt = Instant.now().plus(expiration).getEpochSecond();
+        String url = baseUrl + "/" + storagePath + "?expires=" + expiresAt;
         log.debugf("Generated local read URL: %s", url);
         return url;
     }
 
+    /**
+     * Returns a URL for {@code PUT /api/v1/storage/upload/...}, signed with an
+     * HMAC over path, content type and expiry so it behaves like a cloud
+     * signed upload URL.
+     */
     @Override
     public String generateUploadUrl(String path, String contentType, Duration expiration) {
-        // For local dev, direct upload isn't really needed
-        // Return a URL that would accept PUT requests
-        return baseUrl + "/upload/" + path + "?expires=" + System.currentTimeMillis() + expiration.toMillis();
+        long expiresAt = Instant.now().plus(expiration).getEpochSecond();
+        return baseUrl + "/upload/" + path + "?expires=" + expiresAt
+                + "&signature=" + signUpload(path, contentType, expiresAt);
+    }
+
+    /**
+     * Check a signature produced by {@link #generateUploadUrl}.
+     *
+     * @return true if the signature matches and has not expired
+     */
+    public boolean isValidUploadSignature(String path, String contentType, long expiresAt, String signature) {
+        if (signature == null || Instant.now().getEpochSecond() > expiresAt) {
+            return false;
+        }
+        byte[] expected = signUpload(path, contentType, expiresAt).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String signUpload(String path, String contentType, long expiresAt) {
+        String mediaType = contentType == null ? "" : contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        String payload = "PUT\n" + mediaType + "\n" + expiresAt + "\n" + path;
+        try {
+            Mac mac = Mac.getInstance(SIGNING_ALGORITHM);
+            mac.init(new SecretKeySpec(signingKey, SIGNING_ALGORITHM));
+            byte[] signature = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign local upload URL", e);
+        }
+    }
+
+    @Override
+    public String resolveStoragePath(String path) {
+        return path;
+    }
+
+    @Override
+    public Optional<Long> getSize(String storagePath) {
+        Path filePath = storageRoot.resolve(storagePath);
+        try {
+            return Files.exists(filePath) ? Optional.of(Files.size(filePath)) : Optional.empty();
+        } catch (IOException e) {
+            log.errorf("Failed to stat file: %s - %s", storagePath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<StoredObject.Metadata> getMetadata(String storagePath) {
+        try {
+            return Optional.of(readMetadata(storagePath));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            log.errorf("Failed to stat file: %s - %s", storagePath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<StoredObject> openRead(String storagePath) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(storageRoot.resolve(storagePath), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open file: " + storagePath, e);
+        }
+
+        try {
+            return Optional.of(new StoredObject(readMetadata(storagePath), channel));
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException("Failed to stat file: " + storagePath, e);
+        }
+    }
+
+    /**
+     * The entity tag is derived from size and modification time, like most
+     * static file servers, so it changes whenever the file is rewritten.
+     */
+    private StoredObject.Metadata readMetadata(String storagePath) throws IOException {
+        BasicFileAttributes attributes =
+                Files.readAttributes(storageRoot.resolve(storagePath), BasicFileAttributes.class);
+        long modifiedMillis = attributes.lastModifiedTime().toMillis();
+        return new StoredObject.Metadata(
+                attributes.size(),
+                contentTypeOf(storagePath),
+                "\"" + Long.toHexString(attributes.size()) + "-" + Long.toHexString(modifiedMillis) + "\"",
+                Instant.ofEpochMilli(modifiedMillis));
+    }
+
+    /**
+     * Local files carry no content type; derive it from the extension.
+     */
+    private static String contentTypeOf(String storagePath) {
+        String lower = storagePath.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (lower.endsWith(".png")) {
+            return "image/png";
+        } else if (lower.endsWith(".webp")) {
+            return "image/webp";
+        } else if (lower.endsWith(".gif")) {
+            return "image/gif";
+        }
+        return "application/octet-stream";
     }
 
     @Override
@@ -109,6 +291,7 @@ public class LocalStorageService implements StorageService {
 
         try {
             boolean deleted = Files.deleteIfExists(filePath);
+            signedUrlCache.invalidate(storagePath);
             if (deleted) {
                 log.infof("Deleted file: %s", storagePath);
             }
@@ -119,6 +302,27 @@ public class LocalStorageService implements StorageService {
         }
     }
 
+    @Override
+    public Optional<String> copyToArchive(String storagePath) {
+        if (storagePath.startsWith(archivePrefix + "/")) {
+            return exists(storagePath) ? Optional.of(storagePath) : Optional.empty();
+        }
+        String archivePath = archivePrefix + "/" + storagePath;
+        Path targetPath = storageRoot.resolve(archivePath);
+
+        try {
+            Files.createDirectories(targetPath.getParent());
+            Files.copy(storageRoot.resolve(storagePath), targetPath, StandardCopyOption.REPLACE_EXISTING);
+            log.infof("Archived file locally: %s -> %s", storagePath, archivePath);
+            return Optional.of(archivePath);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            log.errorf("Failed to archive file: %s - %s", storagePath, e.getMessage());
+            throw new RuntimeException("Failed to archive file: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public boolean exists(String storagePath) {
         return Files.exists(storageRoot.resolve(storagePath));
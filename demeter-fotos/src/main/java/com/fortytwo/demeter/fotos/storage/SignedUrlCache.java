@@ -0,0 +1,206 @@
+package com.fortytwo.demeter.fotos.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Cache and parallel signer for storage read URLs, shared by all
+ * {@link StorageService} implementations.
+ *
+ * <p>Signing a V4 URL costs an RSA signature, so the same object requested
+ * again (map thumbnails, session galleries) reuses the URL it was given before.
+ * Entries are keyed by object path and requested TTL, and are reused only
+ * for the first {@code demeter.storage.signed-url-cache.reuse-fraction} of
+ * the TTL (half by default), so a cached URL always has at least the rest of
+ * its validity left: 30 minutes of a 60-minute URL.
+ *
+ * <p>Batch misses are signed in parallel on virtual threads. A global permit
+ * pool ({@code demeter.storage.signing.max-concurrency}) bounds how many
+ * signatures run at once across all requests, so one large gallery cannot
+ * monopolize the CPU.
+ */
+@ApplicationScoped
+public class SignedUrlCache {
+
+    private static final Logger log = Logger.getLogger(SignedUrlCache.class);
+
+    @ConfigProperty(name = "demeter.storage.signed-url-cache.maximum-size", defaultValue = "50000")
+    long maximumSize;
+
+    @ConfigProperty(name = "demeter.storage.signed-url-cache.reuse-fraction", defaultValue = "0.5")
+    double reuseFraction;
+
+    @ConfigProperty(name = "demeter.storage.signing.max-concurrency", defaultValue = "8")
+    int maxConcurrency;
+
+    private Cache<Key, Entry> cache;
+    private Semaphore signingPermits;
+
+    record Key(String storagePath, long ttlSeconds) {}
+
+    record Entry(String url, Instant reuseUntil) {}
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<Key, Entry>() {
+                    @Override
+                    public long expireAfterCreate(Key key, Entry entry, long currentTime) {
+                        return remainingNanos(entry);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, Entry entry, long currentTime, long currentDuration) {
+                        return remainingNanos(entry);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        signingPermits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Get a read URL for one object, signing it on a miss.
+     *
+     * @param storagePath Object path
+     * @param expiration  Requested URL validity
+     * @param signer      Signs a path with the given expiration
+     * @return Signed URL
+     */
+    public String get(String storagePath, Duration expiration, Function<String, String> signer) {
+        return cache.get(new Key(storagePath, expiration.toSeconds()),
+                key -> sign(key, expiration, signer)).url();
+    }
+
+    /**
+     * Get read URLs for many objects. Cached URLs are returned as-is; the rest
+     * are signed in parallel.
+     *
+     * <p>Paths that fail to sign map to an empty string and are not cached.
+     *
+     * @param storagePaths Object paths (duplicates are signed once)
+     * @param expiration   Requested URL validity
+     * @param signer       Signs a path with the given expiration
+     * @return Map of storage path to signed URL, in input order
+     */
+    public Map<String, String> getAll(Collection<String> storagePaths, Duration expiration,
+                                      Function<String, String> signer) {
+        long ttlSeconds = expiration.toSeconds();
+        Set<Key> keys = new LinkedHashSet<>();
+        for (String path : storagePaths) {
+            keys.add(new Key(path, ttlSeconds));
+        }
+
+        Map<Key, Entry> entries = cache.getAll(keys, missing -> signAll(missing, expiration, signer));
+
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (Key key : keys) {
+            Entry entry = entries.get(key);
+            urls.put(key.storagePath(), entry != null ? entry.url() : "");
+        }
+        return urls;
+    }
+
+    /**
+     * Drop every cached URL for an object (e.g. after it was deleted or replaced).
+     */
+    public void invalidate(String storagePath) {
+        cache.asMap().keySet().removeIf(key -> key.storagePath().equals(storagePath));
+    }
+
+    private Map<Key, Entry> signAll(Set<? extends Key> missing, Duration expiration,
+                                    Function<String, String> signer) {
+        Map<Key, Entry> signed = new HashMap<>();
+        if (missing.size() == 1) {
+            Key key = missing.iterator().next();
+            tryPut(signed, key, () -> sign(key, expiration, signer));
+            return signed;
+        }
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Key> order = new ArrayList<>(missing);
+            List<Future<Entry>> futures = new ArrayList<>(order.size());
+            for (Key key : order) {
+                futures.add(executor.submit(() -> signWithPermit(key, expiration, signer)));
+            }
+            for (int i = 0; i < order.size(); i++) {
+                Future<Entry> future = futures.get(i);
+                tryPut(signed, order.get(i), () -> await(future));
+            }
+        }
+
+        log.debugf("Signed %d/%d URLs in %d ms", signed.size(), missing.size(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return signed;
+    }
+
+    private Entry signWithPermit(Key key, Duration expiration, Function<String, String> signer)
+            throws InterruptedException {
+        signingPermits.acquire();
+        try {
+            return sign(key, expiration, signer);
+        } finally {
+            signingPermits.release();
+        }
+    }
+
+    private Entry sign(Key key, Duration expiration, Function<String, String> signer) {
+        Instant signedAt = Instant.now();
+        String url = signer.apply(key.storagePath());
+        long reuseMillis = (long) (expiration.toMillis() * Math.clamp(reuseFraction, 0.0, 1.0));
+        return new Entry(url, signedAt.plusMillis(reuseMillis));
+    }
+
+    private void tryPut(Map<Key, Entry> target, Key key, SignTask task) {
+        try {
+            target.put(key, task.run());
+        } catch (Exception e) {
+            log.warnf("Failed to sign URL for %s: %s", key.storagePath(), e.getMessage());
+        }
+    }
+
+    private static Entry await(Future<Entry> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private static long remainingNanos(Entry entry) {
+        return Math.max(0, Duration.between(Instant.now(), entry.reuseUntil()).toNanos());
+    }
+
+    @FunctionalInterface
+    private interface SignTask {
+        Entry run() throws Exception;
+    }
+}
@@ -1,5 +1,6 @@
 package com.fortytwo.demeter.fotos.storage;
 
+import java.io.InputStream;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,20 @@ public interface StorageService {
      */
     String upload(byte[] data, String path, String contentType);
 
+    /**
+     * Upload a stream to storage without buffering the whole file in memory.
+     *
+     * <p>Bytes are copied in small chunks straight to the backend, so heap use
+     * does not depend on the file size.
+     *
+     * @param data          Stream to read from (not closed by this method)
+     * @param contentLength Expected number of bytes; the upload fails if the stream differs
+     * @param path          Storage path (e.g., "sessions/{sessionId}/images/{imageId}.jpg")
+     * @param contentType   MIME type (e.g., "image/jpeg")
+     * @return Storage URL or path that can be used to retrieve the file
+     */
+    String upload(InputStream data, long contentLength, String path, String contentType);
+
     /**
      * Generate a signed URL for reading a file.
      *
@@ -48,7 +63,8 @@ public interface StorageService {
      * Generate signed URLs for multiple files in batch.
      *
      * <p>Default implementation calls {@link #generateReadUrl} sequentially.
-     * Implementations may override for parallel processing.
+     * The bundled implementations override it to reuse cached URLs and sign
+     * misses in parallel via {@link SignedUrlCache}.
      *
      * @param storagePaths List of paths returned from upload()
      * @param expiration   How long the URLs should be valid
@@ -82,9 +98,50 @@ public interface StorageService {
      */
     String generateUploadUrl(String path, String contentType, Duration expiration);
 
+    /**
+     * Resolve the storage path for a relative object path, i.e. the value
+     * {@link #upload} returns for it. Files uploaded through a URL from
+     * {@link #generateUploadUrl} end up at this path as well.
+     *
+     * @param path Relative path (e.g., "sessions/{sessionId}/images/{imageId}.jpg")
+     * @return Storage URL or path, as stored on image records
+     */
+    String resolveStoragePath(String path);
+
+    /**
+     * Get the size of a stored file without downloading it.
+     *
+     * @param storagePath Path returned from upload() or resolveStoragePath()
+     * @return Size in bytes, or empty if not found
+     */
+    Optional<Long> getSize(String storagePath);
+
+    /**
+     * Get a stored file's size, content type, entity tag and modification
+     * time without reading it.
+     *
+     * @param storagePath Path returned from upload()
+     * @return Metadata, or empty if not found
+     */
+    Optional<StoredObject.Metadata> getMetadata(String storagePath);
+
+    /**
+     * Open a stored file for streaming, without loading it into memory.
+     *
+     * <p>Unlike {@link #download}, storage errors are thrown rather than
+     * reported as a missing file.
+     *
+     * @param storagePath Path returned from upload()
+     * @return Open file, to be closed by the caller, or empty if not found
+     * @throws RuntimeException if the file cannot be opened for another reason
+     */
+    Optional<StoredObject> openRead(String storagePath);
+
     /**
      * Download file data from storage.
      *
+     * <p>Holds the whole file in memory; prefer {@link #openRead} for large files.
+     *
      * @param storagePath Path returned from upload()
      * @return File bytes, or empty if not found
      */
@@ -98,6 +155,18 @@ public interface StorageService {
      */
     boolean delete(String storagePath);
 
+    /**
+     * Copy a file to its cold-storage key (under
+     * {@code demeter.storage.archive.prefix}), for originals that are kept
+     * but rarely read. The source is left in place, to be deleted once no
+     * record refers to it; a file that is already archived is not copied.
+     *
+     * @param storagePath Path returned from upload()
+     * @return Storage path of the archived copy, or empty if not found
+     * @throws RuntimeException if the copy fails for another reason
+     */
+    Optional<String> copyToArchive(String storagePath);
+
     /**
      * Check if a file exists in storage.
      *
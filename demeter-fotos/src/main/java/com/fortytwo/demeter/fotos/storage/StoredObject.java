@@ -0,0 +1,42 @@
+package com.fortytwo.demeter.fotos.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Instant;
+
+/**
+ * A stored file opened for streaming by {@link StorageService#openRead}.
+ *
+ * <p>Bytes are read from the backend as the channel is consumed, so heap use
+ * does not depend on the file size. The caller must close it.
+ *
+ * @param metadata File metadata, read when the file was opened
+ * @param channel  File contents from the first byte
+ */
+public record StoredObject(Metadata metadata, ReadableByteChannel channel) implements Closeable {
+
+    /**
+     * What HTTP caching needs to know about a stored file.
+     *
+     * @param size         Size in bytes
+     * @param contentType  MIME type, or null if unknown
+     * @param etag         Entity tag, quoted as sent in an {@code ETag} header
+     * @param lastModified Last modification time
+     */
+    public record Metadata(long size, String contentType, String etag, Instant lastModified) {}
+
+    /**
+     * The contents as a stream (closing it closes the channel).
+     */
+    public InputStream inputStream() {
+        return Channels.newInputStream(channel);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
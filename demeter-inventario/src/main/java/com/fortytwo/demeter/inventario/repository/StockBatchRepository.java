@@ -6,6 +6,8 @@ import com.fortytwo.demeter.productos.model.ProductState;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import io.quarkus.panache.common.Parameters;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.Session;
+import java.sql.PreparedStatement;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -29,6 +31,21 @@ public class StockBatchRepository implements PanacheRepositoryBase<StockBatch, U
         return find("status", status).list();
     }
 
+    /**
+     * Serialize stock cycle changes of a storage location: blocks until no
+     * other transaction holds the location's advisory lock, and keeps it
+     * until the current transaction ends.
+     */
+    public void lockStorageLocation(UUID storageLocationId) {
+        getEntityManager().unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT pg_advisory_xact_lock(hashtextextended(?, 0))")) {
+                stmt.setString(1, "stock-cycle:" + storageLocationId);
+                stmt.execute();
+            }
+        });
+    }
+
     /**
      * Find the active batch for a specific location + product + state + size + packaging combination.
      * Active batches have cycleEndDate = null.